@@ -0,0 +1,241 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.loadgen;
+
+import tech.kwik.qpack.HeaderList;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline load generator: runs a number of simulated connections on a number of threads, each connection encoding and
+ * decoding a synthesized workload with its own encoder and decoder pair, and reports throughput, compression,
+ * latency and allocation rate. No network is involved.
+ */
+public class LoadGenerator {
+
+    private final int connections;
+    private final int requestsPerConnection;
+    private final int threads;
+    private final int tableCapacity;
+    private final Workload workload;
+    private final long seed;
+
+    public LoadGenerator(int connections, int requestsPerConnection, int threads, int tableCapacity, Workload workload, long seed) {
+        this.connections = connections;
+        this.requestsPerConnection = requestsPerConnection;
+        this.threads = threads;
+        this.tableCapacity = tableCapacity;
+        this.workload = workload;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = 1000;
+        int requests = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int tableCapacity = 4096;
+        Workload.Range headerCount = new Workload.Range(5, 15);
+        Workload.Range valueLength = new Workload.Range(4, 40);
+        double repeatRate = 0.8;
+        Workload.Range cookieSize = new Workload.Range(0, 400);
+        long seed = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-h") || option.equals("--help")) {
+                usage();
+                return;
+            }
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for option " + option);
+                usage();
+                System.exit(1);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--connections":
+                    connections = Integer.parseInt(value);
+                    break;
+                case "--requests":
+                    requests = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--table-capacity":
+                    tableCapacity = Integer.parseInt(value);
+                    break;
+                case "--header-count":
+                    headerCount = Workload.Range.parse(value);
+                    break;
+                case "--value-length":
+                    valueLength = Workload.Range.parse(value);
+                    break;
+                case "--repeat-rate":
+                    repeatRate = Double.parseDouble(value);
+                    break;
+                case "--cookie-size":
+                    cookieSize = Workload.Range.parse(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + option);
+                    usage();
+                    System.exit(1);
+            }
+        }
+
+        Workload workload = new Workload(headerCount, valueLength, repeatRate, cookieSize);
+        System.out.println(connections + " connections x " + requests + " requests on " + threads + " threads, table capacity "
+                + tableCapacity + ", " + workload);
+        new LoadGenerator(connections, requests, threads, tableCapacity, workload, seed).run().print();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: loadgen [options]");
+        System.err.println("  --connections <n>      number of simulated connections (default 1000)");
+        System.err.println("  --requests <n>         requests per connection (default 100)");
+        System.err.println("  --threads <n>          number of threads (default: number of processors)");
+        System.err.println("  --table-capacity <n>   dynamic table capacity (default 4096)");
+        System.err.println("  --header-count <range> number of non-pseudo header fields per request (default 5:15)");
+        System.err.println("  --value-length <range> length of field values (default 4:40)");
+        System.err.println("  --repeat-rate <r>      probability a field value repeats on the same connection (default 0.8)");
+        System.err.println("  --cookie-size <range>  cookie length, 0 for no cookie (default 0:400)");
+        System.err.println("  --seed <n>             random seed (default 1)");
+        System.err.println("A range is given as min:max or as a single value.");
+    }
+
+    public Result run() throws Exception {
+        AtomicInteger nextConnection = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> runConnections(nextConnection)));
+            }
+            Result total = new Result();
+            for (Future<Result> future : futures) {
+                total.add(future.get());
+            }
+            total.elapsedNanos = System.nanoTime() - start;
+            return total;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result runConnections(AtomicInteger nextConnection) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedAtStart = allocatedBytes(threadMXBean, threadId);
+
+        Result result = new Result();
+        HeaderList request = new HeaderList();
+        int connection;
+        while ((connection = nextConnection.getAndIncrement()) < connections) {
+            Workload.RequestGenerator generator = workload.newConnection(new Random(seed + connection));
+            SimulatedConnection simulatedConnection = new SimulatedConnection(tableCapacity);
+            for (int i = 0; i < requestsPerConnection; i++) {
+                generator.nextRequest(request);
+                long start = System.nanoTime();
+                int bytes = simulatedConnection.exchange(request);
+                result.record(System.nanoTime() - start, request.size(), bytes);
+            }
+        }
+
+        long allocatedAtEnd = allocatedBytes(threadMXBean, threadId);
+        result.allocatedBytes = allocatedAtStart >= 0 && allocatedAtEnd >= 0? allocatedAtEnd - allocatedAtStart: -1;
+        return result;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadMXBean, long threadId) {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId);
+        }
+        return -1;
+    }
+
+    public static class Result {
+
+        private long[] latencies = new long[1024];
+        private int requests;
+        private long headers;
+        private long bytes;
+        private long allocatedBytes;
+        private long elapsedNanos;
+
+        void record(long latencyNanos, int headerCount, int byteCount) {
+            if (requests == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[requests++] = latencyNanos;
+            headers += headerCount;
+            bytes += byteCount;
+        }
+
+        void add(Result other) {
+            if (requests + other.requests > latencies.length) {
+                latencies = Arrays.copyOf(latencies, requests + other.requests);
+            }
+            System.arraycopy(other.latencies, 0, latencies, requests, other.requests);
+            requests += other.requests;
+            headers += other.headers;
+            bytes += other.bytes;
+            allocatedBytes = allocatedBytes < 0 || other.allocatedBytes < 0? -1: allocatedBytes + other.allocatedBytes;
+        }
+
+        long percentile(double percentile) {
+            if (requests == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, requests);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(requests - 1, Math.ceil(percentile / 100 * requests) - 1)];
+        }
+
+        void print() {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%d requests, %d headers in %.2f s%n", requests, headers, seconds);
+            System.out.printf("throughput: %.0f headers/s, %.0f requests/s%n", headers / seconds, requests / seconds);
+            System.out.printf("compression: %.2f bytes/header%n", headers > 0? (double) bytes / headers: 0.0);
+            System.out.printf("latency per request (encode + decode): p50 %.1f us, p99 %.1f us%n",
+                    percentile(50) / 1e3, percentile(99) / 1e3);
+            if (allocatedBytes >= 0) {
+                System.out.printf("allocation: %.1f MB/s, %d bytes/request%n",
+                        allocatedBytes / seconds / 1e6, requests > 0? allocatedBytes / requests: 0);
+            }
+            else {
+                System.out.println("allocation: not available on this JVM");
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.loadgen;
+
+import tech.kwik.qpack.Encoder;
+import tech.kwik.qpack.HeaderList;
+import tech.kwik.qpack.impl.DecoderImpl;
+import tech.kwik.qpack.impl.EncoderImpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An encoder and decoder pair connected by in-memory encoder and decoder streams. Each request is encoded on its
+ * own (client-initiated bidirectional) stream; encoder stream data is delivered to the decoder before the header block,
+ * and the decoder stream carries an Insert Count Increment for new inserts and a Section Acknowledgment for every header
+ * block that references the dynamic table.
+ */
+public class SimulatedConnection {
+
+    private final EncoderImpl encoder;
+    private final DecoderImpl decoder;
+    private final HeaderList decoded;
+    private final ByteBuffer decoderStream;
+    private long nextStreamId;
+    private long acknowledgedInsertCount;
+
+    public SimulatedConnection(int tableCapacity) {
+        encoder = new EncoderImpl(tableCapacity, 0, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK, EncoderImpl.DEFAULT_FLUSH_THRESHOLD);
+        decoder = new DecoderImpl(tableCapacity);
+        decoded = new HeaderList();
+        decoderStream = ByteBuffer.allocate(16);
+    }
+
+    /**
+     * Encodes the given request and decodes it at the other end.
+     * @return  the number of bytes sent, i.e. the header block plus the encoder stream data
+     */
+    public int exchange(HeaderList request) throws IOException {
+        long streamId = nextStreamId;
+        nextStreamId += 4;
+
+        ByteBuffer headerBlock = encoder.compressHeaders(streamId, request);
+        int bytesSent = headerBlock.limit();
+        ByteBuffer encoderStreamData;
+        while ((encoderStreamData = encoder.pollEncoderStreamData()) != null) {
+            bytesSent += encoderStreamData.remaining();
+            decoder.decodeEncoderStream(encoderStreamData);
+        }
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-new-table-entries
+        // "After receiving new table entries on the encoder stream, the decoder chooses when to emit Insert Count
+        //  Increment instructions"
+        if (decoder.insertCount() > acknowledgedInsertCount) {
+            sendInstruction(0x00, 6, decoder.insertCount() - acknowledgedInsertCount);
+            acknowledgedInsertCount = decoder.insertCount();
+        }
+
+        headerBlock.rewind();
+        boolean referencesDynamicTable = headerBlock.get(0) != 0;
+        decoded.clear();
+        decoder.decodeHeaderBlock(headerBlock, decoded);
+        if (decoded.size() != request.size()) {
+            throw new IllegalStateException("decoded " + decoded.size() + " fields, expected " + request.size());
+        }
+
+        if (referencesDynamicTable) {
+            sendSectionAcknowledgment(streamId);
+        }
+        return bytesSent;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-section-acknowledgment
+    // "After processing an encoded field section whose declared Required Insert Count is not zero, the decoder emits a
+    //  Section Acknowledgment instruction."
+    private void sendSectionAcknowledgment(long streamId) {
+        sendInstruction(0x80, 7, streamId);
+    }
+
+    private void sendInstruction(int pattern, int prefixLength, long value) {
+        int maxPrefix = (1 << prefixLength) - 1;
+        decoderStream.clear();
+        if (value < maxPrefix) {
+            decoderStream.put((byte) (pattern | value));
+        }
+        else {
+            decoderStream.put((byte) (pattern | maxPrefix));
+            long remainder = value - maxPrefix;
+            while (remainder >= 0x80) {
+                decoderStream.put((byte) (0x80 | (remainder & 0x7f)));
+                remainder >>>= 7;
+            }
+            decoderStream.put((byte) remainder);
+        }
+        decoderStream.flip();
+        encoder.decodeDecoderStream(decoderStream);
+    }
+}
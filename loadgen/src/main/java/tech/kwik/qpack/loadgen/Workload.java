@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.loadgen;
+
+import tech.kwik.qpack.HeaderList;
+
+import java.util.Random;
+
+/**
+ * Synthesizes request header lists. Each request has the usual pseudo-headers, a number of other fields and
+ * (optionally) a cookie. Per connection, a field value is repeated from the previous request with the configured
+ * probability, so the repeat rate determines how effective the dynamic table can be.
+ */
+public class Workload {
+
+    private static final String VALUE_CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_.";
+    private static final String[] COMMON_NAMES = {
+            "accept", "accept-encoding", "accept-language", "user-agent", "referer", "cache-control",
+            "if-none-match", "if-modified-since", "origin", "x-request-id", "x-forwarded-for", "authorization"
+    };
+
+    private final Range headerCount;
+    private final Range valueLength;
+    private final double repeatRate;
+    private final Range cookieSize;
+
+    public Workload(Range headerCount, Range valueLength, double repeatRate, Range cookieSize) {
+        this.headerCount = headerCount;
+        this.valueLength = valueLength;
+        this.repeatRate = repeatRate;
+        this.cookieSize = cookieSize;
+    }
+
+    /**
+     * Returns the generator for the requests of one connection.
+     */
+    public RequestGenerator newConnection(Random random) {
+        return new RequestGenerator(random);
+    }
+
+    @Override
+    public String toString() {
+        return "header count " + headerCount + ", value length " + valueLength + ", repeat rate " + repeatRate
+                + ", cookie size " + cookieSize;
+    }
+
+    public class RequestGenerator {
+
+        private final Random random;
+        private final String authority;
+        private String[] previousValues = new String[0];
+        private String previousCookie;
+
+        private RequestGenerator(Random random) {
+            this.random = random;
+            authority = "www." + randomString(8) + ".example.com";
+        }
+
+        /**
+         * Fills the given list with the fields of the next request.
+         */
+        public void nextRequest(HeaderList headers) {
+            headers.clear();
+            headers.add(":method", "GET");
+            headers.add(":scheme", "https");
+            headers.add(":authority", authority);
+            headers.add(":path", "/" + randomString(valueLength.next(random)));
+
+            int count = headerCount.next(random);
+            if (previousValues.length < count) {
+                String[] values = new String[count];
+                System.arraycopy(previousValues, 0, values, 0, previousValues.length);
+                previousValues = values;
+            }
+            for (int i = 0; i < count; i++) {
+                if (previousValues[i] == null || random.nextDouble() >= repeatRate) {
+                    previousValues[i] = randomString(valueLength.next(random));
+                }
+                headers.add(fieldName(i), previousValues[i]);
+            }
+
+            int cookieLength = cookieSize.next(random);
+            if (cookieLength > 0) {
+                if (previousCookie == null || random.nextDouble() >= repeatRate) {
+                    previousCookie = randomString(cookieLength);
+                }
+                headers.add("cookie", previousCookie);
+            }
+        }
+
+        private String fieldName(int index) {
+            return index < COMMON_NAMES.length? COMMON_NAMES[index]: "x-custom-" + index;
+        }
+
+        private String randomString(int length) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = VALUE_CHARACTERS.charAt(random.nextInt(VALUE_CHARACTERS.length()));
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Uniform distribution of integers between min and max (inclusive).
+     */
+    public static class Range {
+
+        private final int min;
+        private final int max;
+
+        public Range(int min, int max) {
+            if (min < 0 || max < min) {
+                throw new IllegalArgumentException("invalid range " + min + ":" + max);
+            }
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Parses a range given as "min:max" or as a single value.
+         */
+        public static Range parse(String value) {
+            int separator = value.indexOf(':');
+            if (separator < 0) {
+                int fixed = Integer.parseInt(value);
+                return new Range(fixed, fixed);
+            }
+            return new Range(Integer.parseInt(value.substring(0, separator)), Integer.parseInt(value.substring(separator + 1)));
+        }
+
+        int next(Random random) {
+            return min + random.nextInt(max - min + 1);
+        }
+
+        @Override
+        public String toString() {
+            return min == max? Integer.toString(min): min + ":" + max;
+        }
+    }
+}
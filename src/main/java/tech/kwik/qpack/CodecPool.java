@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+/**
+ * Bounded, thread-safe pool of encoders or decoders with identical configuration, to avoid allocating (and collecting)
+ * the codec state for each connection. Created by the builders' buildPool() method.
+ * @param <T>  Encoder or Decoder
+ */
+public interface CodecPool<T> {
+
+    /**
+     * Returns an idle codec from the pool, or a newly built one if the pool is empty. The codec is in the same state
+     * as a newly built one.
+     * @return
+     */
+    T acquire();
+
+    /**
+     * Resets the given codec and returns it to the pool, or discards it when the pool is full. The codec must not be
+     * used after it is released.
+     * @param codec
+     */
+    void release(T codec);
+
+    /**
+     * Returns the number of idle codecs in the pool.
+     * @return
+     */
+    int idleCount();
+}
@@ -18,26 +18,220 @@
  */
 package tech.kwik.qpack;
 
+import tech.kwik.qpack.impl.CodecPoolImpl;
+import tech.kwik.qpack.impl.DecoderConfig;
 import tech.kwik.qpack.impl.DecoderImpl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * QPACK decoder for one connection. Encoder stream data must be processed by one thread at a time, but header blocks
+ * of different streams can be decoded concurrently (also while encoder stream data is processed), each with its own
+ * parser (see createHeaderBlockParser(), decodeStream() and decodeHeaderBlock()); the dynamic table is read without
+ * locking. reset() and close() must not be called concurrently with any other method, and a trace (if set) must only be
+ * used when decoding is done by one thread.
+ */
 public interface Decoder {
 
     List<Map.Entry<String, String>> decodeStream(InputStream inputStream) throws IOException;
 
+    /**
+     * Decodes a complete header block, adding the fields to the given list. Reusing the list (after clearing it)
+     * avoids allocating a collection and entry objects for each header block. The decoder keeps one parser for this
+     * method; a call that runs concurrently with another decodeHeaderBlock() call creates a parser of its own.
+     * @param headerBlock
+     * @param headers
+     * @throws IOException  when the header block is incomplete
+     * @throws IllegalStateException  when the header block references dynamic table entries not yet received
+     */
+    void decodeHeaderBlock(ByteBuffer headerBlock, HeaderList headers) throws IOException;
+
+    /**
+     * Creates a parser for one header block, that can be fed with the data of the header block in arbitrary chunks.
+     * @return
+     */
+    HeaderBlockParser createHeaderBlockParser();
+
+    /**
+     * Creates a parser for one header block as above, that validates the field section as specified by the given
+     * field validation instead of the validation of the decoder; e.g. to decode a trailer section with TRAILERS.
+     * @param fieldValidation
+     * @return
+     */
+    HeaderBlockParser createHeaderBlockParser(FieldValidation fieldValidation);
+
+    /**
+     * Processes (a chunk of) encoder stream data; instructions may be split over chunks arbitrarily. Each instruction
+     * is applied to the dynamic table as soon as it is complete.
+     * @param data
+     */
+    void decodeEncoderStream(ByteBuffer data);
+
+    /**
+     * Clears all per-connection state (dynamic table, partially received encoder stream instruction), while keeping
+     * allocated buffers, so the decoder can be reused for a new connection. Header block parsers created before the
+     * reset must not be used anymore. The table capacity reserved with the memory governor (if any) is released, and
+     * reserved again when the decoder is used for the next connection.
+     */
+    void reset();
+
+    /**
+     * Releases the table capacity reserved with the memory governor (if any); the decoder must not be used afterwards.
+     */
+    void close();
+
+    /**
+     * Returns the maximum dynamic table capacity the decoder accepts, which is the value to send in
+     * SETTINGS_QPACK_MAX_TABLE_CAPACITY. With a memory governor, this is the capacity it granted.
+     */
+    int maxTableCapacity();
+
+    /**
+     * Returns the memory currently held by this instance; computed from internal counters, so cheap enough to be
+     * called regularly (e.g. for aggregating over all connections).
+     * @return
+     */
+    MemoryFootprint memoryFootprint();
+
+    /**
+     * Determines whether decoded field sections are validated as HTTP/3 requests, responses or trailers (RFC 9114,
+     * Section 4.2 and 4.3). A malformed field section is rejected with an HttpMessageErrorException as soon as the offending
+     * field line is parsed, so the remainder of the header block is not decoded.
+     */
+    enum FieldValidation {
+        /**
+         * No validation.
+         */
+        NONE,
+        /**
+         * Validate field sections as request headers: valid field names and values, no
+         * connection-specific fields, request pseudo-header fields only, before regular fields and not duplicated,
+         * and :method, :scheme and :path present (or, for CONNECT, only :authority).
+         */
+        REQUEST,
+        /**
+         * Validate field sections as response headers: like REQUEST, but with :status as the only (and required)
+         * pseudo-header field.
+         */
+        RESPONSE,
+        /**
+         * Validate field sections as trailers: like REQUEST, but without any pseudo-header fields. As a decoder decodes
+         * the header and trailer sections of a connection, use createHeaderBlockParser(FieldValidation) for the latter.
+         */
+        TRAILERS
+    }
+
     interface Builder {
+        /**
+         * Sets the maximum dynamic table capacity, as sent to the peer in SETTINGS_QPACK_MAX_TABLE_CAPACITY.
+         * Default is 4096.
+         */
+        Builder maxTableCapacity(int capacity);
+
+        /**
+         * Sets the validation of decoded field sections. Default is NONE.
+         */
+        Builder fieldValidation(FieldValidation fieldValidation);
+
+        /**
+         * Sets the trace the decoder records its events in. As a trace is per connection, it is not used for decoders
+         * created by a pool (see buildPool()).
+         */
+        Builder trace(QpackTrace trace);
+
+        /**
+         * Sets whether cookie fields (crumbs, see RFC 9114, Section 4.2.1) are joined into one cookie field, which is
+         * added after the other fields of the field section. Default is false.
+         */
+        Builder joinCookies(boolean join);
+
+        /**
+         * Sets the number of decoded literals (names and values) that are cached per connection, so literals that the
+         * peer repeats in header blocks (typical for peers that do not use the dynamic table) are decoded only once and
+         * yield the same String instance. Default is 0, which means no literals are cached.
+         */
+        Builder literalCacheSize(int literals);
+
+        /**
+         * Sets the memory governor the decoder reserves its maximum table capacity with; the decoder may get less
+         * capacity than it asks for (see maxTableCapacity()). The reservation is released when the decoder is reset or
+         * closed; a reset decoder reserves again when it is used next, e.g. when it is taken from a pool.
+         */
+        Builder memoryGovernor(MemoryGovernor governor);
+
         Decoder build();
+
+        /**
+         * Creates a pool of decoders that all have the configuration of this builder.
+         * @param maxIdle  the maximum number of idle decoders kept in the pool
+         * @return
+         */
+        CodecPool<Decoder> buildPool(int maxIdle);
     }
 
     static Builder newBuilder() {
         return new Builder() {
+            private int maxTableCapacity = DecoderImpl.DEFAULT_MAX_TABLE_CAPACITY;
+            private FieldValidation fieldValidation = FieldValidation.NONE;
+            private QpackTrace trace;
+            private boolean joinCookies;
+            private int literalCacheSize;
+            private MemoryGovernor memoryGovernor;
+
+            @Override
+            public Builder maxTableCapacity(int capacity) {
+                maxTableCapacity = capacity;
+                return this;
+            }
+
+            @Override
+            public Builder fieldValidation(FieldValidation fieldValidation) {
+                this.fieldValidation = fieldValidation;
+                return this;
+            }
+
+            @Override
+            public Builder trace(QpackTrace trace) {
+                this.trace = trace;
+                return this;
+            }
+
+            @Override
+            public Builder joinCookies(boolean join) {
+                joinCookies = join;
+                return this;
+            }
+
+            @Override
+            public Builder literalCacheSize(int literals) {
+                literalCacheSize = literals;
+                return this;
+            }
+
+            @Override
+            public Builder memoryGovernor(MemoryGovernor governor) {
+                memoryGovernor = governor;
+                return this;
+            }
+
             @Override
             public Decoder build() {
-                return new DecoderImpl();
+                return new DecoderImpl(config(), trace != null? trace.impl(): null);
+            }
+
+            private DecoderConfig config() {
+                return DecoderConfig.create(maxTableCapacity, fieldValidation, joinCookies, literalCacheSize,
+                        memoryGovernor != null? memoryGovernor.impl(): null);
+            }
+
+            @Override
+            public CodecPool<Decoder> buildPool(int maxIdle) {
+                DecoderConfig config = config();
+                return new CodecPoolImpl<>(maxIdle, () -> new DecoderImpl(config, null), Decoder::reset, Decoder::close);
             }
         };
     }
@@ -18,6 +18,8 @@
  */
 package tech.kwik.qpack;
 
+import tech.kwik.qpack.impl.CodecPoolImpl;
+import tech.kwik.qpack.impl.EncoderConfig;
 import tech.kwik.qpack.impl.EncoderImpl;
 
 import java.nio.ByteBuffer;
@@ -26,17 +28,333 @@ import java.util.Map;
 
 public interface Encoder {
 
-    ByteBuffer compressHeaders(List<Map.Entry<String, String>> headers);
+    /**
+     * Compresses the given fields. Names and values can be any CharSequence; names that are passed as the same String
+     * instance for many fields (e.g. constants) are converted to bytes and looked up in the static table only once.
+     * @param headers
+     * @return
+     */
+    ByteBuffer compressHeaders(List<? extends Map.Entry<? extends CharSequence, ? extends CharSequence>> headers);
+
+    /**
+     * Compresses the fields of the given list; fields with the NEVER_INDEXED flag are never added to the dynamic table
+     * and are encoded with the N bit set.
+     * @param headers
+     * @return
+     */
+    ByteBuffer compressHeaders(HeaderList headers);
+
+    /**
+     * Compresses the headers for the given (request) stream, tracking the references to the dynamic table so that the
+     * encoder only blocks the stream when allowed, and only evicts entries that are no longer referenced.
+     * @param streamId
+     * @param headers
+     * @return
+     */
+    ByteBuffer compressHeaders(long streamId, List<? extends Map.Entry<? extends CharSequence, ? extends CharSequence>> headers);
+
+    ByteBuffer compressHeaders(long streamId, HeaderList headers);
+
+    /**
+     * Compresses the headers for the given stream like compressHeaders(long, HeaderList), but returns the header block
+     * as a sequence of buffers, suitable for a gathering write. Large values that are added to the list by reference
+     * (see HeaderList.addReference()) and that are written as plain (not Huffman encoded) literals, are not copied:
+     * the output references them (as slices of the buffers passed in). All other bytes are packed in one buffer, of
+     * which the output holds slices. The returned buffers are ready to be written (i.e. positioned at the start).
+     * @param streamId
+     * @param headers
+     * @return
+     */
+    ByteBuffer[] compressHeadersGathering(long streamId, HeaderList headers);
+
+    /**
+     * Processes (a chunk of) data received on the peer's decoder stream: Section Acknowledgment, Stream Cancellation
+     * and Insert Count Increment instructions. Instructions may be split over chunks arbitrarily.
+     * @param data
+     */
+    void decodeDecoderStream(ByteBuffer data);
+
+    /**
+     * Makes all buffered encoder stream instructions available through pollEncoderStreamData().
+     */
+    void flushEncoderStream();
+
+    /**
+     * Returns the next buffer with (flushed) encoder stream data that must be sent on the encoder stream, or null if
+     * there is none.
+     * @return
+     */
+    ByteBuffer pollEncoderStreamData();
+
+    /**
+     * Clears all per-connection state (dynamic table, buffered encoder stream data, acknowledgement tracking), while
+     * keeping allocated buffers, so the encoder can be reused for a new connection. The table capacity reserved with the
+     * memory governor (if any) is released, and reserved again when the encoder is used for the next connection.
+     */
+    void reset();
+
+    /**
+     * Releases the table capacity reserved with the memory governor (if any); the encoder must not be used afterwards.
+     */
+    void close();
+
+    /**
+     * Returns the memory currently held by this instance; computed from internal counters, so cheap enough to be
+     * called regularly (e.g. for aggregating over all connections).
+     * @return
+     */
+    MemoryFootprint memoryFootprint();
+
+    /**
+     * Determines when encoder stream instructions, that are buffered to coalesce them, are flushed. With any policy,
+     * instructions can be flushed explicitly by calling flushEncoderStream().
+     */
+    enum FlushPolicy {
+        /**
+         * Only flush when flushEncoderStream() is called.
+         */
+        EXPLICIT,
+        /**
+         * Flush when the number of buffered bytes reaches the flush threshold.
+         */
+        SIZE_THRESHOLD,
+        /**
+         * Flush before a header block is returned that references entries whose insert instructions are not yet
+         * flushed, or when the number of buffered bytes reaches the flush threshold.
+         */
+        BEFORE_REFERENCING_BLOCK
+    }
+
+    /**
+     * Determines whether string literals are Huffman encoded.
+     */
+    enum HuffmanPolicy {
+        /**
+         * Never Huffman encode; saves CPU at the cost of larger header blocks.
+         */
+        NEVER,
+        /**
+         * Huffman encode a literal when that makes it shorter.
+         */
+        WHEN_SMALLER
+    }
+
+    /**
+     * Presets that trade compression for CPU. Each setting of a profile can be overridden with the corresponding
+     * builder method (tableCapacity(), blockedStreams() and huffmanPolicy()); the limits set by the peer are never
+     * exceeded.
+     */
+    enum Profile {
+        /**
+         * Static table only and no Huffman encoding, for CPU-bound hops where bandwidth is cheap.
+         */
+        FASTEST,
+        /**
+         * Huffman encoding when smaller, and a dynamic table of (at most) 4096 bytes that only gets fields that are
+         * repeated; never blocks streams.
+         */
+        BALANCED,
+        /**
+         * Huffman encoding when smaller, inserts every field into the dynamic table (using all capacity and blocked
+         * streams the peer allows) and references names in the dynamic table, for bandwidth-constrained links.
+         */
+        SMALLEST
+    }
 
     interface Builder {
+        /**
+         * Sets the maximum dynamic table capacity, as received from the peer in SETTINGS_QPACK_MAX_TABLE_CAPACITY.
+         * Default is 0, which means only the static table is used.
+         */
+        Builder maxTableCapacity(int capacity);
+
+        /**
+         * Sets the maximum number of streams that can be blocked, as received from the peer in
+         * SETTINGS_QPACK_BLOCKED_STREAMS. Default is 0, which means only acknowledged entries are referenced.
+         */
+        Builder maxBlockedStreams(int streams);
+
+        /**
+         * Selects a profile; without profile, the encoder uses all table capacity and blocked streams the peer allows,
+         * inserts every field and does not use Huffman encoding.
+         */
+        Builder profile(Profile profile);
+
+        /**
+         * Sets the capacity of the dynamic table the encoder uses (at most the maximum table capacity), overriding
+         * the profile.
+         */
+        Builder tableCapacity(int capacity);
+
+        /**
+         * Sets the number of streams the encoder may block (at most the maximum number of blocked streams), overriding
+         * the profile.
+         */
+        Builder blockedStreams(int streams);
+
+        /**
+         * Sets the Huffman policy, overriding the profile.
+         */
+        Builder huffmanPolicy(HuffmanPolicy huffmanPolicy);
+
+        /**
+         * Sets whether cookie fields are split into crumbs (separate cookie fields per cookie-pair), so that crumbs that
+         * do not change can be indexed in the dynamic table. Only has effect when a dynamic table is used. Default is
+         * false; the peer's decoder must join the crumbs again (see RFC 9114, Section 4.2.1).
+         */
+        Builder splitCookies(boolean split);
+
+        /**
+         * Sets the cache of Huffman encoded literals, which is typically shared by the encoders of all connections.
+         * Only has effect when literals are Huffman encoded (see huffmanPolicy()).
+         */
+        Builder huffmanCache(HuffmanCache cache);
+
+        /**
+         * Sets the memory governor the encoder reserves its table capacity with; the encoder may get less capacity than
+         * configured, and reduces its capacity when the governor's budget is under pressure. A reset encoder reserves
+         * its configured capacity again. Encoders should be closed when they are no longer used.
+         */
+        Builder memoryGovernor(MemoryGovernor governor);
+
+        Builder encoderStreamFlushPolicy(FlushPolicy flushPolicy);
+
+        Builder encoderStreamFlushThreshold(int bytes);
+
+        /**
+         * Sets the dictionary the dynamic table is primed with at connection start; the insert instructions are
+         * flushed (unless the flush policy is EXPLICIT) before the first header block is encoded, so they can be sent
+         * right away. The first header blocks of each connection are used to train the dictionary, if it is a
+         * learning dictionary. Only has effect when the maximum table capacity is not 0.
+         */
+        Builder warmStart(HeaderDictionary dictionary);
+
+        /**
+         * Sets the trace the encoder records its events in. As a trace is per connection, it is not used for encoders
+         * created by a pool (see buildPool()).
+         */
+        Builder trace(QpackTrace trace);
+
         Encoder build();
+
+        /**
+         * Creates a pool of encoders that all have the configuration of this builder.
+         * @param maxIdle  the maximum number of idle encoders kept in the pool
+         * @return
+         */
+        CodecPool<Encoder> buildPool(int maxIdle);
     }
 
     static Builder newBuilder() {
         return new Builder() {
+            private int maxTableCapacity = 0;
+            private int maxBlockedStreams = 0;
+            private Profile profile;
+            private int tableCapacity = -1;
+            private int blockedStreams = -1;
+            private HuffmanPolicy huffmanPolicy;
+            private boolean splitCookies;
+            private HuffmanCache huffmanCache;
+            private MemoryGovernor memoryGovernor;
+            private FlushPolicy flushPolicy = FlushPolicy.BEFORE_REFERENCING_BLOCK;
+            private int flushThreshold = EncoderImpl.DEFAULT_FLUSH_THRESHOLD;
+            private HeaderDictionary dictionary;
+            private QpackTrace trace;
+
+            @Override
+            public Builder maxTableCapacity(int capacity) {
+                maxTableCapacity = capacity;
+                return this;
+            }
+
+            @Override
+            public Builder maxBlockedStreams(int streams) {
+                maxBlockedStreams = streams;
+                return this;
+            }
+
+            @Override
+            public Builder profile(Profile profile) {
+                this.profile = profile;
+                return this;
+            }
+
+            @Override
+            public Builder tableCapacity(int capacity) {
+                tableCapacity = capacity;
+                return this;
+            }
+
+            @Override
+            public Builder blockedStreams(int streams) {
+                blockedStreams = streams;
+                return this;
+            }
+
+            @Override
+            public Builder huffmanPolicy(HuffmanPolicy huffmanPolicy) {
+                this.huffmanPolicy = huffmanPolicy;
+                return this;
+            }
+
+            @Override
+            public Builder splitCookies(boolean split) {
+                splitCookies = split;
+                return this;
+            }
+
+            @Override
+            public Builder huffmanCache(HuffmanCache cache) {
+                huffmanCache = cache;
+                return this;
+            }
+
+            @Override
+            public Builder memoryGovernor(MemoryGovernor governor) {
+                memoryGovernor = governor;
+                return this;
+            }
+
+            @Override
+            public Builder encoderStreamFlushPolicy(FlushPolicy flushPolicy) {
+                this.flushPolicy = flushPolicy;
+                return this;
+            }
+
+            @Override
+            public Builder encoderStreamFlushThreshold(int bytes) {
+                flushThreshold = bytes;
+                return this;
+            }
+
+            @Override
+            public Builder warmStart(HeaderDictionary dictionary) {
+                this.dictionary = dictionary;
+                return this;
+            }
+
+            @Override
+            public Builder trace(QpackTrace trace) {
+                this.trace = trace;
+                return this;
+            }
+
             @Override
             public Encoder build() {
-                return new EncoderImpl();
+                return new EncoderImpl(config(), dictionary, trace != null? trace.impl(): null);
+            }
+
+            private EncoderConfig config() {
+                return EncoderConfig.create(profile, maxTableCapacity, tableCapacity, maxBlockedStreams, blockedStreams,
+                        huffmanPolicy, flushPolicy, flushThreshold, splitCookies,
+                        huffmanCache != null? huffmanCache.impl(): null, memoryGovernor != null? memoryGovernor.impl(): null);
+            }
+
+            @Override
+            public CodecPool<Encoder> buildPool(int maxIdle) {
+                EncoderConfig config = config();
+                HeaderDictionary warmStartDictionary = dictionary;
+                return new CodecPoolImpl<>(maxIdle, () -> new EncoderImpl(config, warmStartDictionary, null), Encoder::reset, Encoder::close);
             }
         };
     }
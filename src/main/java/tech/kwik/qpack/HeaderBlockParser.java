@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser for one header block (field section) that can be fed with the data of the block in arbitrary chunks, for
+ * example as it is received in QUIC STREAM frames.
+ */
+public interface HeaderBlockParser {
+
+    /**
+     * Parses as much of the given data as possible. All data is consumed, unless the header block is blocked (see
+     * isBlocked()); in that case the remaining data must be passed again once the encoder stream has progressed.
+     * @param data
+     */
+    void parse(ByteBuffer data);
+
+    /**
+     * Returns whether the header block refers to dynamic table entries that have not yet been received on the encoder
+     * stream.
+     * @return
+     */
+    boolean isBlocked();
+
+    /**
+     * Signals the end of the header block and returns the decoded headers.
+     * @return
+     * @throws IOException  when the header block is incomplete
+     */
+    List<Map.Entry<String, String>> finish() throws IOException;
+}
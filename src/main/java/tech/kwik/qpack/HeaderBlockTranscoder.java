@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import tech.kwik.qpack.impl.DecoderImpl;
+import tech.kwik.qpack.impl.HeaderBlockTranscoderImpl;
+import tech.kwik.qpack.impl.HpackDecoderImpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts header blocks between HPACK and QPACK without materializing header strings where possible: string literals
+ * are copied verbatim, so Huffman encoded values are never decoded and re-encoded. Meant for proxies and gateways that
+ * bridge HTTP/2 and HTTP/3.
+ * The QPACK blocks produced only reference the static table, so the HTTP/3 peer never blocks on them; the HPACK blocks
+ * produced do not add entries to the HTTP/2 peer's dynamic table.
+ */
+public interface HeaderBlockTranscoder {
+
+    /**
+     * Converts a complete HPACK header block into a QPACK header block.
+     * @param hpackBlock
+     * @return
+     */
+    ByteBuffer hpackToQpack(ByteBuffer hpackBlock);
+
+    /**
+     * Converts a complete QPACK header block into an HPACK header block.
+     * @param qpackBlock
+     * @return
+     * @throws IOException  when the header block is incomplete
+     * @throws IllegalStateException  when the header block references dynamic table entries not yet received
+     */
+    ByteBuffer qpackToHpack(ByteBuffer qpackBlock) throws IOException;
+
+    /**
+     * Processes (a chunk of) data of the QPACK encoder stream of the HTTP/3 peer.
+     * @param data
+     */
+    void decodeQpackEncoderStream(ByteBuffer data);
+
+    interface Builder {
+        /**
+         * Sets the maximum HPACK dynamic table size, as sent to the HTTP/2 peer in SETTINGS_HEADER_TABLE_SIZE.
+         * Default is 4096.
+         */
+        Builder hpackMaxTableSize(int size);
+
+        /**
+         * Sets the maximum QPACK dynamic table capacity, as sent to the HTTP/3 peer in SETTINGS_QPACK_MAX_TABLE_CAPACITY.
+         * Default is 4096.
+         */
+        Builder qpackMaxTableCapacity(int capacity);
+
+        HeaderBlockTranscoder build();
+    }
+
+    static Builder newBuilder() {
+        return new Builder() {
+            private int hpackMaxTableSize = HpackDecoderImpl.DEFAULT_MAX_TABLE_SIZE;
+            private int qpackMaxTableCapacity = DecoderImpl.DEFAULT_MAX_TABLE_CAPACITY;
+
+            @Override
+            public Builder hpackMaxTableSize(int size) {
+                hpackMaxTableSize = size;
+                return this;
+            }
+
+            @Override
+            public Builder qpackMaxTableCapacity(int capacity) {
+                qpackMaxTableCapacity = capacity;
+                return this;
+            }
+
+            @Override
+            public HeaderBlockTranscoder build() {
+                return new HeaderBlockTranscoderImpl(hpackMaxTableSize, qpackMaxTableCapacity);
+            }
+        };
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import tech.kwik.qpack.impl.HeaderDictionaryImpl;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Set of (name, value) pairs with which an encoder pre-populates its dynamic table at connection start ("warm start"),
+ * so the first header blocks on a connection can already refer to dynamic table entries once the inserts are
+ * acknowledged. A dictionary is either fixed, or learned from the fields that encoders encoded on previous connections;
+ * a learning dictionary is thread-safe and meant to be shared by the encoders of all connections to the same peer.
+ * Fields that are sensitive (never-indexed fields, authorization and cookie fields) are never learned.
+ */
+public interface HeaderDictionary {
+
+    /**
+     * Returns the most valuable entries that together fit in the given size (computed as dynamic table entry sizes,
+     * see https://www.rfc-editor.org/rfc/rfc9204.html#name-dynamic-table-size), most valuable first.
+     * @param maxSize
+     * @return
+     */
+    List<Map.Entry<String, String>> select(int maxSize);
+
+    /**
+     * Records that the given field was encoded. Ignored by a fixed dictionary.
+     * @param name
+     * @param value
+     */
+    void learn(CharSequence name, CharSequence value);
+
+    /**
+     * Creates a fixed dictionary with the given entries, in order of decreasing value.
+     */
+    static HeaderDictionary of(List<Map.Entry<String, String>> entries) {
+        return new HeaderDictionaryImpl(entries);
+    }
+
+    /**
+     * Creates a dictionary that learns from the fields encoded by the encoders it is used with.
+     * @param maxCandidates  maximum number of distinct fields that are tracked
+     */
+    static HeaderDictionary learning(int maxCandidates) {
+        return new HeaderDictionaryImpl(maxCandidates);
+    }
+}
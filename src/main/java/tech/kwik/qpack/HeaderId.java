@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import tech.kwik.qpack.impl.StaticTable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stable integer IDs for the well-known field names, i.e. the distinct names of the QPACK static table
+ * (https://www.rfc-editor.org/rfc/rfc9204.html#name-static-table-2), numbered in order of first appearance in that table.
+ * Fields decoded into a HeaderList carry the ID of their name (see HeaderList.headerId()), so dispatching on a field
+ * name can be done with an int switch instead of string comparisons.
+ */
+public final class HeaderId {
+
+    /**
+     * The ID of any name that is not well-known.
+     */
+    public static final int UNKNOWN = -1;
+
+    public static final int AUTHORITY = 0;
+    public static final int PATH = 1;
+    public static final int AGE = 2;
+    public static final int CONTENT_DISPOSITION = 3;
+    public static final int CONTENT_LENGTH = 4;
+    public static final int COOKIE = 5;
+    public static final int DATE = 6;
+    public static final int ETAG = 7;
+    public static final int IF_MODIFIED_SINCE = 8;
+    public static final int IF_NONE_MATCH = 9;
+    public static final int LAST_MODIFIED = 10;
+    public static final int LINK = 11;
+    public static final int LOCATION = 12;
+    public static final int REFERER = 13;
+    public static final int SET_COOKIE = 14;
+    public static final int METHOD = 15;
+    public static final int SCHEME = 16;
+    public static final int STATUS = 17;
+    public static final int ACCEPT = 18;
+    public static final int ACCEPT_ENCODING = 19;
+    public static final int ACCEPT_RANGES = 20;
+    public static final int ACCESS_CONTROL_ALLOW_HEADERS = 21;
+    public static final int ACCESS_CONTROL_ALLOW_ORIGIN = 22;
+    public static final int CACHE_CONTROL = 23;
+    public static final int CONTENT_ENCODING = 24;
+    public static final int CONTENT_TYPE = 25;
+    public static final int RANGE = 26;
+    public static final int STRICT_TRANSPORT_SECURITY = 27;
+    public static final int VARY = 28;
+    public static final int X_CONTENT_TYPE_OPTIONS = 29;
+    public static final int X_XSS_PROTECTION = 30;
+    public static final int ACCEPT_LANGUAGE = 31;
+    public static final int ACCESS_CONTROL_ALLOW_CREDENTIALS = 32;
+    public static final int ACCESS_CONTROL_ALLOW_METHODS = 33;
+    public static final int ACCESS_CONTROL_EXPOSE_HEADERS = 34;
+    public static final int ACCESS_CONTROL_REQUEST_HEADERS = 35;
+    public static final int ACCESS_CONTROL_REQUEST_METHOD = 36;
+    public static final int ALT_SVC = 37;
+    public static final int AUTHORIZATION = 38;
+    public static final int CONTENT_SECURITY_POLICY = 39;
+    public static final int EARLY_DATA = 40;
+    public static final int EXPECT_CT = 41;
+    public static final int FORWARDED = 42;
+    public static final int IF_RANGE = 43;
+    public static final int ORIGIN = 44;
+    public static final int PURPOSE = 45;
+    public static final int SERVER = 46;
+    public static final int TIMING_ALLOW_ORIGIN = 47;
+    public static final int UPGRADE_INSECURE_REQUESTS = 48;
+    public static final int USER_AGENT = 49;
+    public static final int X_FORWARDED_FOR = 50;
+    public static final int X_FRAME_OPTIONS = 51;
+
+    /**
+     * The number of well-known names; IDs range from 0 (inclusive) to COUNT (exclusive).
+     */
+    public static final int COUNT = 52;
+
+    private static final String[] NAMES = {
+            ":authority",
+            ":path",
+            "age",
+            "content-disposition",
+            "content-length",
+            "cookie",
+            "date",
+            "etag",
+            "if-modified-since",
+            "if-none-match",
+            "last-modified",
+            "link",
+            "location",
+            "referer",
+            "set-cookie",
+            ":method",
+            ":scheme",
+            ":status",
+            "accept",
+            "accept-encoding",
+            "accept-ranges",
+            "access-control-allow-headers",
+            "access-control-allow-origin",
+            "cache-control",
+            "content-encoding",
+            "content-type",
+            "range",
+            "strict-transport-security",
+            "vary",
+            "x-content-type-options",
+            "x-xss-protection",
+            "accept-language",
+            "access-control-allow-credentials",
+            "access-control-allow-methods",
+            "access-control-expose-headers",
+            "access-control-request-headers",
+            "access-control-request-method",
+            "alt-svc",
+            "authorization",
+            "content-security-policy",
+            "early-data",
+            "expect-ct",
+            "forwarded",
+            "if-range",
+            "origin",
+            "purpose",
+            "server",
+            "timing-allow-origin",
+            "upgrade-insecure-requests",
+            "user-agent",
+            "x-forwarded-for",
+            "x-frame-options"
+    };
+
+    private static final byte[][] NAME_BYTES = new byte[COUNT][];
+    // Open addressing hash table from name to ID + 1 (0 is an empty slot); the size is a power of two, and the table is
+    // at most half full, so probe sequences are short.
+    private static final int HASH_TABLE_SIZE = 128;
+    private static final int[] HASH_TABLE = new int[HASH_TABLE_SIZE];
+    private static final int[] STATIC_INDEX_IDS;
+
+    static {
+        for (int id = 0; id < COUNT; id++) {
+            NAME_BYTES[id] = NAMES[id].getBytes(StandardCharsets.ISO_8859_1);
+            int slot = hash(NAME_BYTES[id], 0, NAME_BYTES[id].length);
+            while (HASH_TABLE[slot] != 0) {
+                slot = (slot + 1) & (HASH_TABLE_SIZE - 1);
+            }
+            HASH_TABLE[slot] = id + 1;
+        }
+        StaticTable staticTable = StaticTable.getInstance();
+        STATIC_INDEX_IDS = new int[staticTable.size()];
+        for (int index = 0; index < STATIC_INDEX_IDS.length; index++) {
+            STATIC_INDEX_IDS[index] = staticTable.contains(index)? of(staticTable.lookupName(index)): UNKNOWN;
+        }
+    }
+
+    private HeaderId() {
+    }
+
+    /**
+     * Returns the ID of the given name, or UNKNOWN if it is not a well-known name.
+     */
+    public static int of(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        return of(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the ID of the name given as (ISO-8859-1) bytes, or UNKNOWN if it is not a well-known name.
+     */
+    public static int of(byte[] name, int offset, int length) {
+        int slot = hash(name, offset, length);
+        int entry;
+        while ((entry = HASH_TABLE[slot]) != 0) {
+            byte[] candidate = NAME_BYTES[entry - 1];
+            if (candidate.length == length && regionEquals(candidate, name, offset)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & (HASH_TABLE_SIZE - 1);
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the ID of the name of the given (QPACK) static table entry.
+     */
+    public static int ofStaticIndex(int staticIndex) {
+        return STATIC_INDEX_IDS[staticIndex];
+    }
+
+    /**
+     * Returns the well-known name with the given ID.
+     */
+    public static String name(int id) {
+        return NAMES[id];
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = length;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        hash ^= hash >>> 16;
+        return hash & (HASH_TABLE_SIZE - 1);
+    }
+
+    private static boolean regionEquals(byte[] candidate, byte[] name, int offset) {
+        for (int i = 0; i < candidate.length; i++) {
+            if (candidate[i] != name[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable list of header fields, that stores all names and values in one byte array (the arena) and all other field
+ * data in parallel int arrays, so adding fields does not create objects (once the arrays have grown large enough).
+ * Call clear() to reuse the list for the next header block.
+ * Names and values are stored as ISO-8859-1 bytes. Values can also be referenced instead of copied (see
+ * addReference()), so (large) values can be encoded without copying them.
+ */
+public final class HeaderList {
+
+    /**
+     * The field must never be added to a dynamic table, see https://www.rfc-editor.org/rfc/rfc9204.html#name-never-indexed-literals
+     */
+    public static final int NEVER_INDEXED = 0x01;
+    /**
+     * Both name and value of the field match the (QPACK) static table entry given by staticIndex().
+     */
+    public static final int STATIC_MATCH = 0x02;
+
+    private static final int DEFAULT_FIELD_COUNT = 16;
+    private static final int DEFAULT_ARENA_SIZE = 1024;
+
+    private byte[] arena;
+    private int arenaLength;
+    private int[] nameOffsets;
+    private int[] nameLengths;
+    private int[] valueOffsets;
+    private int[] valueLengths;
+    private int[] staticIndexes;
+    private int[] headerIds;
+    private int[] flags;
+    // Referenced values, per field (null for values stored in the arena); only allocated when a value is referenced.
+    private ByteBuffer[] valueReferences;
+    private int size;
+
+    public HeaderList() {
+        this(DEFAULT_FIELD_COUNT, DEFAULT_ARENA_SIZE);
+    }
+
+    /**
+     * @param fieldCount  initial number of fields the list can hold without growing
+     * @param arenaSize  initial number of bytes (of names and values) the list can hold without growing
+     */
+    public HeaderList(int fieldCount, int arenaSize) {
+        fieldCount = Math.max(1, fieldCount);
+        arena = new byte[Math.max(1, arenaSize)];
+        nameOffsets = new int[fieldCount];
+        nameLengths = new int[fieldCount];
+        valueOffsets = new int[fieldCount];
+        valueLengths = new int[fieldCount];
+        staticIndexes = new int[fieldCount];
+        headerIds = new int[fieldCount];
+        flags = new int[fieldCount];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all fields, retaining the allocated storage.
+     */
+    public void clear() {
+        if (valueReferences != null) {
+            Arrays.fill(valueReferences, 0, size, null);
+        }
+        size = 0;
+        arenaLength = 0;
+    }
+
+    public void add(CharSequence name, CharSequence value) {
+        add(name, value, 0);
+    }
+
+    /**
+     * Adds a field, copying the characters of name and value (which must be ISO-8859-1 characters).
+     * @param flags  NEVER_INDEXED or 0
+     */
+    public void add(CharSequence name, CharSequence value, int flags) {
+        int nameLength = name.length();
+        int valueLength = value.length();
+        ensureCapacity(nameLength + valueLength);
+        int nameOffset = arenaLength;
+        putChars(name, nameOffset);
+        int valueOffset = nameOffset + nameLength;
+        putChars(value, valueOffset);
+        arenaLength = valueOffset + valueLength;
+        addField(nameOffset, nameLength, valueOffset, valueLength, -1, flags & ~STATIC_MATCH);
+    }
+
+    public void add(byte[] name, byte[] value) {
+        add(name, 0, name.length, value, 0, value.length, -1, 0);
+    }
+
+    public void add(byte[] name, byte[] value, int flags) {
+        add(name, 0, name.length, value, 0, value.length, -1, flags);
+    }
+
+    /**
+     * Adds a field, copying name and value.
+     * @param staticIndex  index of a (QPACK) static table entry with the same name (and, if flags include STATIC_MATCH,
+     *                     the same value), or -1 if not known
+     * @param flags  a combination of NEVER_INDEXED and STATIC_MATCH
+     */
+    public void add(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength, int staticIndex, int flags) {
+        ensureCapacity(nameLength + valueLength);
+        int storedNameOffset = arenaLength;
+        System.arraycopy(name, nameOffset, arena, storedNameOffset, nameLength);
+        int storedValueOffset = storedNameOffset + nameLength;
+        System.arraycopy(value, valueOffset, arena, storedValueOffset, valueLength);
+        arenaLength = storedValueOffset + valueLength;
+        addField(storedNameOffset, nameLength, storedValueOffset, valueLength, staticIndex, staticIndex < 0? flags & ~STATIC_MATCH: flags);
+    }
+
+    /**
+     * Adds a field whose value (the remaining bytes of the given buffer) is referenced instead of copied; the name is
+     * copied. The buffer content must not be changed until the list is cleared and all output of encoding the list has
+     * been written. The position and limit of the buffer are not changed.
+     * @param flags  NEVER_INDEXED or 0
+     */
+    public void addReference(CharSequence name, ByteBuffer value, int flags) {
+        int nameLength = name.length();
+        ensureCapacity(nameLength);
+        int nameOffset = arenaLength;
+        putChars(name, nameOffset);
+        arenaLength = nameOffset + nameLength;
+        if (valueReferences == null) {
+            valueReferences = new ByteBuffer[nameOffsets.length];
+        }
+        addField(nameOffset, nameLength, -1, value.remaining(), -1, flags & ~STATIC_MATCH);
+        valueReferences[size - 1] = value;
+    }
+
+    public String name(int index) {
+        checkIndex(index);
+        return new String(arena, nameOffsets[index], nameLengths[index], StandardCharsets.ISO_8859_1);
+    }
+
+    public String value(int index) {
+        checkIndex(index);
+        ByteBuffer reference = valueReference(index);
+        if (reference != null) {
+            byte[] bytes = new byte[reference.remaining()];
+            reference.duplicate().get(bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        return new String(arena, valueOffsets[index], valueLengths[index], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the referenced value of the given field (see addReference()), or null if the value is stored in the arena.
+     */
+    public ByteBuffer valueReference(int index) {
+        checkIndex(index);
+        return valueReferences != null? valueReferences[index]: null;
+    }
+
+    /**
+     * Returns whether the name of the given field equals the given name, without creating a String.
+     */
+    public boolean nameEquals(int index, String name) {
+        checkIndex(index);
+        int length = nameLengths[index];
+        if (name.length() != length) {
+            return false;
+        }
+        int offset = nameOffsets[index];
+        for (int i = 0; i < length; i++) {
+            if ((arena[offset + i] & 0xff) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the array holding names and values; use the offset and length methods to locate a name or value. Note
+     * that the array is replaced when it must grow, so it should not be retained.
+     */
+    public byte[] arena() {
+        return arena;
+    }
+
+    public int nameOffset(int index) {
+        checkIndex(index);
+        return nameOffsets[index];
+    }
+
+    public int nameLength(int index) {
+        checkIndex(index);
+        return nameLengths[index];
+    }
+
+    /**
+     * Returns the offset of the value in the arena, or -1 if the value is referenced (see valueReference()).
+     */
+    public int valueOffset(int index) {
+        checkIndex(index);
+        return valueOffsets[index];
+    }
+
+    public int valueLength(int index) {
+        checkIndex(index);
+        return valueLengths[index];
+    }
+
+    /**
+     * Returns the index of a (QPACK) static table entry with the same name (and, if flags include STATIC_MATCH, the
+     * same value), or -1 if not known.
+     */
+    public int staticIndex(int index) {
+        checkIndex(index);
+        return staticIndexes[index];
+    }
+
+    /**
+     * Returns the HeaderId of the name of the given field, or HeaderId.UNKNOWN if the name is not a well-known name.
+     * For fields that refer to the static table, the ID is derived from the static index; for other fields, the name
+     * is looked up when the field is added.
+     */
+    public int headerId(int index) {
+        checkIndex(index);
+        return headerIds[index];
+    }
+
+    public int flags(int index) {
+        checkIndex(index);
+        return flags[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            builder.append(i > 0? ", ": "").append(name(i)).append('=').append(value(i));
+        }
+        return builder.append(']').toString();
+    }
+
+    private void addField(int nameOffset, int nameLength, int valueOffset, int valueLength, int staticIndex, int fieldFlags) {
+        if (size == nameOffsets.length) {
+            int newLength = size * 2;
+            nameOffsets = Arrays.copyOf(nameOffsets, newLength);
+            nameLengths = Arrays.copyOf(nameLengths, newLength);
+            valueOffsets = Arrays.copyOf(valueOffsets, newLength);
+            valueLengths = Arrays.copyOf(valueLengths, newLength);
+            staticIndexes = Arrays.copyOf(staticIndexes, newLength);
+            headerIds = Arrays.copyOf(headerIds, newLength);
+            flags = Arrays.copyOf(flags, newLength);
+            if (valueReferences != null) {
+                valueReferences = Arrays.copyOf(valueReferences, newLength);
+            }
+        }
+        if (valueReferences != null) {
+            valueReferences[size] = null;
+        }
+        nameOffsets[size] = nameOffset;
+        nameLengths[size] = nameLength;
+        valueOffsets[size] = valueOffset;
+        valueLengths[size] = valueLength;
+        staticIndexes[size] = staticIndex;
+        headerIds[size] = staticIndex >= 0? HeaderId.ofStaticIndex(staticIndex): HeaderId.of(arena, nameOffset, nameLength);
+        flags[size] = fieldFlags;
+        size++;
+    }
+
+    private void ensureCapacity(int additionalBytes) {
+        if (arena.length - arenaLength < additionalBytes) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + additionalBytes));
+        }
+    }
+
+    private void putChars(CharSequence string, int offset) {
+        for (int i = 0; i < string.length(); i++) {
+            arena[offset + i] = (byte) string.charAt(i);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import tech.kwik.qpack.impl.HpackDecoderImpl;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK (RFC 7541) decoder, for use by HTTP/2 code that shares the QPACK infrastructure.
+ */
+public interface HpackDecoder {
+
+    /**
+     * Decodes a complete header block.
+     * @param headerBlock
+     * @return
+     */
+    List<Map.Entry<String, String>> decodeHeaders(ByteBuffer headerBlock);
+
+    interface Builder {
+        /**
+         * Sets the maximum dynamic table size, as sent to the peer in SETTINGS_HEADER_TABLE_SIZE. Default is 4096.
+         */
+        Builder maxTableSize(int size);
+
+        HpackDecoder build();
+    }
+
+    static Builder newBuilder() {
+        return new Builder() {
+            private int maxTableSize = HpackDecoderImpl.DEFAULT_MAX_TABLE_SIZE;
+
+            @Override
+            public Builder maxTableSize(int size) {
+                maxTableSize = size;
+                return this;
+            }
+
+            @Override
+            public HpackDecoder build() {
+                return new HpackDecoderImpl(maxTableSize);
+            }
+        };
+    }
+}
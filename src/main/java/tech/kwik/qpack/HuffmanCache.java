@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import tech.kwik.qpack.impl.HuffmanCacheImpl;
+
+/**
+ * Bounded cache of Huffman encoded string literals, meant to be shared by the encoders of all connections in a process,
+ * so literal values that repeat across connections (e.g. common user-agent, content-type or server values) but do not
+ * end up in a dynamic table are not Huffman encoded over and over again. The cache is thread-safe; when full, it
+ * evicts the least recently used literals, preferring literals that were used only once (segmented LRU).
+ * Only used by encoders that Huffman encode literals (see Encoder.HuffmanPolicy).
+ */
+public final class HuffmanCache {
+
+    private final HuffmanCacheImpl impl;
+
+    private HuffmanCache(HuffmanCacheImpl impl) {
+        this.impl = impl;
+    }
+
+    /**
+     * Returns the (approximate) number of bytes used by the cached literals.
+     */
+    public long size() {
+        return impl.size();
+    }
+
+    /**
+     * Returns the number of lookups that found the literal in the cache.
+     */
+    public long hits() {
+        return impl.hits();
+    }
+
+    /**
+     * Returns the number of lookups that did not find the literal in the cache.
+     */
+    public long misses() {
+        return impl.misses();
+    }
+
+    /**
+     * Creates a cache that uses at most (approximately) the given number of bytes.
+     */
+    public static HuffmanCache create(long maxBytes) {
+        return new HuffmanCache(new HuffmanCacheImpl(maxBytes));
+    }
+
+    HuffmanCacheImpl impl() {
+        return impl;
+    }
+}
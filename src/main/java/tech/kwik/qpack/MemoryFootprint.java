@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+/**
+ * Snapshot of the memory held by one encoder or decoder (i.e. per connection). Static table and Huffman tables are
+ * shared by all encoders and decoders and are therefore not included.
+ */
+public interface MemoryFootprint {
+
+    /**
+     * Returns the number of entries in the dynamic table.
+     */
+    int dynamicTableEntries();
+
+    /**
+     * Returns the size of the dynamic table as defined by RFC 9204, i.e. including the 32 bytes overhead per entry.
+     */
+    int dynamicTableSize();
+
+    int dynamicTableCapacity();
+
+    /**
+     * Returns the number of bytes allocated for storing the dynamic table entries.
+     */
+    long dynamicTableAllocatedBytes();
+
+    /**
+     * Returns the number of bytes allocated for scratch and output buffers, including encoder stream data that is
+     * buffered.
+     */
+    long bufferAllocatedBytes();
+
+    /**
+     * Returns the number of encoder stream bytes that are buffered, i.e. not yet flushed or flushed but not yet polled.
+     * Always 0 for a decoder.
+     */
+    long bufferedEncoderStreamBytes();
+
+    default long totalAllocatedBytes() {
+        return dynamicTableAllocatedBytes() + bufferAllocatedBytes();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import tech.kwik.qpack.impl.MemoryGovernorImpl;
+
+/**
+ * Global budget for the dynamic tables of all encoders and decoders (i.e. all connections) it is used with, so memory
+ * does not grow linearly with the number of connections. Each encoder and decoder reserves its table capacity when it
+ * is used for a connection and releases it when it is reset or closed; when the budget is (nearly) used, new encoders and decoders get less
+ * than they ask for (a decoder advertises the capacity it got, see Decoder.maxTableCapacity()), and encoders that use
+ * more than their fair share reduce their table capacity, so compression degrades gracefully instead of memory running
+ * out. Thread-safe.
+ */
+public final class MemoryGovernor {
+
+    private final MemoryGovernorImpl impl;
+
+    private MemoryGovernor(MemoryGovernorImpl impl) {
+        this.impl = impl;
+    }
+
+    /**
+     * Returns the total number of bytes of dynamic table capacity that can be reserved.
+     */
+    public long budget() {
+        return impl.budget();
+    }
+
+    /**
+     * Returns the number of bytes of dynamic table capacity currently reserved.
+     */
+    public long reservedBytes() {
+        return impl.reservedBytes();
+    }
+
+    /**
+     * Returns the number of encoders and decoders that currently hold a reservation.
+     */
+    public int registeredCodecs() {
+        return impl.registeredCodecs();
+    }
+
+    /**
+     * Returns the total number of bytes of table capacity that were requested but not granted.
+     */
+    public long deniedBytes() {
+        return impl.deniedBytes();
+    }
+
+    /**
+     * Returns the total number of bytes of table capacity that were released by encoders reducing their capacity.
+     */
+    public long reclaimedBytes() {
+        return impl.reclaimedBytes();
+    }
+
+    /**
+     * Creates a governor with the given budget (in bytes of dynamic table capacity).
+     */
+    public static MemoryGovernor create(long budget) {
+        return new MemoryGovernor(new MemoryGovernorImpl(budget));
+    }
+
+    MemoryGovernorImpl impl() {
+        return impl;
+    }
+}
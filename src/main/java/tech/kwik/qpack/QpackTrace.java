@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import tech.kwik.qpack.impl.QpackTraceImpl;
+
+import java.io.IOException;
+
+/**
+ * Opt-in trace of the QPACK events of one connection, in the format of the qlog QPACK event definitions
+ * (https://datatracker.ietf.org/doc/draft-ietf-quic-qlog-h3-events/). Events are recorded into a preallocated ring
+ * buffer (so when it is full, the oldest events are overwritten) and only converted to JSON when the trace is dumped.
+ * Field names and values are not recorded, only their lengths.
+ * A trace can be shared by the encoder and decoder of a connection; it is not thread-safe, so the encoder and decoder
+ * must not be used concurrently when they share a trace, and a dump should be made from the thread that uses them.
+ */
+public final class QpackTrace {
+
+    private final QpackTraceImpl impl;
+
+    private QpackTrace(QpackTraceImpl impl) {
+        this.impl = impl;
+    }
+
+    /**
+     * Writes the recorded events, oldest first, as a JSON array of qlog events (which can be used as the "events" of
+     * a qlog trace). Event times are in milliseconds, relative to the creation of the trace.
+     * @param out
+     * @throws IOException
+     */
+    public void writeJson(Appendable out) throws IOException {
+        impl.writeJson(out);
+    }
+
+    /**
+     * Returns the number of events that were overwritten because the ring buffer was full.
+     */
+    public long droppedEvents() {
+        return impl.droppedEvents();
+    }
+
+    /**
+     * Removes all recorded events.
+     */
+    public void clear() {
+        impl.clear();
+    }
+
+    /**
+     * Creates a trace that holds (at most) the given number of (most recent) events.
+     */
+    public static QpackTrace create(int capacity) {
+        return new QpackTrace(new QpackTraceImpl(capacity));
+    }
+
+    QpackTraceImpl impl() {
+        return impl;
+    }
+}
@@ -29,9 +29,18 @@ public class BitBuffer {
     private int unsetInHead;
 
     public BitBuffer(byte[] data) {
-        this.data = ByteBuffer.wrap(data);
+        this(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Creates a bit buffer that reads the remaining bytes of the given buffer; bytes are consumed from the given buffer
+     * as bits are shifted out.
+     * @param data
+     */
+    public BitBuffer(ByteBuffer data) {
+        this.data = data;
         for (int i = 0; i < 4; i++) {
-            if (i < data.length) {
+            if (this.data.hasRemaining()) {
                 head = (head << 8) | (this.data.get() & 0x000000ff);
                 bitsInHead += 8;
             }
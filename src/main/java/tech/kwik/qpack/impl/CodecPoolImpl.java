@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.CodecPool;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public class CodecPoolImpl<T> implements CodecPool<T> {
+
+    private final ArrayBlockingQueue<T> idle;
+    private final Supplier<T> factory;
+    private final Consumer<T> reset;
+    private final Consumer<T> discard;
+
+    /**
+     * @param maxIdle  the maximum number of idle codecs kept in the pool
+     * @param factory  creates a new codec
+     * @param reset  resets a codec to the state of a newly created one
+     */
+    public CodecPoolImpl(int maxIdle, Supplier<T> factory, Consumer<T> reset) {
+        this(maxIdle, factory, reset, codec -> {});
+    }
+
+    /**
+     * Creates a pool as above, that calls discard for a released codec that does not fit in the pool.
+     */
+    public CodecPoolImpl(int maxIdle, Supplier<T> factory, Consumer<T> reset, Consumer<T> discard) {
+        idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+        this.factory = factory;
+        this.reset = reset;
+        this.discard = discard;
+    }
+
+    @Override
+    public T acquire() {
+        T codec = idle.poll();
+        return codec != null? codec: factory.get();
+    }
+
+    @Override
+    public void release(T codec) {
+        reset.accept(codec);
+        if (!idle.offer(codec)) {
+            discard.accept(codec);
+        }
+    }
+
+    @Override
+    public int idleCount() {
+        return idle.size();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.Decoder.FieldValidation;
+
+/**
+ * The configuration of a decoder: the table capacity it accepts, how decoded field sections are validated and
+ * delivered, and the resources it shares with other decoders.
+ */
+public final class DecoderConfig {
+
+    final int maxTableCapacity;
+    final FieldValidation fieldValidation;
+    final boolean joinCookies;
+    final int literalCacheSize;
+    final MemoryGovernorImpl memoryGovernor;
+
+    private DecoderConfig(int maxTableCapacity, FieldValidation fieldValidation, boolean joinCookies, int literalCacheSize,
+                          MemoryGovernorImpl memoryGovernor) {
+        this.maxTableCapacity = maxTableCapacity;
+        this.fieldValidation = fieldValidation;
+        this.joinCookies = joinCookies;
+        this.literalCacheSize = literalCacheSize;
+        this.memoryGovernor = memoryGovernor;
+    }
+
+    /**
+     * Creates the configuration for a decoder that accepts a dynamic table of (at most) the given capacity, which is
+     * the value that should be sent as SETTINGS_QPACK_MAX_TABLE_CAPACITY.
+     */
+    public static DecoderConfig create(int maxTableCapacity, FieldValidation fieldValidation) {
+        return create(maxTableCapacity, fieldValidation, false, 0, null);
+    }
+
+    /**
+     * Creates the configuration as above, with the given options.
+     * @param joinCookies  whether cookie fields (crumbs) are joined into one cookie field
+     * @param literalCacheSize  the number of decoded literals that are cached, so literals that are repeated in header
+     *                          blocks are decoded only once and yield the same String instance; 0 for no cache
+     * @param memoryGovernor  governor the maximum table capacity is reserved with, or null; the decoder then accepts
+     *                        (and must advertise) the capacity granted, see Decoder.maxTableCapacity()
+     */
+    public static DecoderConfig create(int maxTableCapacity, FieldValidation fieldValidation, boolean joinCookies,
+                                       int literalCacheSize, MemoryGovernorImpl memoryGovernor) {
+        return new DecoderConfig(maxTableCapacity, fieldValidation, joinCookies, literalCacheSize, memoryGovernor);
+    }
+}
@@ -19,228 +19,248 @@
 package tech.kwik.qpack.impl;
 
 import tech.kwik.qpack.Decoder;
+import tech.kwik.qpack.HeaderBlockParser;
+import tech.kwik.qpack.HeaderList;
+import tech.kwik.qpack.MemoryFootprint;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PushbackInputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class DecoderImpl implements Decoder {
 
+    public static final int DEFAULT_MAX_TABLE_CAPACITY = 4096;
+    private static final int READ_BUFFER_SIZE = 1024;
+
     private final Huffman huffman;
     private final StaticTable staticTable;
-    private final List<AbstractMap.Entry<String, String>> dynamicTable;
+    private final DynamicTable dynamicTable;
+    // The maximum table capacity as requested, and as granted by the memory governor (if any).
+    private final int requestedCapacity;
+    private volatile int maxTableCapacity;
+    private final EncoderStreamParser encoderStreamParser;
+    private final FieldValidation fieldValidation;
+    private final boolean joinCookies;
+    private final QpackTraceImpl trace;
+    private final LiteralCache literalCache;
+    private final MemoryGovernorImpl memoryGovernor;
+    // Whether the decoder holds a reservation with the memory governor; a reset decoder releases its reservation
+    // until it is used again.
+    private volatile boolean registered;
+    private boolean closed;
+    // Idle parser for decodeHeaderBlock: a caller takes it for the duration of one call, so concurrent callers never
+    // share a parser; a caller that finds none (because another thread is using it) creates its own.
+    private final AtomicReference<HeaderListParser> idleHeaderListParser = new AtomicReference<>();
 
     public DecoderImpl() {
-        staticTable = new StaticTable();
-        huffman = new Huffman();
-        dynamicTable = new ArrayList<>();
+        this(DEFAULT_MAX_TABLE_CAPACITY);
     }
 
-    public void decodeEncoderStream(InputStream inputStream) throws IOException {
-        PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 16);
-        int instruction = pushbackInputStream.read();
-        pushbackInputStream.unread(instruction);
+    /**
+     * Creates a decoder that accepts a dynamic table of (at most) the given capacity, which is the value that should
+     * be sent as SETTINGS_QPACK_MAX_TABLE_CAPACITY.
+     * @param maxTableCapacity
+     */
+    public DecoderImpl(int maxTableCapacity) {
+        this(maxTableCapacity, FieldValidation.NONE);
+    }
 
-        while (instruction >= 0) {  // EOF returns -1
+    /**
+     * Creates a decoder that accepts a dynamic table of (at most) the given capacity and validates decoded field
+     * sections as specified by the given field validation.
+     * @param maxTableCapacity
+     * @param fieldValidation
+     */
+    public DecoderImpl(int maxTableCapacity, FieldValidation fieldValidation) {
+        this(DecoderConfig.create(maxTableCapacity, fieldValidation), null);
+    }
 
-            if ((instruction & 0x80) == 0x80) {
-                parseInsertWithNameReference(pushbackInputStream);
-            }
-            else if ((instruction & 0xc0) == 0x40) {
-                parseInsertWithoutNameReference(pushbackInputStream);
-            }
-            else {
-                throw new NotYetImplementedException("Error: unknown instruction in encoder stream: " + instruction);
-            }
+    /**
+     * Creates a decoder with the given configuration, that records its events in the given trace (if not null).
+     * The literal cache (if configured) is not used when decoding into a HeaderList, as that does not create Strings.
+     */
+    public DecoderImpl(DecoderConfig config, QpackTraceImpl trace) {
+        fieldValidation = config.fieldValidation;
+        joinCookies = config.joinCookies;
+        staticTable = StaticTable.getInstance();
+        huffman = Huffman.getInstance();
+        memoryGovernor = config.memoryGovernor;
+        requestedCapacity = config.maxTableCapacity;
+        maxTableCapacity = config.maxTableCapacity;
+        if (memoryGovernor != null) {
+            maxTableCapacity = memoryGovernor.reserve(requestedCapacity);
+            registered = true;
+        }
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-maximum-dynamic-table-capac
+        // "The initial capacity of the dynamic table is zero. When the decoder opens the encoder stream, the encoder
+        //  sends a Set Dynamic Table Capacity instruction ..." The arena grows when entries are inserted.
+        dynamicTable = new DynamicTable(0);
+        dynamicTable.setTrace(trace, false);
+        encoderStreamParser = new EncoderStreamParser(staticTable, dynamicTable, maxTableCapacity, huffman);
+        encoderStreamParser.setTrace(trace);
+        this.trace = trace;
+        literalCache = config.literalCacheSize > 0? new LiteralCache(config.literalCacheSize): null;
+    }
 
-            instruction = pushbackInputStream.read();
-            pushbackInputStream.unread(instruction);
+    /**
+     * Processes encoder stream data. The given stream must contain complete instructions only; for processing encoder
+     * stream data in arbitrary chunks, use decodeEncoderStream(ByteBuffer).
+     * @param inputStream
+     * @throws IOException
+     */
+    public void decodeEncoderStream(InputStream inputStream) throws IOException {
+        reserve();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) >= 0) {
+            encoderStreamParser.parse(ByteBuffer.wrap(buffer, 0, read));
+        }
+        if (trace != null) {
+            traceState();
+        }
+        if (encoderStreamParser.isInstructionIncomplete()) {
+            throw new EOFException();
         }
     }
 
     @Override
-    public List<Map.Entry<String, String>> decodeStream(InputStream inputStream) throws IOException {
-        PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 16);
-        List<Map.Entry<String, String>> headers = new ArrayList<>();
-
-        // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.5.1
-        // "Header Block Prefix"
-        long requiredInsertCount = parsePrefixedInteger(8, pushbackInputStream);
-        int deltaBase = (int) parsePrefixedInteger(7, pushbackInputStream);
-
-        int instruction = pushbackInputStream.read();
-        pushbackInputStream.unread(instruction);
-        while (instruction >= 0) {  // EOF returns -1
-            Map.Entry<String, String> entry = null;
-            if ((instruction & 0x80) == 0x80) {
-                entry = parseIndexedHeaderField(pushbackInputStream);
-            }
-            else if ((instruction & 0xc0) == 0x40) {
-                entry = parseLiteralHeaderFieldWithNameReference(pushbackInputStream);
-            }
-            else if ((instruction & 0xe0) == 0x20) {
-                entry = parseLiteralHeaderFieldWithoutNameReference(pushbackInputStream);
-            }
-            else {
-                throw new NotYetImplementedException("Error: unknown instruction: " + instruction);
-            }
-
-            if (entry != null) {
-                headers.add(entry);
-            }
-            instruction = pushbackInputStream.read();
-            pushbackInputStream.unread(instruction);
+    public void decodeEncoderStream(ByteBuffer data) {
+        reserve();
+        encoderStreamParser.parse(data);
+        if (trace != null) {
+            traceState();
         }
-
-        return headers;
     }
 
-    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.3.1
-    void parseInsertWithNameReference(PushbackInputStream inputStream) throws IOException {
-        byte first = read(inputStream);
-        inputStream.unread(first);
-
-        int index = (int) parsePrefixedInteger(6, inputStream);
-        boolean referStatic = (first & 0x40) == 0x40;
-        String name = referStatic? staticTable.lookupName(index): lookupDynamicTable(index).getKey();
-
-        String value = parseStringValue(inputStream);
-        addToTable(name, value);
+    private void traceState() {
+        trace.stateUpdated(false, dynamicTable.capacity(), dynamicTable.size(), -1, dynamicTable.insertCount());
     }
 
-    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.3.2
-    void parseInsertWithoutNameReference(PushbackInputStream inputStream) throws IOException {
-        String name = parseStringValue(5, inputStream);
-        String value = parseStringValue(inputStream);
-        addToTable(name, value);
+    @Override
+    public List<Map.Entry<String, String>> decodeStream(InputStream inputStream) throws IOException {
+        HeaderBlockParser parser = createHeaderBlockParser();
+        parser.parse(ByteBuffer.wrap(inputStream.readAllBytes()));
+        return parser.finish();
     }
 
-    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.1.1
-    // "The prefixed integer from Section 5.1 of [RFC7541] is used heavily
-    //   throughout this document.  The format from [RFC7541] is used
-    //   unmodified.  QPACK implementations MUST be able to decode integers up
-    //   to 62 bits long."
-    long parsePrefixedInteger(int prefixLength, InputStream input) throws IOException {
-        int maxPrefix = (int) (Math.pow(2, prefixLength) - 1);
-        int initialValue = read(input) & maxPrefix;
-        if (initialValue < maxPrefix) {
-            return initialValue;
+    @Override
+    public void decodeHeaderBlock(ByteBuffer headerBlock, HeaderList headers) throws IOException {
+        reserve();
+        HeaderListParser parser = idleHeaderListParser.getAndSet(null);
+        if (parser == null) {
+            parser = new HeaderListParser(staticTable, dynamicTable, maxTableCapacity, huffman);
+            configure(parser, fieldValidation);
         }
+        try {
+            parser.reset(headers);
+            parser.parse(headerBlock);
+            parser.finish();
+        }
+        finally {
+            parser.reset();
+            idleHeaderListParser.set(parser);
+        }
+    }
 
-        long value = initialValue;
-        int factor = 0;
-        byte next;
-        do {
-            next = read(input);
-            value += ((next & 0x7f) << factor);
-            factor += 7;
+    @Override
+    public void reset() {
+        dynamicTable.reset(0);
+        encoderStreamParser.reset();
+        if (literalCache != null) {
+            literalCache.clear();
         }
-        while ((next & 0x80) == 0x80);
+        release();
+    }
 
-        return value;
+    @Override
+    public synchronized void close() {
+        release();
+        closed = true;
     }
 
-    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.5.2
-    Map.Entry<String, String> parseIndexedHeaderField(PushbackInputStream inputStream) throws IOException {
-        byte first = read(inputStream);
-        inputStream.unread(first);
-        boolean inStaticTable = (first & 0x40) == 0x40;
-        int index = (int) parsePrefixedInteger(6, inputStream);
+    @Override
+    public int maxTableCapacity() {
+        reserve();
+        return maxTableCapacity;
+    }
 
-        if (inStaticTable) {
-            return staticTable.lookupNameValue(index);
-        }
-        else {
-            return lookupDynamicTable(index);
+    /**
+     * Reserves the maximum table capacity with the memory governor again, when the decoder is used after a reset.
+     * As header blocks may be decoded concurrently, the first callers after a reset can race; registered is only set
+     * (volatile) after the new capacity is in place, so the common case does not take the lock.
+     */
+    private void reserve() {
+        if (memoryGovernor != null && !registered) {
+            synchronized (this) {
+                if (!registered && !closed) {
+                    int granted = memoryGovernor.reserve(requestedCapacity);
+                    if (granted != maxTableCapacity) {
+                        maxTableCapacity = granted;
+                        encoderStreamParser.setMaxTableCapacity(maxTableCapacity);
+                        idleHeaderListParser.set(null);
+                    }
+                    registered = true;
+                }
+            }
         }
     }
 
-
-    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.5.4
-    Map.Entry<String, String> parseLiteralHeaderFieldWithNameReference(PushbackInputStream inputStream) throws IOException {
-        byte first = read((inputStream));
-        inputStream.unread(first);
-        boolean inStaticTable = (first & 0x10) == 0x10;
-        int nameIndex = (int) parsePrefixedInteger(4, inputStream);
-        if (! inStaticTable) {
-            throw new NotYetImplementedException("non static ref in parseLiteralHeaderFieldWithNameReference");
+    private synchronized void release() {
+        if (registered) {
+            memoryGovernor.unregister(maxTableCapacity);
+            registered = false;
         }
-        String name = inStaticTable? staticTable.lookupName(nameIndex): "<tbd>";
-
-        String value = parseStringValue(inputStream);
-
-        return new AbstractMap.SimpleEntry<>(name, value);
     }
 
-    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.5.6
-    Map.Entry<String, String> parseLiteralHeaderFieldWithoutNameReference(PushbackInputStream inputStream) throws IOException {
-        String name = parseStringValue(3, inputStream);
-        String value = parseStringValue(inputStream);
-        return new AbstractMap.SimpleEntry<>(name, value);
+    @Override
+    public MemoryFootprint memoryFootprint() {
+        HeaderListParser headerListParser = idleHeaderListParser.get();
+        long bufferBytes = encoderStreamParser.scratchBytes() + (headerListParser != null? headerListParser.scratchBytes(): 0)
+                + (literalCache != null? literalCache.allocatedBytes(): 0);
+        return new MemoryFootprintImpl(dynamicTable, bufferBytes, 0);
     }
 
-    Map.Entry<String, String> lookupDynamicTable(int index) {
-        if (index < dynamicTable.size()) {
-            return dynamicTable.get(index);
-        }
-        else {
-            return null;
-        }
+    /**
+     * Returns the total number of insertions into the dynamic table, i.e. the value from which Insert Count Increment
+     * instructions on the decoder stream are derived.
+     */
+    public long insertCount() {
+        return dynamicTable.insertCount();
     }
 
-    private String parseStringValue(PushbackInputStream inputStream) throws IOException {
-        byte firstByte = read(inputStream);
-        inputStream.unread(firstByte);
-        boolean huffmanEncoded = (firstByte & 0x80) == 0x80;
-        int valueLength = (int) parsePrefixedInteger(7, inputStream);
-        byte[] rawValue = new byte[valueLength];
-        readExact(inputStream, rawValue);
-        return huffmanEncoded? huffman.decode(rawValue): new String(rawValue, StandardCharsets.ISO_8859_1);
-    }
-
-    private String parseStringValue(int prefixLength, PushbackInputStream inputStream) throws IOException {
-        int huffmanFlagMask;
-        switch(prefixLength) {
-            case 3:
-                huffmanFlagMask = 0x08;
-                break;
-            case 5:
-                huffmanFlagMask = 0x20;
-                break;
-            default:
-                throw new NotYetImplementedException("no huffman flag mask for prefix " + prefixLength);
-        }
-        byte firstByte = read(inputStream);
-        inputStream.unread(firstByte);
-        boolean huffmanEncoded = (firstByte & huffmanFlagMask) == huffmanFlagMask;
-        int length = (int) parsePrefixedInteger(prefixLength, inputStream);
-        byte[] rawBytes = new byte[length];
-        readExact(inputStream, rawBytes);
-        return huffmanEncoded? huffman.decode(rawBytes): new String(rawBytes, StandardCharsets.ISO_8859_1);
+    @Override
+    public HeaderBlockParser createHeaderBlockParser() {
+        return createHeaderBlockParser(fieldValidation);
     }
 
-    private void addToTable(String name, String value) {
-        dynamicTable.add(new AbstractMap.SimpleEntry<>(name, value));
+    @Override
+    public HeaderBlockParser createHeaderBlockParser(FieldValidation fieldValidation) {
+        reserve();
+        HeaderBlockParserImpl parser = new HeaderBlockParserImpl(staticTable, dynamicTable, maxTableCapacity, huffman);
+        configure(parser, fieldValidation);
+        return parser;
     }
 
-    private byte read(InputStream stream) throws IOException {
-        int value = stream.read();
-        if (value == -1) {
-            throw new EOFException();
-        }
-        else {
-            return (byte) value;
+    private void configure(HeaderBlockParserImpl parser, FieldValidation fieldValidation) {
+        if (fieldValidation != FieldValidation.NONE) {
+            parser.setValidator(new FieldValidator(fieldValidation));
         }
+        parser.setJoinCookies(joinCookies);
+        parser.setTrace(trace);
+        parser.setLiteralCache(literalCache);
     }
 
-    private void readExact(InputStream stream, byte[] data) throws IOException {
-        int read = stream.readNBytes(data, 0, data.length);
-        if (read != data.length) {
-            throw new EOFException();
+    Map.Entry<String, String> lookupDynamicTable(int index) {
+        if (dynamicTable.contains(index)) {
+            return dynamicTable.entry(index);
+        }
+        else {
+            return null;
         }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.nio.ByteBuffer;
+
+// https://www.rfc-editor.org/rfc/rfc9204.html#name-decoder-instructions
+/**
+ * Resumable parser for the decoder stream: accepts the stream data in arbitrary chunks and passes each instruction to
+ * the handler as soon as it is complete.
+ */
+class DecoderStreamParser extends InstructionParser {
+
+    interface Handler {
+        void sectionAcknowledged(long streamId);
+
+        void streamCancelled(long streamId);
+
+        void insertCountIncremented(long increment);
+    }
+
+    private enum State {
+        INSTRUCTION,
+        SECTION_ACKNOWLEDGEMENT,
+        STREAM_CANCELLATION,
+        INSERT_COUNT_INCREMENT
+    }
+
+    private final Handler handler;
+    private State state = State.INSTRUCTION;
+    private QpackTraceImpl trace;
+
+    DecoderStreamParser(Handler handler) {
+        super(Huffman.getInstance());
+        this.handler = handler;
+    }
+
+    void setTrace(QpackTraceImpl trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Parses the given decoder stream data; all bytes are consumed.
+     * @param data
+     */
+    void parse(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            switch (state) {
+                case INSTRUCTION:
+                    int instruction = data.get(data.position()) & 0xff;
+                    if ((instruction & 0x80) == 0x80) {
+                        state = State.SECTION_ACKNOWLEDGEMENT;
+                    }
+                    else if ((instruction & 0xc0) == 0x40) {
+                        state = State.STREAM_CANCELLATION;
+                    }
+                    else {
+                        state = State.INSERT_COUNT_INCREMENT;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-section-acknowledgment
+                case SECTION_ACKNOWLEDGEMENT:
+                    if (readPrefixedInteger(data, 7)) {
+                        if (trace != null) {
+                            trace.instructionParsed(QpackTraceImpl.SECTION_ACKNOWLEDGEMENT, false, integerValue(), 0);
+                        }
+                        handler.sectionAcknowledged(integerValue());
+                        state = State.INSTRUCTION;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-stream-cancellation
+                case STREAM_CANCELLATION:
+                    if (readPrefixedInteger(data, 6)) {
+                        if (trace != null) {
+                            trace.instructionParsed(QpackTraceImpl.STREAM_CANCELLATION, false, integerValue(), 0);
+                        }
+                        handler.streamCancelled(integerValue());
+                        state = State.INSTRUCTION;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-insert-count-increment
+                case INSERT_COUNT_INCREMENT:
+                    if (readPrefixedInteger(data, 6)) {
+                        if (trace != null) {
+                            trace.instructionParsed(QpackTraceImpl.INSERT_COUNT_INCREMENT, false, integerValue(), 0);
+                        }
+                        handler.insertCountIncremented(integerValue());
+                        state = State.INSTRUCTION;
+                    }
+                    break;
+            }
+        }
+    }
+
+    void reset() {
+        resetPrimitives();
+        state = State.INSTRUCTION;
+    }
+
+    @Override
+    protected RuntimeException parseError(String message) {
+        return new HttpQPackDecoderStreamErrorException(message);
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Map;
+
+// https://www.rfc-editor.org/rfc/rfc9204.html#name-dynamic-table
+// "The dynamic table consists of a list of field lines maintained in first-in, first-out (FIFO) order."
+/**
+ * Dynamic table that stores all entries as length-prefixed bytes in one circular byte array (the arena), so there are
+ * no per-entry objects. Each entry is stored as: name length (4 bytes), value length (4 bytes), name, value.
+ * The offset of each entry in the arena is kept in a ring of ints that is indexed by the absolute index of the entry.
+ * As the stored size of an entry (8 bytes overhead) is always less than its size as defined by RFC 9204 (32 bytes
+ * overhead), an arena of the table capacity is always large enough to hold all entries; the arena (and the offset
+ * ring) grow on demand, so an (almost) empty table does not allocate its full capacity.
+ * Strings are only created when requested.
+ * <p>
+ * The table has a single writer (the thread processing the encoder stream, or the encoder), but entries can be read
+ * by other threads (decoding header blocks) without locking:
+ * - an insert is published by the (volatile) insert count, which is written after the entry is stored;
+ * - when the arena or ring grows, the entries are copied into new arrays that are published (as one storage object)
+ *   before the insert count; arrays that were replaced are never written again, so readers holding them stay consistent;
+ * - the bytes of an entry are only overwritten after its eviction is published by the (volatile) dropped count, so a
+ *   reader validates, after reading an entry, that the entry has not been evicted in the meantime (like
+ *   StampedLock.validate()). A decoder never evicts entries referenced by a field section that is not acknowledged
+ *   (the encoder must not make them evictable, see RFC 9204, Section 2.1.1), so validation only fails when the peer
+ *   violates the protocol, which is treated as a decompression failure.
+ * Resetting the table requires that no other thread is reading it.
+ */
+public class DynamicTable {
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-dynamic-table-size
+    // "The size of an entry is the sum of its name's length in bytes, its value's length in bytes, and 32 additional bytes."
+    public static final int ENTRY_OVERHEAD = 32;
+    private static final int LENGTHS_SIZE = 8;
+    private static final int MIN_ARENA_SIZE = 256;
+    private static final int MIN_RING_SIZE = 8;
+
+    private static class Storage {
+        final byte[] arena;
+        final int[] offsets;
+
+        Storage(byte[] arena, int[] offsets) {
+            this.arena = arena;
+            this.offsets = offsets;
+        }
+    }
+
+    // The writer's view of the storage; readers use the published storage.
+    private byte[] arena;
+    private int[] offsets;
+    private volatile Storage storage;
+    private int head;
+    private int tail;
+    private int storedBytes;
+    private int capacity;
+    private int size;
+    private volatile long insertCount;
+    private volatile long droppedCount;
+    private QpackTraceImpl trace;
+    private boolean local;
+
+    DynamicTable(int capacity) {
+        this.capacity = capacity;
+        arena = new byte[0];
+        offsets = new int[MIN_RING_SIZE];
+        storage = new Storage(arena, offsets);
+    }
+
+    /**
+     * Removes all entries and resets the insert count, keeping the allocated storage, so the table can be reused
+     * (for a new connection).
+     * @param newCapacity
+     */
+    public void reset(int newCapacity) {
+        head = 0;
+        tail = 0;
+        storedBytes = 0;
+        size = 0;
+        insertCount = 0;
+        droppedCount = 0;
+        capacity = newCapacity;
+    }
+
+    /**
+     * Sets the trace that records insertions and evictions.
+     * @param trace  the trace, or null to stop tracing
+     * @param local  whether this is the table of the local encoder (otherwise it is the decoder's copy of the peer's)
+     */
+    void setTrace(QpackTraceImpl trace, boolean local) {
+        this.trace = trace;
+        this.local = local;
+    }
+
+    /**
+     * Returns the total number of entries ever inserted, which is the absolute index of the next entry.
+     */
+    public long insertCount() {
+        return insertCount;
+    }
+
+    /**
+     * Returns the number of entries evicted so far, which is the absolute index of the oldest entry.
+     */
+    public long droppedCount() {
+        return droppedCount;
+    }
+
+    public int entryCount() {
+        return (int) (insertCount - droppedCount);
+    }
+
+    /**
+     * Returns the size of the table, as defined by RFC 9204 (i.e. including the 32 bytes overhead per entry).
+     */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the capacity of the table, evicting entries if the current size exceeds the new capacity.
+     * @param newCapacity
+     */
+    public void setCapacity(int newCapacity) {
+        capacity = newCapacity;
+        while (size > capacity) {
+            evict();
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated for storing the entries (arena and offset ring).
+     */
+    public long allocatedBytes() {
+        Storage current = storage;
+        return current.arena.length + 4L * current.offsets.length;
+    }
+
+    public static int entrySize(int nameLength, int valueLength) {
+        return nameLength + valueLength + ENTRY_OVERHEAD;
+    }
+
+    public boolean contains(long absoluteIndex) {
+        return absoluteIndex < insertCount && absoluteIndex >= droppedCount;
+    }
+
+    public void insert(String name, String value) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] valueBytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        insert(nameBytes, 0, nameBytes.length, valueBytes, 0, valueBytes.length);
+    }
+
+    /**
+     * Inserts an entry, evicting the oldest entries when necessary to make room for the new entry.
+     */
+    public void insert(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength) {
+        int entrySize = entrySize(nameLength, valueLength);
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-dynamic-table-insertion-evi
+        // "It is an error if the encoder attempts to add an entry that is larger than the dynamic table capacity;"
+        if (entrySize > capacity) {
+            throw new HttpQPackEncoderStreamErrorException("entry size " + entrySize + " exceeds table capacity " + capacity);
+        }
+        while (size + entrySize > capacity) {
+            evict();
+        }
+
+        int storedSize = LENGTHS_SIZE + nameLength + valueLength;
+        if (arena.length - storedBytes < storedSize) {
+            growArena(storedBytes + storedSize);
+        }
+        if (entryCount() == offsets.length) {
+            growRing();
+        }
+
+        // The evictions must be visible before the bytes of evicted entries (or their ring slots) are overwritten.
+        VarHandle.storeStoreFence();
+        int offset = head;
+        writeInt(offset, nameLength);
+        writeInt(offset + 4, valueLength);
+        write(offset + LENGTHS_SIZE, name, nameOffset, nameLength);
+        write(offset + LENGTHS_SIZE + nameLength, value, valueOffset, valueLength);
+        offsets[ringIndex(insertCount)] = offset;
+
+        head = (offset + storedSize) % arena.length;
+        storedBytes += storedSize;
+        size += entrySize;
+        if (trace != null) {
+            trace.dynamicTableInserted(local, insertCount, nameLength, valueLength);
+        }
+        insertCount = insertCount + 1;
+    }
+
+    public String name(long absoluteIndex) {
+        Storage current = readable(absoluteIndex);
+        int offset = offset(current, absoluteIndex);
+        String name = string(current, absoluteIndex, offset + LENGTHS_SIZE, readInt(current.arena, offset));
+        validate(absoluteIndex);
+        return name;
+    }
+
+    public String value(long absoluteIndex) {
+        Storage current = readable(absoluteIndex);
+        int offset = offset(current, absoluteIndex);
+        String value = string(current, absoluteIndex, offset + LENGTHS_SIZE + readInt(current.arena, offset), readInt(current.arena, offset + 4));
+        validate(absoluteIndex);
+        return value;
+    }
+
+    public Map.Entry<String, String> entry(long absoluteIndex) {
+        return new AbstractMap.SimpleImmutableEntry<>(name(absoluteIndex), value(absoluteIndex));
+    }
+
+    public int nameLength(long absoluteIndex) {
+        Storage current = readable(absoluteIndex);
+        int length = readInt(current.arena, offset(current, absoluteIndex));
+        validate(absoluteIndex);
+        return length;
+    }
+
+    public int valueLength(long absoluteIndex) {
+        Storage current = readable(absoluteIndex);
+        int length = readInt(current.arena, offset(current, absoluteIndex) + 4);
+        validate(absoluteIndex);
+        return length;
+    }
+
+    /**
+     * Copies the name of the given entry into the destination array.
+     * @return  the number of bytes copied
+     */
+    public int copyName(long absoluteIndex, byte[] destination, int destinationOffset) {
+        Storage current = readable(absoluteIndex);
+        int offset = offset(current, absoluteIndex);
+        int length = readInt(current.arena, offset);
+        if (length < 0 || length > current.arena.length || destinationOffset + length > destination.length) {
+            validate(absoluteIndex);
+        }
+        read(current.arena, offset + LENGTHS_SIZE, destination, destinationOffset, length);
+        validate(absoluteIndex);
+        return length;
+    }
+
+    /**
+     * Copies the value of the given entry into the destination array.
+     * @return  the number of bytes copied
+     */
+    public int copyValue(long absoluteIndex, byte[] destination, int destinationOffset) {
+        Storage current = readable(absoluteIndex);
+        int offset = offset(current, absoluteIndex);
+        int length = readInt(current.arena, offset + 4);
+        if (length < 0 || length > current.arena.length || destinationOffset + length > destination.length) {
+            validate(absoluteIndex);
+        }
+        read(current.arena, offset + LENGTHS_SIZE + readInt(current.arena, offset), destination, destinationOffset, length);
+        validate(absoluteIndex);
+        return length;
+    }
+
+    /**
+     * Finds the most recent entry with the given name and value. Only to be used by the writer.
+     * @return  the absolute index of the entry or -1 if there is no such entry
+     */
+    public long find(byte[] name, byte[] value) {
+        return find(name, 0, name.length, value, 0, value.length);
+    }
+
+    public long find(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength) {
+        for (long index = insertCount - 1; index >= droppedCount; index--) {
+            int offset = offsets[ringIndex(index)];
+            if (readInt(arena, offset) == nameLength && readInt(arena, offset + 4) == valueLength
+                    && regionEquals(arena, offset + LENGTHS_SIZE, name, nameOffset, nameLength)
+                    && regionEquals(arena, offset + LENGTHS_SIZE + nameLength, value, valueOffset, valueLength)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the most recent entry with the given name. Only to be used by the writer.
+     * @return  the absolute index of the entry or -1 if there is no such entry
+     */
+    public long findName(byte[] name) {
+        return findName(name, 0, name.length);
+    }
+
+    public long findName(byte[] name, int nameOffset, int nameLength) {
+        for (long index = insertCount - 1; index >= droppedCount; index--) {
+            int offset = offsets[ringIndex(index)];
+            if (readInt(arena, offset) == nameLength && regionEquals(arena, offset + LENGTHS_SIZE, name, nameOffset, nameLength)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the name of the given entry equals the given name.
+     */
+    public boolean nameEquals(long absoluteIndex, byte[] name, int nameOffset, int nameLength) {
+        Storage current = readable(absoluteIndex);
+        int offset = offset(current, absoluteIndex);
+        boolean equal = readInt(current.arena, offset) == nameLength
+                && regionEquals(current.arena, offset + LENGTHS_SIZE, name, nameOffset, nameLength);
+        validate(absoluteIndex);
+        return equal;
+    }
+
+    private void evict() {
+        int nameLength = readInt(arena, tail);
+        int valueLength = readInt(arena, tail + 4);
+        int storedSize = LENGTHS_SIZE + nameLength + valueLength;
+        tail = (tail + storedSize) % arena.length;
+        storedBytes -= storedSize;
+        size -= entrySize(nameLength, valueLength);
+        if (trace != null) {
+            trace.dynamicTableEvicted(local, droppedCount);
+        }
+        droppedCount = droppedCount + 1;
+        if (storedBytes == 0) {
+            head = 0;
+            tail = 0;
+        }
+    }
+
+    /**
+     * Returns the storage to read the given entry from, after checking the entry is in the table. The insert count is
+     * read before the storage, so the storage holds (at least) all entries up to the insert count.
+     */
+    private Storage readable(long absoluteIndex) {
+        if (!contains(absoluteIndex)) {
+            throw new HttpQPackDecompressionFailedException();
+        }
+        return storage;
+    }
+
+    /**
+     * Checks that the entry that was just read was not evicted (and possibly overwritten) while it was read.
+     */
+    private void validate(long absoluteIndex) {
+        // Orders the reads of the entry before the read of the dropped count.
+        VarHandle.acquireFence();
+        if (absoluteIndex < droppedCount) {
+            throw new HttpQPackDecompressionFailedException("entry " + absoluteIndex + " evicted while being referenced");
+        }
+    }
+
+    private static int offset(Storage storage, long absoluteIndex) {
+        return storage.offsets[(int) (absoluteIndex & (storage.offsets.length - 1))];
+    }
+
+    private int ringIndex(long absoluteIndex) {
+        return (int) (absoluteIndex & (offsets.length - 1));
+    }
+
+    /**
+     * Replaces the arena by a larger one, moving all entries to the start of the new arena.
+     */
+    private void growArena(int minimumSize) {
+        int newSize = Math.max(minimumSize, Math.min(Math.max(arena.length * 2, MIN_ARENA_SIZE), capacity));
+        byte[] newArena = new byte[newSize];
+        read(arena, tail, newArena, 0, storedBytes);
+        int[] newOffsets = new int[offsets.length];
+        for (long index = droppedCount; index < insertCount; index++) {
+            int ringIndex = ringIndex(index);
+            newOffsets[ringIndex] = (offsets[ringIndex] - tail + arena.length) % arena.length;
+        }
+        arena = newArena;
+        offsets = newOffsets;
+        tail = 0;
+        head = storedBytes % arena.length;
+        storage = new Storage(arena, offsets);
+    }
+
+    private void growRing() {
+        int[] newOffsets = new int[offsets.length * 2];
+        for (long index = droppedCount; index < insertCount; index++) {
+            newOffsets[(int) (index & (newOffsets.length - 1))] = offsets[ringIndex(index)];
+        }
+        offsets = newOffsets;
+        storage = new Storage(arena, offsets);
+    }
+
+    private String string(Storage storage, long absoluteIndex, int offset, int length) {
+        byte[] arena = storage.arena;
+        if (length < 0 || length > arena.length) {
+            validate(absoluteIndex);
+        }
+        offset = offset % arena.length;
+        if (offset + length <= arena.length) {
+            return new String(arena, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        else {
+            byte[] bytes = new byte[length];
+            read(arena, offset, bytes, 0, length);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static boolean regionEquals(byte[] arena, int offset, byte[] bytes, int bytesOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (arena[(offset + i) % arena.length] != bytes[bytesOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] arena, int offset) {
+        return ((arena[offset % arena.length] & 0xff) << 24)
+                | ((arena[(offset + 1) % arena.length] & 0xff) << 16)
+                | ((arena[(offset + 2) % arena.length] & 0xff) << 8)
+                | (arena[(offset + 3) % arena.length] & 0xff);
+    }
+
+    private void writeInt(int offset, int value) {
+        arena[offset % arena.length] = (byte) (value >>> 24);
+        arena[(offset + 1) % arena.length] = (byte) (value >>> 16);
+        arena[(offset + 2) % arena.length] = (byte) (value >>> 8);
+        arena[(offset + 3) % arena.length] = (byte) value;
+    }
+
+    private void write(int offset, byte[] source, int sourceOffset, int length) {
+        offset = offset % arena.length;
+        int firstPart = Math.min(length, arena.length - offset);
+        System.arraycopy(source, sourceOffset, arena, offset, firstPart);
+        System.arraycopy(source, sourceOffset + firstPart, arena, 0, length - firstPart);
+    }
+
+    private static void read(byte[] arena, int offset, byte[] destination, int destinationOffset, int length) {
+        if (length == 0) {
+            return;
+        }
+        offset = offset % arena.length;
+        int firstPart = Math.min(length, arena.length - offset);
+        System.arraycopy(arena, offset, destination, destinationOffset, firstPart);
+        System.arraycopy(arena, 0, destination, destinationOffset + firstPart, length - firstPart);
+    }
+}
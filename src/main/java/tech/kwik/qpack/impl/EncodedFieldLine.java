@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Field that was decoded from a literal field line, and that keeps the value in its encoded form (as it appeared in
+ * the header block), so an encoder can copy the encoded bytes verbatim instead of encoding the value again. The value
+ * String is only created when it is requested. Setting a new value discards the encoded form.
+ */
+public class EncodedFieldLine implements Map.Entry<String, String> {
+
+    private final String name;
+    private String value;
+    private byte[] encodedValue;
+    private final boolean huffmanEncoded;
+
+    EncodedFieldLine(String name, byte[] encodedValue, boolean huffmanEncoded) {
+        this.name = Objects.requireNonNull(name);
+        this.encodedValue = Objects.requireNonNull(encodedValue);
+        this.huffmanEncoded = huffmanEncoded;
+    }
+
+    /**
+     * Creates a field with an encoded value of which the decoded value is already known.
+     */
+    EncodedFieldLine(String name, byte[] encodedValue, boolean huffmanEncoded, String value) {
+        this(name, encodedValue, huffmanEncoded);
+        this.value = Objects.requireNonNull(value);
+    }
+
+    @Override
+    public String getKey() {
+        return name;
+    }
+
+    @Override
+    public String getValue() {
+        String decoded = value;
+        if (decoded == null) {
+            decoded = huffmanEncoded?
+                    Huffman.getInstance().decode(encodedValue):
+                    new String(encodedValue, StandardCharsets.ISO_8859_1);
+            value = decoded;
+        }
+        return decoded;
+    }
+
+    @Override
+    public String setValue(String newValue) {
+        String oldValue = getValue();
+        value = Objects.requireNonNull(newValue);
+        encodedValue = null;
+        return oldValue;
+    }
+
+    /**
+     * Returns whether the encoded form of the value is (still) available.
+     */
+    boolean hasEncodedValue() {
+        return encodedValue != null;
+    }
+
+    /**
+     * Returns the encoded value, i.e. the bytes of the string literal without its length prefix.
+     */
+    byte[] encodedValue() {
+        return encodedValue;
+    }
+
+    boolean isHuffmanEncoded() {
+        return huffmanEncoded;
+    }
+
+    /**
+     * Returns a lower bound of the length of the value, that can be computed without decoding the value.
+     */
+    int minValueLength() {
+        if (value != null) {
+            return value.length();
+        }
+        return huffmanEncoded? Huffman.minDecodedLength(encodedValue.length): encodedValue.length;
+    }
+
+    // https://docs.oracle.com/en/java/javase/11/docs/api/java.base/java/util/Map.Entry.html#equals(java.lang.Object)
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Map.Entry)) {
+            return false;
+        }
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+        return name.equals(entry.getKey()) && getValue().equals(entry.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode() ^ getValue().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name + "=" + getValue();
+    }
+}
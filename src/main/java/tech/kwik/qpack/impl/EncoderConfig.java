@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.Encoder.FlushPolicy;
+import tech.kwik.qpack.Encoder.HuffmanPolicy;
+import tech.kwik.qpack.Encoder.Profile;
+
+/**
+ * The (resolved) configuration of an encoder: the limits set by the peer, how much of them the encoder uses, and the
+ * choices that trade compression for CPU.
+ */
+public final class EncoderConfig {
+
+    // Table capacity used by the BALANCED profile (when the peer allows it): large enough for the fields that repeat
+    // in most requests, small enough to keep lookups cheap.
+    static final int BALANCED_TABLE_CAPACITY = 4096;
+
+    final int maxTableCapacity;
+    final int tableCapacity;
+    final int blockedStreams;
+    final FlushPolicy flushPolicy;
+    final int flushThreshold;
+    final HuffmanPolicy huffmanPolicy;
+    final boolean insertRepeatedOnly;
+    final boolean dynamicNameReferences;
+    final boolean splitCookies;
+    final HuffmanCacheImpl huffmanCache;
+    final MemoryGovernorImpl memoryGovernor;
+
+    /**
+     * @param maxTableCapacity  the maximum table capacity as set by the peer (SETTINGS_QPACK_MAX_TABLE_CAPACITY)
+     * @param tableCapacity  the capacity of the dynamic table the encoder uses, at most maxTableCapacity
+     * @param blockedStreams  the number of streams the encoder may block, at most the number set by the peer
+     *                        (SETTINGS_QPACK_BLOCKED_STREAMS)
+     * @param insertRepeatedOnly  whether a field is only inserted into the dynamic table when it was encoded before
+     * @param dynamicNameReferences  whether literal field lines may reference a name in the dynamic table
+     * @param splitCookies  whether cookie fields are split into crumbs (when a dynamic table is used)
+     * @param huffmanCache  cache of Huffman encoded literals shared with other encoders, or null
+     * @param memoryGovernor  governor the table capacity is reserved with, or null
+     */
+    EncoderConfig(int maxTableCapacity, int tableCapacity, int blockedStreams, FlushPolicy flushPolicy, int flushThreshold,
+                  HuffmanPolicy huffmanPolicy, boolean insertRepeatedOnly, boolean dynamicNameReferences, boolean splitCookies,
+                  HuffmanCacheImpl huffmanCache, MemoryGovernorImpl memoryGovernor) {
+        this.maxTableCapacity = maxTableCapacity;
+        this.tableCapacity = Math.min(tableCapacity, maxTableCapacity);
+        this.blockedStreams = blockedStreams;
+        this.flushPolicy = flushPolicy;
+        this.flushThreshold = flushThreshold;
+        this.huffmanPolicy = huffmanPolicy;
+        this.insertRepeatedOnly = insertRepeatedOnly;
+        this.dynamicNameReferences = dynamicNameReferences;
+        this.splitCookies = splitCookies;
+        this.huffmanCache = huffmanCache;
+        this.memoryGovernor = memoryGovernor;
+    }
+
+    /**
+     * Creates the default configuration (i.e. without profile) for the given limits set by the peer.
+     */
+    public static EncoderConfig create(int maxTableCapacity, int maxBlockedStreams, FlushPolicy flushPolicy, int flushThreshold) {
+        return create(null, maxTableCapacity, -1, maxBlockedStreams, -1, null, flushPolicy, flushThreshold, false, null, null);
+    }
+
+    /**
+     * Creates the configuration for the given profile, with the given overrides.
+     * @param profile  the profile, or null for the default behaviour: use the full table capacity and all blocked streams
+     *                 allowed by the peer, insert every field and don't use Huffman encoding
+     * @param tableCapacity  overrides the table capacity of the profile, if not negative
+     * @param blockedStreams  overrides the number of blocked streams of the profile, if not negative
+     * @param huffmanPolicy  overrides the Huffman policy of the profile, if not null
+     * @param splitCookies  whether cookie fields are split into crumbs
+     * @param huffmanCache  cache of Huffman encoded literals, or null
+     * @param memoryGovernor  governor the table capacity is reserved with, or null
+     */
+    public static EncoderConfig create(Profile profile, int maxTableCapacity, int tableCapacity, int maxBlockedStreams, int blockedStreams,
+                                       HuffmanPolicy huffmanPolicy, FlushPolicy flushPolicy, int flushThreshold, boolean splitCookies,
+                                       HuffmanCacheImpl huffmanCache, MemoryGovernorImpl memoryGovernor) {
+        int profileCapacity = maxTableCapacity;
+        int profileBlockedStreams = maxBlockedStreams;
+        HuffmanPolicy profileHuffmanPolicy = HuffmanPolicy.NEVER;
+        boolean insertRepeatedOnly = false;
+        boolean dynamicNameReferences = true;
+        if (profile == Profile.FASTEST) {
+            profileCapacity = 0;
+            profileBlockedStreams = 0;
+            dynamicNameReferences = false;
+        }
+        else if (profile == Profile.BALANCED) {
+            profileCapacity = Math.min(maxTableCapacity, BALANCED_TABLE_CAPACITY);
+            profileBlockedStreams = 0;
+            profileHuffmanPolicy = HuffmanPolicy.WHEN_SMALLER;
+            insertRepeatedOnly = true;
+            dynamicNameReferences = false;
+        }
+        else if (profile == Profile.SMALLEST) {
+            profileHuffmanPolicy = HuffmanPolicy.WHEN_SMALLER;
+        }
+        return new EncoderConfig(maxTableCapacity,
+                tableCapacity >= 0? tableCapacity: profileCapacity,
+                blockedStreams >= 0? Math.min(blockedStreams, maxBlockedStreams): profileBlockedStreams,
+                flushPolicy, flushThreshold,
+                huffmanPolicy != null? huffmanPolicy: profileHuffmanPolicy,
+                insertRepeatedOnly, dynamicNameReferences, splitCookies, huffmanCache, memoryGovernor);
+    }
+}
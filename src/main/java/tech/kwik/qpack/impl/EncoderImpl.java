@@ -19,11 +19,14 @@
 package tech.kwik.qpack.impl;
 
 import tech.kwik.qpack.Encoder;
+import tech.kwik.qpack.HeaderDictionary;
+import tech.kwik.qpack.HeaderId;
+import tech.kwik.qpack.HeaderList;
+import tech.kwik.qpack.MemoryFootprint;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.AbstractMap;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -31,15 +34,122 @@ import java.util.Map;
 public class EncoderImpl implements Encoder {
 
     public static final Charset HTTP_HEADER_CHARSET = Charset.forName("US-ASCII");
+    public static final int DEFAULT_FLUSH_THRESHOLD = 1200;
+    // Two prefixed integers (8 and 7 bit prefix) that each take at most 10 bytes
+    private static final int MAX_PREFIX_SIZE = 20;
+    // Overhead of an instruction or field line next to the name and value bytes: at most three prefixed integers
+    private static final int MAX_INSTRUCTION_OVERHEAD = 30;
+    private static final int NAME_CACHE_SIZE = 64;
+    // Number of header blocks at the start of each connection from which a warm-start dictionary learns.
+    private static final int LEARNED_BLOCKS_PER_CONNECTION = 8;
+    private static final int SEEN_FIELDS_SIZE = 256;
+    // Referenced values that are shorter are copied into the header block when gathering, as copying them is cheaper
+    // than an extra buffer.
+    static final int MIN_GATHERED_VALUE_LENGTH = 256;
 
     private final Huffman huffman;
     private final StaticTable staticTable;
-    private final List<AbstractMap.Entry<String, String>> dynamicTable;
+    private final DynamicTable dynamicTable;
+    private final int maxEntries;
+    // The capacity of the dynamic table as configured, and as actually used, which is less when the memory governor
+    // does not grant (or reclaims part of) the configured capacity.
+    private final int configuredCapacity;
+    private int tableCapacity;
+    private final MemoryGovernorImpl memoryGovernor;
+    // Whether the encoder is used for a connection, i.e. it holds its reservation (if any) and has written the table
+    // capacity; a reset encoder releases its reservation until it is used again.
+    private boolean started;
+    private boolean registered;
+    private boolean closed;
+    private final FlushPolicy flushPolicy;
+    private final HuffmanPolicy huffmanPolicy;
+    private final HuffmanCacheImpl huffmanCache;
+    private final boolean insertRepeatedOnly;
+    private final boolean dynamicNameReferences;
+    private final boolean splitCookies;
+    private final int cookieIndex;
+    // Hashes of recently encoded fields, to detect repeated fields (when only repeated fields are inserted).
+    private final int[] seenFields = new int[SEEN_FIELDS_SIZE];
+    private final EncoderStreamWriter encoderStream;
+    private ByteBuffer fieldLines;
+    private long base;
+    private long requiredInsertCount;
+    private long flushedInsertCount;
+    private final ReferenceTracker referenceTracker;
+    private final DecoderStreamParser decoderStreamParser;
+    private final NameCache nameCache;
+    private final HeaderDictionary dictionary;
+    private final QpackTraceImpl trace;
+    private int learnedBlocks;
+    private byte[] nameScratch = new byte[64];
+    private byte[] valueScratch = new byte[256];
+    // State of the header block being encoded: whether references are tracked (i.e. the stream is known), and if so,
+    // the stream, whether the stream may be blocked and the smallest absolute index referenced so far.
+    private boolean tracked;
+    private long streamId;
+    private boolean mayBlock;
+    private long minReference;
+    private boolean untrackedReferences;
+    // When gathering: the referenced value of the field being encoded (if any), and the referenced values that are
+    // written in the header block, with their positions in the field lines.
+    private boolean gathering;
+    private ByteBuffer referencedValue;
+    private int gatheredCount;
+    private int[] gatheredPositions = new int[4];
+    private ByteBuffer[] gatheredValues = new ByteBuffer[4];
 
     public EncoderImpl() {
-        staticTable = new StaticTable();
-        huffman = new Huffman();
-        dynamicTable = new ArrayList<>();
+        this(0, 0, FlushPolicy.BEFORE_REFERENCING_BLOCK, DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Creates an encoder that uses a dynamic table with the given capacity.
+     * Entries are only evicted when they are acknowledged and not referenced by unacknowledged field sections, which
+     * requires the decoder stream to be processed (see decodeDecoderStream()) and the stream id to be passed when
+     * compressing headers. When headers are compressed without stream id, references are not tracked: the encoder
+     * then only references entries that are acknowledged (so the stream is never blocked) and will never evict
+     * entries.
+     * @param maxTableCapacity  the maximum table capacity as set by the peer (SETTINGS_QPACK_MAX_TABLE_CAPACITY)
+     * @param maxBlockedStreams  the maximum number of blocked streams as set by the peer (SETTINGS_QPACK_BLOCKED_STREAMS)
+     * @param flushPolicy  determines when encoder stream instructions are flushed
+     * @param flushThreshold  number of buffered encoder stream bytes that triggers a flush (not used with EXPLICIT policy)
+     */
+    public EncoderImpl(int maxTableCapacity, int maxBlockedStreams, FlushPolicy flushPolicy, int flushThreshold) {
+        this(EncoderConfig.create(maxTableCapacity, maxBlockedStreams, flushPolicy, flushThreshold), null, null);
+    }
+
+    /**
+     * Creates an encoder with the given configuration, that records its events in the given trace (if not null), and
+     * that primes the dynamic table with entries from the given dictionary (if not null): the insert instructions are
+     * written to the encoder stream before any header block is encoded. The dictionary also learns from the first
+     * header blocks of the connection.
+     */
+    public EncoderImpl(EncoderConfig config, HeaderDictionary dictionary, QpackTraceImpl trace) {
+        staticTable = StaticTable.getInstance();
+        huffman = Huffman.getInstance();
+        dynamicTable = new DynamicTable(0);
+        dynamicTable.setTrace(trace, true);
+        this.trace = trace;
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-required-insert-count
+        maxEntries = config.maxTableCapacity / DynamicTable.ENTRY_OVERHEAD;
+        configuredCapacity = config.tableCapacity;
+        memoryGovernor = config.memoryGovernor;
+        tableCapacity = configuredCapacity;
+        flushPolicy = config.flushPolicy;
+        huffmanPolicy = config.huffmanPolicy;
+        huffmanCache = config.huffmanCache;
+        insertRepeatedOnly = config.insertRepeatedOnly;
+        dynamicNameReferences = config.dynamicNameReferences;
+        splitCookies = config.splitCookies;
+        cookieIndex = staticTable.findByName("cookie");
+        encoderStream = new EncoderStreamWriter(flushPolicy, config.flushThreshold);
+        fieldLines = ByteBuffer.allocate(0);
+        referenceTracker = new ReferenceTracker(dynamicTable, config.blockedStreams, maxEntries);
+        decoderStreamParser = new DecoderStreamParser(referenceTracker);
+        decoderStreamParser.setTrace(trace);
+        nameCache = new NameCache(staticTable, NAME_CACHE_SIZE);
+        this.dictionary = dictionary;
+        start();
     }
 
     /**
@@ -50,79 +160,698 @@ public class EncoderImpl implements Encoder {
      * Use buffer.limit() to determine how many bytes to use.
      */
     @Override
-    public ByteBuffer compressHeaders(List<Map.Entry<String, String>> headers) {
-        int estimatedSize = 10 + headers.stream().mapToInt(entry -> entry.getKey().length() + entry.getValue().length()).sum();
-        ByteBuffer buffer = ByteBuffer.allocate(estimatedSize);
+    public ByteBuffer compressHeaders(List<? extends Map.Entry<? extends CharSequence, ? extends CharSequence>> headers) {
+        learn(headers);
+        startHeaderBlock(false, 0);
+        headers.forEach(this::compressEntry);
+        return finishHeaderBlock(headers.size());
+    }
 
-        insertHeaderBlockPrefix(buffer);
+    @Override
+    public ByteBuffer compressHeaders(HeaderList headers) {
+        learn(headers);
+        startHeaderBlock(false, 0);
+        compressFields(headers);
+        return finishHeaderBlock(headers.size());
+    }
+
+    @Override
+    public ByteBuffer compressHeaders(long streamId, List<? extends Map.Entry<? extends CharSequence, ? extends CharSequence>> headers) {
+        learn(headers);
+        startHeaderBlock(true, streamId);
+        headers.forEach(this::compressEntry);
+        return finishHeaderBlock(headers.size());
+    }
+
+    @Override
+    public ByteBuffer compressHeaders(long streamId, HeaderList headers) {
+        learn(headers);
+        startHeaderBlock(true, streamId);
+        compressFields(headers);
+        return finishHeaderBlock(headers.size());
+    }
+
+    @Override
+    public ByteBuffer[] compressHeadersGathering(long streamId, HeaderList headers) {
+        learn(headers);
+        startHeaderBlock(true, streamId);
+        gathering = true;
+        try {
+            compressFields(headers);
+        }
+        finally {
+            gathering = false;
+            referencedValue = null;
+        }
+        return gather(finishHeaderBlock(headers.size()));
+    }
+
+    @Override
+    public void decodeDecoderStream(ByteBuffer data) {
+        decoderStreamParser.parse(data);
+        if (trace != null) {
+            traceState();
+        }
+    }
+
+    @Override
+    public void reset() {
+        dynamicTable.reset(0);
+        encoderStream.reset();
+        referenceTracker.reset();
+        decoderStreamParser.reset();
+        flushedInsertCount = 0;
+        untrackedReferences = false;
+        learnedBlocks = 0;
+        Arrays.fill(seenFields, 0);
+        release();
+        tableCapacity = configuredCapacity;
+        started = false;
+    }
+
+    @Override
+    public void close() {
+        release();
+        closed = true;
+    }
+
+    /**
+     * Starts using the encoder for a connection (if not yet started): reserves the table capacity with the memory
+     * governor and writes the table capacity (and the primed entries) to the encoder stream.
+     */
+    private void start() {
+        if (!started) {
+            started = true;
+            if (memoryGovernor != null && !closed) {
+                tableCapacity = memoryGovernor.reserve(configuredCapacity);
+                registered = true;
+            }
+            if (tableCapacity > 0) {
+                insertSetDynamicTableCapacity(tableCapacity);
+                primeDynamicTable();
+            }
+        }
+    }
+
+    private void release() {
+        if (registered) {
+            memoryGovernor.unregister(tableCapacity);
+            registered = false;
+        }
+    }
+
+    @Override
+    public MemoryFootprint memoryFootprint() {
+        long bufferBytes = fieldLines.capacity() + encoderStream.allocatedBytes() + decoderStreamParser.scratchBytes()
+                + nameScratch.length + valueScratch.length + nameCache.allocatedBytes();
+        return new MemoryFootprintImpl(dynamicTable, bufferBytes, encoderStream.bufferedBytes());
+    }
+
+    /**
+     * Inserts the entries selected from the warm-start dictionary (using at most half of the table, so there is room
+     * for new entries without evicting the primed ones) and flushes them, so they can be sent ahead of the first
+     * header block.
+     */
+    private void primeDynamicTable() {
+        if (dictionary == null) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : dictionary.select(tableCapacity / 2)) {
+            byte[] name = entry.getKey().getBytes(HTTP_HEADER_CHARSET);
+            byte[] value = entry.getValue().getBytes(HTTP_HEADER_CHARSET);
+            if (dynamicTable.find(name, 0, name.length, value, 0, value.length) < 0 && canInsert(name.length, value.length)) {
+                int staticNameIndex = staticTable.findByName(name, 0, name.length);
+                insertIntoDynamicTable(staticNameIndex, name, 0, name.length, value, 0, value.length);
+            }
+        }
+        if (flushPolicy != FlushPolicy.EXPLICIT) {
+            flushEncoderStream();
+        }
+    }
+
+    private void learn(List<? extends Map.Entry<? extends CharSequence, ? extends CharSequence>> headers) {
+        if (dictionary != null && learnedBlocks < LEARNED_BLOCKS_PER_CONNECTION) {
+            learnedBlocks++;
+            for (Map.Entry<? extends CharSequence, ? extends CharSequence> entry : headers) {
+                dictionary.learn(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void learn(HeaderList headers) {
+        if (dictionary != null && learnedBlocks < LEARNED_BLOCKS_PER_CONNECTION) {
+            learnedBlocks++;
+            for (int i = 0; i < headers.size(); i++) {
+                if ((headers.flags(i) & (HeaderList.NEVER_INDEXED | HeaderList.STATIC_MATCH)) == 0) {
+                    dictionary.learn(headers.name(i), headers.value(i));
+                }
+            }
+        }
+    }
 
-        headers.forEach(entry -> compressEntry(entry, buffer));
+    private void compressFields(HeaderList headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            compressField(headers, i);
+        }
+    }
+
+    private void startHeaderBlock(boolean tracked, long streamId) {
+        start();
+        if (memoryGovernor != null && tableCapacity > memoryGovernor.encoderCapacityLimit()) {
+            reduceCapacity(memoryGovernor.encoderCapacityLimit());
+        }
+        fieldLines.clear();
+        base = dynamicTable.insertCount();
+        requiredInsertCount = 0;
+        this.tracked = tracked;
+        this.streamId = streamId;
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-blocked-streams
+        // "If the decoder encounters more blocked streams than it promised to support, it MUST treat this as a
+        //  connection error of type QPACK_DECOMPRESSION_FAILED."
+        // Without stream id, it cannot be known whether the stream is blocking, so only acknowledged entries are used.
+        mayBlock = tracked && referenceTracker.mayBlock(streamId);
+        minReference = Long.MAX_VALUE;
+        gatheredCount = 0;
+    }
+
+    private ByteBuffer finishHeaderBlock(int fieldCount) {
+        if (trace != null && requiredInsertCount > referenceTracker.knownReceivedCount()) {
+            // https://www.rfc-editor.org/rfc/rfc9204.html#name-blocked-streams
+            trace.streamStateUpdated(tracked? streamId: -1, true);
+        }
+        if (tracked) {
+            referenceTracker.sectionSent(streamId, requiredInsertCount, minReference);
+        }
+        else if (requiredInsertCount > 0) {
+            referenceTracker.untrackedSectionSent(requiredInsertCount);
+            untrackedReferences = true;
+        }
+
+        if (flushPolicy == FlushPolicy.BEFORE_REFERENCING_BLOCK && requiredInsertCount > flushedInsertCount) {
+            flushEncoderStream();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PREFIX_SIZE + fieldLines.position());
+        insertHeaderBlockPrefix(buffer);
+        fieldLines.flip();
+        buffer.put(fieldLines);
 
         buffer.limit(buffer.position());
+        if (trace != null) {
+            int gatheredLength = 0;
+            for (int i = 0; i < gatheredCount; i++) {
+                gatheredLength += gatheredValues[i].remaining();
+            }
+            trace.headersEncoded(tracked? streamId: -1, fieldCount, requiredInsertCount, base, buffer.limit() + gatheredLength);
+            traceState();
+        }
         return buffer;
     }
 
-    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.5.1
+    /**
+     * Splits the given header block (prefix and field lines, without the referenced values) at the positions of the
+     * referenced values, and returns the parts interleaved with the referenced values.
+     */
+    private ByteBuffer[] gather(ByteBuffer block) {
+        int prefixLength = block.limit() - fieldLines.limit();
+        ByteBuffer[] output = new ByteBuffer[2 * gatheredCount + 1];
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i < gatheredCount; i++) {
+            int end = prefixLength + gatheredPositions[i];
+            if (end > start) {
+                output[count++] = slice(block, start, end);
+            }
+            output[count++] = gatheredValues[i];
+            gatheredValues[i] = null;
+            start = end;
+        }
+        if (block.limit() > start || count == 0) {
+            output[count++] = slice(block, start, block.limit());
+        }
+        gatheredCount = 0;
+        return count == output.length? output: Arrays.copyOf(output, count);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end).position(start);
+        return slice.slice();
+    }
+
+    private void traceState() {
+        trace.stateUpdated(true, dynamicTable.capacity(), dynamicTable.size(), referenceTracker.knownReceivedCount(), dynamicTable.insertCount());
+    }
+
+    @Override
+    public void flushEncoderStream() {
+        start();
+        encoderStream.flush();
+        flushedInsertCount = dynamicTable.insertCount();
+    }
+
+    @Override
+    public ByteBuffer pollEncoderStreamData() {
+        start();
+        return encoderStream.poll();
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-encoded-field-section-prefi
     private void insertHeaderBlockPrefix(ByteBuffer buffer) {
-        buffer.put((byte) 0x00);
-        buffer.put((byte) 0x00);
+        if (requiredInsertCount == 0) {
+            buffer.put((byte) 0x00);
+            buffer.put((byte) 0x00);
+        }
+        else {
+            // https://www.rfc-editor.org/rfc/rfc9204.html#name-required-insert-count
+            // "EncodedInsertCount = (ReqInsertCount mod (2 * MaxEntries)) + 1"
+            insertPrefixedInteger(8, (byte) 0x00, (int) (requiredInsertCount % (2 * maxEntries) + 1), buffer);
+            // https://www.rfc-editor.org/rfc/rfc9204.html#name-base
+            if (base >= requiredInsertCount) {
+                insertPrefixedInteger(7, (byte) 0x00, (int) (base - requiredInsertCount), buffer);
+            }
+            else {
+                insertPrefixedInteger(7, (byte) 0x80, (int) (requiredInsertCount - base - 1), buffer);
+            }
+        }
+    }
+
+    void compressEntry(Map.Entry<? extends CharSequence, ? extends CharSequence> entry) {
+        EncodedFieldLine encoded = entry instanceof EncodedFieldLine && ((EncodedFieldLine) entry).hasEncodedValue()?
+                (EncodedFieldLine) entry: null;
+        CharSequence name = entry.getKey();
+        int nameLength = name.length();
+        NameCache.Entry cachedName = name instanceof String? nameCache.get((String) name): null;
+        byte[] nameBytes;
+        if (cachedName != null) {
+            nameBytes = cachedName.bytes;
+        }
+        else {
+            nameScratch = ensureLength(nameScratch, nameLength);
+            encodeChars(name, nameScratch, 0);
+            nameBytes = nameScratch;
+        }
+
+        if (encoded != null && dynamicTable.capacity() == 0 && encoded.minValueLength() > staticTable.maxValueLength()) {
+            // The value cannot be in the static table, so the field will be written as a literal: no need to decode it.
+            // Without dynamic table, the plain value of an encoded field is not needed.
+            int index = cachedName != null? (cachedName.staticIndices.length > 0? cachedName.staticIndices[0]: -1):
+                    staticTable.findByName(nameBytes, 0, nameLength);
+            compressField(index, nameBytes, 0, nameLength, null, 0, 0, false, encoded);
+            return;
+        }
+
+        CharSequence value = entry.getValue();
+        valueScratch = ensureLength(valueScratch, value.length());
+        int valueLength = encodeChars(value, valueScratch, 0);
+        if (splitCookies && dynamicTable.capacity() > 0 && isCookie(nameBytes, 0, nameLength)) {
+            compressCookie(valueScratch, 0, valueLength, false);
+            return;
+        }
+        int index = cachedName != null?
+                findStaticEntry(cachedName.staticIndices, valueScratch, valueLength):
+                staticTable.findByNameAndValue(nameBytes, 0, nameLength, valueScratch, 0, valueLength);
+        if (index >= 0 && staticTable.valueEquals(index, valueScratch, 0, valueLength)) {
+            insertIndexedHeaderField(index);
+            return;
+        }
+        compressField(index, nameBytes, 0, nameLength, valueScratch, 0, valueLength, false, encoded);
+    }
+
+    /**
+     * Returns the static table entry (from the given entries with the same name) with the given value, or, if there is
+     * none, the first of the given entries, or -1 if there are no entries.
+     */
+    private int findStaticEntry(int[] staticIndices, byte[] value, int valueLength) {
+        for (int index : staticIndices) {
+            if (staticTable.valueEquals(index, value, 0, valueLength)) {
+                return index;
+            }
+        }
+        return staticIndices.length > 0? staticIndices[0]: -1;
+    }
+
+    /**
+     * Writes the characters as (US-ASCII) bytes; characters outside the ASCII range are replaced by '?', as
+     * String.getBytes(HTTP_HEADER_CHARSET) does.
+     * @return  the number of bytes written
+     */
+    static int encodeChars(CharSequence chars, byte[] destination, int offset) {
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            destination[offset + i] = c < 0x80? (byte) c: (byte) '?';
+        }
+        return length;
     }
 
-    void compressEntry(Map.Entry<String, String> entry, ByteBuffer buffer) {
-        int index = staticTable.findByNameAndValue(entry.getKey(), entry.getValue());
-        if (index >= 0) {
-            if (staticTable.lookupNameValue(index).getValue().equals(entry.getValue())) {
-                insertIndexedHeaderField(index, buffer);
+    private static byte[] ensureLength(byte[] buffer, int length) {
+        return buffer.length >= length? buffer: new byte[Math.max(length, buffer.length * 2)];
+    }
+
+    private void compressField(HeaderList headers, int field) {
+        byte[] arena = headers.arena();
+        int nameOffset = headers.nameOffset(field);
+        int nameLength = headers.nameLength(field);
+        int valueOffset = headers.valueOffset(field);
+        int valueLength = headers.valueLength(field);
+        byte[] value = arena;
+        ByteBuffer reference = headers.valueReference(field);
+        if (reference != null) {
+            if (reference.hasArray()) {
+                value = reference.array();
+                valueOffset = reference.arrayOffset() + reference.position();
             }
             else {
-                insertLiteralHeaderFieldWithNsmeReference(index, entry.getValue(), buffer);
+                valueScratch = ensureLength(valueScratch, valueLength);
+                reference.duplicate().get(valueScratch, 0, valueLength);
+                value = valueScratch;
+                valueOffset = 0;
+            }
+        }
+        referencedValue = gathering? reference: null;
+        int index = headers.staticIndex(field);
+        int flags = headers.flags(field);
+        // A name that is not well-known cannot be in the static table.
+        if (index < 0 && headers.headerId(field) != HeaderId.UNKNOWN) {
+            index = staticTable.findByNameAndValue(arena, nameOffset, nameLength, value, valueOffset, valueLength);
+            if (index >= 0 && staticTable.valueEquals(index, value, valueOffset, valueLength)) {
+                flags |= HeaderList.STATIC_MATCH;
+            }
+        }
+        if ((flags & HeaderList.STATIC_MATCH) != 0) {
+            insertIndexedHeaderField(index);
+        }
+        else if (splitCookies && dynamicTable.capacity() > 0 && headers.headerId(field) == HeaderId.COOKIE) {
+            compressCookie(value, valueOffset, valueLength, (flags & HeaderList.NEVER_INDEXED) != 0);
+        }
+        else {
+            compressField(index, arena, nameOffset, nameLength, value, valueOffset, valueLength, (flags & HeaderList.NEVER_INDEXED) != 0, null);
+        }
+    }
+
+    private static boolean isCookie(byte[] name, int nameOffset, int nameLength) {
+        return nameLength == 6 && HeaderId.of(name, nameOffset, nameLength) == HeaderId.COOKIE;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9114.html#name-compressing-the-cookie-head
+    // "To allow for better compression efficiency, the Cookie header field ([COOKIES]) MAY be split into separate
+    //  field lines, each with one or more cookie-pairs, before compression."
+    /**
+     * Encodes each crumb (cookie-pair) of the given cookie value as a separate cookie field, so that crumbs that do not
+     * change can be referenced in the dynamic table, while changing crumbs are written as literals.
+     */
+    private void compressCookie(byte[] value, int valueOffset, int valueLength, boolean neverIndexed) {
+        byte[] name = staticTable.nameBytes(cookieIndex);
+        int end = valueOffset + valueLength;
+        int start = valueOffset;
+        while (start < end) {
+            int separator = start;
+            while (separator < end && value[separator] != ';') {
+                separator++;
+            }
+            if (separator > start) {
+                compressField(cookieIndex, name, 0, name.length, value, start, separator - start, neverIndexed, null);
+            }
+            start = separator + 1;
+            while (start < end && value[start] == ' ') {
+                start++;
+            }
+        }
+    }
+
+    /**
+     * Encodes a field that does not match a static table entry (with the same value).
+     * @param staticNameIndex  index of a static table entry with the same name, or -1 if there is none
+     * @param value  the plain value; may only be null when encoded is not null and the dynamic table is not used
+     * @param neverIndexed  whether the field must be encoded as a literal with the N bit set
+     * @param encoded  if not null, the field whose encoded value is copied when the field is encoded as a literal
+     */
+    private void compressField(int staticNameIndex, byte[] name, int nameOffset, int nameLength,
+                               byte[] value, int valueOffset, int valueLength, boolean neverIndexed, EncodedFieldLine encoded) {
+        if (dynamicTable.capacity() > 0 && !neverIndexed) {
+            long dynamicIndex = dynamicTable.find(name, nameOffset, nameLength, value, valueOffset, valueLength);
+            if (dynamicIndex < 0 && canInsert(nameLength, valueLength)
+                    && (!insertRepeatedOnly || isRepeated(name, nameOffset, nameLength, value, valueOffset, valueLength))) {
+                dynamicIndex = insertIntoDynamicTable(staticNameIndex, name, nameOffset, nameLength, value, valueOffset, valueLength);
+            }
+            if (dynamicIndex >= 0 && mayReference(dynamicIndex)) {
+                insertIndexedHeaderFieldDynamic(dynamicIndex);
+                return;
+            }
+        }
+
+        // A value that was decoded from a literal is copied in its original (possibly Huffman) encoding.
+        boolean huffmanEncoded = false;
+        if (encoded != null) {
+            value = encoded.encodedValue();
+            valueOffset = 0;
+            valueLength = value.length;
+            huffmanEncoded = encoded.isHuffmanEncoded();
+        }
+        if (staticNameIndex < 0 && dynamicNameReferences && dynamicTable.capacity() > 0) {
+            long nameIndex = dynamicTable.findName(name, nameOffset, nameLength);
+            if (nameIndex >= 0 && mayReference(nameIndex)) {
+                insertLiteralHeaderFieldWithDynamicNameReference(nameIndex, value, valueOffset, valueLength, huffmanEncoded, neverIndexed);
+                return;
+            }
+        }
+
+        if (staticNameIndex >= 0) {
+            insertLiteralHeaderFieldWithNsmeReference(staticNameIndex, value, valueOffset, valueLength, huffmanEncoded, neverIndexed);
+        }
+        else {
+            insertLiteralHeaderFieldWithoutNameReference(name, nameOffset, nameLength, value, valueOffset, valueLength, huffmanEncoded, neverIndexed);
+        }
+    }
+
+    /**
+     * Returns whether the given field was (probably) encoded before, and registers it as encoded. Fields are registered
+     * by hash in a small direct-mapped table, so a field may be missed when another field with the same slot is encoded
+     * in between.
+     */
+    private boolean isRepeated(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength) {
+        int hash = 1;
+        for (int i = nameOffset; i < nameOffset + nameLength; i++) {
+            hash = 31 * hash + name[i];
+        }
+        for (int i = valueOffset; i < valueOffset + valueLength; i++) {
+            hash = 31 * hash + value[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SEEN_FIELDS_SIZE - 1);
+        if (seenFields[slot] == hash) {
+            return true;
+        }
+        seenFields[slot] = hash;
+        return false;
+    }
+
+    /**
+     * Returns whether an entry of the given size can be inserted, i.e. whether it fits in the table after evicting
+     * only entries that are evictable.
+     */
+    private boolean canInsert(int nameLength, int valueLength) {
+        int required = dynamicTable.size() + DynamicTable.entrySize(nameLength, valueLength) - dynamicTable.capacity();
+        if (required <= 0) {
+            return true;
+        }
+        if (untrackedReferences) {
+            return false;
+        }
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-avoiding-prohibited-inserti
+        // "A dynamic table entry cannot be evicted immediately after insertion, even if it has never been referenced.
+        //  Once the insertion of a dynamic table entry has been acknowledged and there are no outstanding references to
+        //  the entry in unacknowledged field sections, the entry becomes evictable."
+        long evictableLimit = Math.min(referenceTracker.knownReceivedCount(), Math.min(referenceTracker.minOutstandingReference(), minReference));
+        for (long index = dynamicTable.droppedCount(); index < evictableLimit && required > 0; index++) {
+            required -= DynamicTable.entrySize(dynamicTable.nameLength(index), dynamicTable.valueLength(index));
+        }
+        return required <= 0;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-set-dynamic-table-capacity
+    // "Reducing the dynamic table capacity can cause entries to be evicted; see Section 3.2.2. This MUST NOT cause the
+    //  eviction of entries that are not evictable; see Section 2.1.1."
+    /**
+     * Reduces the table capacity towards the given limit (set by the memory governor), as far as that is possible by
+     * evicting evictable entries, and releases the capacity that is no longer used.
+     */
+    private void reduceCapacity(int limit) {
+        int remaining = dynamicTable.size();
+        if (!untrackedReferences) {
+            long evictableLimit = Math.min(referenceTracker.knownReceivedCount(), referenceTracker.minOutstandingReference());
+            for (long index = dynamicTable.droppedCount(); index < evictableLimit && remaining > limit; index++) {
+                remaining -= DynamicTable.entrySize(dynamicTable.nameLength(index), dynamicTable.valueLength(index));
             }
         }
+        int newCapacity = Math.max(limit, remaining);
+        if (newCapacity < tableCapacity) {
+            insertSetDynamicTableCapacity(newCapacity);
+            memoryGovernor.reclaim(tableCapacity - newCapacity);
+            tableCapacity = newCapacity;
+        }
+    }
+
+    /**
+     * Returns whether the field section being encoded may reference the given entry, which is the case when the entry
+     * is acknowledged or when the stream may be blocked.
+     */
+    private boolean mayReference(long absoluteIndex) {
+        return absoluteIndex < referenceTracker.knownReceivedCount() || mayBlock;
+    }
+
+    /**
+     * Inserts the given entry into the dynamic table, by writing the appropriate instruction to the encoder stream.
+     * @param staticNameIndex  static table index of an entry with the same name or -1 if there is none.
+     * @return  absolute index of the inserted entry
+     */
+    private long insertIntoDynamicTable(int staticNameIndex, byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength) {
+        ByteBuffer buffer = encoderStream.buffer(MAX_INSTRUCTION_OVERHEAD + nameLength + valueLength);
+        int start = buffer.position();
+        long dynamicNameIndex = staticNameIndex < 0? dynamicTable.findName(name, nameOffset, nameLength): -1;
+        if (staticNameIndex >= 0) {
+            // https://www.rfc-editor.org/rfc/rfc9204.html#name-insert-with-name-reference
+            insertPrefixedInteger(6, (byte) 0xc0, staticNameIndex, buffer);
+        }
+        else if (dynamicNameIndex >= 0) {
+            insertPrefixedInteger(6, (byte) 0x80, (int) (dynamicTable.insertCount() - 1 - dynamicNameIndex), buffer);
+        }
         else {
-            insertLiteralHeaderFieldWithoutNameReference(entry, buffer);
+            // https://www.rfc-editor.org/rfc/rfc9204.html#name-insert-with-literal-name
+            writeStringLiteral(5, (byte) 0x40, name, nameOffset, nameLength, false, buffer);
         }
+        writeStringLiteral(7, (byte) 0x00, value, valueOffset, valueLength, false, buffer);
+        if (trace != null) {
+            if (staticNameIndex >= 0 || dynamicNameIndex >= 0) {
+                long nameIndex = staticNameIndex >= 0? staticNameIndex: dynamicTable.insertCount() - 1 - dynamicNameIndex;
+                trace.instructionCreated(QpackTraceImpl.INSERT_WITH_NAME_REFERENCE, staticNameIndex >= 0, nameIndex, valueLength, buffer.position() - start);
+            }
+            else {
+                trace.instructionCreated(QpackTraceImpl.INSERT_WITHOUT_NAME_REFERENCE, false, nameLength, valueLength, buffer.position() - start);
+            }
+        }
+        encoderStream.instructionComplete();
+
+        dynamicTable.insert(name, nameOffset, nameLength, value, valueOffset, valueLength);
+        return dynamicTable.insertCount() - 1;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-set-dynamic-table-capacity
+    private void insertSetDynamicTableCapacity(int capacity) {
+        ByteBuffer buffer = encoderStream.buffer(MAX_INSTRUCTION_OVERHEAD);
+        int start = buffer.position();
+        insertPrefixedInteger(5, (byte) 0x20, capacity, buffer);
+        if (trace != null) {
+            trace.instructionCreated(QpackTraceImpl.SET_DYNAMIC_TABLE_CAPACITY, false, capacity, 0, buffer.position() - start);
+        }
+        encoderStream.instructionComplete();
+        dynamicTable.setCapacity(capacity);
     }
 
     // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.5.2
-    private void insertIndexedHeaderField(int index, ByteBuffer buffer) {
-        insertPrefixedInteger(6, (byte) 0xc0, index, buffer);
+    private void insertIndexedHeaderField(int index) {
+        insertPrefixedInteger(6, (byte) 0xc0, index, fieldLinesBuffer(MAX_INSTRUCTION_OVERHEAD));
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-indexed-field-line
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-indexed-field-line-with-pos
+    private void insertIndexedHeaderFieldDynamic(long absoluteIndex) {
+        ByteBuffer buffer = fieldLinesBuffer(MAX_INSTRUCTION_OVERHEAD);
+        requiredInsertCount = Math.max(requiredInsertCount, absoluteIndex + 1);
+        minReference = Math.min(minReference, absoluteIndex);
+        if (absoluteIndex < base) {
+            insertPrefixedInteger(6, (byte) 0x80, (int) (base - 1 - absoluteIndex), buffer);
+        }
+        else {
+            insertPrefixedInteger(4, (byte) 0x10, (int) (absoluteIndex - base), buffer);
+        }
     }
 
     // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.5.4
-    private void insertLiteralHeaderFieldWithNsmeReference(int index, String value, ByteBuffer buffer) {
-        insertPrefixedInteger(4, (byte) 0x50, index, buffer);
-        byte[] valueBytes = value.getBytes(HTTP_HEADER_CHARSET);
-        insertPrefixedInteger(7, (byte) 0x00, valueBytes.length, buffer);
-        buffer.put(valueBytes);
+    private void insertLiteralHeaderFieldWithNsmeReference(int index, byte[] value, int valueOffset, int valueLength, boolean huffmanEncoded, boolean neverIndexed) {
+        ByteBuffer buffer = fieldLinesBuffer(MAX_INSTRUCTION_OVERHEAD + valueLength);
+        insertPrefixedInteger(4, (byte) (neverIndexed? 0x70: 0x50), index, buffer);
+        writeValue(value, valueOffset, valueLength, huffmanEncoded, buffer);
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-literal-field-line-with-nam
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-literal-field-line-with-pos
+    private void insertLiteralHeaderFieldWithDynamicNameReference(long absoluteIndex, byte[] value, int valueOffset, int valueLength, boolean huffmanEncoded, boolean neverIndexed) {
+        ByteBuffer buffer = fieldLinesBuffer(MAX_INSTRUCTION_OVERHEAD + valueLength);
+        requiredInsertCount = Math.max(requiredInsertCount, absoluteIndex + 1);
+        minReference = Math.min(minReference, absoluteIndex);
+        if (absoluteIndex < base) {
+            insertPrefixedInteger(4, (byte) (neverIndexed? 0x60: 0x40), (int) (base - 1 - absoluteIndex), buffer);
+        }
+        else {
+            insertPrefixedInteger(3, (byte) (neverIndexed? 0x08: 0x00), (int) (absoluteIndex - base), buffer);
+        }
+        writeValue(value, valueOffset, valueLength, huffmanEncoded, buffer);
     }
 
     // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.5.6
-    private void insertLiteralHeaderFieldWithoutNameReference(Map.Entry<String, String> entry, ByteBuffer buffer) {
-        byte[] keyBytes = entry.getKey().getBytes(HTTP_HEADER_CHARSET);
-        insertPrefixedInteger(3,(byte) 0x20, keyBytes.length, buffer);
-        buffer.put(keyBytes);
-        byte[] valueBytes = entry.getValue().getBytes(HTTP_HEADER_CHARSET);
-        insertPrefixedInteger(7, (byte) 0x00, valueBytes.length, buffer);
-        buffer.put(valueBytes);
+    private void insertLiteralHeaderFieldWithoutNameReference(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength, boolean huffmanEncoded, boolean neverIndexed) {
+        ByteBuffer buffer = fieldLinesBuffer(MAX_INSTRUCTION_OVERHEAD + nameLength + valueLength);
+        writeStringLiteral(3, (byte) (neverIndexed? 0x30: 0x20), name, nameOffset, nameLength, false, buffer);
+        writeValue(value, valueOffset, valueLength, huffmanEncoded, buffer);
     }
 
-    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.1.1
-    // https://tools.ietf.org/html/rfc7541#section-5.1
-    void insertPrefixedInteger(int prefixLength, byte prefix, int value, ByteBuffer buffer) {
-        int maxPrefix = (int) (Math.pow(2, prefixLength) - 1);
-        if (value < maxPrefix) {
-            buffer.put((byte) (prefix | value));
+    /**
+     * Writes the value string literal of a field line. When gathering, a (large) referenced value that is not Huffman
+     * encoded is not copied: only its length is written, the value itself is added to the output as a separate buffer.
+     */
+    private void writeValue(byte[] value, int valueOffset, int valueLength, boolean huffmanEncoded, ByteBuffer buffer) {
+        if (referencedValue != null && valueLength >= MIN_GATHERED_VALUE_LENGTH && valueLength == referencedValue.remaining()
+                && !huffmanEncoded && (huffmanPolicy == HuffmanPolicy.NEVER || Huffman.encodedLength(value, valueOffset, valueLength) >= valueLength)) {
+            InstructionWriter.writePrefixedInteger(7, (byte) 0x00, valueLength, buffer);
+            if (gatheredCount == gatheredPositions.length) {
+                gatheredPositions = Arrays.copyOf(gatheredPositions, gatheredCount * 2);
+                gatheredValues = Arrays.copyOf(gatheredValues, gatheredCount * 2);
+            }
+            gatheredPositions[gatheredCount] = buffer.position();
+            gatheredValues[gatheredCount] = referencedValue.slice();
+            gatheredCount++;
         }
         else {
-            buffer.put((byte) (prefix | maxPrefix));
-            int remainder = value - maxPrefix;
-            while (remainder > 128) {
-                byte next = (byte) ((remainder % 128) | 0x80);
-                buffer.put(next);
-                remainder = remainder / 128;
+            writeStringLiteral(7, (byte) 0x00, value, valueOffset, valueLength, huffmanEncoded, buffer);
+        }
+    }
+
+    /**
+     * Writes a string literal, Huffman encoded when the Huffman policy says so. The Huffman encoding is taken from the
+     * shared cache, if there is one.
+     * @param huffmanEncoded  whether the given bytes are already Huffman encoded
+     */
+    private void writeStringLiteral(int prefixLength, byte prefix, byte[] bytes, int offset, int length, boolean huffmanEncoded, ByteBuffer buffer) {
+        if (!huffmanEncoded && huffmanPolicy == HuffmanPolicy.WHEN_SMALLER && huffmanCache != null) {
+            byte[] encoded = huffmanCache.encode(bytes, offset, length);
+            if (encoded.length < length) {
+                InstructionWriter.writeStringLiteral(prefixLength, prefix, encoded, 0, encoded.length, true, buffer);
+            }
+            else {
+                InstructionWriter.writeStringLiteral(prefixLength, prefix, bytes, offset, length, false, buffer);
             }
-            buffer.put((byte) remainder);
         }
+        else if (!huffmanEncoded && huffmanPolicy == HuffmanPolicy.WHEN_SMALLER) {
+            InstructionWriter.writeHuffmanIfSmaller(prefixLength, prefix, bytes, offset, length, buffer);
+        }
+        else {
+            InstructionWriter.writeStringLiteral(prefixLength, prefix, bytes, offset, length, huffmanEncoded, buffer);
+        }
+    }
+
+    /**
+     * Returns the buffer for writing field lines, that is guaranteed to have at least the given number of bytes remaining.
+     */
+    private ByteBuffer fieldLinesBuffer(int required) {
+        fieldLines = InstructionWriter.ensureRemaining(fieldLines, required);
+        return fieldLines;
+    }
+
+    // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-4.1.1
+    // https://tools.ietf.org/html/rfc7541#section-5.1
+    void insertPrefixedInteger(int prefixLength, byte prefix, int value, ByteBuffer buffer) {
+        InstructionWriter.writePrefixedInteger(prefixLength, prefix, value, buffer);
     }
 
 }
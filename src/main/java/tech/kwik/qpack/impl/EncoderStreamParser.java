@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.nio.ByteBuffer;
+
+// https://www.rfc-editor.org/rfc/rfc9204.html#name-encoder-instructions
+/**
+ * Resumable parser for the encoder stream: accepts the stream data in arbitrary chunks and applies each instruction to
+ * the dynamic table as soon as it is complete.
+ */
+class EncoderStreamParser extends InstructionParser {
+
+    private enum State {
+        INSTRUCTION,
+        SET_CAPACITY,
+        NAME_REFERENCE,
+        NAME_REFERENCE_VALUE,
+        LITERAL_NAME,
+        LITERAL_NAME_VALUE,
+        DUPLICATE
+    }
+
+    private final StaticTable staticTable;
+    private final DynamicTable dynamicTable;
+    private int maxTableCapacity;
+    private State state = State.INSTRUCTION;
+    private boolean referStatic;
+    private byte[] name = new byte[0];
+    private byte[] value = new byte[0];
+    // The name of the entry to insert: either the name scratch buffer, or the (shared) name bytes of the static table
+    private byte[] insertName;
+    private int nameLength;
+    private long nameIndex;
+    private QpackTraceImpl trace;
+
+    EncoderStreamParser(StaticTable staticTable, DynamicTable dynamicTable, int maxTableCapacity, Huffman huffman) {
+        super(huffman);
+        this.staticTable = staticTable;
+        this.dynamicTable = dynamicTable;
+        this.maxTableCapacity = maxTableCapacity;
+    }
+
+    void setTrace(QpackTraceImpl trace) {
+        this.trace = trace;
+    }
+
+    void setMaxTableCapacity(int maxTableCapacity) {
+        this.maxTableCapacity = maxTableCapacity;
+    }
+
+    /**
+     * Parses the given encoder stream data; all bytes are consumed.
+     * @param data
+     */
+    void parse(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            switch (state) {
+                case INSTRUCTION:
+                    int instruction = data.get(data.position()) & 0xff;
+                    if ((instruction & 0x80) == 0x80) {
+                        referStatic = (instruction & 0x40) == 0x40;
+                        state = State.NAME_REFERENCE;
+                    }
+                    else if ((instruction & 0xc0) == 0x40) {
+                        state = State.LITERAL_NAME;
+                    }
+                    else if ((instruction & 0xe0) == 0x20) {
+                        state = State.SET_CAPACITY;
+                    }
+                    else {
+                        state = State.DUPLICATE;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-set-dynamic-table-capacity
+                case SET_CAPACITY:
+                    if (readPrefixedInteger(data, 5)) {
+                        if (trace != null) {
+                            trace.instructionParsed(QpackTraceImpl.SET_DYNAMIC_TABLE_CAPACITY, false, integerValue(), 0);
+                        }
+                        setCapacity(integerValue());
+                        state = State.INSTRUCTION;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-insert-with-name-reference
+                case NAME_REFERENCE:
+                    if (readPrefixedInteger(data, 6)) {
+                        nameIndex = integerValue();
+                        copyReferencedName(nameIndex);
+                        state = State.NAME_REFERENCE_VALUE;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-insert-with-literal-name
+                case LITERAL_NAME:
+                    if (readStringLiteral(data, 5)) {
+                        name = copyLiteralValue(name);
+                        insertName = name;
+                        nameLength = literalValueLength();
+                        state = State.LITERAL_NAME_VALUE;
+                    }
+                    break;
+                case NAME_REFERENCE_VALUE:
+                case LITERAL_NAME_VALUE:
+                    if (readStringLiteral(data, 7)) {
+                        if (trace != null) {
+                            if (state == State.NAME_REFERENCE_VALUE) {
+                                trace.instructionParsed(QpackTraceImpl.INSERT_WITH_NAME_REFERENCE, referStatic, nameIndex, literalValueLength());
+                            }
+                            else {
+                                trace.instructionParsed(QpackTraceImpl.INSERT_WITHOUT_NAME_REFERENCE, false, nameLength, literalValueLength());
+                            }
+                        }
+                        dynamicTable.insert(insertName, 0, nameLength, literalValueBytes(), literalValueOffset(), literalValueLength());
+                        state = State.INSTRUCTION;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-duplicate
+                case DUPLICATE:
+                    if (readPrefixedInteger(data, 5)) {
+                        if (trace != null) {
+                            trace.instructionParsed(QpackTraceImpl.DUPLICATE, false, integerValue(), 0);
+                        }
+                        duplicate(integerValue());
+                        state = State.INSTRUCTION;
+                    }
+                    break;
+            }
+        }
+    }
+
+    void reset() {
+        resetPrimitives();
+        state = State.INSTRUCTION;
+    }
+
+    @Override
+    long scratchBytes() {
+        return super.scratchBytes() + name.length + value.length;
+    }
+
+    /**
+     * Returns whether the last data parsed ended in the middle of an instruction.
+     */
+    boolean isInstructionIncomplete() {
+        return state != State.INSTRUCTION;
+    }
+
+    private void setCapacity(long capacity) {
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-set-dynamic-table-capacity
+        // "The decoder MUST treat a new dynamic table capacity value that exceeds this limit as a connection error of
+        //  type QPACK_ENCODER_STREAM_ERROR."
+        if (capacity > maxTableCapacity) {
+            throw parseError("capacity " + capacity + " exceeds maximum table capacity " + maxTableCapacity);
+        }
+        dynamicTable.setCapacity((int) capacity);
+    }
+
+    private void copyReferencedName(long index) {
+        if (referStatic) {
+            if (!staticTable.contains(index)) {
+                throw parseError("invalid static table index " + index);
+            }
+            insertName = staticTable.nameBytes((int) index);
+            nameLength = insertName.length;
+        }
+        else {
+            long absoluteIndex = toAbsoluteIndex(index);
+            name = ensureLength(name, dynamicTable.nameLength(absoluteIndex));
+            // Copy, as the referenced entry might be evicted by the insert
+            nameLength = dynamicTable.copyName(absoluteIndex, name, 0);
+            insertName = name;
+        }
+    }
+
+    private void duplicate(long index) {
+        long absoluteIndex = toAbsoluteIndex(index);
+        // Copy, as the duplicated entry might be evicted by the insert
+        name = ensureLength(name, dynamicTable.nameLength(absoluteIndex));
+        int nameLength = dynamicTable.copyName(absoluteIndex, name, 0);
+        value = ensureLength(value, dynamicTable.valueLength(absoluteIndex));
+        int valueLength = dynamicTable.copyValue(absoluteIndex, value, 0);
+        dynamicTable.insert(name, 0, nameLength, value, 0, valueLength);
+    }
+
+    private static byte[] ensureLength(byte[] buffer, int length) {
+        return buffer.length >= length? buffer: new byte[Math.max(length, buffer.length * 2)];
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-relative-indexing
+    // "In encoder instructions, a relative index of "0" refers to the most recently inserted value in the dynamic table."
+    private long toAbsoluteIndex(long relativeIndex) {
+        long absoluteIndex = dynamicTable.insertCount() - 1 - relativeIndex;
+        if (!dynamicTable.contains(absoluteIndex)) {
+            throw parseError("invalid relative index " + relativeIndex);
+        }
+        return absoluteIndex;
+    }
+
+    @Override
+    protected RuntimeException parseError(String message) {
+        return new HttpQPackEncoderStreamErrorException(message);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.Encoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Output buffer for the encoder stream, that coalesces encoder instructions (possibly generated by several calls to
+ * compressHeaders) into as few buffers as possible, so the transport can send them in fewer (and fuller) STREAM frames.
+ * Instructions are written into a pending buffer; when flushed (explicitly or as determined by the flush policy),
+ * the pending bytes are made available as one ByteBuffer.
+ */
+class EncoderStreamWriter {
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final Encoder.FlushPolicy flushPolicy;
+    private final int flushThreshold;
+    private final Queue<ByteBuffer> flushed;
+    private ByteBuffer pending;
+    private long flushedBytes;
+
+    EncoderStreamWriter(Encoder.FlushPolicy flushPolicy, int flushThreshold) {
+        this.flushPolicy = flushPolicy;
+        this.flushThreshold = flushThreshold;
+        flushed = new ArrayDeque<>();
+        pending = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Returns the buffer to write the next instruction to, which is guaranteed to have at least the given number of
+     * bytes remaining. After the instruction is written, instructionComplete() must be called.
+     * @param maxInstructionSize
+     * @return
+     */
+    ByteBuffer buffer(int maxInstructionSize) {
+        if (pending.remaining() < maxInstructionSize) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(pending.position() + maxInstructionSize,
+                    Math.max(pending.capacity() * 2, INITIAL_BUFFER_SIZE)));
+            pending.flip();
+            newBuffer.put(pending);
+            pending = newBuffer;
+        }
+        return pending;
+    }
+
+    void instructionComplete() {
+        if (flushPolicy != Encoder.FlushPolicy.EXPLICIT && pending.position() >= flushThreshold) {
+            flush();
+        }
+    }
+
+    /**
+     * Makes all pending instructions available for sending.
+     */
+    void flush() {
+        if (pending.position() > 0) {
+            ByteBuffer data = ByteBuffer.allocate(pending.position());
+            pending.flip();
+            data.put(pending);
+            data.flip();
+            flushed.add(data);
+            flushedBytes += data.capacity();
+            pending.clear();
+        }
+    }
+
+    /**
+     * Returns the next buffer with flushed encoder stream data, or null if there is none.
+     */
+    ByteBuffer poll() {
+        ByteBuffer data = flushed.poll();
+        if (data != null) {
+            flushedBytes -= data.capacity();
+        }
+        return data;
+    }
+
+    /**
+     * Discards all pending and flushed data, keeping the pending buffer.
+     */
+    void reset() {
+        pending.clear();
+        flushed.clear();
+        flushedBytes = 0;
+    }
+
+    int pendingBytes() {
+        return pending.position();
+    }
+
+    /**
+     * Returns the number of bytes that are pending or flushed but not yet polled.
+     */
+    long bufferedBytes() {
+        return pending.position() + flushedBytes;
+    }
+
+    /**
+     * Returns the number of bytes allocated for the pending buffer and the flushed buffers not yet polled.
+     */
+    long allocatedBytes() {
+        return pending.capacity() + flushedBytes;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.Decoder.FieldValidation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// https://www.rfc-editor.org/rfc/rfc9114.html#name-http-fields
+/**
+ * Validates the fields of a request, response or trailer section as they are decoded, so a malformed message is
+ * rejected as soon as the offending field line is parsed. Static table entries are known to be valid, so for those only the pseudo-header
+ * rules are checked; for literals and dynamic table entries, the name and value bytes are checked as well.
+ * An instance validates one field section at a time; reset() prepares it for the next.
+ */
+class FieldValidator {
+
+    // Name kinds: pseudo-header fields have a (positive) bit each, other names have a kind <= 0.
+    static final int METHOD = 0x01;
+    static final int SCHEME = 0x02;
+    static final int AUTHORITY = 0x04;
+    static final int PATH = 0x08;
+    static final int PROTOCOL = 0x10;
+    static final int STATUS = 0x20;
+    static final int REGULAR = 0;
+    static final int TE = -1;
+    private static final int CONNECTION_SPECIFIC = -2;
+
+    private static final int REQUEST_PSEUDO_HEADERS = METHOD | SCHEME | AUTHORITY | PATH | PROTOCOL;
+    private static final int RESPONSE_PSEUDO_HEADERS = STATUS;
+
+    private static final byte[][] PSEUDO_HEADER_NAMES = bytes(":method", ":scheme", ":authority", ":path", ":protocol", ":status");
+    // https://www.rfc-editor.org/rfc/rfc9114.html#name-connection-specific-header-
+    // "An endpoint MUST NOT generate an HTTP/3 field section containing connection-specific fields; any message
+    //  containing connection-specific fields MUST be treated as malformed."
+    private static final byte[][] CONNECTION_SPECIFIC_NAMES = bytes("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+    private static final byte[] TE_NAME = bytes("te")[0];
+    private static final byte[] TRAILERS = bytes("trailers")[0];
+    private static final byte[] CONNECT = bytes("CONNECT")[0];
+
+    private static final int[] STATIC_NAME_KINDS = classifyStaticNames(StaticTable.getInstance());
+
+    private final FieldValidation validation;
+    private final int allowedPseudoHeaders;
+    private int pseudoHeaders;
+    private boolean regularFieldSeen;
+    private boolean connect;
+    private byte[] nameScratch = new byte[64];
+    private byte[] valueScratch = new byte[256];
+
+    /**
+     * @param validation  whether the field section is a request, response or trailer section (not NONE)
+     */
+    FieldValidator(FieldValidation validation) {
+        this.validation = validation;
+        switch (validation) {
+            case REQUEST:
+                allowedPseudoHeaders = REQUEST_PSEUDO_HEADERS;
+                break;
+            case RESPONSE:
+                allowedPseudoHeaders = RESPONSE_PSEUDO_HEADERS;
+                break;
+            default:
+                // https://www.rfc-editor.org/rfc/rfc9114.html#name-http-control-data
+                // "Pseudo-header fields MUST NOT appear in trailer sections."
+                allowedPseudoHeaders = 0;
+        }
+    }
+
+    void reset() {
+        pseudoHeaders = 0;
+        regularFieldSeen = false;
+        connect = false;
+    }
+
+    long scratchBytes() {
+        return nameScratch.length + valueScratch.length;
+    }
+
+    /**
+     * Validates a field line that refers to a static table entry (name and value).
+     */
+    void staticField(StaticTable staticTable, int index) {
+        int kind = staticName(index);
+        byte[] value = staticTable.valueBytes(index);
+        checkPseudoHeaderValue(kind, value, 0, value.length);
+    }
+
+    /**
+     * Validates a field line that refers to a dynamic table entry (name and value).
+     */
+    void dynamicField(DynamicTable dynamicTable, long absoluteIndex) {
+        int kind = dynamicName(dynamicTable, absoluteIndex);
+        valueScratch = ensureLength(valueScratch, dynamicTable.valueLength(absoluteIndex));
+        int valueLength = dynamicTable.copyValue(absoluteIndex, valueScratch, 0);
+        value(kind, valueScratch, 0, valueLength);
+    }
+
+    /**
+     * Validates the name of a literal field line that refers to a static table entry.
+     * @return  the kind of name, to be passed to value()
+     */
+    int staticName(int index) {
+        return accept(STATIC_NAME_KINDS[index]);
+    }
+
+    /**
+     * Validates the name of a literal field line that refers to a dynamic table entry.
+     * @return  the kind of name, to be passed to value()
+     */
+    int dynamicName(DynamicTable dynamicTable, long absoluteIndex) {
+        nameScratch = ensureLength(nameScratch, dynamicTable.nameLength(absoluteIndex));
+        int nameLength = dynamicTable.copyName(absoluteIndex, nameScratch, 0);
+        return literalName(nameScratch, 0, nameLength);
+    }
+
+    /**
+     * Validates a literal name.
+     * @return  the kind of name, to be passed to value()
+     */
+    int literalName(byte[] name, int offset, int length) {
+        return accept(classify(name, offset, length, true));
+    }
+
+    /**
+     * Validates the (literal) value of a field whose name is validated before.
+     */
+    void value(int kind, byte[] value, int offset, int length) {
+        // https://www.rfc-editor.org/rfc/rfc9114.html#name-field-compression
+        // "A request or response that contains a field line value with a character that is not permitted MUST be
+        //  treated as malformed" (RFC 9110, Section 5.5: no NUL, CR or LF, no leading or trailing whitespace)
+        for (int i = offset; i < offset + length; i++) {
+            byte b = value[i];
+            if (b == 0x00 || b == '\r' || b == '\n') {
+                throw malformed("invalid character in field value");
+            }
+        }
+        if (length > 0 && (isWhitespace(value[offset]) || isWhitespace(value[offset + length - 1]))) {
+            throw malformed("field value starts or ends with whitespace");
+        }
+        checkPseudoHeaderValue(kind, value, offset, length);
+    }
+
+    /**
+     * Checks the rules that apply to the field section as a whole; to be called after the last field is validated.
+     */
+    void finish() {
+        // https://www.rfc-editor.org/rfc/rfc9114.html#name-request-pseudo-header-field
+        // "All HTTP/3 requests MUST include exactly one value for the :method, :scheme, and :path pseudo-header fields,
+        //  unless the request is a CONNECT request"
+        if (validation == FieldValidation.REQUEST) {
+            if (connect && (pseudoHeaders & PROTOCOL) == 0) {
+                // https://www.rfc-editor.org/rfc/rfc9114.html#name-the-connect-method
+                // "The :scheme and :path pseudo-header fields are omitted. The :authority pseudo-header field contains
+                //  the host and port to connect to"
+                if ((pseudoHeaders & (SCHEME | PATH)) != 0 || (pseudoHeaders & AUTHORITY) == 0) {
+                    throw malformed("invalid CONNECT request pseudo-header fields");
+                }
+            }
+            else if ((pseudoHeaders & (METHOD | SCHEME | PATH)) != (METHOD | SCHEME | PATH)) {
+                throw malformed("missing request pseudo-header field");
+            }
+            else if ((pseudoHeaders & PROTOCOL) != 0 && !connect) {
+                throw malformed(":protocol pseudo-header field in non-CONNECT request");
+            }
+        }
+        // https://www.rfc-editor.org/rfc/rfc9114.html#name-response-pseudo-header-fiel
+        // "For responses, a single ":status" pseudo-header field is defined that carries the HTTP status code"
+        else if (validation == FieldValidation.RESPONSE && (pseudoHeaders & STATUS) == 0) {
+            throw malformed("missing :status pseudo-header field");
+        }
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9114.html#name-http-control-data
+    // "All pseudo-header fields MUST appear in the header section before regular header fields."
+    // "The same pseudo-header field name MUST NOT appear more than once in a field section."
+    // "Pseudo-header fields defined for requests MUST NOT appear in responses; pseudo-header fields defined for
+    //  responses MUST NOT appear in requests."
+    private int accept(int kind) {
+        if (kind > 0) {
+            if ((kind & allowedPseudoHeaders) == 0) {
+                throw malformed("pseudo-header field not allowed");
+            }
+            if (regularFieldSeen) {
+                throw malformed("pseudo-header field after regular field");
+            }
+            if ((pseudoHeaders & kind) != 0) {
+                throw malformed("duplicate pseudo-header field");
+            }
+            pseudoHeaders |= kind;
+        }
+        else if (kind == CONNECTION_SPECIFIC) {
+            throw malformed("connection-specific field");
+        }
+        else {
+            regularFieldSeen = true;
+        }
+        return kind;
+    }
+
+    private void checkPseudoHeaderValue(int kind, byte[] value, int offset, int length) {
+        switch (kind) {
+            case METHOD:
+                connect = equals(value, offset, length, CONNECT);
+                break;
+            case PATH:
+                // https://www.rfc-editor.org/rfc/rfc9114.html#name-request-pseudo-header-field
+                // "This pseudo-header field MUST NOT be empty for "http" or "https" URIs"
+                if (length == 0) {
+                    throw malformed("empty :path pseudo-header field");
+                }
+                break;
+            case TE:
+                // "The only exception to this is the TE header field, which MAY be present in an HTTP/3 request header;
+                //  when it is, it MUST NOT contain any value other than "trailers"."
+                if (!equals(value, offset, length, TRAILERS)) {
+                    throw malformed("invalid TE field value");
+                }
+                break;
+        }
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9114.html#name-field-compression
+    // "A request or response containing uppercase characters in field names MUST be treated as malformed."
+    // "a field name MUST NOT contain characters in the ranges 0x00-0x20, 0x41-0x5a, or 0x7f-0xff (all ranges
+    //  inclusive). This specifically excludes all non-visible ASCII characters, ASCII SP (0x20), and uppercase
+    //  characters ('A' to 'Z', ASCII 0x41 to 0x5a)."
+    private static int classify(byte[] name, int offset, int length, boolean checkCharacters) {
+        if (length == 0) {
+            throw malformed("empty field name");
+        }
+        if (name[offset] == ':') {
+            for (int i = 0; i < PSEUDO_HEADER_NAMES.length; i++) {
+                if (equals(name, offset, length, PSEUDO_HEADER_NAMES[i])) {
+                    return 1 << i;
+                }
+            }
+            // "Endpoints MUST treat a request or response that contains undefined or invalid pseudo-header fields as malformed."
+            throw malformed("undefined pseudo-header field");
+        }
+        if (checkCharacters) {
+            for (int i = offset; i < offset + length; i++) {
+                int c = name[i] & 0xff;
+                if (c <= 0x20 || (c >= 'A' && c <= 'Z') || c >= 0x7f || c == ':') {
+                    throw malformed("invalid character in field name");
+                }
+            }
+        }
+        for (byte[] connectionSpecific : CONNECTION_SPECIFIC_NAMES) {
+            if (equals(name, offset, length, connectionSpecific)) {
+                return CONNECTION_SPECIFIC;
+            }
+        }
+        return equals(name, offset, length, TE_NAME)? TE: REGULAR;
+    }
+
+    private static int[] classifyStaticNames(StaticTable staticTable) {
+        int[] kinds = new int[staticTable.size()];
+        for (int i = 0; i < kinds.length; i++) {
+            if (staticTable.contains(i)) {
+                byte[] name = staticTable.nameBytes(i);
+                kinds[i] = classify(name, 0, name.length, false);
+            }
+        }
+        return kinds;
+    }
+
+    private static boolean equals(byte[] bytes, int offset, int length, byte[] expected) {
+        return Arrays.equals(bytes, offset, offset + length, expected, 0, expected.length);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static byte[] ensureLength(byte[] buffer, int length) {
+        return buffer.length >= length? buffer: new byte[Math.max(length, buffer.length * 2)];
+    }
+
+    private static byte[][] bytes(String... strings) {
+        byte[][] result = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            result[i] = strings[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+        return result;
+    }
+
+    private static HttpMessageErrorException malformed(String message) {
+        return new HttpMessageErrorException(message);
+    }
+}
@@ -0,0 +1,602 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.HeaderBlockParser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// https://www.rfc-editor.org/rfc/rfc9204.html#name-field-line-representations
+/**
+ * Resumable parser for a header block (encoded field section). Each field line is decoded as soon as it is complete.
+ */
+public class HeaderBlockParserImpl extends InstructionParser implements HeaderBlockParser {
+
+    protected enum NameSource {
+        STATIC,
+        DYNAMIC,
+        LITERAL
+    }
+
+    private enum State {
+        REQUIRED_INSERT_COUNT,
+        BASE,
+        FIELD_LINE,
+        INDEXED,
+        INDEXED_POST_BASE,
+        NAME_REFERENCE,
+        POST_BASE_NAME_REFERENCE,
+        NAME_REFERENCE_VALUE,
+        LITERAL_NAME,
+        LITERAL_NAME_VALUE
+    }
+
+    private final StaticTable staticTable;
+    private final DynamicTable dynamicTable;
+    private final int maxEntries;
+    private final List<Map.Entry<String, String>> headers;
+    private State state;
+    private boolean referStatic;
+    private boolean negativeDeltaBase;
+    private boolean neverIndexed;
+    private long requiredInsertCount;
+    private long base;
+    private NameSource nameSource;
+    private long nameIndex;
+    private FieldValidator validator;
+    private int nameKind;
+    private int fieldCount;
+    private QpackTraceImpl trace;
+    private int parsedBytes;
+    private boolean tracedBlocked;
+    private final int cookieIndex;
+    private boolean joinCookies;
+    private byte[] cookieValue = new byte[0];
+    // Length of the joined cookie value, or -1 if no cookie field has been parsed.
+    private int cookieLength = -1;
+    private boolean cookieNeverIndexed;
+    private LiteralCache literalCache;
+
+    HeaderBlockParserImpl(StaticTable staticTable, DynamicTable dynamicTable, int maxTableCapacity, Huffman huffman) {
+        super(huffman);
+        this.staticTable = staticTable;
+        this.dynamicTable = dynamicTable;
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-required-insert-count
+        // "MaxEntries = floor( MaxTableCapacity / 32 )"
+        this.maxEntries = maxTableCapacity / DynamicTable.ENTRY_OVERHEAD;
+        headers = new ArrayList<>();
+        cookieIndex = staticTable.findByName("cookie");
+        state = State.REQUIRED_INSERT_COUNT;
+    }
+
+    /**
+     * Makes the parser validate the fields while they are parsed; a malformed field section is rejected (with an
+     * HttpMessageErrorException) as soon as the offending field line is parsed.
+     */
+    void setValidator(FieldValidator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * Makes the parser record blocking and the decoded header block in the given trace.
+     */
+    void setTrace(QpackTraceImpl trace) {
+        this.trace = trace;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9114.html#name-compressing-the-cookie-head
+    // "If a decompressed field section contains multiple cookie field lines, these MUST be concatenated into a single
+    //  byte string using the two-byte delimiter of "; " (ASCII 0x3b, 0x20) before being passed into a context other
+    //  than HTTP/2 or HTTP/3, ..."
+    /**
+     * Makes the parser join all cookie fields (crumbs) into one cookie field, which is added after the other fields.
+     */
+    void setJoinCookies(boolean joinCookies) {
+        this.joinCookies = joinCookies;
+    }
+
+    /**
+     * Makes the parser take decoded literal names and values from the given cache (and add them to it), so literals
+     * that are repeated in header blocks are decoded only once and yield the same String instance.
+     */
+    void setLiteralCache(LiteralCache literalCache) {
+        this.literalCache = literalCache;
+    }
+
+    @Override
+    long scratchBytes() {
+        return super.scratchBytes() + cookieValue.length + (validator != null? validator.scratchBytes(): 0);
+    }
+
+    /**
+     * Resets the parser, so it can be used to parse the next header block.
+     */
+    void reset() {
+        if (validator != null) {
+            validator.reset();
+        }
+        resetPrimitives();
+        headers.clear();
+        requiredInsertCount = 0;
+        base = 0;
+        fieldCount = 0;
+        parsedBytes = 0;
+        tracedBlocked = false;
+        cookieLength = -1;
+        cookieNeverIndexed = false;
+        state = State.REQUIRED_INSERT_COUNT;
+    }
+
+    @Override
+    public void parse(ByteBuffer data) {
+        if (trace != null) {
+            int remaining = data.remaining();
+            parseData(data);
+            parsedBytes += remaining - data.remaining();
+            traceBlocked();
+        }
+        else {
+            parseData(data);
+        }
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-blocked-streams
+    private void traceBlocked() {
+        boolean blocked = isBlocked();
+        if (blocked != tracedBlocked) {
+            trace.streamStateUpdated(-1, blocked);
+            tracedBlocked = blocked;
+        }
+    }
+
+    private void parseData(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            switch (state) {
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-encoded-field-section-prefi
+                case REQUIRED_INSERT_COUNT:
+                    if (readPrefixedInteger(data, 8)) {
+                        requiredInsertCount = decodeRequiredInsertCount(integerValue());
+                        state = State.BASE;
+                    }
+                    break;
+                case BASE:
+                    if (!isReadingPrimitive()) {
+                        negativeDeltaBase = (data.get(data.position()) & 0x80) == 0x80;
+                    }
+                    if (readPrefixedInteger(data, 7)) {
+                        base = negativeDeltaBase? requiredInsertCount - integerValue() - 1: requiredInsertCount + integerValue();
+                        if (base < 0) {
+                            throw parseError("invalid base");
+                        }
+                        state = State.FIELD_LINE;
+                    }
+                    break;
+                case FIELD_LINE:
+                    // https://www.rfc-editor.org/rfc/rfc9204.html#name-blocked-streams
+                    if (isBlocked()) {
+                        return;
+                    }
+                    int instruction = data.get(data.position()) & 0xff;
+                    if ((instruction & 0x80) == 0x80) {
+                        referStatic = (instruction & 0x40) == 0x40;
+                        state = State.INDEXED;
+                    }
+                    else if ((instruction & 0xc0) == 0x40) {
+                        referStatic = (instruction & 0x10) == 0x10;
+                        neverIndexed = (instruction & 0x20) == 0x20;
+                        state = State.NAME_REFERENCE;
+                    }
+                    else if ((instruction & 0xe0) == 0x20) {
+                        neverIndexed = (instruction & 0x10) == 0x10;
+                        state = State.LITERAL_NAME;
+                    }
+                    else if ((instruction & 0xf0) == 0x10) {
+                        state = State.INDEXED_POST_BASE;
+                    }
+                    else {
+                        neverIndexed = (instruction & 0x08) == 0x08;
+                        state = State.POST_BASE_NAME_REFERENCE;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-indexed-field-line
+                case INDEXED:
+                    if (readPrefixedInteger(data, 6)) {
+                        if (referStatic) {
+                            int index = staticIndex(integerValue());
+                            if (validator != null) {
+                                validator.staticField(staticTable, index);
+                            }
+                            if (!isStaticCookie(index)) {
+                                staticField(index);
+                            }
+                        }
+                        else {
+                            long absoluteIndex = relativeToAbsolute(integerValue());
+                            if (validator != null) {
+                                validator.dynamicField(dynamicTable, absoluteIndex);
+                            }
+                            if (!isDynamicCookie(absoluteIndex)) {
+                                dynamicField(absoluteIndex);
+                            }
+                        }
+                        fieldCount++;
+                        state = State.FIELD_LINE;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-indexed-field-line-with-pos
+                case INDEXED_POST_BASE:
+                    if (readPrefixedInteger(data, 4)) {
+                        long absoluteIndex = postBaseToAbsolute(integerValue());
+                        if (validator != null) {
+                            validator.dynamicField(dynamicTable, absoluteIndex);
+                        }
+                        if (!isDynamicCookie(absoluteIndex)) {
+                            dynamicField(absoluteIndex);
+                        }
+                        fieldCount++;
+                        state = State.FIELD_LINE;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-literal-field-line-with-nam
+                case NAME_REFERENCE:
+                    if (readPrefixedInteger(data, 4)) {
+                        nameSource = referStatic? NameSource.STATIC: NameSource.DYNAMIC;
+                        nameIndex = referStatic? staticIndex(integerValue()): relativeToAbsolute(integerValue());
+                        validateName();
+                        state = State.NAME_REFERENCE_VALUE;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-literal-field-line-with-pos
+                case POST_BASE_NAME_REFERENCE:
+                    if (readPrefixedInteger(data, 3)) {
+                        nameSource = NameSource.DYNAMIC;
+                        nameIndex = postBaseToAbsolute(integerValue());
+                        validateName();
+                        state = State.NAME_REFERENCE_VALUE;
+                    }
+                    break;
+                // https://www.rfc-editor.org/rfc/rfc9204.html#name-literal-field-line-with-lit
+                case LITERAL_NAME:
+                    if (readStringLiteral(data, 3)) {
+                        retainLiteralAsName();
+                        nameSource = NameSource.LITERAL;
+                        validateName();
+                        state = State.LITERAL_NAME_VALUE;
+                    }
+                    break;
+                case NAME_REFERENCE_VALUE:
+                case LITERAL_NAME_VALUE:
+                    if (readStringLiteral(data, 7)) {
+                        if (validator != null) {
+                            validator.value(nameKind, literalValueBytes(), literalValueOffset(), literalValueLength());
+                        }
+                        if (!isLiteralCookie()) {
+                            literalField();
+                        }
+                        fieldCount++;
+                        state = State.FIELD_LINE;
+                    }
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public boolean isBlocked() {
+        return state == State.FIELD_LINE && requiredInsertCount > dynamicTable.insertCount();
+    }
+
+    @Override
+    public List<Map.Entry<String, String>> finish() throws IOException {
+        if (state != State.FIELD_LINE || isReadingPrimitive()) {
+            throw new EOFException();
+        }
+        if (isBlocked()) {
+            throw new IllegalStateException("header block is blocked on dynamic table inserts");
+        }
+        if (validator != null) {
+            validator.finish();
+        }
+        if (cookieLength >= 0) {
+            joinedCookie(cookieValue, cookieLength, cookieNeverIndexed);
+            cookieLength = -1;
+        }
+        if (trace != null) {
+            traceBlocked();
+            trace.headersDecoded(-1, fieldCount, requiredInsertCount, base, parsedBytes);
+        }
+        return headers;
+    }
+
+    /**
+     * Called (when joining cookies) with the joined cookie value, when the header block is finished.
+     * @param neverIndexed  whether any of the cookie fields must never be indexed
+     */
+    protected void joinedCookie(byte[] value, int length, boolean neverIndexed) {
+        headers.add(new AbstractMap.SimpleEntry<>(staticTable.lookupName(cookieIndex), new String(value, 0, length, StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * Called when an indexed field line referring to the static table is parsed.
+     */
+    protected void staticField(int index) {
+        headers.add(staticTable.lookupNameValue(index));
+    }
+
+    /**
+     * Called when an indexed field line referring to the dynamic table is parsed.
+     */
+    protected void dynamicField(long absoluteIndex) {
+        headers.add(dynamicTable.entry(absoluteIndex));
+    }
+
+    /**
+     * Called when a literal field line is parsed. The name is described by nameSource() and nameIndex() (or, for a
+     * literal name, by the retained name), the value is the last completed string literal.
+     * A Huffman encoded value is kept in its encoded form (and the String only created when requested), so an encoder
+     * can copy it verbatim when the field is encoded as a literal again.
+     */
+    protected void literalField() {
+        if (literalCache != null) {
+            cachedLiteralField();
+        }
+        else if (isLiteralHuffmanEncoded()) {
+            // https://www.rfc-editor.org/rfc/rfc7541.html#section-5.2
+            // "A padding not corresponding to the most significant bits of the code for the EOS symbol MUST be treated
+            //  as a decoding error." So the value is decoded (into the scratch buffer) to validate it while parsing.
+            literalValueLength();
+            headers.add(new EncodedFieldLine(fieldName(), copyRawLiteral(), true));
+        }
+        else {
+            headers.add(new AbstractMap.SimpleEntry<>(fieldName(), literalString()));
+        }
+    }
+
+    /**
+     * Returns the name of the literal field line being parsed.
+     */
+    protected String fieldName() {
+        switch (nameSource) {
+            case STATIC:
+                return staticTable.lookupName((int) nameIndex);
+            case DYNAMIC:
+                return dynamicTable.name(nameIndex);
+            default:
+                return literalCache != null? cachedRetainedName(): retainedName();
+        }
+    }
+
+    private void cachedLiteralField() {
+        String name = fieldName();
+        boolean huffman = isLiteralHuffmanEncoded();
+        LiteralCache.Entry cached = literalCache.find(rawLiteralBytes(), rawLiteralOffset(), rawLiteralLength(), huffman);
+        byte[] literal;
+        String value;
+        if (cached != null) {
+            literal = cached.literal;
+            value = cached.value;
+        }
+        else {
+            literal = copyRawLiteral();
+            value = literalString();
+            literalCache.add(literal, huffman, value);
+        }
+        if (huffman) {
+            headers.add(new EncodedFieldLine(name, literal, true, value));
+        }
+        else {
+            headers.add(new AbstractMap.SimpleEntry<>(name, value));
+        }
+    }
+
+    private String cachedRetainedName() {
+        LiteralCache.Entry cached = literalCache.find(retainedNameBytes(), 0, retainedNameLength(), isRetainedNameHuffmanEncoded());
+        if (cached != null) {
+            return cached.value;
+        }
+        String name = retainedName();
+        literalCache.add(Arrays.copyOf(retainedNameBytes(), retainedNameLength()), isRetainedNameHuffmanEncoded(), name);
+        return name;
+    }
+
+    protected NameSource nameSource() {
+        return nameSource;
+    }
+
+    /**
+     * Returns the static table index or the absolute dynamic table index of the name of the literal field line being parsed.
+     */
+    protected long nameIndex() {
+        return nameIndex;
+    }
+
+    /**
+     * Returns whether the literal field line being parsed must never be indexed by intermediaries.
+     */
+    protected boolean isNeverIndexed() {
+        return neverIndexed;
+    }
+
+    /**
+     * Returns the static table index of the cookie field.
+     */
+    protected int cookieIndex() {
+        return cookieIndex;
+    }
+
+    protected StaticTable staticTable() {
+        return staticTable;
+    }
+
+    protected DynamicTable dynamicTable() {
+        return dynamicTable;
+    }
+
+    /**
+     * If joining cookies and the given static table entry is a cookie field, appends its value to the joined cookie.
+     * @return  whether the field is a cookie that is joined
+     */
+    private boolean isStaticCookie(int index) {
+        if (joinCookies && index == cookieIndex) {
+            byte[] value = staticTable.valueBytes(index);
+            System.arraycopy(value, 0, cookieBuffer(value.length), cookieLength, value.length);
+            cookieLength += value.length;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isDynamicCookie(long absoluteIndex) {
+        byte[] cookieName = staticTable.nameBytes(cookieIndex);
+        if (joinCookies && dynamicTable.nameEquals(absoluteIndex, cookieName, 0, cookieName.length)) {
+            byte[] buffer = cookieBuffer(dynamicTable.valueLength(absoluteIndex));
+            cookieLength += dynamicTable.copyValue(absoluteIndex, buffer, cookieLength);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isLiteralCookie() {
+        if (!joinCookies) {
+            return false;
+        }
+        byte[] cookieName = staticTable.nameBytes(cookieIndex);
+        boolean cookie;
+        switch (nameSource) {
+            case STATIC:
+                cookie = nameIndex == cookieIndex;
+                break;
+            case DYNAMIC:
+                cookie = dynamicTable.nameEquals(nameIndex, cookieName, 0, cookieName.length);
+                break;
+            default:
+                cookie = Arrays.equals(decodedRetainedNameBytes(), 0, decodedRetainedNameLength(), cookieName, 0, cookieName.length);
+        }
+        if (cookie) {
+            int length = literalValueLength();
+            System.arraycopy(literalValueBytes(), literalValueOffset(), cookieBuffer(length), cookieLength, length);
+            cookieLength += length;
+            cookieNeverIndexed |= neverIndexed;
+        }
+        return cookie;
+    }
+
+    /**
+     * Prepares the joined cookie buffer for appending a crumb of the given length: grows the buffer when necessary and
+     * appends the delimiter if there is a previous crumb.
+     * @return  the buffer, to which the crumb must be written at cookieLength
+     */
+    private byte[] cookieBuffer(int crumbLength) {
+        int start = cookieLength < 0? 0: cookieLength + 2;
+        if (cookieValue.length < start + crumbLength) {
+            cookieValue = Arrays.copyOf(cookieValue, Math.max(start + crumbLength, cookieValue.length * 2));
+        }
+        if (cookieLength >= 0) {
+            cookieValue[cookieLength] = ';';
+            cookieValue[cookieLength + 1] = ' ';
+        }
+        cookieLength = start;
+        return cookieValue;
+    }
+
+    // The name is validated before the value is read, so a malformed field section is rejected as early as possible.
+    private void validateName() {
+        if (validator != null) {
+            switch (nameSource) {
+                case STATIC:
+                    nameKind = validator.staticName((int) nameIndex);
+                    break;
+                case DYNAMIC:
+                    nameKind = validator.dynamicName(dynamicTable, nameIndex);
+                    break;
+                default:
+                    nameKind = validator.literalName(decodedRetainedNameBytes(), 0, decodedRetainedNameLength());
+            }
+        }
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-required-insert-count
+    private long decodeRequiredInsertCount(long encodedInsertCount) {
+        if (encodedInsertCount == 0) {
+            return 0;
+        }
+        long fullRange = 2L * maxEntries;
+        if (encodedInsertCount > fullRange) {
+            throw parseError("invalid encoded required insert count");
+        }
+        long totalNumberOfInserts = dynamicTable.insertCount();
+        long maxValue = totalNumberOfInserts + maxEntries;
+        long maxWrapped = (maxValue / fullRange) * fullRange;
+        long requiredInsertCount = maxWrapped + encodedInsertCount - 1;
+        if (requiredInsertCount > maxValue) {
+            if (requiredInsertCount <= fullRange) {
+                throw parseError("invalid encoded required insert count");
+            }
+            requiredInsertCount -= fullRange;
+        }
+        if (requiredInsertCount == 0) {
+            throw parseError("invalid encoded required insert count");
+        }
+        return requiredInsertCount;
+    }
+
+    private int staticIndex(long index) {
+        if (!staticTable.contains(index)) {
+            throw parseError("invalid static table index " + index);
+        }
+        return (int) index;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-relative-indexing
+    // "In a field line representation, a relative index of 0 refers to the entry with absolute index equal to Base - 1."
+    private long relativeToAbsolute(long relativeIndex) {
+        return checkDynamicIndex(base - 1 - relativeIndex);
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-post-base-indexing
+    // "Post-Base indices are used in field line representations for entries with absolute indices greater than or
+    //  equal to Base, starting at 0 for the entry with absolute index equal to Base"
+    private long postBaseToAbsolute(long postBaseIndex) {
+        return checkDynamicIndex(base + postBaseIndex);
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-invalid-references
+    // "If the decoder encounters a reference in a field line representation to a dynamic table entry that has already
+    //  been evicted or that has an absolute index greater than or equal to the declared Required Insert Count, it MUST
+    //  treat this as a connection error of type QPACK_DECOMPRESSION_FAILED."
+    private long checkDynamicIndex(long absoluteIndex) {
+        if (absoluteIndex >= requiredInsertCount || !dynamicTable.contains(absoluteIndex)) {
+            throw parseError("invalid dynamic table reference " + absoluteIndex);
+        }
+        return absoluteIndex;
+    }
+
+    @Override
+    protected RuntimeException parseError(String message) {
+        return new HttpQPackDecompressionFailedException(message);
+    }
+}
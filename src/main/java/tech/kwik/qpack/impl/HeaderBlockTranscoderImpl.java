@@ -0,0 +1,208 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.HeaderBlockTranscoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Transcoder that parses the input block with the HPACK or QPACK parser and writes each field line as soon as it is
+ * parsed, copying string literals (Huffman encoded or not) verbatim. Only names that are looked up in a table are
+ * materialized as Strings, to find their index in the static table of the output format.
+ */
+public class HeaderBlockTranscoderImpl implements HeaderBlockTranscoder {
+
+    private static final int MAX_INSTRUCTION_OVERHEAD = 30;
+
+    private final StaticTable qpackStaticTable;
+    private final StaticTable hpackStaticTable;
+    private final Huffman huffman;
+    private final HpackToQpack hpackParser;
+    private final DynamicTable qpackDynamicTable;
+    private final int qpackMaxTableCapacity;
+    private final EncoderStreamParser encoderStreamParser;
+    private ByteBuffer output;
+
+    public HeaderBlockTranscoderImpl(int hpackMaxTableSize, int qpackMaxTableCapacity) {
+        qpackStaticTable = StaticTable.getInstance();
+        hpackStaticTable = StaticTable.getHpackInstance();
+        huffman = Huffman.getInstance();
+        hpackParser = new HpackToQpack(hpackMaxTableSize);
+        // The dynamic table starts with capacity 0, until the encoder sets its capacity.
+        qpackDynamicTable = new DynamicTable(0);
+        this.qpackMaxTableCapacity = qpackMaxTableCapacity;
+        encoderStreamParser = new EncoderStreamParser(qpackStaticTable, qpackDynamicTable, qpackMaxTableCapacity, huffman);
+        output = ByteBuffer.allocate(0);
+    }
+
+    @Override
+    public ByteBuffer hpackToQpack(ByteBuffer hpackBlock) {
+        output.clear();
+        // https://www.rfc-editor.org/rfc/rfc9204.html#name-encoded-field-section-prefi
+        // Only the static table is referenced, so Required Insert Count and Delta Base are both 0.
+        ensureRemaining(2);
+        output.put((byte) 0x00);
+        output.put((byte) 0x00);
+        hpackParser.parse(hpackBlock);
+        return InstructionWriter.copyWritten(output);
+    }
+
+    @Override
+    public ByteBuffer qpackToHpack(ByteBuffer qpackBlock) throws IOException {
+        output.clear();
+        QpackToHpack qpackParser = new QpackToHpack();
+        qpackParser.parse(qpackBlock);
+        qpackParser.finish();
+        return InstructionWriter.copyWritten(output);
+    }
+
+    @Override
+    public void decodeQpackEncoderStream(ByteBuffer data) {
+        encoderStreamParser.parse(data);
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-indexed-field-line
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-literal-field-line-with-nam
+    private void writeQpackField(Map.Entry<String, String> field) {
+        int index = qpackStaticTable.findByNameAndValue(field.getKey(), field.getValue());
+        if (index >= 0 && qpackStaticTable.lookupNameValue(index).getValue().equals(field.getValue())) {
+            ensureRemaining(MAX_INSTRUCTION_OVERHEAD);
+            InstructionWriter.writePrefixedInteger(6, (byte) 0xc0, index, output);
+        }
+        else {
+            byte[] value = field.getValue().getBytes(StandardCharsets.ISO_8859_1);
+            writeQpackLiteral(field.getKey(), false, value, 0, value.length, false);
+        }
+    }
+
+    private void writeQpackLiteral(String name, boolean neverIndexed, byte[] value, int valueOffset, int valueLength, boolean valueHuffman) {
+        int index = qpackStaticTable.findByName(name);
+        if (index >= 0) {
+            ensureRemaining(MAX_INSTRUCTION_OVERHEAD + InstructionWriter.maxStringLiteralSize(valueLength));
+            InstructionWriter.writePrefixedInteger(4, (byte) (neverIndexed? 0x70: 0x50), index, output);
+            InstructionWriter.writeStringLiteral(7, (byte) 0x00, value, valueOffset, valueLength, valueHuffman, output);
+        }
+        else {
+            byte[] nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+            writeQpackLiteralName(neverIndexed, nameBytes, nameBytes.length, false, value, valueOffset, valueLength, valueHuffman);
+        }
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-literal-field-line-with-lit
+    private void writeQpackLiteralName(boolean neverIndexed, byte[] name, int nameLength, boolean nameHuffman, byte[] value, int valueOffset, int valueLength, boolean valueHuffman) {
+        ensureRemaining(InstructionWriter.maxStringLiteralSize(nameLength) + InstructionWriter.maxStringLiteralSize(valueLength));
+        InstructionWriter.writeStringLiteral(3, (byte) (neverIndexed? 0x30: 0x20), name, 0, nameLength, nameHuffman, output);
+        InstructionWriter.writeStringLiteral(7, (byte) 0x00, value, valueOffset, valueLength, valueHuffman, output);
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.1
+    // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.2.2
+    private void writeHpackField(Map.Entry<String, String> field) {
+        int index = hpackStaticTable.findByNameAndValue(field.getKey(), field.getValue());
+        if (index >= 0 && hpackStaticTable.lookupNameValue(index).getValue().equals(field.getValue())) {
+            ensureRemaining(MAX_INSTRUCTION_OVERHEAD);
+            InstructionWriter.writePrefixedInteger(7, (byte) 0x80, index, output);
+        }
+        else {
+            byte[] value = field.getValue().getBytes(StandardCharsets.ISO_8859_1);
+            writeHpackLiteral(field.getKey(), false, value, 0, value.length, false);
+        }
+    }
+
+    private void writeHpackLiteral(String name, boolean neverIndexed, byte[] value, int valueOffset, int valueLength, boolean valueHuffman) {
+        int index = hpackStaticTable.findByName(name);
+        if (index >= 0) {
+            ensureRemaining(MAX_INSTRUCTION_OVERHEAD + InstructionWriter.maxStringLiteralSize(valueLength));
+            InstructionWriter.writePrefixedInteger(4, (byte) (neverIndexed? 0x10: 0x00), index, output);
+            InstructionWriter.writeStringLiteral(7, (byte) 0x00, value, valueOffset, valueLength, valueHuffman, output);
+        }
+        else {
+            byte[] nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+            writeHpackLiteralName(neverIndexed, nameBytes, nameBytes.length, false, value, valueOffset, valueLength, valueHuffman);
+        }
+    }
+
+    private void writeHpackLiteralName(boolean neverIndexed, byte[] name, int nameLength, boolean nameHuffman, byte[] value, int valueOffset, int valueLength, boolean valueHuffman) {
+        ensureRemaining(1 + InstructionWriter.maxStringLiteralSize(nameLength) + InstructionWriter.maxStringLiteralSize(valueLength));
+        output.put((byte) (neverIndexed? 0x10: 0x00));
+        InstructionWriter.writeStringLiteral(7, (byte) 0x00, name, 0, nameLength, nameHuffman, output);
+        InstructionWriter.writeStringLiteral(7, (byte) 0x00, value, valueOffset, valueLength, valueHuffman, output);
+    }
+
+    private void ensureRemaining(int required) {
+        output = InstructionWriter.ensureRemaining(output, required);
+    }
+
+    private class HpackToQpack extends HpackDecoderImpl {
+
+        HpackToQpack(int maxTableSize) {
+            super(maxTableSize);
+        }
+
+        @Override
+        protected void indexedField(long index) {
+            writeQpackField(lookup(index));
+        }
+
+        @Override
+        protected void literalField(long nameIndex, boolean neverIndexed) {
+            if (nameIndex == 0) {
+                writeQpackLiteralName(neverIndexed, retainedNameBytes(), retainedNameLength(), isRetainedNameHuffmanEncoded(),
+                        rawLiteralBytes(), rawLiteralOffset(), rawLiteralLength(), isLiteralHuffmanEncoded());
+            }
+            else {
+                writeQpackLiteral(fieldName(nameIndex), neverIndexed,
+                        rawLiteralBytes(), rawLiteralOffset(), rawLiteralLength(), isLiteralHuffmanEncoded());
+            }
+        }
+    }
+
+    private class QpackToHpack extends HeaderBlockParserImpl {
+
+        QpackToHpack() {
+            super(qpackStaticTable, qpackDynamicTable, qpackMaxTableCapacity, huffman);
+        }
+
+        @Override
+        protected void staticField(int index) {
+            writeHpackField(staticTable().lookupNameValue(index));
+        }
+
+        @Override
+        protected void dynamicField(long absoluteIndex) {
+            writeHpackField(dynamicTable().entry(absoluteIndex));
+        }
+
+        @Override
+        protected void literalField() {
+            if (nameSource() == NameSource.LITERAL) {
+                writeHpackLiteralName(isNeverIndexed(), retainedNameBytes(), retainedNameLength(), isRetainedNameHuffmanEncoded(),
+                        rawLiteralBytes(), rawLiteralOffset(), rawLiteralLength(), isLiteralHuffmanEncoded());
+            }
+            else {
+                writeHpackLiteral(fieldName(), isNeverIndexed(),
+                        rawLiteralBytes(), rawLiteralOffset(), rawLiteralLength(), isLiteralHuffmanEncoded());
+            }
+        }
+    }
+}
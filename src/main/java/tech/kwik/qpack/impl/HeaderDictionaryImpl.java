@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.HeaderDictionary;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fixed or learning warm-start dictionary. A learning dictionary counts how often each (name, value) pair is encoded;
+ * the value of an entry is the number of bytes it would have saved, i.e. count times (name length + value length).
+ * To bound the memory used, the number of tracked pairs is limited: when the limit is reached, all counts are halved
+ * and pairs with a count of zero are dropped, so pairs that are no longer used are eventually forgotten.
+ */
+public class HeaderDictionaryImpl implements HeaderDictionary {
+
+    // Never learned: values are specific for a user, and a dictionary may be shared by connections of different users.
+    private static final Set<String> SENSITIVE_NAMES = Set.of("authorization", "proxy-authorization", "cookie", "set-cookie");
+    // A pair must be seen at least this number of times to be selected.
+    private static final int MIN_COUNT = 2;
+
+    private final List<Map.Entry<String, String>> fixedEntries;
+    private final int maxCandidates;
+    private final Map<Map.Entry<String, String>, Integer> counts;
+
+    public HeaderDictionaryImpl(List<Map.Entry<String, String>> entries) {
+        fixedEntries = List.copyOf(entries);
+        maxCandidates = 0;
+        counts = null;
+    }
+
+    public HeaderDictionaryImpl(int maxCandidates) {
+        if (maxCandidates < 1) {
+            throw new IllegalArgumentException("maxCandidates must be positive");
+        }
+        fixedEntries = null;
+        this.maxCandidates = maxCandidates;
+        counts = new HashMap<>();
+    }
+
+    @Override
+    public List<Map.Entry<String, String>> select(int maxSize) {
+        List<Map.Entry<String, String>> candidates;
+        if (fixedEntries != null) {
+            candidates = fixedEntries;
+        }
+        else {
+            synchronized (this) {
+                candidates = new ArrayList<>();
+                counts.forEach((entry, count) -> {
+                    if (count >= MIN_COUNT) {
+                        candidates.add(entry);
+                    }
+                });
+                candidates.sort((e1, e2) -> Long.compare(savings(e2), savings(e1)));
+            }
+        }
+
+        List<Map.Entry<String, String>> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, String> entry : candidates) {
+            int entrySize = DynamicTable.entrySize(entry.getKey().length(), entry.getValue().length());
+            if (size + entrySize <= maxSize) {
+                selected.add(entry);
+                size += entrySize;
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public void learn(CharSequence name, CharSequence value) {
+        if (counts == null) {
+            return;
+        }
+        String nameString = name.toString();
+        if (SENSITIVE_NAMES.contains(nameString)) {
+            return;
+        }
+        String valueString = value.toString();
+        int staticIndex = StaticTable.getInstance().findByNameAndValue(nameString, valueString);
+        if (staticIndex >= 0 && StaticTable.getInstance().lookupNameValue(staticIndex).getValue().equals(valueString)) {
+            // Already in the static table
+            return;
+        }
+
+        Map.Entry<String, String> entry = Map.entry(nameString, valueString);
+        synchronized (this) {
+            if (counts.size() >= maxCandidates && !counts.containsKey(entry)) {
+                age();
+            }
+            counts.merge(entry, 1, Integer::sum);
+        }
+    }
+
+    private void age() {
+        counts.replaceAll((entry, count) -> count / 2);
+        counts.values().removeIf(count -> count == 0);
+        if (counts.size() >= maxCandidates) {
+            // All candidates were seen more than once, make room by dropping the least valuable one.
+            counts.keySet().stream()
+                    .min((e1, e2) -> Long.compare(savings(e1), savings(e2)))
+                    .ifPresent(counts::remove);
+        }
+    }
+
+    private long savings(Map.Entry<String, String> entry) {
+        return (long) counts.get(entry) * (entry.getKey().length() + entry.getValue().length());
+    }
+}
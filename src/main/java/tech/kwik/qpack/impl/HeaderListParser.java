@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.HeaderList;
+
+/**
+ * Header block parser that adds the decoded fields to a HeaderList, so decoding does not create Strings or entry
+ * objects. The parser can be reused for subsequent header blocks.
+ */
+class HeaderListParser extends HeaderBlockParserImpl {
+
+    private HeaderList target;
+    private byte[] nameScratch = new byte[64];
+    private byte[] valueScratch = new byte[256];
+
+    HeaderListParser(StaticTable staticTable, DynamicTable dynamicTable, int maxTableCapacity, Huffman huffman) {
+        super(staticTable, dynamicTable, maxTableCapacity, huffman);
+    }
+
+    /**
+     * Prepares the parser for parsing a header block, adding the fields to the given list.
+     */
+    void reset(HeaderList target) {
+        reset();
+        this.target = target;
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        target = null;
+    }
+
+    @Override
+    long scratchBytes() {
+        return super.scratchBytes() + nameScratch.length + valueScratch.length;
+    }
+
+    @Override
+    protected void joinedCookie(byte[] value, int length, boolean neverIndexed) {
+        byte[] name = staticTable().nameBytes(cookieIndex());
+        target.add(name, 0, name.length, value, 0, length, cookieIndex(), neverIndexed? HeaderList.NEVER_INDEXED: 0);
+    }
+
+    @Override
+    protected void staticField(int index) {
+        byte[] name = staticTable().nameBytes(index);
+        byte[] value = staticTable().valueBytes(index);
+        target.add(name, 0, name.length, value, 0, value.length, index, HeaderList.STATIC_MATCH);
+    }
+
+    @Override
+    protected void dynamicField(long absoluteIndex) {
+        DynamicTable dynamicTable = dynamicTable();
+        int nameLength = copyName(absoluteIndex);
+        valueScratch = ensureLength(valueScratch, dynamicTable.valueLength(absoluteIndex));
+        int valueLength = dynamicTable.copyValue(absoluteIndex, valueScratch, 0);
+        target.add(nameScratch, 0, nameLength, valueScratch, 0, valueLength, -1, 0);
+    }
+
+    @Override
+    protected void literalField() {
+        int flags = isNeverIndexed()? HeaderList.NEVER_INDEXED: 0;
+        byte[] value = literalValueBytes();
+        int valueOffset = literalValueOffset();
+        int valueLength = literalValueLength();
+        switch (nameSource()) {
+            case STATIC:
+                byte[] name = staticTable().nameBytes((int) nameIndex());
+                target.add(name, 0, name.length, value, valueOffset, valueLength, (int) nameIndex(), flags);
+                break;
+            case DYNAMIC:
+                int nameLength = copyName(nameIndex());
+                target.add(nameScratch, 0, nameLength, value, valueOffset, valueLength, -1, flags);
+                break;
+            default:
+                target.add(decodedRetainedNameBytes(), 0, decodedRetainedNameLength(), value, valueOffset, valueLength, -1, flags);
+        }
+    }
+
+    private int copyName(long absoluteIndex) {
+        nameScratch = ensureLength(nameScratch, dynamicTable().nameLength(absoluteIndex));
+        return dynamicTable().copyName(absoluteIndex, nameScratch, 0);
+    }
+
+    private static byte[] ensureLength(byte[] buffer, int length) {
+        return buffer.length >= length? buffer: new byte[Math.max(length, buffer.length * 2)];
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.HpackDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// https://www.rfc-editor.org/rfc/rfc7541.html#section-6
+/**
+ * HPACK decoder, sharing the table, Huffman and integer/string literal infrastructure with the QPACK decoder.
+ * Header blocks must be complete (i.e. include all CONTINUATION frame data).
+ */
+public class HpackDecoderImpl extends InstructionParser implements HpackDecoder {
+
+    public static final int DEFAULT_MAX_TABLE_SIZE = 4096;
+    // https://www.rfc-editor.org/rfc/rfc7541.html#section-2.3.3
+    // "Indices strictly greater than the length of the first table correspond to elements in the second table"
+    static final int FIRST_DYNAMIC_INDEX = 62;
+
+    private final StaticTable staticTable;
+    private final DynamicTable dynamicTable;
+    private final int maxTableSize;
+    private List<Map.Entry<String, String>> headers;
+
+    public HpackDecoderImpl(int maxTableSize) {
+        super(Huffman.getInstance());
+        staticTable = StaticTable.getHpackInstance();
+        dynamicTable = new DynamicTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+    }
+
+    @Override
+    public List<Map.Entry<String, String>> decodeHeaders(ByteBuffer headerBlock) {
+        headers = new ArrayList<>();
+        parse(headerBlock);
+        return headers;
+    }
+
+    /**
+     * Parses a complete header block, calling indexedField or literalField for each field.
+     * @param headerBlock
+     */
+    protected void parse(ByteBuffer headerBlock) {
+        boolean fieldSeen = false;
+        while (headerBlock.hasRemaining()) {
+            int instruction = headerBlock.get(headerBlock.position()) & 0xff;
+            if ((instruction & 0x80) == 0x80) {
+                // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.1
+                long index = readInteger(headerBlock, 7);
+                checkIndex(index);
+                indexedField(index);
+            }
+            else if ((instruction & 0xc0) == 0x40) {
+                // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.2.1
+                parseLiteral(headerBlock, 6, false, true);
+            }
+            else if ((instruction & 0xe0) == 0x20) {
+                // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.3
+                // "This dynamic table size update MUST occur at the beginning of the first header block following the
+                //  change to the dynamic table size."
+                if (fieldSeen) {
+                    throw parseError("dynamic table size update after first field");
+                }
+                long size = readInteger(headerBlock, 5);
+                if (size > maxTableSize) {
+                    throw parseError("dynamic table size update exceeds maximum");
+                }
+                dynamicTable.setCapacity((int) size);
+                continue;
+            }
+            else {
+                // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.2.2
+                // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.2.3
+                parseLiteral(headerBlock, 4, (instruction & 0x10) == 0x10, false);
+            }
+            fieldSeen = true;
+        }
+    }
+
+    private void parseLiteral(ByteBuffer headerBlock, int prefixLength, boolean neverIndexed, boolean incrementalIndexing) {
+        long nameIndex = readInteger(headerBlock, prefixLength);
+        if (nameIndex == 0) {
+            readLiteral(headerBlock);
+            retainLiteralAsName();
+        }
+        else {
+            checkIndex(nameIndex);
+        }
+        readLiteral(headerBlock);
+
+        literalField(nameIndex, neverIndexed);
+
+        if (incrementalIndexing) {
+            byte[] name = fieldName(nameIndex).getBytes(StandardCharsets.ISO_8859_1);
+            // https://www.rfc-editor.org/rfc/rfc7541.html#section-4.4
+            // "an attempt to add an entry larger than the maximum size causes the table to be emptied of all existing
+            //  entries and results in an empty table."
+            if (DynamicTable.entrySize(name.length, literalValueLength()) > dynamicTable.capacity()) {
+                int capacity = dynamicTable.capacity();
+                dynamicTable.setCapacity(0);
+                dynamicTable.setCapacity(capacity);
+            }
+            else {
+                dynamicTable.insert(name, 0, name.length, literalValueBytes(), literalValueOffset(), literalValueLength());
+            }
+        }
+    }
+
+    /**
+     * Called for an indexed header field.
+     * @param index  index in the HPACK index address space (static and dynamic table combined)
+     */
+    protected void indexedField(long index) {
+        headers.add(lookup(index));
+    }
+
+    /**
+     * Called for a literal header field; the value is the last completed string literal.
+     * @param nameIndex  index of the name in the HPACK index address space, or 0 if the name is a literal (which is
+     *                   then available as the retained name)
+     * @param neverIndexed
+     */
+    protected void literalField(long nameIndex, boolean neverIndexed) {
+        headers.add(new AbstractMap.SimpleEntry<>(fieldName(nameIndex), literalString()));
+    }
+
+    protected Map.Entry<String, String> lookup(long index) {
+        if (index < FIRST_DYNAMIC_INDEX) {
+            return staticTable.lookupNameValue((int) index);
+        }
+        else {
+            return dynamicTable.entry(toAbsoluteIndex(index));
+        }
+    }
+
+    protected String fieldName(long nameIndex) {
+        if (nameIndex == 0) {
+            return retainedName();
+        }
+        else if (nameIndex < FIRST_DYNAMIC_INDEX) {
+            return staticTable.lookupName((int) nameIndex);
+        }
+        else {
+            return dynamicTable.name(toAbsoluteIndex(nameIndex));
+        }
+    }
+
+    private long toAbsoluteIndex(long index) {
+        return dynamicTable.insertCount() - 1 - (index - FIRST_DYNAMIC_INDEX);
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc7541.html#section-2.3.3
+    // "Indices strictly greater than the sum of the lengths of both tables MUST be treated as a decoding error."
+    private void checkIndex(long index) {
+        boolean valid = index < FIRST_DYNAMIC_INDEX? staticTable.contains(index): dynamicTable.contains(toAbsoluteIndex(index));
+        if (!valid) {
+            throw parseError("invalid index " + index);
+        }
+    }
+
+    private long readInteger(ByteBuffer headerBlock, int prefixLength) {
+        if (!readPrefixedInteger(headerBlock, prefixLength)) {
+            throw parseError("truncated header block");
+        }
+        return integerValue();
+    }
+
+    private void readLiteral(ByteBuffer headerBlock) {
+        if (!readStringLiteral(headerBlock, 7)) {
+            throw parseError("truncated header block");
+        }
+    }
+
+    @Override
+    protected RuntimeException parseError(String message) {
+        return new HpackCompressionErrorException(message);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.HpackEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static tech.kwik.qpack.impl.HpackDecoderImpl.FIRST_DYNAMIC_INDEX;
+
+// https://www.rfc-editor.org/rfc/rfc7541.html#section-6
+/**
+ * HPACK encoder that indexes every field that fits in the dynamic table. String literals are not Huffman encoded.
+ */
+public class HpackEncoderImpl implements HpackEncoder {
+
+    private static final int MAX_INSTRUCTION_OVERHEAD = 30;
+
+    private final StaticTable staticTable;
+    private final DynamicTable dynamicTable;
+    private ByteBuffer output;
+    // The final and the smallest table size set since the last header block, or -1 if none was set.
+    private int pendingSizeUpdate = -1;
+    private int smallestSizeUpdate = -1;
+
+    public HpackEncoderImpl(int maxTableSize) {
+        staticTable = StaticTable.getHpackInstance();
+        dynamicTable = new DynamicTable(maxTableSize);
+        output = ByteBuffer.allocate(0);
+    }
+
+    @Override
+    public ByteBuffer compressHeaders(List<Map.Entry<String, String>> headers) {
+        output.clear();
+        if (pendingSizeUpdate >= 0) {
+            // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.3
+            output = InstructionWriter.ensureRemaining(output, 2 * MAX_INSTRUCTION_OVERHEAD);
+            if (smallestSizeUpdate < pendingSizeUpdate) {
+                InstructionWriter.writePrefixedInteger(5, (byte) 0x20, smallestSizeUpdate, output);
+            }
+            InstructionWriter.writePrefixedInteger(5, (byte) 0x20, pendingSizeUpdate, output);
+            pendingSizeUpdate = -1;
+            smallestSizeUpdate = -1;
+        }
+        headers.forEach(this::compressEntry);
+        return InstructionWriter.copyWritten(output);
+    }
+
+    @Override
+    public void setMaxTableSize(int size) {
+        dynamicTable.setCapacity(size);
+        // https://www.rfc-editor.org/rfc/rfc7541.html#section-4.2
+        // "If there are multiple updates to the maximum table size between two header blocks, the encoder MUST signal
+        //  the smallest maximum table size that occurred in that interval, followed by the final maximum size."
+        pendingSizeUpdate = size;
+        smallestSizeUpdate = smallestSizeUpdate < 0? size: Math.min(smallestSizeUpdate, size);
+    }
+
+    private void compressEntry(Map.Entry<String, String> entry) {
+        String name = entry.getKey();
+        String value = entry.getValue();
+        int staticIndex = staticTable.findByNameAndValue(name, value);
+        if (staticIndex >= 0 && staticTable.lookupNameValue(staticIndex).getValue().equals(value)) {
+            writeIndexed(staticIndex);
+            return;
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] valueBytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        long dynamicIndex = dynamicTable.find(nameBytes, valueBytes);
+        if (dynamicIndex >= 0) {
+            writeIndexed(toHpackIndex(dynamicIndex));
+            return;
+        }
+
+        long nameIndex = staticIndex;
+        if (nameIndex < 0) {
+            long dynamicNameIndex = dynamicTable.findName(nameBytes);
+            nameIndex = dynamicNameIndex >= 0? toHpackIndex(dynamicNameIndex): 0;
+        }
+        if (DynamicTable.entrySize(nameBytes.length, valueBytes.length) <= dynamicTable.capacity()) {
+            // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.2.1
+            writeLiteral(6, (byte) 0x40, nameIndex, nameBytes, valueBytes);
+            dynamicTable.insert(nameBytes, 0, nameBytes.length, valueBytes, 0, valueBytes.length);
+        }
+        else {
+            // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.2.2
+            writeLiteral(4, (byte) 0x00, nameIndex, nameBytes, valueBytes);
+        }
+    }
+
+    private long toHpackIndex(long absoluteIndex) {
+        return FIRST_DYNAMIC_INDEX + dynamicTable.insertCount() - 1 - absoluteIndex;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc7541.html#section-6.1
+    private void writeIndexed(long index) {
+        output = InstructionWriter.ensureRemaining(output, MAX_INSTRUCTION_OVERHEAD);
+        InstructionWriter.writePrefixedInteger(7, (byte) 0x80, index, output);
+    }
+
+    private void writeLiteral(int prefixLength, byte prefix, long nameIndex, byte[] name, byte[] value) {
+        output = InstructionWriter.ensureRemaining(output, MAX_INSTRUCTION_OVERHEAD
+                + InstructionWriter.maxStringLiteralSize(name.length) + InstructionWriter.maxStringLiteralSize(value.length));
+        InstructionWriter.writePrefixedInteger(prefixLength, prefix, nameIndex, output);
+        if (nameIndex == 0) {
+            InstructionWriter.writeStringLiteral(7, (byte) 0x00, name, 0, name.length, false, output);
+        }
+        InstructionWriter.writeStringLiteral(7, (byte) 0x00, value, 0, value.length, false, output);
+    }
+}
@@ -24,4 +24,11 @@ package tech.kwik.qpack.impl;
 //   block instruction it MUST treat this as a stream error of type
 //   "HTTP_QPACK_DECOMPRESSION_FAILED"."
 public class HttpQPackDecompressionFailedException extends RuntimeException {
+
+    public HttpQPackDecompressionFailedException() {
+    }
+
+    public HttpQPackDecompressionFailedException(String message) {
+        super(message);
+    }
 }
@@ -22,12 +22,14 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.IntStream;
 
 /**
- * Decoder for Huffman code as specified by https://datatracker.ietf.org/doc/html/rfc7541#appendix-B.
+ * Encoder and decoder for Huffman code as specified by https://datatracker.ietf.org/doc/html/rfc7541#appendix-B.
  * The decoding is implemented by nested lookup tables, where each lookup key is 8 bits. As the given Huffman code
  * has a maximum code length of 30 bits, the maximum nesting is 4 levels.
  * For example, the code for '\n' (decimal 10) is |11111111|11111111|11111111|111100, this requires four lookups: the
@@ -39,34 +41,97 @@ import java.util.stream.IntStream;
  */
 public class Huffman {
 
-    private static TableEntry[] lookupTable = null;
     private static final int KEY_SIZE = 8;
     public static final int TABLE_SIZE = (int) Math.pow(2, KEY_SIZE);
+    private static final int MIN_CODE_LENGTH = 5;
+    private static final int MAX_CODE_LENGTH = 30;
+    private static final int EOS = 256;
+    // Initialized by the class initializer, which guarantees the tables are completely built before any thread can use them.
+    private static final String[] codes = readCodes();
+    private static final TableEntry[] lookupTable = buildLookupTable();
+    // Code and code length for each symbol, for encoding.
+    private static final int[] codeValues = new int[codes.length];
+    private static final byte[] codeLengths = new byte[codes.length];
+    static {
+        for (int symbol = 0; symbol < codes.length; symbol++) {
+            codeValues[symbol] = Integer.parseInt(codes[symbol], 2);
+            codeLengths[symbol] = (byte) codes[symbol].length();
+        }
+    }
+    private static final Huffman INSTANCE = new Huffman();
+
+    /**
+     * Returns a shared instance; as all state is immutable and static, instances can be shared across threads.
+     * @return
+     */
+    public static Huffman getInstance() {
+        return INSTANCE;
+    }
 
-    public Huffman() {
-        if (lookupTable == null) {
-            lookupTable = new TableEntry[TABLE_SIZE];
-            Map<String, Integer> codeTable = new HashMap<>();
-            try {
-                InputStream resourceAsStream = this.getClass().getResourceAsStream("huffmancode.txt");
-                BufferedReader reader = new BufferedReader(new InputStreamReader(resourceAsStream));
+    /**
+     * Reads the code table; returns the code (as a String of 1's and 0's) for each symbol.
+     */
+    private static String[] readCodes() {
+        List<String> codes = new ArrayList<>();
+        try {
+            InputStream resourceAsStream = Huffman.class.getResourceAsStream("huffmancode.txt");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(resourceAsStream));
 
-                String line;
-                int index = 0;
+            String line;
+            line = reader.readLine();
+            while (line != null) {
+                codes.add(extractBitPattern(line));
                 line = reader.readLine();
-                while (line != null) {
-                    codeTable.put(extractBitPattern(line), index);
-                    index++;
-                    line = reader.readLine();
-                }
-            } catch (IOException e) {
-                // Impossible when library is build correctly.
-                throw new RuntimeException("Corrupt library, missing internal resource.");
             }
+        } catch (IOException e) {
+            // Impossible when library is build correctly.
+            throw new RuntimeException("Corrupt library, missing internal resource.");
+        }
+        return codes.toArray(new String[0]);
+    }
+
+    private static TableEntry[] buildLookupTable() {
+        TableEntry[] table = new TableEntry[TABLE_SIZE];
+        for (int symbol = 0; symbol < codes.length; symbol++) {
+            addToLookupTable(table, codes[symbol], symbol);
+        }
+        return table;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc7541.html#section-5.2
+    /**
+     * Returns the length of the given bytes when Huffman encoded (including padding).
+     */
+    public static int encodedLength(byte[] data, int offset, int length) {
+        long bits = 0;
+        for (int i = offset; i < offset + length; i++) {
+            bits += codeLengths[data[i] & 0xff];
+        }
+        return (int) ((bits + 7) >>> 3);
+    }
 
-            codeTable.entrySet().forEach(entry -> {
-                addToLookupTable(lookupTable, entry.getKey(), entry.getValue());
-            });
+    /**
+     * Huffman encodes the given bytes into the destination buffer, which must have at least encodedLength() bytes
+     * remaining.
+     */
+    public static void encode(byte[] data, int offset, int length, ByteBuffer destination) {
+        long bits = 0;
+        int bitCount = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int symbol = data[i] & 0xff;
+            bits = (bits << codeLengths[symbol]) | codeValues[symbol];
+            bitCount += codeLengths[symbol];
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                destination.put((byte) (bits >>> bitCount));
+            }
+            bits &= (1L << bitCount) - 1;
+        }
+        // "As the Huffman-encoded data doesn't always end at an octet boundary, some padding is inserted after it, up
+        //  to the next octet boundary. To prevent this padding from being misinterpreted as part of the string literal,
+        //  the most significant bits of the code corresponding to the EOS (end-of-string) symbol are used."
+        if (bitCount > 0) {
+            destination.put((byte) ((bits << (8 - bitCount)) | (0xff >>> bitCount)));
         }
     }
 
@@ -76,41 +141,103 @@ public class Huffman {
      * @return
      */
     public String decode(byte[] bytes) {
-        StringBuffer string = new StringBuffer(bytes.length);
-        BitBuffer buffer = new BitBuffer(bytes);
+        byte[] decoded = new byte[maxDecodedLength(bytes.length)];
+        int length = decode(ByteBuffer.wrap(bytes), decoded, 0);
+        return new String(decoded, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decodes all remaining bytes of the source buffer into the given array; the source buffer will have no bytes
+     * remaining after this call. As each Huffman symbol represents one octet, no character conversion takes place.
+     * @param source  the Huffman encoded bytes
+     * @param destination  the array to write the decoded octets to; use maxDecodedLength() to determine the size needed
+     * @param offset  the position in destination where the first decoded octet is written
+     * @return  the number of decoded octets
+     * @throws InvalidHuffmanEncodingException  if the source is not a valid Huffman encoded string
+     */
+    public int decode(ByteBuffer source, byte[] destination, int offset) {
+        int position = offset;
+        BitBuffer buffer = new BitBuffer(source);
+        while (buffer.hasRemaining()) {
+            TableEntry symbol = lookup(lookupTable, buffer, true);
+            if (symbol != null) {
+                destination[position++] = (byte) symbol.character;
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * Decodes all remaining bytes of the source buffer into the destination buffer, starting at its current position.
+     * @param source  the Huffman encoded bytes
+     * @param destination  the buffer to write the decoded octets to
+     * @return  the number of decoded octets
+     * @throws InvalidHuffmanEncodingException  if the source is not a valid Huffman encoded string
+     */
+    public int decode(ByteBuffer source, ByteBuffer destination) {
+        int start = destination.position();
+        BitBuffer buffer = new BitBuffer(source);
         while (buffer.hasRemaining()) {
-            TableEntry symbol = lookup(lookupTable, buffer);
+            TableEntry symbol = lookup(lookupTable, buffer, true);
             if (symbol != null) {
-                string.append(symbol.character);
+                destination.put((byte) symbol.character);
             }
         }
-        return string.toString();
+        return destination.position() - start;
+    }
+
+    /**
+     * Returns the maximum number of octets a Huffman encoded string of the given length can decode to. This is an upper
+     * bound based on the shortest code length (5 bits), so it is cheap to compute but may overestimate.
+     * @param encodedLength  the length of the Huffman encoded string in bytes
+     * @return
+     */
+    public static int maxDecodedLength(int encodedLength) {
+        return encodedLength * 8 / MIN_CODE_LENGTH;
+    }
+
+    /**
+     * Returns the minimum number of octets a Huffman encoded string of the given length decodes to, based on the
+     * longest code length (30 bits) and at most 7 bits of padding.
+     * @param encodedLength  the length of the Huffman encoded string in bytes
+     * @return
+     */
+    public static int minDecodedLength(int encodedLength) {
+        return Math.max(0, (encodedLength * 8 - 7) / MAX_CODE_LENGTH);
     }
 
     /**
      * Performs (recursive) symbol lookup for the first character in the buffer with the given table.
      * @param table   the lookup table used for the lookup (is an argument to allow for recursion)
      * @param buffer  the buffer containing the bits that will be decoded.
-     * @return  the symbol represented by the code or null if there is no match
+     * @param topLevel  whether table is the top level table, i.e. no bits of the current code are consumed yet
+     * @return  the symbol represented by the code or null if the remaining bits are (valid) padding
      */
-    private TableEntry lookup(TableEntry[] table, BitBuffer buffer) {
+    private TableEntry lookup(TableEntry[] table, BitBuffer buffer, boolean topLevel) {
         int key = (int) buffer.peek() & 0xff;
         TableEntry mappedSymbol = table[key];
-        if (mappedSymbol.isSymbol()) {
+        int remaining = buffer.remaining();
+        if (mappedSymbol.isSymbol() && mappedSymbol.codeLength <= remaining) {
+            // "A Huffman-encoded string literal containing the EOS symbol MUST be treated as a decoding error."
+            if (mappedSymbol.character == EOS) {
+                throw new InvalidHuffmanEncodingException("EOS symbol in Huffman encoded string");
+            }
             buffer.shift(mappedSymbol.codeLength);
             return mappedSymbol;
         }
-        else if (buffer.remaining() >= KEY_SIZE) {
-            if (mappedSymbol.subTable == null) {
-                throw new IllegalStateException("Missing subtable!");
-            }
+        else if (!mappedSymbol.isSymbol() && remaining >= KEY_SIZE) {
             buffer.shift(KEY_SIZE);
-            return lookup(mappedSymbol.subTable, buffer);
+            return lookup(mappedSymbol.subTable, buffer, false);
         }
         else {
-            // End of buffer contains some non-character bits (probably just 1's), as total length of character encodings
-            // in the buffer is not a multiple of 8.
-            buffer.shift(buffer.remaining());
+            // The remaining bits do not form a complete code, so they must be padding.
+            // "A padding strictly longer than 7 bits MUST be treated as a decoding error. A padding not corresponding to
+            //  the most significant bits of the code for the EOS symbol MUST be treated as a decoding error."
+            // (Bits beyond the end of the data are read as 1's, so the padding is the top remaining bits of the key.)
+            if (!topLevel || remaining >= KEY_SIZE || key != 0xff) {
+                throw new InvalidHuffmanEncodingException("invalid padding in Huffman encoded string");
+            }
+            buffer.shift(remaining);
             return null;
         }
     }
@@ -122,7 +249,7 @@ public class Huffman {
      * @param code   the code to add as a String of 1's and 0's
      * @param symbolValue  the symbol symbolValue to add (integer representation)
      */
-    private void addToLookupTable(TableEntry[] table, String code, int symbolValue) {
+    private static void addToLookupTable(TableEntry[] table, String code, int symbolValue) {
         if (code.length() <= KEY_SIZE) {
             int codeValue = parseBits(code, code.length());
             TableEntry mappedSymbol = new TableEntry(symbolValue, code.length());
@@ -147,17 +274,17 @@ public class Huffman {
      * @param bits
      * @return
      */
-    private IntStream generateCodeKeys(int codeValue, int bits) {
+    private static IntStream generateCodeKeys(int codeValue, int bits) {
         int baseValue = codeValue << (KEY_SIZE - bits);
         int maxAddition = (int) Math.pow(2, KEY_SIZE - bits);
         return IntStream.range(0, maxAddition).map(addition -> baseValue | addition);
     }
 
-    private int parseBits(String code, int count) {
+    private static int parseBits(String code, int count) {
         return Integer.parseInt(code.substring(0, count), 2);
     }
 
-    private String extractBitPattern(String line) {
+    private static String extractBitPattern(String line) {
         int firstSpace = line.indexOf(" ");
         return line.substring(0, firstSpace).replaceAll("\\|", "");
     }
@@ -0,0 +1,269 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Segmented LRU cache of Huffman encoded literals. To limit contention between encoders, the cache is divided into
+ * stripes (selected by the hash of the literal), each with its own lock and an equal share of the size limit. Within
+ * a stripe, new literals enter the probationary segment and are promoted to the protected segment when they are used
+ * again; literals are evicted from the probationary segment first, so literals that are used only once cannot push out
+ * the ones that repeat. Sizes are accounted in bytes (literal, encoding and an estimated overhead), so a few long
+ * literals take as much room as many short ones.
+ */
+public class HuffmanCacheImpl {
+
+    private static final int STRIPES = 16;
+    // Estimated memory used by a cached literal next to its plain and encoded bytes: entry object and array headers.
+    static final int ENTRY_OVERHEAD = 80;
+    private static final int PROTECTED_PERCENTAGE = 80;
+
+    private final Stripe[] stripes;
+
+    public HuffmanCacheImpl(long maxBytes) {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxBytes / STRIPES);
+        }
+    }
+
+    /**
+     * Returns the Huffman encoding of the given bytes, from the cache if present, otherwise it is encoded and added to
+     * the cache. The returned array must not be modified. Note that the encoding can be longer than the given bytes.
+     */
+    public byte[] encode(byte[] data, int offset, int length) {
+        int hash = hash(data, offset, length);
+        Stripe stripe = stripes[hash >>> 28];
+        byte[] encoded = stripe.get(data, offset, length, hash);
+        if (encoded == null) {
+            encoded = new byte[Huffman.encodedLength(data, offset, length)];
+            Huffman.encode(data, offset, length, ByteBuffer.wrap(encoded));
+            encoded = stripe.put(data, offset, length, hash, encoded);
+        }
+        return encoded;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe: stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long hits() {
+        long hits = 0;
+        for (Stripe stripe: stripes) {
+            hits += stripe.hits();
+        }
+        return hits;
+    }
+
+    public long misses() {
+        long misses = 0;
+        for (Stripe stripe: stripes) {
+            misses += stripe.misses();
+        }
+        return misses;
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int hash = length;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        // Mix the bits, as the high bits select the stripe and the low bits the bucket.
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Entry {
+        final byte[] literal;
+        final byte[] encoded;
+        final int hash;
+        final int size;
+        boolean protectedSegment;
+        Entry next;
+        // Neighbours in the LRU list of the segment
+        Entry before;
+        Entry after;
+
+        Entry(byte[] literal, byte[] encoded, int hash) {
+            this.literal = literal;
+            this.encoded = encoded;
+            this.hash = hash;
+            size = size(literal.length, encoded.length);
+        }
+
+        static int size(int literalLength, int encodedLength) {
+            return literalLength + encodedLength + ENTRY_OVERHEAD;
+        }
+
+        Entry() {
+            this(new byte[0], new byte[0], 0);
+            before = this;
+            after = this;
+        }
+    }
+
+    private static class Stripe {
+        private final long maxBytes;
+        private final long maxProtectedBytes;
+        // Sentinels of the (circular) LRU lists, the most recently used entry comes right after the sentinel.
+        private final Entry probation = new Entry();
+        private final Entry protectedEntries = new Entry();
+        private Entry[] buckets = new Entry[16];
+        private int count;
+        private long bytes;
+        private long protectedBytes;
+        private long hits;
+        private long misses;
+
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+            maxProtectedBytes = maxBytes * PROTECTED_PERCENTAGE / 100;
+        }
+
+        synchronized byte[] get(byte[] data, int offset, int length, int hash) {
+            Entry entry = find(data, offset, length, hash);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            unlink(entry);
+            if (!entry.protectedSegment) {
+                entry.protectedSegment = true;
+                protectedBytes += entry.size;
+            }
+            linkFirst(protectedEntries, entry);
+            while (protectedBytes > maxProtectedBytes) {
+                Entry demoted = protectedEntries.before;
+                unlink(demoted);
+                demoted.protectedSegment = false;
+                protectedBytes -= demoted.size;
+                linkFirst(probation, demoted);
+            }
+            return entry.encoded;
+        }
+
+        /**
+         * Adds the encoding of the given literal, unless it was added concurrently, in which case the cached encoding
+         * is returned.
+         */
+        synchronized byte[] put(byte[] data, int offset, int length, int hash, byte[] encoded) {
+            Entry existing = find(data, offset, length, hash);
+            if (existing != null) {
+                return existing.encoded;
+            }
+            // Check the size before copying the literal, so a literal too large to cache is not copied at all
+            if (Entry.size(length, encoded.length) > maxBytes - maxProtectedBytes) {
+                return encoded;
+            }
+            Entry entry = new Entry(Arrays.copyOfRange(data, offset, offset + length), encoded, hash);
+            if (count >= buckets.length * 3 / 4) {
+                rehash();
+            }
+            int index = hash & (buckets.length - 1);
+            entry.next = buckets[index];
+            buckets[index] = entry;
+            count++;
+            bytes += entry.size;
+            linkFirst(probation, entry);
+            while (bytes > maxBytes) {
+                evict(probation.before != probation? probation.before: protectedEntries.before);
+            }
+            return encoded;
+        }
+
+        synchronized long size() {
+            return bytes;
+        }
+
+        synchronized long hits() {
+            return hits;
+        }
+
+        synchronized long misses() {
+            return misses;
+        }
+
+        private Entry find(byte[] data, int offset, int length, int hash) {
+            Entry entry = buckets[hash & (buckets.length - 1)];
+            while (entry != null) {
+                if (entry.hash == hash && Arrays.equals(entry.literal, 0, entry.literal.length, data, offset, offset + length)) {
+                    return entry;
+                }
+                entry = entry.next;
+            }
+            return null;
+        }
+
+        private void evict(Entry entry) {
+            unlink(entry);
+            if (entry.protectedSegment) {
+                protectedBytes -= entry.size;
+            }
+            bytes -= entry.size;
+            count--;
+            int index = entry.hash & (buckets.length - 1);
+            if (buckets[index] == entry) {
+                buckets[index] = entry.next;
+            }
+            else {
+                Entry previous = buckets[index];
+                while (previous.next != entry) {
+                    previous = previous.next;
+                }
+                previous.next = entry.next;
+            }
+        }
+
+        private void rehash() {
+            Entry[] newBuckets = new Entry[buckets.length * 2];
+            for (Entry entry: buckets) {
+                while (entry != null) {
+                    Entry next = entry.next;
+                    int index = entry.hash & (newBuckets.length - 1);
+                    entry.next = newBuckets[index];
+                    newBuckets[index] = entry;
+                    entry = next;
+                }
+            }
+            buckets = newBuckets;
+        }
+
+        private static void linkFirst(Entry sentinel, Entry entry) {
+            entry.before = sentinel;
+            entry.after = sentinel.after;
+            sentinel.after.before = entry;
+            sentinel.after = entry;
+        }
+
+        private static void unlink(Entry entry) {
+            entry.before.after = entry.after;
+            entry.after.before = entry.before;
+        }
+    }
+}
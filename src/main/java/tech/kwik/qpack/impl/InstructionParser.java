@@ -0,0 +1,337 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base class for parsers that process QPACK instructions incrementally: data can be fed in arbitrary chunks, an
+ * instruction may be split at any byte. Only the state of the integer or string literal being read is kept; the bytes
+ * of a string literal are only copied when the literal is split over chunks, otherwise they are processed in place.
+ */
+abstract class InstructionParser {
+
+    // Largest value of an integer of 62 bits.
+    private static final long MAX_INTEGER = (1L << 62) - 1;
+
+    private final Huffman huffman;
+
+    private long integerValue;
+    private int integerShift;
+    private boolean integerInProgress;
+
+    private int literalLength = -1;
+    private int literalRead;
+    private boolean literalHuffman;
+    private byte[] literalScratch = new byte[0];
+    private byte[] decodeScratch = new byte[0];
+    private int decodedLength;
+    private byte[] nameBytes = new byte[0];
+    private int nameLength;
+    private boolean nameHuffman;
+    private byte[] nameScratch = new byte[0];
+    private int decodedNameLength;
+
+    // Location of the (raw) bytes of the last completed string literal; only valid until the next call to parse.
+    private byte[] literalBytes;
+    private int literalOffset;
+    private int completedLiteralLength;
+
+    protected InstructionParser(Huffman huffman) {
+        this.huffman = huffman;
+    }
+
+    protected abstract RuntimeException parseError(String message);
+
+    /**
+     * Returns the number of bytes allocated for scratch buffers.
+     */
+    long scratchBytes() {
+        return literalScratch.length + decodeScratch.length + nameBytes.length + nameScratch.length;
+    }
+
+    /**
+     * Discards the state of a partially read integer or string literal, so the parser can be reused.
+     */
+    protected void resetPrimitives() {
+        integerInProgress = false;
+        literalLength = -1;
+    }
+
+    /**
+     * Returns whether the parser is in the middle of reading an integer or string literal.
+     */
+    protected boolean isReadingPrimitive() {
+        return integerInProgress || literalLength >= 0;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-prefixed-integers
+    // "QPACK implementations MUST be able to decode integers up to and including 62 bits long."
+    /**
+     * Reads (the remainder of) a prefixed integer.
+     * @return  true if the integer is complete, in which case the value can be obtained with integerValue()
+     */
+    protected boolean readPrefixedInteger(ByteBuffer data, int prefixLength) {
+        if (!integerInProgress) {
+            if (!data.hasRemaining()) {
+                return false;
+            }
+            int maxPrefix = (1 << prefixLength) - 1;
+            integerValue = data.get() & maxPrefix;
+            if (integerValue < maxPrefix) {
+                return true;
+            }
+            integerShift = 0;
+            integerInProgress = true;
+        }
+        while (data.hasRemaining()) {
+            int next = data.get() & 0xff;
+            if (integerShift > 56 || (next & 0x7f) > (MAX_INTEGER - integerValue) >> integerShift) {
+                throw parseError("integer exceeds 62 bits");
+            }
+            integerValue += (long) (next & 0x7f) << integerShift;
+            integerShift += 7;
+            if ((next & 0x80) == 0) {
+                integerInProgress = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected long integerValue() {
+        return integerValue;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-string-literals
+    /**
+     * Reads (the remainder of) a string literal, i.e. a Huffman flag and prefixed integer length followed by the bytes.
+     * @return  true if the literal is complete, in which case it can be obtained with one of the literal methods
+     */
+    protected boolean readStringLiteral(ByteBuffer data, int prefixLength) {
+        if (literalLength < 0) {
+            if (!integerInProgress) {
+                if (!data.hasRemaining()) {
+                    return false;
+                }
+                literalHuffman = (data.get(data.position()) & (1 << prefixLength)) != 0;
+            }
+            if (!readPrefixedInteger(data, prefixLength)) {
+                return false;
+            }
+            if (integerValue > Integer.MAX_VALUE) {
+                throw parseError("string literal too long");
+            }
+            literalLength = (int) integerValue;
+            literalRead = 0;
+        }
+
+        if (literalRead == 0 && data.remaining() >= literalLength && data.hasArray()) {
+            literalBytes = data.array();
+            literalOffset = data.arrayOffset() + data.position();
+            data.position(data.position() + literalLength);
+        }
+        else {
+            int count = Math.min(data.remaining(), literalLength - literalRead);
+            if (literalScratch.length < literalRead + count) {
+                literalScratch = grow(literalScratch, literalRead, literalRead + count);
+            }
+            data.get(literalScratch, literalRead, count);
+            literalRead += count;
+            if (literalRead < literalLength) {
+                return false;
+            }
+            literalBytes = literalScratch;
+            literalOffset = 0;
+        }
+        completedLiteralLength = literalLength;
+        decodedLength = -1;
+        literalLength = -1;
+        return true;
+    }
+
+    /**
+     * Returns the value of the last completed string literal as a String.
+     */
+    protected String literalString() {
+        return new String(literalValueBytes(), literalValueOffset(), literalValueLength(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the array holding the (decoded) bytes of the last completed string literal. Use literalValueOffset()
+     * and literalValueLength() to find the bytes.
+     */
+    protected byte[] literalValueBytes() {
+        if (literalHuffman) {
+            ensureDecoded();
+            return decodeScratch;
+        }
+        return literalBytes;
+    }
+
+    protected int literalValueOffset() {
+        return literalHuffman? 0: literalOffset;
+    }
+
+    protected int literalValueLength() {
+        return literalHuffman? ensureDecoded(): completedLiteralLength;
+    }
+
+    /**
+     * Copies the (decoded) bytes of the last completed string literal into the given array, replacing it by a larger
+     * one if necessary.
+     * @return  the array holding the copied bytes, starting at index 0; length is given by literalValueLength()
+     */
+    protected byte[] copyLiteralValue(byte[] destination) {
+        int length = literalValueLength();
+        if (destination.length < length) {
+            destination = new byte[length];
+        }
+        System.arraycopy(literalValueBytes(), literalValueOffset(), destination, 0, length);
+        return destination;
+    }
+
+    /**
+     * Returns whether the last completed string literal is Huffman encoded.
+     */
+    protected boolean isLiteralHuffmanEncoded() {
+        return literalHuffman;
+    }
+
+    /**
+     * Returns the array holding the bytes of the last completed string literal as they were received, i.e. still
+     * Huffman encoded if the literal is Huffman encoded. Use rawLiteralOffset() and rawLiteralLength() to find the bytes.
+     */
+    protected byte[] rawLiteralBytes() {
+        return literalBytes;
+    }
+
+    /**
+     * Returns a copy of the raw bytes of the last completed string literal.
+     */
+    protected byte[] copyRawLiteral() {
+        return Arrays.copyOfRange(literalBytes, literalOffset, literalOffset + completedLiteralLength);
+    }
+
+    protected int rawLiteralOffset() {
+        return literalOffset;
+    }
+
+    protected int rawLiteralLength() {
+        return completedLiteralLength;
+    }
+
+    /**
+     * Retains the (raw) bytes of the last completed string literal as name, so they are still available when the next
+     * literal (the value) is read.
+     */
+    protected void retainLiteralAsName() {
+        if (nameBytes.length < completedLiteralLength) {
+            nameBytes = new byte[completedLiteralLength];
+        }
+        System.arraycopy(literalBytes, literalOffset, nameBytes, 0, completedLiteralLength);
+        nameLength = completedLiteralLength;
+        nameHuffman = literalHuffman;
+        decodedNameLength = -1;
+    }
+
+    /**
+     * Returns the name retained with retainLiteralAsName() as a String.
+     */
+    protected String retainedName() {
+        return new String(decodedRetainedNameBytes(), 0, decodedRetainedNameLength(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the array holding the (decoded) bytes of the name retained with retainLiteralAsName(), starting at index 0;
+     * use decodedRetainedNameLength() for the number of bytes.
+     */
+    protected byte[] decodedRetainedNameBytes() {
+        if (nameHuffman) {
+            ensureNameDecoded();
+            return nameScratch;
+        }
+        return nameBytes;
+    }
+
+    protected int decodedRetainedNameLength() {
+        if (nameHuffman) {
+            return ensureNameDecoded();
+        }
+        return nameLength;
+    }
+
+    /**
+     * Returns the array holding the raw bytes of the name retained with retainLiteralAsName(), starting at index 0.
+     */
+    protected byte[] retainedNameBytes() {
+        return nameBytes;
+    }
+
+    protected int retainedNameLength() {
+        return nameLength;
+    }
+
+    protected boolean isRetainedNameHuffmanEncoded() {
+        return nameHuffman;
+    }
+
+    private int ensureNameDecoded() {
+        if (decodedNameLength < 0) {
+            int maxLength = Huffman.maxDecodedLength(nameLength);
+            if (nameScratch.length < maxLength) {
+                nameScratch = new byte[maxLength];
+            }
+            decodedNameLength = huffmanDecode(ByteBuffer.wrap(nameBytes, 0, nameLength), nameScratch);
+        }
+        return decodedNameLength;
+    }
+
+    private int ensureDecoded() {
+        if (decodedLength < 0) {
+            decodedLength = decodeLiteral();
+        }
+        return decodedLength;
+    }
+
+    private int decodeLiteral() {
+        int maxLength = Huffman.maxDecodedLength(completedLiteralLength);
+        if (decodeScratch.length < maxLength) {
+            decodeScratch = new byte[maxLength];
+        }
+        return huffmanDecode(ByteBuffer.wrap(literalBytes, literalOffset, completedLiteralLength), decodeScratch);
+    }
+
+    private int huffmanDecode(ByteBuffer source, byte[] destination) {
+        try {
+            return huffman.decode(source, destination, 0);
+        }
+        catch (InvalidHuffmanEncodingException invalidEncoding) {
+            throw parseError(invalidEncoding.getMessage());
+        }
+    }
+
+    private static byte[] grow(byte[] array, int used, int minimumSize) {
+        byte[] newArray = new byte[Math.max(minimumSize, array.length * 2)];
+        System.arraycopy(array, 0, newArray, 0, used);
+        return newArray;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of the primitives shared by QPACK and HPACK instructions: prefixed integers and string literals.
+ */
+class InstructionWriter {
+
+    // https://www.rfc-editor.org/rfc/rfc7541.html#section-5.1
+    static void writePrefixedInteger(int prefixLength, byte prefix, long value, ByteBuffer buffer) {
+        int maxPrefix = (1 << prefixLength) - 1;
+        if (value < maxPrefix) {
+            buffer.put((byte) (prefix | value));
+        }
+        else {
+            buffer.put((byte) (prefix | maxPrefix));
+            long remainder = value - maxPrefix;
+            while (remainder >= 128) {
+                buffer.put((byte) ((remainder % 128) | 0x80));
+                remainder = remainder / 128;
+            }
+            buffer.put((byte) remainder);
+        }
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc7541.html#section-5.2
+    /**
+     * Writes a string literal with the given (raw) bytes, i.e. if huffmanEncoded is true, the bytes must already be
+     * Huffman encoded.
+     */
+    static void writeStringLiteral(int prefixLength, byte prefix, byte[] bytes, int offset, int length, boolean huffmanEncoded, ByteBuffer buffer) {
+        byte huffmanFlag = (byte) (huffmanEncoded? 1 << prefixLength: 0);
+        writePrefixedInteger(prefixLength, (byte) (prefix | huffmanFlag), length, buffer);
+        buffer.put(bytes, offset, length);
+    }
+
+    /**
+     * Writes a string literal with the given (plain) bytes, Huffman encoded if that is shorter.
+     */
+    static void writeHuffmanIfSmaller(int prefixLength, byte prefix, byte[] bytes, int offset, int length, ByteBuffer buffer) {
+        int encodedLength = Huffman.encodedLength(bytes, offset, length);
+        if (encodedLength < length) {
+            writePrefixedInteger(prefixLength, (byte) (prefix | 1 << prefixLength), encodedLength, buffer);
+            Huffman.encode(bytes, offset, length, buffer);
+        }
+        else {
+            writeStringLiteral(prefixLength, prefix, bytes, offset, length, false, buffer);
+        }
+    }
+
+    /**
+     * Returns the maximum number of bytes needed for a string literal of the given length, including its length prefix.
+     */
+    static int maxStringLiteralSize(int length) {
+        return length + 10;
+    }
+
+    /**
+     * Returns a buffer with at least the required number of bytes remaining: either the given buffer or a larger copy.
+     */
+    static ByteBuffer ensureRemaining(ByteBuffer buffer, int required) {
+        if (buffer.remaining() < required) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.position() + required, buffer.capacity() * 2));
+            buffer.flip();
+            newBuffer.put(buffer);
+            return newBuffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a new buffer, sized exactly, with the bytes written to the given buffer.
+     */
+    static ByteBuffer copyWritten(ByteBuffer buffer) {
+        ByteBuffer result = ByteBuffer.allocate(buffer.position());
+        buffer.flip();
+        result.put(buffer);
+        result.flip();
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.util.Arrays;
+
+/**
+ * Small per-connection cache of decoded string literals, keyed by the literal as it appeared in the header block (raw
+ * bytes and Huffman flag). Peers that do not use the dynamic table send the same literals (e.g. user-agent values) in
+ * every header block; with this cache, such a literal is decoded once and all fields with it share the same String
+ * instance. The cache is direct-mapped: a literal replaces the one in its slot. As the slots hold immutable entries,
+ * the cache can be used by parsers on different threads without locking (a concurrent update may be lost, which only
+ * costs a miss).
+ */
+class LiteralCache {
+
+    // Longer literals are not cached, to bound the memory per connection.
+    static final int MAX_LITERAL_LENGTH = 512;
+
+    /**
+     * Cached literal: the raw literal bytes (which must not be modified) and the decoded value.
+     */
+    static class Entry {
+        final byte[] literal;
+        final boolean huffmanEncoded;
+        final String value;
+        final int hash;
+
+        Entry(byte[] literal, boolean huffmanEncoded, String value, int hash) {
+            this.literal = literal;
+            this.huffmanEncoded = huffmanEncoded;
+            this.value = value;
+            this.hash = hash;
+        }
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+
+    /**
+     * @param size  number of cached literals, rounded up to a power of two
+     */
+    LiteralCache(int size) {
+        int slots = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        entries = new Entry[slots];
+        mask = slots - 1;
+    }
+
+    /**
+     * Returns the cached entry for the given (raw) literal, or null if it is not cached.
+     */
+    Entry find(byte[] data, int offset, int length, boolean huffman) {
+        if (length > MAX_LITERAL_LENGTH) {
+            return null;
+        }
+        int hash = hash(data, offset, length);
+        Entry entry = entries[hash & mask];
+        if (entry != null && entry.hash == hash && entry.huffmanEncoded == huffman
+                && Arrays.equals(entry.literal, 0, entry.literal.length, data, offset, offset + length)) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the given literal with its decoded value, if it is not too long.
+     * @param literal  the raw literal bytes; the array is owned by the cache from now on and must not be modified
+     */
+    void add(byte[] literal, boolean huffman, String value) {
+        if (literal.length <= MAX_LITERAL_LENGTH) {
+            int hash = hash(literal, 0, literal.length);
+            entries[hash & mask] = new Entry(literal, huffman, value, hash);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(entries, null);
+    }
+
+    /**
+     * Returns the (approximate) number of bytes used by the cached literals and their values.
+     */
+    long allocatedBytes() {
+        long bytes = 0;
+        for (Entry entry: entries) {
+            if (entry != null) {
+                bytes += entry.literal.length + entry.value.length();
+            }
+        }
+        return bytes;
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int hash = length;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
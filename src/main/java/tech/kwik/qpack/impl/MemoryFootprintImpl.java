@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.MemoryFootprint;
+
+class MemoryFootprintImpl implements MemoryFootprint {
+
+    private final int dynamicTableEntries;
+    private final int dynamicTableSize;
+    private final int dynamicTableCapacity;
+    private final long dynamicTableAllocatedBytes;
+    private final long bufferAllocatedBytes;
+    private final long bufferedEncoderStreamBytes;
+
+    MemoryFootprintImpl(DynamicTable dynamicTable, long bufferAllocatedBytes, long bufferedEncoderStreamBytes) {
+        dynamicTableEntries = dynamicTable.entryCount();
+        dynamicTableSize = dynamicTable.size();
+        dynamicTableCapacity = dynamicTable.capacity();
+        dynamicTableAllocatedBytes = dynamicTable.allocatedBytes();
+        this.bufferAllocatedBytes = bufferAllocatedBytes;
+        this.bufferedEncoderStreamBytes = bufferedEncoderStreamBytes;
+    }
+
+    @Override
+    public int dynamicTableEntries() {
+        return dynamicTableEntries;
+    }
+
+    @Override
+    public int dynamicTableSize() {
+        return dynamicTableSize;
+    }
+
+    @Override
+    public int dynamicTableCapacity() {
+        return dynamicTableCapacity;
+    }
+
+    @Override
+    public long dynamicTableAllocatedBytes() {
+        return dynamicTableAllocatedBytes;
+    }
+
+    @Override
+    public long bufferAllocatedBytes() {
+        return bufferAllocatedBytes;
+    }
+
+    @Override
+    public long bufferedEncoderStreamBytes() {
+        return bufferedEncoderStreamBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "entries=" + dynamicTableEntries + ", size=" + dynamicTableSize + "/" + dynamicTableCapacity
+                + ", table bytes=" + dynamicTableAllocatedBytes + ", buffer bytes=" + bufferAllocatedBytes
+                + ", buffered encoder stream bytes=" + bufferedEncoderStreamBytes;
+    }
+}
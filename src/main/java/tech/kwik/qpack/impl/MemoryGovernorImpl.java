@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+/**
+ * Memory governor that grants table capacity from a global budget. As long as the reservations stay below the
+ * pressure threshold, codecs get what they ask for (if available); above the threshold, a codec gets at most its fair
+ * share (the budget divided by the number of registered codecs) and encoders that hold more than that are asked to
+ * reduce their capacity. Reservations and releases happen at connection setup and teardown, so they are synchronized;
+ * encoders read the capacity limit (a volatile) for each header block.
+ */
+public class MemoryGovernorImpl {
+
+    static final int PRESSURE_PERCENTAGE = 75;
+
+    private final long budget;
+    private final long pressureThreshold;
+    private long reserved;
+    private int codecs;
+    private long denied;
+    private long reclaimed;
+    private volatile int encoderCapacityLimit = Integer.MAX_VALUE;
+
+    public MemoryGovernorImpl(long budget) {
+        this.budget = budget;
+        pressureThreshold = budget * PRESSURE_PERCENTAGE / 100;
+    }
+
+    /**
+     * Registers a codec that requests the given table capacity.
+     * @return  the granted capacity, at most the requested capacity
+     */
+    synchronized int reserve(int requested) {
+        codecs++;
+        long grant = Math.max(0, Math.min(requested, budget - reserved));
+        if (reserved + requested > pressureThreshold) {
+            grant = Math.min(grant, budget / codecs);
+        }
+        reserved += grant;
+        denied += requested - grant;
+        updateLimit();
+        return (int) grant;
+    }
+
+    /**
+     * Releases part of the capacity reserved by a codec that stays registered.
+     */
+    synchronized void reclaim(int bytes) {
+        reserved -= bytes;
+        reclaimed += bytes;
+        updateLimit();
+    }
+
+    /**
+     * Unregisters a codec, releasing the capacity it holds.
+     */
+    synchronized void unregister(int bytes) {
+        codecs--;
+        reserved -= bytes;
+        updateLimit();
+    }
+
+    /**
+     * Returns the table capacity encoders may keep; Integer.MAX_VALUE when there is no memory pressure.
+     */
+    int encoderCapacityLimit() {
+        return encoderCapacityLimit;
+    }
+
+    private void updateLimit() {
+        encoderCapacityLimit = reserved > pressureThreshold? (int) Math.min(Integer.MAX_VALUE, budget / Math.max(codecs, 1)): Integer.MAX_VALUE;
+    }
+
+    public long budget() {
+        return budget;
+    }
+
+    public synchronized long reservedBytes() {
+        return reserved;
+    }
+
+    public synchronized int registeredCodecs() {
+        return codecs;
+    }
+
+    public synchronized long deniedBytes() {
+        return denied;
+    }
+
+    public synchronized long reclaimedBytes() {
+        return reclaimed;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+/**
+ * Identity-keyed cache of field names: for a name String, it holds the (ASCII) bytes and the indices of the static
+ * table entries with that name. Applications typically pass names as constants, so the same String instance is used
+ * for every field with that name; for such names, conversion to bytes and static table lookup is done only once.
+ * The cache is direct-mapped (a slot is simply replaced on collision) and an entry is only created when a name instance
+ * is seen for the second time, so names that are created for each field (e.g. parsed from a request) do not cause any
+ * allocation.
+ * Not thread-safe: each encoder has its own instance.
+ */
+class NameCache {
+
+    static final class Entry {
+        final String name;
+        final byte[] bytes;
+        final int[] staticIndices;
+
+        private Entry(String name, byte[] bytes, int[] staticIndices) {
+            this.name = name;
+            this.bytes = bytes;
+            this.staticIndices = staticIndices;
+        }
+    }
+
+    private final StaticTable staticTable;
+    private final Entry[] entries;
+    private final String[] seen;
+    private final int mask;
+
+    /**
+     * @param size  number of slots, must be a power of two
+     */
+    NameCache(StaticTable staticTable, int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two");
+        }
+        this.staticTable = staticTable;
+        entries = new Entry[size];
+        seen = new String[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the cache entry for the given name instance, or null if the name is not (yet) cached.
+     */
+    Entry get(String name) {
+        int slot = System.identityHashCode(name) & mask;
+        Entry entry = entries[slot];
+        if (entry != null && entry.name == name) {
+            return entry;
+        }
+        if (seen[slot] != name) {
+            seen[slot] = name;
+            return null;
+        }
+        byte[] bytes = new byte[name.length()];
+        EncoderImpl.encodeChars(name, bytes, 0);
+        entry = new Entry(name, bytes, staticTable.findAllByName(bytes));
+        entries[slot] = entry;
+        return entry;
+    }
+
+    /**
+     * Returns the number of bytes allocated for the cache, approximately.
+     */
+    long allocatedBytes() {
+        long bytes = 16L * entries.length;
+        for (Entry entry : entries) {
+            if (entry != null) {
+                bytes += 32 + entry.bytes.length + 4L * entry.staticIndices.length;
+            }
+        }
+        return bytes;
+    }
+}
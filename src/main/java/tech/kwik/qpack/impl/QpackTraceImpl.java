@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Ring buffer of QPACK events. Each event is stored as a time, a type, a subtype and up to four numeric arguments in
+ * preallocated arrays, so recording an event does not allocate. Codecs only call the recording methods when a trace is
+ * set, so an untraced codec pays one null check per event.
+ */
+public class QpackTraceImpl {
+
+    // Event types
+    private static final byte STATE_UPDATED = 0;
+    private static final byte STREAM_STATE_UPDATED = 1;
+    private static final byte DYNAMIC_TABLE_INSERTED = 2;
+    private static final byte DYNAMIC_TABLE_EVICTED = 3;
+    private static final byte HEADERS_ENCODED = 4;
+    private static final byte HEADERS_DECODED = 5;
+    private static final byte INSTRUCTION_CREATED = 6;
+    private static final byte INSTRUCTION_PARSED = 7;
+
+    // Instruction types (subtype of INSTRUCTION_CREATED and INSTRUCTION_PARSED)
+    static final byte SET_DYNAMIC_TABLE_CAPACITY = 0;
+    static final byte INSERT_WITH_NAME_REFERENCE = 1;
+    static final byte INSERT_WITHOUT_NAME_REFERENCE = 2;
+    static final byte DUPLICATE = 3;
+    static final byte SECTION_ACKNOWLEDGEMENT = 4;
+    static final byte STREAM_CANCELLATION = 5;
+    static final byte INSERT_COUNT_INCREMENT = 6;
+
+    private static final String[] INSTRUCTION_NAMES = {
+            "set_dynamic_table_capacity", "insert_with_name_reference", "insert_without_name_reference", "duplicate",
+            "section_acknowledgement", "stream_cancellation", "insert_count_increment"
+    };
+
+    private final long startTime;
+    private final long[] times;
+    private final byte[] types;
+    private final byte[] subtypes;
+    private final long[] arg0;
+    private final long[] arg1;
+    private final long[] arg2;
+    private final long[] arg3;
+    private long recorded;
+    private long cleared;
+
+    public QpackTraceImpl(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        startTime = System.nanoTime();
+        times = new long[capacity];
+        types = new byte[capacity];
+        subtypes = new byte[capacity];
+        arg0 = new long[capacity];
+        arg1 = new long[capacity];
+        arg2 = new long[capacity];
+        arg3 = new long[capacity];
+    }
+
+    // https://datatracker.ietf.org/doc/html/draft-ietf-quic-qlog-h3-events#name-qpack-state_updated
+    /**
+     * @param local  whether the state is that of the local encoder (otherwise, it is the state of the peer's encoder
+     *               as seen by the local decoder)
+     * @param knownReceivedCount  the Known Received Count, or -1 when not known (decoder)
+     */
+    void stateUpdated(boolean local, long capacity, long size, long knownReceivedCount, long insertCount) {
+        record(STATE_UPDATED, local? 1: 0, capacity, size, knownReceivedCount, insertCount);
+    }
+
+    // https://datatracker.ietf.org/doc/html/draft-ietf-quic-qlog-h3-events#name-qpack-stream_state_updated
+    /**
+     * @param streamId  the stream, or -1 when not known
+     */
+    void streamStateUpdated(long streamId, boolean blocked) {
+        record(STREAM_STATE_UPDATED, blocked? 1: 0, streamId, 0, 0, 0);
+    }
+
+    // https://datatracker.ietf.org/doc/html/draft-ietf-quic-qlog-h3-events#name-qpack-dynamic_table_updated
+    void dynamicTableInserted(boolean local, long absoluteIndex, int nameLength, int valueLength) {
+        record(DYNAMIC_TABLE_INSERTED, local? 1: 0, absoluteIndex, nameLength, valueLength, 0);
+    }
+
+    void dynamicTableEvicted(boolean local, long absoluteIndex) {
+        record(DYNAMIC_TABLE_EVICTED, local? 1: 0, absoluteIndex, 0, 0, 0);
+    }
+
+    // https://datatracker.ietf.org/doc/html/draft-ietf-quic-qlog-h3-events#name-qpack-headers_encoded
+    /**
+     * @param streamId  the stream, or -1 when not known
+     */
+    void headersEncoded(long streamId, int fieldCount, long requiredInsertCount, long base, int length) {
+        record(HEADERS_ENCODED, 0, streamId, fieldCount, requiredInsertCount, base, length);
+    }
+
+    // https://datatracker.ietf.org/doc/html/draft-ietf-quic-qlog-h3-events#name-qpack-headers_decoded
+    void headersDecoded(long streamId, int fieldCount, long requiredInsertCount, long base, int length) {
+        record(HEADERS_DECODED, 0, streamId, fieldCount, requiredInsertCount, base, length);
+    }
+
+    // https://datatracker.ietf.org/doc/html/draft-ietf-quic-qlog-h3-events#name-qpack-instruction_created
+    /**
+     * @param value  the main integer of the instruction: capacity, name index, stream id, increment; for an insert with
+     *               literal name, the name length
+     * @param valueLength  for inserts, the value length
+     * @param length  the length of the instruction in bytes
+     */
+    void instructionCreated(byte instructionType, boolean staticTable, long value, long valueLength, int length) {
+        record(INSTRUCTION_CREATED, instructionType, staticTable? 1: 0, value, valueLength, length);
+    }
+
+    // https://datatracker.ietf.org/doc/html/draft-ietf-quic-qlog-h3-events#name-qpack-instruction_parsed
+    void instructionParsed(byte instructionType, boolean staticTable, long value, long valueLength) {
+        record(INSTRUCTION_PARSED, instructionType, staticTable? 1: 0, value, valueLength, -1);
+    }
+
+    private void record(byte type, int subtype, long a0, long a1, long a2, long a3) {
+        int slot = (int) (recorded % times.length);
+        times[slot] = System.nanoTime();
+        types[slot] = type;
+        subtypes[slot] = (byte) subtype;
+        arg0[slot] = a0;
+        arg1[slot] = a1;
+        arg2[slot] = a2;
+        arg3[slot] = a3;
+        recorded++;
+    }
+
+    private void record(byte type, int subtype, long streamId, int fieldCount, long requiredInsertCount, long base, int length) {
+        // Both the field count and the length are (non-negative) ints, so they fit in one long.
+        record(type, subtype, streamId, ((long) fieldCount << 32) | length, requiredInsertCount, base);
+    }
+
+    public long droppedEvents() {
+        return Math.max(0, recorded - cleared - times.length);
+    }
+
+    public void clear() {
+        cleared = recorded;
+    }
+
+    public void writeJson(Appendable out) throws IOException {
+        out.append('[');
+        long first = Math.max(cleared, recorded - times.length);
+        for (long event = first; event < recorded; event++) {
+            if (event > first) {
+                out.append(",\n ");
+            }
+            writeEvent((int) (event % times.length), out);
+        }
+        out.append(']');
+    }
+
+    private void writeEvent(int slot, Appendable out) throws IOException {
+        out.append("{\"time\": ").append(String.format(Locale.ROOT, "%.3f", (times[slot] - startTime) / 1e6)).append(", ");
+        long a0 = arg0[slot];
+        long a1 = arg1[slot];
+        long a2 = arg2[slot];
+        long a3 = arg3[slot];
+        switch (types[slot]) {
+            case STATE_UPDATED:
+                out.append("\"name\": \"qpack:state_updated\", \"data\": {\"owner\": \"").append(owner(slot))
+                        .append("\", \"dynamic_table_capacity\": ").append(Long.toString(a0))
+                        .append(", \"dynamic_table_size\": ").append(Long.toString(a1));
+                if (a2 >= 0) {
+                    out.append(", \"known_received_count\": ").append(Long.toString(a2));
+                }
+                out.append(", \"current_insert_count\": ").append(Long.toString(a3)).append('}');
+                break;
+            case STREAM_STATE_UPDATED:
+                out.append("\"name\": \"qpack:stream_state_updated\", \"data\": {");
+                if (a0 >= 0) {
+                    out.append("\"stream_id\": ").append(Long.toString(a0)).append(", ");
+                }
+                out.append("\"state\": \"").append(subtypes[slot] == 1? "blocked": "unblocked").append("\"}");
+                break;
+            case DYNAMIC_TABLE_INSERTED:
+            case DYNAMIC_TABLE_EVICTED:
+                boolean inserted = types[slot] == DYNAMIC_TABLE_INSERTED;
+                out.append("\"name\": \"qpack:dynamic_table_updated\", \"data\": {\"owner\": \"").append(owner(slot))
+                        .append("\", \"update_type\": \"").append(inserted? "inserted": "evicted")
+                        .append("\", \"entries\": [{\"index\": ").append(Long.toString(a0));
+                if (inserted) {
+                    out.append(", \"name_length\": ").append(Long.toString(a1)).append(", \"value_length\": ").append(Long.toString(a2));
+                }
+                out.append("}]}");
+                break;
+            case HEADERS_ENCODED:
+            case HEADERS_DECODED:
+                out.append("\"name\": \"qpack:").append(types[slot] == HEADERS_ENCODED? "headers_encoded": "headers_decoded")
+                        .append("\", \"data\": {");
+                if (a0 >= 0) {
+                    out.append("\"stream_id\": ").append(Long.toString(a0)).append(", ");
+                }
+                long requiredInsertCount = a2;
+                long base = a3;
+                out.append("\"header_count\": ").append(Long.toString(a1 >>> 32))
+                        .append(", \"block_prefix\": {\"required_insert_count\": ").append(Long.toString(requiredInsertCount))
+                        .append(", \"sign_bit\": ").append(Boolean.toString(base < requiredInsertCount))
+                        .append(", \"delta_base\": ").append(Long.toString(base < requiredInsertCount? requiredInsertCount - base - 1: base - requiredInsertCount))
+                        .append("}, \"length\": ").append(Long.toString(a1 & 0xffffffffL)).append('}');
+                break;
+            case INSTRUCTION_CREATED:
+            case INSTRUCTION_PARSED:
+                out.append("\"name\": \"qpack:").append(types[slot] == INSTRUCTION_CREATED? "instruction_created": "instruction_parsed")
+                        .append("\", \"data\": {\"instruction\": ");
+                writeInstruction(subtypes[slot], a0 == 1, a1, a2, out);
+                if (a3 >= 0) {
+                    out.append(", \"length\": ").append(Long.toString(a3));
+                }
+                out.append('}');
+                break;
+        }
+        out.append('}');
+    }
+
+    private void writeInstruction(byte instructionType, boolean staticTable, long value, long valueLength, Appendable out) throws IOException {
+        out.append("{\"instruction_type\": \"").append(INSTRUCTION_NAMES[instructionType]).append('"');
+        switch (instructionType) {
+            case SET_DYNAMIC_TABLE_CAPACITY:
+                out.append(", \"capacity\": ").append(Long.toString(value));
+                break;
+            case INSERT_WITH_NAME_REFERENCE:
+                out.append(", \"table_type\": \"").append(staticTable? "static": "dynamic")
+                        .append("\", \"name_index\": ").append(Long.toString(value))
+                        .append(", \"value_length\": ").append(Long.toString(valueLength));
+                break;
+            case INSERT_WITHOUT_NAME_REFERENCE:
+                out.append(", \"name_length\": ").append(Long.toString(value))
+                        .append(", \"value_length\": ").append(Long.toString(valueLength));
+                break;
+            case DUPLICATE:
+                out.append(", \"index\": ").append(Long.toString(value));
+                break;
+            case SECTION_ACKNOWLEDGEMENT:
+            case STREAM_CANCELLATION:
+                out.append(", \"stream_id\": ").append(Long.toString(value));
+                break;
+            case INSERT_COUNT_INCREMENT:
+                out.append(", \"increment\": ").append(Long.toString(value));
+                break;
+        }
+        out.append('}');
+    }
+
+    private String owner(int slot) {
+        return subtypes[slot] == 1? "local": "remote";
+    }
+}
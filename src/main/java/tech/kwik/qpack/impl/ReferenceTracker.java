@@ -0,0 +1,235 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// https://www.rfc-editor.org/rfc/rfc9204.html#name-known-received-count
+// https://www.rfc-editor.org/rfc/rfc9204.html#name-blocked-streams
+/**
+ * Keeps track, for the encoder, of the Known Received Count and of the encoded field sections that reference the
+ * dynamic table and are not yet acknowledged, to determine which entries can be evicted and whether a stream may be
+ * blocked.
+ * The set of blocked streams and the smallest outstanding reference are maintained incrementally, so that querying
+ * them (which is done for every header block) does not require scanning all outstanding sections.
+ */
+class ReferenceTracker implements DecoderStreamParser.Handler {
+
+    private static class Section {
+        final long requiredInsertCount;
+        final long minReference;
+
+        Section(long requiredInsertCount, long minReference) {
+            this.requiredInsertCount = requiredInsertCount;
+            this.minReference = minReference;
+        }
+    }
+
+    private static class Stream {
+        final ArrayDeque<Section> sections = new ArrayDeque<>();
+        long maxRequiredInsertCount;
+        boolean blocking;
+    }
+
+    private final DynamicTable dynamicTable;
+    private final int maxBlockedStreams;
+    private final Map<Long, Stream> outstandingStreams;
+    private final List<Stream> blockedStreams;
+    // Number of outstanding sections referencing each absolute index, in a ring that covers all entries that can be
+    // in the table at the same time (referenced entries are never evicted).
+    private final int[] referenceCounts;
+    private long outstandingSectionCount;
+    private long minOutstandingReference;
+    private long knownReceivedCount;
+    private long untrackedSectionCount;
+
+    /**
+     * @param maxEntries  the maximum number of entries the dynamic table can hold
+     */
+    ReferenceTracker(DynamicTable dynamicTable, int maxBlockedStreams, int maxEntries) {
+        this.dynamicTable = dynamicTable;
+        this.maxBlockedStreams = maxBlockedStreams;
+        outstandingStreams = new HashMap<>();
+        blockedStreams = new ArrayList<>();
+        referenceCounts = new int[maxEntries + 1];
+        minOutstandingReference = Long.MAX_VALUE;
+    }
+
+    void reset() {
+        outstandingStreams.clear();
+        blockedStreams.clear();
+        Arrays.fill(referenceCounts, 0);
+        outstandingSectionCount = 0;
+        minOutstandingReference = Long.MAX_VALUE;
+        knownReceivedCount = 0;
+        untrackedSectionCount = 0;
+    }
+
+    long knownReceivedCount() {
+        return knownReceivedCount;
+    }
+
+    /**
+     * Returns whether a field section on the given stream may reference entries not yet acknowledged, i.e. whether the
+     * stream is already blocking or the number of blocked streams is still below the limit set by the peer.
+     */
+    boolean mayBlock(long streamId) {
+        Stream stream = outstandingStreams.get(streamId);
+        return (stream != null && stream.blocking) || blockedStreams.size() < maxBlockedStreams;
+    }
+
+    int blockedStreamCount() {
+        return blockedStreams.size();
+    }
+
+    /**
+     * Registers a field section that is sent on the given stream.
+     * @param requiredInsertCount  the Required Insert Count of the section; sections with Required Insert Count 0 are
+     *                             not acknowledged and thus are not registered
+     * @param minReference  the smallest absolute index referenced by the section
+     */
+    void sectionSent(long streamId, long requiredInsertCount, long minReference) {
+        if (requiredInsertCount > 0) {
+            Stream stream = outstandingStreams.computeIfAbsent(streamId, id -> new Stream());
+            stream.sections.add(new Section(requiredInsertCount, minReference));
+            stream.maxRequiredInsertCount = Math.max(stream.maxRequiredInsertCount, requiredInsertCount);
+            if (!stream.blocking && requiredInsertCount > knownReceivedCount) {
+                stream.blocking = true;
+                blockedStreams.add(stream);
+            }
+            addReference(minReference);
+        }
+    }
+
+    /**
+     * Registers a field section that is sent without stream id. Such a section may only reference acknowledged
+     * entries, so it does not need to be tracked, but its acknowledgement must be accepted.
+     * @param requiredInsertCount  the Required Insert Count of the section
+     */
+    void untrackedSectionSent(long requiredInsertCount) {
+        if (requiredInsertCount > 0) {
+            untrackedSectionCount++;
+        }
+    }
+
+    /**
+     * Returns the smallest absolute index that is referenced by an outstanding field section, or Long.MAX_VALUE if
+     * there is none.
+     */
+    long minOutstandingReference() {
+        return minOutstandingReference;
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-section-acknowledgment
+    @Override
+    public void sectionAcknowledged(long streamId) {
+        Stream stream = outstandingStreams.get(streamId);
+        if (stream == null && untrackedSectionCount > 0) {
+            // Acknowledges a section that was sent without stream id
+            untrackedSectionCount--;
+            return;
+        }
+        // "If an encoder receives a Section Acknowledgment instruction referring to a stream on which every encoded
+        //  field section with a non-zero Required Insert Count has already been acknowledged, this MUST be treated as
+        //  a connection error of type QPACK_DECODER_STREAM_ERROR."
+        if (stream == null) {
+            throw new HttpQPackDecoderStreamErrorException("no outstanding field section on stream " + streamId);
+        }
+        Section section = stream.sections.remove();
+        removeReference(section.minReference);
+        if (stream.sections.isEmpty()) {
+            outstandingStreams.remove(streamId);
+            if (stream.blocking) {
+                stream.blocking = false;
+                blockedStreams.remove(stream);
+            }
+        }
+        else if (section.requiredInsertCount == stream.maxRequiredInsertCount) {
+            stream.maxRequiredInsertCount = 0;
+            for (Section remaining : stream.sections) {
+                stream.maxRequiredInsertCount = Math.max(stream.maxRequiredInsertCount, remaining.requiredInsertCount);
+            }
+        }
+        updateKnownReceivedCount(section.requiredInsertCount);
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-stream-cancellation
+    @Override
+    public void streamCancelled(long streamId) {
+        Stream stream = outstandingStreams.remove(streamId);
+        if (stream != null) {
+            for (Section section : stream.sections) {
+                removeReference(section.minReference);
+            }
+            if (stream.blocking) {
+                blockedStreams.remove(stream);
+            }
+        }
+    }
+
+    // https://www.rfc-editor.org/rfc/rfc9204.html#name-insert-count-increment
+    @Override
+    public void insertCountIncremented(long increment) {
+        // "An encoder that receives an Increment field equal to zero, or one that increases the Known Received Count
+        //  beyond what the encoder has sent, MUST treat this as a connection error of type QPACK_DECODER_STREAM_ERROR."
+        if (increment == 0 || knownReceivedCount + increment > dynamicTable.insertCount()) {
+            throw new HttpQPackDecoderStreamErrorException("invalid insert count increment " + increment);
+        }
+        updateKnownReceivedCount(knownReceivedCount + increment);
+    }
+
+    private void updateKnownReceivedCount(long newCount) {
+        if (newCount > knownReceivedCount) {
+            knownReceivedCount = newCount;
+            // Only streams that are blocking can change state; there are at most maxBlockedStreams of them.
+            blockedStreams.removeIf(stream -> {
+                if (stream.maxRequiredInsertCount <= knownReceivedCount) {
+                    stream.blocking = false;
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    private void addReference(long absoluteIndex) {
+        referenceCounts[(int) (absoluteIndex % referenceCounts.length)]++;
+        outstandingSectionCount++;
+        minOutstandingReference = Math.min(minOutstandingReference, absoluteIndex);
+    }
+
+    private void removeReference(long absoluteIndex) {
+        referenceCounts[(int) (absoluteIndex % referenceCounts.length)]--;
+        outstandingSectionCount--;
+        if (outstandingSectionCount == 0) {
+            minOutstandingReference = Long.MAX_VALUE;
+        }
+        else {
+            // There is a referenced entry with an absolute index at least as large, so this ends within the table.
+            while (referenceCounts[(int) (minOutstandingReference % referenceCounts.length)] == 0) {
+                minOutstandingReference++;
+            }
+        }
+    }
+}
@@ -22,11 +22,14 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 // https://tools.ietf.org/html/draft-ietf-quic-qpack-07#section-3.1
 // "The static table consists of a predefined static list of header
@@ -35,17 +38,47 @@ import java.util.regex.Pattern;
 //   values can be empty (that is, have a length of 0)."
 public class StaticTable {
 
-    private String[] names = new String[100];
-    private String[] values = new String[100];
+    private static final StaticTable INSTANCE = new StaticTable();
+    private static final StaticTable HPACK_INSTANCE = new StaticTable("hpackstatictable.txt");
+
+    private final String[] names = new String[100];
+    private final String[] values = new String[100];
+    private final Map.Entry<String, String>[] entries;
+    private final byte[][] nameBytes;
+    private final byte[][] valueBytes;
+    private final int maxValueLength;
+
+    /**
+     * Returns the process-wide static table instance; as the static table is immutable, there is no need for codecs
+     * to create their own instance.
+     * @return
+     */
+    public static StaticTable getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the (process-wide) HPACK static table, see https://www.rfc-editor.org/rfc/rfc7541.html#appendix-A.
+     * Note that the HPACK static table is indexed from 1.
+     * @return
+     */
+    public static StaticTable getHpackInstance() {
+        return HPACK_INSTANCE;
+    }
 
     StaticTable() {
+        this("statictable.txt");
+    }
+
+    @SuppressWarnings("unchecked")
+    private StaticTable(String resource) {
         Pattern empty =        Pattern.compile("\\|\\s+\\|\\s+\\|\\s+\\|");
         Pattern nameOnly =     Pattern.compile("\\|\\s*(\\d+)\\s*" + "\\|\\s*([^\\|]+)\\s*" + "\\|\\s+\\|");
         Pattern nameValue =    Pattern.compile("\\|\\s*(\\d+)\\s*" + "\\|\\s*([^\\|]+)\\s*" + "\\|\\s*([^\\|]+)\\s*\\|");
         Pattern continuation = Pattern.compile("\\|\\s+"           + "\\|\\s*([^\\|]*)\\s*" + "\\|\\s*([^\\|]*)\\s*\\|");
 
         try {
-            InputStream resourceAsStream = this.getClass().getResourceAsStream("statictable.txt");
+            InputStream resourceAsStream = StaticTable.class.getResourceAsStream(resource);
             BufferedReader reader = new BufferedReader(new InputStreamReader(resourceAsStream));
 
             String line;
@@ -92,14 +125,45 @@ public class StaticTable {
             // Impossible when library is build correctly.
             throw new RuntimeException("Corrupt library, missing internal resource.");
         }
+
+        entries = new Map.Entry[names.length];
+        nameBytes = new byte[names.length][];
+        valueBytes = new byte[names.length][];
+        int maxLength = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                entries[i] = new AbstractMap.SimpleImmutableEntry<>(names[i], values[i]);
+                nameBytes[i] = names[i].getBytes(StandardCharsets.ISO_8859_1);
+                valueBytes[i] = values[i].getBytes(StandardCharsets.ISO_8859_1);
+                maxLength = Math.max(maxLength, values[i].length());
+            }
+        }
+        maxValueLength = maxLength;
+    }
+
+    /**
+     * Returns the length of the longest value in the table; a value that is longer cannot match any entry.
+     */
+    public int maxValueLength() {
+        return maxValueLength;
+    }
+
+    /**
+     * Returns the number of (possibly unused) index positions; all valid indices are less than this value.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public boolean contains(long index) {
+        return index >= 0 && index < names.length && names[(int) index] != null;
     }
 
     public String lookupName(int index) {
-        String result = names[index];
-        if (result == null) {
+        if (!contains(index)) {
             throw new HttpQPackDecompressionFailedException();
         }
-        return result;
+        return names[index];
     }
 
     public int findByNameAndValue(String name, String value) {
@@ -119,9 +183,82 @@ public class StaticTable {
         return firstMatch;
     }
 
+    /**
+     * Byte based variant of findByNameAndValue(String, String): returns the index of the entry with the given name and
+     * value, or, if there is none, the index of the first entry with the given name, or -1 if there is no such entry.
+     */
+    public int findByNameAndValue(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength) {
+        int firstMatch = -1;
+        for (int i = 0; i < nameBytes.length; i++) {
+            if (nameBytes[i] != null && Arrays.equals(nameBytes[i], 0, nameBytes[i].length, name, nameOffset, nameOffset + nameLength)) {
+                if (firstMatch < 0) {
+                    firstMatch = i;
+                }
+                if (valueEquals(i, value, valueOffset, valueLength)) {
+                    return i;
+                }
+            }
+        }
+        return firstMatch;
+    }
+
+    /**
+     * Returns whether the value of the given entry equals the given bytes.
+     */
+    public boolean valueEquals(int index, byte[] value, int valueOffset, int valueLength) {
+        return Arrays.equals(valueBytes[index], 0, valueBytes[index].length, value, valueOffset, valueOffset + valueLength);
+    }
+
+    /**
+     * Returns the name of the given entry as (ISO-8859-1) bytes; the returned array must not be modified.
+     */
+    byte[] nameBytes(int index) {
+        return nameBytes[index];
+    }
+
+    /**
+     * Returns the value of the given entry as (ISO-8859-1) bytes; the returned array must not be modified.
+     */
+    byte[] valueBytes(int index) {
+        return valueBytes[index];
+    }
+
+    /**
+     * Returns the index of the first entry with the given name, or -1 if there is none.
+     */
+    public int findByName(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (name.equals(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Byte based variant of findByName(String).
+     */
+    public int findByName(byte[] name, int nameOffset, int nameLength) {
+        for (int i = 0; i < nameBytes.length; i++) {
+            if (nameBytes[i] != null && Arrays.equals(nameBytes[i], 0, nameBytes[i].length, name, nameOffset, nameOffset + nameLength)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the indices of all entries with the given name, in ascending order.
+     */
+    public int[] findAllByName(byte[] name) {
+        return IntStream.range(0, nameBytes.length)
+                .filter(i -> nameBytes[i] != null && Arrays.equals(nameBytes[i], name))
+                .toArray();
+    }
+
     public Map.Entry<String, String> lookupNameValue(int index) {
-        if (names[index] != null) {
-            return new AbstractMap.SimpleImmutableEntry(names[index], values[index]);
+        if (contains(index)) {
+            return entries[index];
         }
         else {
             throw new HttpQPackDecompressionFailedException();
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import org.junit.jupiter.api.Test;
+import tech.kwik.qpack.impl.StaticTable;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class HeaderIdTest {
+
+    @Test
+    public void everyWellKnownNameMapsToItsId() {
+        for (int id = 0; id < HeaderId.COUNT; id++) {
+            assertThat(HeaderId.of(HeaderId.name(id))).isEqualTo(id);
+        }
+    }
+
+    @Test
+    public void everyStaticTableNameHasAnId() {
+        StaticTable staticTable = StaticTable.getInstance();
+        for (int index = 0; staticTable.contains(index); index++) {
+            int id = HeaderId.ofStaticIndex(index);
+            assertThat(id).isNotEqualTo(HeaderId.UNKNOWN);
+            assertThat(HeaderId.name(id)).isEqualTo(staticTable.lookupName(index));
+        }
+    }
+
+    @Test
+    public void idsAreStable() {
+        assertThat(HeaderId.of(":authority")).isEqualTo(HeaderId.AUTHORITY);
+        assertThat(HeaderId.of(":method")).isEqualTo(HeaderId.METHOD);
+        assertThat(HeaderId.of("user-agent")).isEqualTo(HeaderId.USER_AGENT);
+        assertThat(HeaderId.ofStaticIndex(17)).isEqualTo(HeaderId.METHOD);
+    }
+
+    @Test
+    public void unknownNameHasNoId() {
+        assertThat(HeaderId.of("x-custom")).isEqualTo(HeaderId.UNKNOWN);
+        assertThat(HeaderId.of("User-Agent")).isEqualTo(HeaderId.UNKNOWN);
+        assertThat(HeaderId.of("")).isEqualTo(HeaderId.UNKNOWN);
+    }
+
+    @Test
+    public void nameCanBeLookedUpInBuffer() {
+        byte[] data = "xxcontent-typeyy".getBytes(StandardCharsets.ISO_8859_1);
+
+        assertThat(HeaderId.of(data, 2, 12)).isEqualTo(HeaderId.CONTENT_TYPE);
+    }
+
+    @Test
+    public void headerListProvidesIdOfEachField() {
+        HeaderList headers = new HeaderList();
+        headers.add("cookie", "a=b");
+        headers.add("x-custom", "value");
+        byte[] data = ":pathGET".getBytes(StandardCharsets.ISO_8859_1);
+        headers.add(data, 0, 5, data, 5, 3, 1, 0);
+
+        assertThat(headers.headerId(0)).isEqualTo(HeaderId.COOKIE);
+        assertThat(headers.headerId(1)).isEqualTo(HeaderId.UNKNOWN);
+        assertThat(headers.headerId(2)).isEqualTo(HeaderId.PATH);
+    }
+}
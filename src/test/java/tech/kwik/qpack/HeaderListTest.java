@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class HeaderListTest {
+
+    @Test
+    public void addedFieldsCanBeRetrieved() {
+        HeaderList headers = new HeaderList();
+        headers.add(":method", "GET");
+        headers.add("authorization", "secret", HeaderList.NEVER_INDEXED);
+
+        assertThat(headers.size()).isEqualTo(2);
+        assertThat(headers.name(0)).isEqualTo(":method");
+        assertThat(headers.value(0)).isEqualTo("GET");
+        assertThat(headers.flags(1)).isEqualTo(HeaderList.NEVER_INDEXED);
+        assertThat(headers.staticIndex(1)).isEqualTo(-1);
+        assertThat(headers.nameEquals(1, "authorization")).isTrue();
+        assertThat(headers.nameEquals(1, "authorizatioN")).isFalse();
+    }
+
+    @Test
+    public void bytesAreStoredInArena() {
+        HeaderList headers = new HeaderList();
+        byte[] data = "xx:pathyy/index.html".getBytes(StandardCharsets.ISO_8859_1);
+        headers.add(data, 2, 5, data, 9, 11, 1, 0);
+
+        assertThat(new String(headers.arena(), headers.nameOffset(0), headers.nameLength(0), StandardCharsets.ISO_8859_1)).isEqualTo(":path");
+        assertThat(headers.value(0)).isEqualTo("/index.html");
+        assertThat(headers.staticIndex(0)).isEqualTo(1);
+    }
+
+    @Test
+    public void listGrowsBeyondInitialCapacity() {
+        HeaderList headers = new HeaderList(1, 4);
+        for (int i = 0; i < 100; i++) {
+            headers.add("x-header-" + i, "value-" + i);
+        }
+
+        assertThat(headers.size()).isEqualTo(100);
+        assertThat(headers.name(99)).isEqualTo("x-header-99");
+        assertThat(headers.value(0)).isEqualTo("value-0");
+    }
+
+    @Test
+    public void clearedListCanBeReused() {
+        HeaderList headers = new HeaderList();
+        headers.add("x-first", "1");
+        byte[] arena = headers.arena();
+        headers.clear();
+        headers.add("x-second", "2");
+
+        assertThat(headers.size()).isEqualTo(1);
+        assertThat(headers.name(0)).isEqualTo("x-second");
+        assertThat(headers.arena()).isSameAs(arena);
+    }
+
+    @Test
+    public void staticMatchFlagRequiresStaticIndex() {
+        HeaderList headers = new HeaderList();
+        byte[] name = "x".getBytes(StandardCharsets.ISO_8859_1);
+        headers.add(name, 0, 1, name, 0, 1, -1, HeaderList.STATIC_MATCH);
+
+        assertThat(headers.flags(0)).isEqualTo(0);
+    }
+
+    @Test
+    public void accessBeyondSizeFails() {
+        HeaderList headers = new HeaderList();
+        headers.add("x-first", "1");
+        headers.clear();
+
+        assertThatThrownBy(() -> headers.name(0)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void referencedValueIsNotCopied() {
+        HeaderList headers = new HeaderList(1, 4);
+        ByteBuffer value = ByteBuffer.wrap("xx<https://example.com/style.css>; rel=preload".getBytes(StandardCharsets.ISO_8859_1), 2, 44);
+        headers.add(":status", "200");
+        headers.addReference("link", value, 0);
+        headers.add("server", "kwik");
+
+        assertThat(headers.valueReference(1)).isSameAs(value);
+        assertThat(headers.valueOffset(1)).isEqualTo(-1);
+        assertThat(headers.valueLength(1)).isEqualTo(44);
+        assertThat(headers.value(1)).isEqualTo("<https://example.com/style.css>; rel=preload");
+        assertThat(headers.valueReference(2)).isNull();
+        assertThat(value.position()).isEqualTo(2);
+    }
+
+    @Test
+    public void clearReleasesReferencedValues() {
+        HeaderList headers = new HeaderList();
+        headers.addReference("link", ByteBuffer.wrap(new byte[] { 'x' }), 0);
+
+        headers.clear();
+        headers.add("link", "y");
+
+        assertThat(headers.valueReference(0)).isNull();
+        assertThat(headers.value(0)).isEqualTo("y");
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+import tech.kwik.qpack.Encoder;
+import tech.kwik.qpack.HeaderList;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static tech.kwik.qpack.impl.HpackDecoderTest.bytes;
+
+/**
+ * Guards the hot paths of encoder and decoder against allocation regressions: each test measures the number of bytes
+ * allocated per operation (after warm-up, so JIT-compiled code is measured) and fails when it exceeds the budget.
+ * When a change reduces allocation, lower the budget accordingly.
+ */
+public class AllocationTest {
+
+    private static final int WARM_UP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 2_000;
+    private static final int ROUNDS = 5;
+
+    // Budgets in bytes per operation. Encoding allocates the returned header block (buffer object and array), Huffman
+    // decoding allocates its BitBuffer.
+    private static final long STATIC_ENCODE_BUDGET = 320;
+    private static final long DYNAMIC_ENCODE_BUDGET = 128;
+    private static final long HUFFMAN_DECODE_BUDGET = 32;
+    private static final long BLOCK_DECODE_BUDGET = 64;
+    private static final long ENCODER_STREAM_DECODE_BUDGET = 16;
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+
+    @Test
+    public void staticOnlyEncode() throws Exception {
+        EncoderImpl encoder = new EncoderImpl();
+        HeaderList request = request();
+
+        long allocated = allocatedBytesPerOperation(() -> encoder.compressHeaders(request));
+
+        assertThat(allocated).isLessThanOrEqualTo(STATIC_ENCODE_BUDGET);
+    }
+
+    @Test
+    public void dynamicTableEncode() throws Exception {
+        EncoderImpl encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+        HeaderList request = request();
+        encoder.compressHeaders(request);
+        acknowledgeInserts(encoder);
+
+        long allocated = allocatedBytesPerOperation(() -> {
+            encoder.compressHeaders(request);
+            encoder.flushEncoderStream();
+            encoder.pollEncoderStreamData();
+        });
+
+        assertThat(allocated).isLessThanOrEqualTo(DYNAMIC_ENCODE_BUDGET);
+    }
+
+    @Test
+    public void huffmanDecode() throws Exception {
+        Huffman huffman = Huffman.getInstance();
+        // https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.4.1: "www.example.com"
+        ByteBuffer encoded = ByteBuffer.wrap(bytes("f1e3c2e5f23a6ba0ab90f4ff"));
+        byte[] decoded = new byte[Huffman.maxDecodedLength(encoded.remaining())];
+
+        long allocated = allocatedBytesPerOperation(() -> {
+            encoded.rewind();
+            huffman.decode(encoded, decoded, 0);
+        });
+
+        assertThat(allocated).isLessThanOrEqualTo(HUFFMAN_DECODE_BUDGET);
+    }
+
+    @Test
+    public void headerBlockDecode() throws Exception {
+        EncoderImpl encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.compressHeaders(request());
+        acknowledgeInserts(encoder);
+        ByteBuffer headerBlock = encoder.compressHeaders(request());
+        encoder.flushEncoderStream();
+        DecoderImpl decoder = new DecoderImpl(4096);
+        decoder.decodeEncoderStream(encoder.pollEncoderStreamData());
+        HeaderList decoded = new HeaderList();
+
+        long allocated = allocatedBytesPerOperation(() -> {
+            headerBlock.rewind();
+            decoded.clear();
+            decoder.decodeHeaderBlock(headerBlock, decoded);
+        });
+
+        assertThat(allocated).isLessThanOrEqualTo(BLOCK_DECODE_BUDGET);
+    }
+
+    @Test
+    public void encoderStreamDecode() throws Exception {
+        DecoderImpl decoder = new DecoderImpl(4096);
+        // Set Dynamic Table Capacity 4096
+        decoder.decodeEncoderStream(ByteBuffer.wrap(HpackDecoderTest.bytes("3fe11f")));
+        // Insert With Name Reference (static :path), Duplicate
+        ByteBuffer instructions = ByteBuffer.wrap(HpackDecoderTest.bytes("c1042f696478" + "00"));
+
+        long allocated = allocatedBytesPerOperation(() -> {
+            instructions.rewind();
+            decoder.decodeEncoderStream(instructions);
+        });
+
+        assertThat(allocated).isLessThanOrEqualTo(ENCODER_STREAM_DECODE_BUDGET);
+    }
+
+    private static HeaderList request() {
+        HeaderList headers = new HeaderList();
+        headers.add(":method", "GET");
+        headers.add(":scheme", "https");
+        headers.add(":authority", "www.example.com");
+        headers.add(":path", "/index.html");
+        headers.add("user-agent", "Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0");
+        headers.add("accept", "*/*");
+        headers.add("accept-encoding", "gzip, deflate, br");
+        headers.add("cookie", "session=4f3a9c1e2b7d8a60; theme=dark");
+        headers.add("x-request-id", "8d1c2f3a-5b6e-4c7d-9e0f-1a2b3c4d5e6f");
+        return headers;
+    }
+
+    /**
+     * Acknowledges all inserts of the encoder, so that header blocks compressed without stream id reference them.
+     */
+    private static void acknowledgeInserts(EncoderImpl encoder) {
+        // Insert Count Increment
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        InstructionWriter.writePrefixedInteger(6, (byte) 0x00, encoder.memoryFootprint().dynamicTableEntries(), buffer);
+        encoder.decodeDecoderStream(buffer.flip());
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread per run of the given operation; to filter out noise
+     * (e.g. from class loading or JIT deoptimization), the lowest value of several measurement rounds is taken.
+     */
+    private static long allocatedBytesPerOperation(Operation operation) throws IOException {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long min = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocatedAtStart = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                operation.run();
+            }
+            min = Math.min(min, (threadMXBean.getThreadAllocatedBytes(threadId) - allocatedAtStart) / MEASURED_ITERATIONS);
+        }
+        return min;
+    }
+}
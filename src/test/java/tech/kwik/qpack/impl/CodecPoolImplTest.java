@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+import tech.kwik.qpack.CodecPool;
+import tech.kwik.qpack.Decoder;
+import tech.kwik.qpack.Encoder;
+import tech.kwik.qpack.MemoryGovernor;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class CodecPoolImplTest {
+
+    @Test
+    public void emptyPoolCreatesNewCodec() {
+        AtomicInteger created = new AtomicInteger();
+        CodecPool<Object> pool = new CodecPoolImpl<>(2, () -> { created.incrementAndGet(); return new Object(); }, codec -> {});
+
+        pool.acquire();
+        pool.acquire();
+
+        assertThat(created.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void releasedCodecIsResetAndReused() {
+        List<Object> resetCodecs = new ArrayList<>();
+        CodecPool<Object> pool = new CodecPoolImpl<>(2, Object::new, resetCodecs::add);
+        Object codec = pool.acquire();
+
+        pool.release(codec);
+
+        assertThat(resetCodecs).containsExactly(codec);
+        assertThat(pool.idleCount()).isEqualTo(1);
+        assertThat(pool.acquire()).isSameAs(codec);
+        assertThat(pool.idleCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void poolIsBounded() {
+        CodecPool<Object> pool = new CodecPoolImpl<>(2, Object::new, codec -> {});
+
+        for (int i = 0; i < 5; i++) {
+            pool.release(new Object());
+        }
+
+        assertThat(pool.idleCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void codecThatDoesNotFitIsDiscarded() {
+        List<Object> discarded = new ArrayList<>();
+        CodecPool<Object> pool = new CodecPoolImpl<>(1, Object::new, codec -> {}, discarded::add);
+        Object first = new Object();
+        Object second = new Object();
+
+        pool.release(first);
+        pool.release(second);
+
+        assertThat(discarded).containsExactly(second);
+    }
+
+    @Test
+    public void pooledEncoderCanBeUsedAfterRelease() throws Exception {
+        CodecPool<Encoder> encoders = Encoder.newBuilder().maxTableCapacity(4096).buildPool(4);
+        CodecPool<Decoder> decoders = Decoder.newBuilder().buildPool(4);
+        for (int i = 0; i < 3; i++) {
+            Encoder encoder = encoders.acquire();
+            Decoder decoder = decoders.acquire();
+            encoder.compressHeaders(List.of(Map.entry("x-custom", "value")));
+            encoder.flushEncoderStream();
+            decoder.decodeEncoderStream(encoder.pollEncoderStreamData());
+
+            ByteBuffer headerBlock = encoder.compressHeaders(List.of(Map.entry("x-custom", "value")));
+            assertThat(decoder.decodeStream(new ByteArrayInputStream(headerBlock.array(), 0, headerBlock.limit())))
+                    .containsExactly(Map.entry("x-custom", "value"));
+
+            encoders.release(encoder);
+            decoders.release(decoder);
+        }
+        assertThat(encoders.idleCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void idlePooledCodecsDoNotHoldReservation() {
+        MemoryGovernor governor = MemoryGovernor.create(100_000);
+        CodecPool<Encoder> encoders = Encoder.newBuilder().maxTableCapacity(4096).memoryGovernor(governor).buildPool(4);
+        CodecPool<Decoder> decoders = Decoder.newBuilder().memoryGovernor(governor).buildPool(4);
+        Encoder encoder = encoders.acquire();
+        Decoder decoder = decoders.acquire();
+        assertThat(governor.reservedBytes()).isEqualTo(8192);
+
+        encoders.release(encoder);
+        decoders.release(decoder);
+        assertThat(governor.reservedBytes()).isEqualTo(0);
+        assertThat(governor.registeredCodecs()).isEqualTo(0);
+
+        encoders.acquire().compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+        decoders.acquire().maxTableCapacity();
+        assertThat(governor.reservedBytes()).isEqualTo(8192);
+        assertThat(governor.registeredCodecs()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import tech.kwik.qpack.CodecPool;
+import tech.kwik.qpack.Decoder;
+import tech.kwik.qpack.Encoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+
+// Measures the cost of connection churn: for each simulated connection, a codec pair is created (or, with "pooled",
+// acquired from a pool), one request is encoded and decoded, and the pair is discarded (or released to the pool).
+// Usage: ConnectionChurnBenchmark [<connections per round> [<rounds> [pooled]]]
+public class ConnectionChurnBenchmark {
+
+    private static final List<Map.Entry<String, String>> REQUEST = List.of(
+            new AbstractMap.SimpleEntry<>(":method", "GET"),
+            new AbstractMap.SimpleEntry<>(":scheme", "https"),
+            new AbstractMap.SimpleEntry<>(":authority", "www.example.com"),
+            new AbstractMap.SimpleEntry<>(":path", "/index.html"),
+            new AbstractMap.SimpleEntry<>("user-agent", "kwik-qpack-benchmark")
+    );
+
+    public static void main(String[] args) throws IOException {
+        int connections = args.length > 0? Integer.parseInt(args[0]): 100_000;
+        int rounds = args.length > 1? Integer.parseInt(args[1]): 10;
+        boolean pooled = args.length > 2 && args[2].equals("pooled");
+
+        ConnectionChurnBenchmark benchmark = new ConnectionChurnBenchmark(pooled);
+        for (int round = 0; round < rounds; round++) {
+            benchmark.runRound(connections);
+        }
+    }
+
+    private final CodecPool<Encoder> encoderPool;
+    private final CodecPool<Decoder> decoderPool;
+
+    public ConnectionChurnBenchmark(boolean pooled) {
+        encoderPool = pooled? Encoder.newBuilder().buildPool(16): null;
+        decoderPool = pooled? Decoder.newBuilder().buildPool(16): null;
+    }
+
+    private void runRound(int connections) throws IOException {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedAtStart = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        int decodedFields = 0;
+        for (int i = 0; i < connections; i++) {
+            decodedFields += churn();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedAtStart;
+        System.out.printf("%d connections in %d ms: %.0f connections/s, %d bytes allocated per connection (%d fields)%n",
+                connections, elapsed / 1_000_000, connections * 1e9 / elapsed, allocated / connections, decodedFields);
+    }
+
+    private int churn() throws IOException {
+        if (encoderPool != null) {
+            Encoder encoder = encoderPool.acquire();
+            Decoder decoder = decoderPool.acquire();
+            int fields = exchange(encoder, decoder);
+            encoderPool.release(encoder);
+            decoderPool.release(decoder);
+            return fields;
+        }
+        else {
+            return exchange(Encoder.newBuilder().build(), Decoder.newBuilder().build());
+        }
+    }
+
+    private int exchange(Encoder encoder, Decoder decoder) throws IOException {
+        ByteBuffer headerBlock = encoder.compressHeaders(REQUEST);
+        return decoder.decodeStream(new ByteArrayInputStream(headerBlock.array(), 0, headerBlock.limit())).size();
+    }
+}
@@ -20,11 +20,19 @@ package tech.kwik.qpack.impl;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import tech.kwik.qpack.Decoder;
+import tech.kwik.qpack.HeaderBlockParser;
+import tech.kwik.qpack.HeaderId;
+import tech.kwik.qpack.HeaderList;
+import tech.kwik.qpack.MemoryFootprint;
+import tech.kwik.qpack.MemoryGovernor;
 
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -40,77 +48,50 @@ public class DecoderTest {
         decoder = new DecoderImpl();
     }
 
-    @Test
-    public void parseIntegerWith5bitPrefix() throws IOException {
-        // Taken from https://tools.ietf.org/html/rfc7541#appendix-C.1.1
-        long value = decoder.parsePrefixedInteger(5, wrap((byte) 0x0a));
-
-        assertThat(value).isEqualTo(10);
-    }
-
-    @Test
-    public void parsePrefixedInteger() throws IOException {
-        // Taken from https://tools.ietf.org/html/rfc7541#appendix-C.1.2
-        long value = decoder.parsePrefixedInteger(5, wrap((byte) 0xff, (byte) 0x9a, (byte) 0x0a));
-
-        assertThat(value).isEqualTo(1337);
-    }
-
-    @Test
-    public void parseIntegerStartingAtOctetBoundary() throws IOException {
-        // Taken from https://tools.ietf.org/html/rfc7541#appendix-C.1.3
-        long value = decoder.parsePrefixedInteger(8, wrap((byte) 42));
-
-        assertThat(value).isEqualTo(42);
-    }
-
     @Test
     public void parseIndexedHeaderFieldStaticTable() throws IOException {
-        Map.Entry<String, String> entry = decoder.parseIndexedHeaderField(wrap((byte) 0xd7));  // index 23
+        Map.Entry<String, String> entry = decodeFieldLine("d7");  // index 23
 
         assertThat(entry.getKey()).isEqualTo(":scheme");
         assertThat(entry.getValue()).isEqualTo("https");
     }
 
     @Test
-    public void parseIndexedHeaderFieldShouldThrowWhenStreamEmpty() throws IOException {
+    public void headerBlockShouldThrowWhenEmpty() throws IOException {
+        HeaderBlockParser parser = decoder.createHeaderBlockParser();
+        parser.parse(ByteBuffer.allocate(0));
+
         assertThatThrownBy(
-                () -> decoder.parseIndexedHeaderField(wrap(new byte[0]))
+                () -> parser.finish()
         ).isInstanceOf(EOFException.class);
     }
 
     @Test
     public void parseIndexedHeaderFieldShouldThrowWhenStreamTruncated() throws IOException {
         assertThatThrownBy(
-                () -> decoder.parseIndexedHeaderField(wrap((byte) 0xff))
+                () -> decodeFieldLine("ff")
         ).isInstanceOf(EOFException.class);
     }
 
     @Test
     public void parseLiteralHeaderFieldWithNameReferenceStaticTable() throws IOException {
-        Map.Entry<String, String> entry = decoder.parseLiteralHeaderFieldWithNameReference(wrap((byte) 0x51, (byte) 0x81, (byte) 0x63));
+        Map.Entry<String, String> entry = decodeFieldLine("518163");
 
         assertThat(entry.getKey()).isEqualTo(":path");
         assertThat(entry.getValue()).isEqualTo("/");
     }
 
-    @Test
-    public void parseLiteralHeaderFieldWithNameReferenceShouldThrowWhenStreamEmpty() throws IOException {
-        assertThatThrownBy(
-                () -> decoder.parseLiteralHeaderFieldWithNameReference(wrap(new byte[0]))
-        ).isInstanceOf(EOFException.class);
-    }
-
     @Test
     public void parseLiteralHeaderFieldWithNameReferenceShouldThrowWhenStreamTruncated() throws IOException {
         assertThatThrownBy(
-                () -> decoder.parseLiteralHeaderFieldWithNameReference(wrap((byte) 0x51, (byte) 0x81))
+                () -> decodeFieldLine("5181")
         ).isInstanceOf(EOFException.class);
     }
 
     @Test
     public void parseInsertWithNameReferencetoStaticTable() throws IOException {
-        decoder.decodeEncoderStream(wrap((byte) 0xc1, (byte) 0x04, (byte) 0x2f, (byte) 0x69, (byte) 0x64, (byte) 0x78));
+        // Set Dynamic Table Capacity 220, Insert With Name Reference
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01" + "c1042f696478")));
 
         assertThat(decoder.lookupDynamicTable(0).getKey()).isEqualTo(":path");
         assertThat(decoder.lookupDynamicTable(0).getValue()).isEqualTo("/idx");
@@ -118,35 +99,22 @@ public class DecoderTest {
 
     @Test
     public void parseLiteralHeaderFieldWithoutNameReference() throws IOException {
-        Map.Entry<String, String> entry = decoder.parseLiteralHeaderFieldWithoutNameReference(
-                wrap((byte) 0x24, (byte) 0x65, (byte) 0x74, (byte) 0x61, (byte) 0x67,
-                        (byte) 0x04, (byte) 0x48, (byte) 0x66, (byte) 0x6b, (byte) 0x55));
+        Map.Entry<String, String> entry = decodeFieldLine("2465746167" + "0448666b55");
 
         assertThat(entry.getKey()).isEqualTo("etag");
         assertThat(entry.getValue()).isEqualTo("HfkU");
     }
 
-    @Test
-    public void parseLiteralHeaderFieldWithoutNameReferenceShouldThrowWhenStreamEmtpy() throws IOException {
-        assertThatThrownBy(
-                () -> decoder.parseLiteralHeaderFieldWithoutNameReference(wrap(new byte[0]))
-                ).isInstanceOf(EOFException.class);
-    }
-
     @Test
     public void parseLiteralHeaderFieldWithoutNameReferenceShouldThrowWhenStreamTruncated() throws IOException {
         assertThatThrownBy(
-                () -> decoder.parseLiteralHeaderFieldWithoutNameReference(
-                        wrap((byte) 0x24, (byte) 0x65, (byte) 0x74, (byte) 0x61, (byte) 0x67,
-                                (byte) 0x04, (byte) 0x48, (byte) 0x66, (byte) 0x6b)) //, (byte) 0x55))
-                ).isInstanceOf(EOFException.class);
+                () -> decodeFieldLine("2465746167" + "0448666b")  // value lacks last byte
+        ).isInstanceOf(EOFException.class);
     }
 
     @Test
     public void parseNonAsciiCharInLiteralHeaderFieldWithoutNameReference() throws IOException {
-        Map.Entry<String, String> entry = decoder.parseLiteralHeaderFieldWithoutNameReference(
-                wrap((byte) 0x24, (byte) 0x6e, (byte) 0x61, (byte) 0x6d, (byte) 0x65,
-                        (byte) 0x04, (byte) 0x42, (byte) 0xf6, (byte) 0x72, (byte) 0x6e));
+        Map.Entry<String, String> entry = decodeFieldLine("246e616d65" + "0442f6726e");
 
         assertThat(entry.getKey()).isEqualTo("name");
         String value = entry.getValue();
@@ -157,17 +125,416 @@ public class DecoderTest {
 
     @Test
     public void parseInsertWithoutNameReference() throws IOException {
-        decoder.parseInsertWithoutNameReference(wrap(
-                (byte) 0x44, (byte) 0x65, (byte) 0x74, (byte) 0x61, (byte) 0x67,
-                (byte) 0x04, (byte) 0x59, (byte) 0x72, (byte) 0x67, (byte) 0x3d
-        ));
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01" + "4465746167" + "045972673d")));
 
         assertThat(decoder.lookupDynamicTable(0).getKey()).isEqualTo("etag");
         assertThat(decoder.lookupDynamicTable(0).getValue()).isEqualTo("Yrg=");
     }
 
-    private PushbackInputStream wrap(byte... bytes) {
-        return new PushbackInputStream(new ByteArrayInputStream(bytes));
+    @Test
+    public void encoderStreamInstructionsSplitOverChunksAreApplied() {
+        // Taken from https://www.rfc-editor.org/rfc/rfc9204.html#name-dynamic-table
+        decoder = new DecoderImpl(220);
+        byte[] encoderStream = bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468");
+
+        for (byte b : encoderStream) {
+            decoder.decodeEncoderStream(ByteBuffer.wrap(new byte[] { b }));
+        }
+
+        assertThat(decoder.lookupDynamicTable(0).getKey()).isEqualTo(":authority");
+        assertThat(decoder.lookupDynamicTable(0).getValue()).isEqualTo("www.example.com");
+        assertThat(decoder.lookupDynamicTable(1).getKey()).isEqualTo(":path");
+        assertThat(decoder.lookupDynamicTable(1).getValue()).isEqualTo("/sample/path");
+    }
+
+    @Test
+    public void encoderStreamInsertWithLiteralNameAndDuplicate() {
+        // Taken from https://www.rfc-editor.org/rfc/rfc9204.html#name-speculative-insert and #name-duplicate-instruction-strea
+        decoder = new DecoderImpl(220);
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468"
+                + "4a637573746f6d2d6b65790c637573746f6d2d76616c7565"
+                + "02")));
+
+        assertThat(decoder.lookupDynamicTable(2).getKey()).isEqualTo("custom-key");
+        assertThat(decoder.lookupDynamicTable(2).getValue()).isEqualTo("custom-value");
+        assertThat(decoder.lookupDynamicTable(3).getKey()).isEqualTo(":authority");
+        assertThat(decoder.lookupDynamicTable(3).getValue()).isEqualTo("www.example.com");
+    }
+
+    @Test
+    public void setCapacityExceedingMaximumShouldFail() {
+        decoder = new DecoderImpl(220);
+
+        assertThatThrownBy(
+                () -> decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbe01")))  // 221
+        ).isInstanceOf(HttpQPackEncoderStreamErrorException.class);
+    }
+
+    @Test
+    public void headerBlockWithDynamicReferencesSplitOverChunks() throws IOException {
+        // Taken from https://www.rfc-editor.org/rfc/rfc9204.html#name-duplicate-instruction-strea
+        decoder = new DecoderImpl(220);
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468"
+                + "4a637573746f6d2d6b65790c637573746f6d2d76616c7565"
+                + "02")));
+
+        HeaderBlockParser parser = decoder.createHeaderBlockParser();
+        for (byte b : bytes("050080c181")) {
+            parser.parse(ByteBuffer.wrap(new byte[] { b }));
+        }
+        List<Map.Entry<String, String>> headers = parser.finish();
+
+        assertThat(headers).extracting(Map.Entry::getKey).containsExactly(":authority", ":path", "custom-key");
+        assertThat(headers).extracting(Map.Entry::getValue).containsExactly("www.example.com", "/", "custom-value");
+    }
+
+    @Test
+    public void blockedHeaderBlockIsResumedAfterInserts() throws IOException {
+        // Taken from https://www.rfc-editor.org/rfc/rfc9204.html#name-dynamic-table
+        decoder = new DecoderImpl(220);
+        HeaderBlockParser parser = decoder.createHeaderBlockParser();
+        ByteBuffer headerBlock = ByteBuffer.wrap(bytes("03811011"));
+
+        parser.parse(headerBlock);
+        assertThat(parser.isBlocked()).isTrue();
+        assertThat(headerBlock.remaining()).isEqualTo(2);
+
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468")));
+        assertThat(parser.isBlocked()).isFalse();
+        parser.parse(headerBlock);
+        List<Map.Entry<String, String>> headers = parser.finish();
+
+        assertThat(headers).extracting(Map.Entry::getValue).containsExactly("www.example.com", "/sample/path");
+    }
+
+    @Test
+    public void finishingIncompleteHeaderBlockShouldFail() {
+        HeaderBlockParser parser = decoder.createHeaderBlockParser();
+        parser.parse(ByteBuffer.wrap(bytes("0000" + "5f00")));
+
+        assertThatThrownBy(
+                () -> parser.finish()
+        ).isInstanceOf(EOFException.class);
+    }
+
+    @Test
+    public void referenceToEntryBeyondRequiredInsertCountShouldFail() {
+        decoder = new DecoderImpl(220);
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468")));
+
+        // Required Insert Count = 1, Base = 1, Indexed Field Line With Post-Base Index 0 (absolute 1)
+        assertThatThrownBy(
+                () -> decoder.createHeaderBlockParser().parse(ByteBuffer.wrap(bytes("020010")))
+        ).isInstanceOf(HttpQPackDecompressionFailedException.class);
+    }
+
+    @Test
+    public void truncatedHuffmanEncodedValueShouldFail() {
+        // Literal Field Line With Name Reference to static "content-type", Huffman encoded value of a single zero byte
+        byte[] headerBlock = bytes("0000" + "5f1d" + "8100");
+
+        assertThatThrownBy(
+                () -> decoder.decodeStream(new ByteArrayInputStream(headerBlock))
+        ).isInstanceOf(HttpQPackDecompressionFailedException.class);
+    }
+
+    @Test
+    public void huffmanEncodedValueWithInvalidPaddingShouldFail() {
+        // Literal Field Line With Name Reference to static "content-type", Huffman encoded 'a' (00011) with padding 000
+        byte[] headerBlock = bytes("0000" + "5f1d" + "8118");
+
+        assertThatThrownBy(
+                () -> decoder.decodeStream(new ByteArrayInputStream(headerBlock))
+        ).isInstanceOf(HttpQPackDecompressionFailedException.class);
+    }
+
+    @Test
+    public void huffmanEncodedLiteralValueIsKeptEncodedUntilRequested() throws Exception {
+        // Literal Field Line With Name Reference to static "authorization", Huffman encoded value "www.example.com"
+        byte[] headerBlock = bytes("0000" + "5f45" + "8cf1e3c2e5f23a6ba0ab90f4ff");
+
+        List<Map.Entry<String, String>> headers = decoder.decodeStream(new ByteArrayInputStream(headerBlock));
+
+        assertThat(headers.get(0)).isInstanceOf(EncodedFieldLine.class);
+        assertThat(((EncodedFieldLine) headers.get(0)).encodedValue()).isEqualTo(bytes("f1e3c2e5f23a6ba0ab90f4ff"));
+        assertThat(headers).containsExactly(Map.entry("authorization", "www.example.com"));
+    }
+
+    @Test
+    public void headerBlockIsDecodedIntoHeaderList() throws Exception {
+        // Taken from https://www.rfc-editor.org/rfc/rfc9204.html#name-dynamic-table
+        decoder = new DecoderImpl(220);
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468")));
+        HeaderList headers = new HeaderList();
+
+        // Indexed static (:method GET), indexed dynamic, literal with static name ref and never-indexed literal name
+        decoder.decodeHeaderBlock(ByteBuffer.wrap(bytes("0381" + "d1" + "10" + "5f45" + "8cf1e3c2e5f23a6ba0ab90f4ff"
+                + "33" + "6b6579" + "0576616c7565")), headers);
+
+        assertThat(headers.size()).isEqualTo(4);
+        assertThat(headers.name(0)).isEqualTo(":method");
+        assertThat(headers.staticIndex(0)).isEqualTo(17);
+        assertThat(headers.flags(0)).isEqualTo(HeaderList.STATIC_MATCH);
+        assertThat(headers.name(1)).isEqualTo(":authority");
+        assertThat(headers.value(1)).isEqualTo("www.example.com");
+        assertThat(headers.name(2)).isEqualTo("authorization");
+        assertThat(headers.value(2)).isEqualTo("www.example.com");
+        assertThat(headers.staticIndex(2)).isEqualTo(84);
+        assertThat(headers.name(3)).isEqualTo("key");
+        assertThat(headers.value(3)).isEqualTo("value");
+        assertThat(headers.flags(3)).isEqualTo(HeaderList.NEVER_INDEXED);
+    }
+
+    @Test
+    public void headerListCanBeReusedForNextHeaderBlock() throws Exception {
+        HeaderList headers = new HeaderList();
+        decoder.decodeHeaderBlock(ByteBuffer.wrap(bytes("0000" + "d1")), headers);
+        headers.clear();
+
+        decoder.decodeHeaderBlock(ByteBuffer.wrap(bytes("0000" + "d7")), headers);
+
+        assertThat(headers.size()).isEqualTo(1);
+        assertThat(headers.value(0)).isEqualTo("https");
+    }
+
+    @Test
+    public void headerBlocksCanBeDecodedIntoHeaderListsConcurrently() throws Exception {
+        decoder = new DecoderImpl(220);
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468")));
+        byte[] headerBlock = bytes("0381" + "d1" + "10" + "5f45" + "8cf1e3c2e5f23a6ba0ab90f4ff" + "33" + "6b6579" + "0576616c7565");
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    HeaderList headers = new HeaderList();
+                    for (int i = 0; i < 10_000; i++) {
+                        headers.clear();
+                        decoder.decodeHeaderBlock(ByteBuffer.wrap(headerBlock), headers);
+                        assertThat(headers.size()).isEqualTo(4);
+                        assertThat(headers.value(1)).isEqualTo("www.example.com");
+                        assertThat(headers.value(3)).isEqualTo("value");
+                    }
+                }
+                catch (Throwable error) {
+                    synchronized (errors) {
+                        errors.add(error);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    public void memoryFootprintReflectsDynamicTable() {
+        decoder = new DecoderImpl(220);
+        assertThat(decoder.memoryFootprint().dynamicTableEntries()).isEqualTo(0);
+
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468")));
+
+        MemoryFootprint footprint = decoder.memoryFootprint();
+        assertThat(footprint.dynamicTableEntries()).isEqualTo(2);
+        assertThat(footprint.dynamicTableSize()).isEqualTo(106);
+        assertThat(footprint.dynamicTableCapacity()).isEqualTo(220);
+        assertThat(footprint.dynamicTableAllocatedBytes()).isBetween(10L + 15 + 5 + 12, 220L + 4 * 8);
+        assertThat(footprint.bufferedEncoderStreamBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void resetDecoderStartsWithEmptyTable() throws Exception {
+        decoder = new DecoderImpl(220);
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d")));
+        // Incomplete instruction
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("c10c2f73")));
+
+        decoder.reset();
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01" + "c10c2f73616d706c652f70617468")));
+
+        assertThat(decoder.lookupDynamicTable(0)).isEqualTo(Map.entry(":path", "/sample/path"));
+        assertThat(decoder.lookupDynamicTable(1)).isNull();
+    }
+
+    @Test
+    public void dynamicTableHasCapacityZeroUntilEncoderSetsCapacity() {
+        decoder = new DecoderImpl(220);
+        assertThat(decoder.memoryFootprint().dynamicTableCapacity()).isEqualTo(0);
+
+        // Insert With Name Reference without preceding Set Dynamic Table Capacity
+        assertThatThrownBy(() ->
+                decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("c10c2f73616d706c652f70617468")))
+        ).isInstanceOf(HttpQPackEncoderStreamErrorException.class);
+    }
+
+    @Test
+    public void resetDecoderTableHasCapacityZero() {
+        decoder = new DecoderImpl(220);
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fbd01")));
+
+        decoder.reset();
+
+        assertThat(decoder.memoryFootprint().dynamicTableCapacity()).isEqualTo(0);
+    }
+
+    @Test
+    public void decodedFieldsHaveHeaderId() throws Exception {
+        HeaderList headers = new HeaderList();
+        // :method GET (static), literal name "user-agent" with value "x", literal name "x-a" with value "y"
+        decoder.decodeHeaderBlock(ByteBuffer.wrap(bytes("0000" + "d1" + "2703757365722d6167656e740178" + "23782d610179")), headers);
+
+        assertThat(headers.headerId(0)).isEqualTo(HeaderId.METHOD);
+        assertThat(headers.headerId(1)).isEqualTo(HeaderId.USER_AGENT);
+        assertThat(headers.headerId(2)).isEqualTo(HeaderId.UNKNOWN);
+    }
+
+    private byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void cookieCrumbsAreJoined() throws Exception {
+        decoder = new DecoderImpl(DecoderConfig.create(4096, Decoder.FieldValidation.NONE, true, 0, null), null);
+
+        // :method GET, cookie a=1 (literal with static name reference), user-agent x (literal name), cookie b=2 (literal name)
+        List<Map.Entry<String, String>> headers = decoder.decodeStream(new ByteArrayInputStream(bytes("0000" + "d1" + "5503613d31"
+                + "2703757365722d6167656e740178" + "26636f6f6b696503623d32")));
+
+        assertThat(headers).containsExactly(Map.entry(":method", "GET"), Map.entry("user-agent", "x"), Map.entry("cookie", "a=1; b=2"));
+    }
+
+    @Test
+    public void cookieCrumbsFromDynamicTableAreJoinedIntoHeaderList() throws Exception {
+        decoder = new DecoderImpl(DecoderConfig.create(4096, Decoder.FieldValidation.NONE, true, 0, null), null);
+        // Set capacity 4096, insert cookie a=1 (static name reference)
+        decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fe11f" + "c503613d31")));
+        HeaderList headers = new HeaderList();
+
+        // Required Insert Count 1, Base 1: indexed dynamic 0, cookie b=2 with N bit
+        decoder.decodeHeaderBlock(ByteBuffer.wrap(bytes("0200" + "80" + "7503623d32")), headers);
+
+        assertThat(headers.size()).isEqualTo(1);
+        assertThat(headers.value(0)).isEqualTo("a=1; b=2");
+        assertThat(headers.headerId(0)).isEqualTo(HeaderId.COOKIE);
+        assertThat(headers.flags(0) & HeaderList.NEVER_INDEXED).isNotZero();
+    }
+
+    @Test
+    public void repeatedLiteralsYieldSameStringInstances() throws Exception {
+        decoder = new DecoderImpl(DecoderConfig.create(0, Decoder.FieldValidation.NONE, false, 16, null), null);
+        // user-agent x (literal name and value)
+        byte[] headerBlock = bytes("0000" + "2703757365722d6167656e740178");
+
+        List<Map.Entry<String, String>> first = decoder.decodeStream(new ByteArrayInputStream(headerBlock));
+        List<Map.Entry<String, String>> second = decoder.decodeStream(new ByteArrayInputStream(headerBlock));
+
+        assertThat(second).containsExactly(Map.entry("user-agent", "x"));
+        assertThat(second.get(0).getKey()).isSameAs(first.get(0).getKey());
+        assertThat(second.get(0).getValue()).isSameAs(first.get(0).getValue());
+    }
+
+    @Test
+    public void repeatedHuffmanEncodedLiteralIsDecodedOnce() throws Exception {
+        decoder = new DecoderImpl(DecoderConfig.create(0, Decoder.FieldValidation.NONE, false, 16, null), null);
+        // Literal Field Line With Name Reference to static "authorization", Huffman encoded value "www.example.com"
+        byte[] headerBlock = bytes("0000" + "5f45" + "8cf1e3c2e5f23a6ba0ab90f4ff");
+
+        List<Map.Entry<String, String>> first = decoder.decodeStream(new ByteArrayInputStream(headerBlock));
+        List<Map.Entry<String, String>> second = decoder.decodeStream(new ByteArrayInputStream(headerBlock));
+
+        assertThat(second).containsExactly(Map.entry("authorization", "www.example.com"));
+        assertThat(second.get(0).getValue()).isSameAs(first.get(0).getValue());
+        assertThat(((EncodedFieldLine) second.get(0)).encodedValue()).isEqualTo(bytes("f1e3c2e5f23a6ba0ab90f4ff"));
+    }
+
+    @Test
+    public void literalsWithDifferentEncodingAreNotConfused() throws Exception {
+        decoder = new DecoderImpl(DecoderConfig.create(0, Decoder.FieldValidation.NONE, false, 16, null), null);
+        // authorization with plain value of the same bytes as a Huffman encoded value ("f1e3")
+        List<Map.Entry<String, String>> plain = decoder.decodeStream(new ByteArrayInputStream(bytes("0000" + "5f4502f1e3")));
+        List<Map.Entry<String, String>> huffman = decoder.decodeStream(new ByteArrayInputStream(bytes("0000" + "5f4582f1e3")));
+
+        assertThat(plain.get(0).getValue()).isEqualTo("\u00f1\u00e3");
+        assertThat(huffman.get(0).getValue()).isNotEqualTo(plain.get(0).getValue());
+    }
+
+    @Test
+    public void decoderAcceptsCapacityGrantedByMemoryGovernor() {
+        MemoryGovernor governor = MemoryGovernor.create(6000);
+        Decoder first = Decoder.newBuilder().memoryGovernor(governor).build();
+        Decoder second = Decoder.newBuilder().memoryGovernor(governor).build();
+
+        assertThat(first.maxTableCapacity()).isEqualTo(4096);
+        assertThat(second.maxTableCapacity()).isEqualTo(6000 - 4096);
+        // Set Dynamic Table Capacity 4096 exceeds the granted capacity
+        assertThatThrownBy(() ->
+                second.decodeEncoderStream(ByteBuffer.wrap(bytes("3fe11f")))
+        ).isInstanceOf(HttpQPackEncoderStreamErrorException.class);
+
+        first.close();
+        assertThat(governor.reservedBytes()).isEqualTo(6000 - 4096);
+    }
+
+    @Test
+    public void resetDecoderReleasesReservationUntilUsedAgain() {
+        MemoryGovernor governor = MemoryGovernor.create(6000);
+        Decoder first = Decoder.newBuilder().memoryGovernor(governor).build();
+        Decoder second = Decoder.newBuilder().memoryGovernor(governor).build();
+
+        first.reset();
+        second.reset();
+        assertThat(governor.reservedBytes()).isEqualTo(0);
+
+        // The second decoder is used first this time, so it gets the larger grant
+        assertThat(second.maxTableCapacity()).isEqualTo(4096);
+        assertThat(first.maxTableCapacity()).isEqualTo(6000 - 4096);
+        second.decodeEncoderStream(ByteBuffer.wrap(bytes("3fe11f")));
+    }
+
+    @Test
+    public void builderSetsMaxTableCapacity() {
+        Decoder decoder = Decoder.newBuilder().maxTableCapacity(220).build();
+
+        assertThat(decoder.maxTableCapacity()).isEqualTo(220);
+        // Set Dynamic Table Capacity 4096 exceeds the maximum table capacity
+        assertThatThrownBy(() ->
+                decoder.decodeEncoderStream(ByteBuffer.wrap(bytes("3fe11f")))
+        ).isInstanceOf(HttpQPackEncoderStreamErrorException.class);
+    }
+
+    /**
+     * Decodes a header block with an empty prefix and the given (hex) field line.
+     */
+    private Map.Entry<String, String> decodeFieldLine(String fieldLineHex) throws IOException {
+        HeaderBlockParser parser = decoder.createHeaderBlockParser();
+        parser.parse(ByteBuffer.wrap(bytes("0000" + fieldLineHex)));
+        return parser.finish().get(0);
     }
 
 }
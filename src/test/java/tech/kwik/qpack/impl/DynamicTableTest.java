@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DynamicTableTest {
+
+    @Test
+    public void insertedEntryCanBeRetrievedByAbsoluteIndex() {
+        DynamicTable table = new DynamicTable(4096);
+        table.insert("etag", "Yrg=");
+        table.insert(":path", "/index.html");
+
+        assertThat(table.name(0)).isEqualTo("etag");
+        assertThat(table.value(0)).isEqualTo("Yrg=");
+        assertThat(table.entry(1).getKey()).isEqualTo(":path");
+        assertThat(table.entry(1).getValue()).isEqualTo("/index.html");
+        assertThat(table.insertCount()).isEqualTo(2);
+        assertThat(table.entryCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void sizeIncludesEntryOverhead() {
+        DynamicTable table = new DynamicTable(4096);
+        table.insert("etag", "Yrg=");
+
+        assertThat(table.size()).isEqualTo(4 + 4 + 32);
+    }
+
+    @Test
+    public void oldestEntriesAreEvictedWhenTableIsFull() {
+        DynamicTable table = new DynamicTable(3 * 40);
+        table.insert("name", "val0");
+        table.insert("name", "val1");
+        table.insert("name", "val2");
+        table.insert("name", "val3");
+
+        assertThat(table.droppedCount()).isEqualTo(1);
+        assertThat(table.contains(0)).isFalse();
+        assertThat(table.value(1)).isEqualTo("val1");
+        assertThat(table.value(3)).isEqualTo("val3");
+        assertThat(table.size()).isEqualTo(3 * 40);
+    }
+
+    @Test
+    public void lookupOfEvictedEntryShouldFail() {
+        DynamicTable table = new DynamicTable(40);
+        table.insert("name", "val0");
+        table.insert("name", "val1");
+
+        assertThatThrownBy(() -> table.name(0))
+                .isInstanceOf(HttpQPackDecompressionFailedException.class);
+        assertThatThrownBy(() -> table.value(2))
+                .isInstanceOf(HttpQPackDecompressionFailedException.class);
+    }
+
+    @Test
+    public void entriesThatWrapAroundEndOfArenaAreRetrievedCorrectly() {
+        DynamicTable table = new DynamicTable(300);
+        for (int i = 0; i < 100; i++) {
+            table.insert("header-" + i, "value-" + "x".repeat(i % 37));
+        }
+
+        for (long i = table.droppedCount(); i < table.insertCount(); i++) {
+            assertThat(table.name(i)).isEqualTo("header-" + i);
+            assertThat(table.value(i)).isEqualTo("value-" + "x".repeat((int) i % 37));
+        }
+    }
+
+    @Test
+    public void tableGrowsToHoldManyEntries() {
+        DynamicTable table = new DynamicTable(64 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            table.insert("n" + i, "v" + i);
+        }
+
+        assertThat(table.entryCount()).isEqualTo(1000);
+        assertThat(table.name(0)).isEqualTo("n0");
+        assertThat(table.value(999)).isEqualTo("v999");
+    }
+
+    @Test
+    public void copyNameAndValueIntoArray() {
+        DynamicTable table = new DynamicTable(4096);
+        table.insert("etag", "HfkU");
+        byte[] buffer = new byte[10];
+
+        int nameLength = table.copyName(0, buffer, 0);
+        int valueLength = table.copyValue(0, buffer, nameLength);
+
+        assertThat(new String(buffer, 0, nameLength + valueLength)).isEqualTo("etagHfkU");
+    }
+
+    @Test
+    public void reducingCapacityEvictsEntries() {
+        DynamicTable table = new DynamicTable(4096);
+        table.insert("name", "val0");
+        table.insert("name", "val1");
+
+        table.setCapacity(40);
+
+        assertThat(table.entryCount()).isEqualTo(1);
+        assertThat(table.value(1)).isEqualTo("val1");
+    }
+
+    @Test
+    public void insertingEntryLargerThanCapacityShouldFail() {
+        DynamicTable table = new DynamicTable(40);
+
+        assertThatThrownBy(() -> table.insert("name", "value"))
+                .isInstanceOf(HttpQPackEncoderStreamErrorException.class);
+    }
+
+    @Test
+    public void readersOnOtherThreadsSeeConsistentEntriesOrDetectEviction() throws Exception {
+        DynamicTable table = new DynamicTable(1024);
+        int inserts = 200_000;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong consistentReads = new AtomicLong();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            Thread reader = new Thread(() -> {
+                byte[] destination = new byte[64];
+                while (!done.get()) {
+                    long index = table.insertCount() - 1;
+                    if (index < 0) {
+                        continue;
+                    }
+                    try {
+                        String name = table.name(index);
+                        int length = table.copyValue(index, destination, 0);
+                        assertThat(name).isEqualTo("name-" + index);
+                        assertThat(new String(destination, 0, length, StandardCharsets.ISO_8859_1)).isEqualTo(value(index));
+                        consistentReads.incrementAndGet();
+                    }
+                    catch (HttpQPackDecompressionFailedException evicted) {
+                        // Entry was evicted while (or before) it was read
+                    }
+                    catch (Throwable error) {
+                        errors.add(error);
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        for (int i = 0; i < inserts; i++) {
+            table.insert("name-" + i, value(i));
+        }
+        done.set(true);
+        for (Thread reader: readers) {
+            reader.join();
+        }
+
+        assertThat(errors).isEmpty();
+        assertThat(consistentReads.get()).isGreaterThan(0);
+    }
+
+    @Test
+    public void entriesRemainReadableAfterStorageGrows() {
+        DynamicTable table = new DynamicTable(64 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            table.insert("name-" + i, value(i));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(table.name(i)).isEqualTo("name-" + i);
+            assertThat(table.value(i)).isEqualTo(value(i));
+        }
+    }
+
+    private static String value(long index) {
+        return "value-" + index + "-".repeat((int) (index % 17));
+    }
+}
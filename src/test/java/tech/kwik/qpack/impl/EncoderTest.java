@@ -21,9 +21,19 @@ package tech.kwik.qpack.impl;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import tech.kwik.qpack.Decoder;
+import tech.kwik.qpack.Encoder;
+import tech.kwik.qpack.HeaderDictionary;
+import tech.kwik.qpack.HeaderList;
+import tech.kwik.qpack.HuffmanCache;
+import tech.kwik.qpack.MemoryGovernor;
+import tech.kwik.qpack.MemoryFootprint;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -127,4 +137,651 @@ public class EncoderTest {
         assertThat(result.array()).startsWith(expected);
         assertThat(result.limit()).isEqualTo(expected.length);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encodeIntegerWithRemainderOf128() {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        encoder.insertPrefixedInteger(7, (byte) 0, 127 + 128, buffer);
+
+        assertThat(buffer.array()).startsWith(0x7f, 0x80, 0x01);
+        assertThat(buffer.position()).isEqualTo(3);
+    }
+
+    @Test
+    public void withDynamicTableHeaderBlockReferencesInsertedEntries() throws Exception {
+        encoder = new EncoderImpl(220, 1, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK, EncoderImpl.DEFAULT_FLUSH_THRESHOLD);
+        List<Map.Entry<String, String>> headers = List.of(
+                new AbstractMap.SimpleEntry<>(":authority", "www.example.com"),
+                new AbstractMap.SimpleEntry<>("custom-key", "custom-value"));
+
+        ByteBuffer headerBlock = encoder.compressHeaders(0, headers);
+
+        ByteBuffer encoderStreamData = encoder.pollEncoderStreamData();
+        assertThat(encoderStreamData).isNotNull();
+        assertThat(encoder.pollEncoderStreamData()).isNull();
+        assertThat(toArray(headerBlock)).isEqualTo(new byte[] {
+                0x03,  // Required Insert Count = 2
+                (byte) 0x81,  // Base = 0
+                0x10,  // Indexed Field Line With Post-Base Index 0
+                0x11   // Indexed Field Line With Post-Base Index 1
+        });
+
+        DecoderImpl decoder = new DecoderImpl(220);
+        decoder.decodeEncoderStream(encoderStreamData);
+        assertThat(decoder.decodeStream(new ByteArrayInputStream(toArray(headerBlock)))).isEqualTo(headers);
+    }
+
+    @Test
+    public void entriesInDynamicTableAreReferencedByRelativeIndexInNextBlock() throws Exception {
+        encoder = new EncoderImpl(220, 1, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK, EncoderImpl.DEFAULT_FLUSH_THRESHOLD);
+        List<Map.Entry<String, String>> headers = List.of(new AbstractMap.SimpleEntry<>("custom-key", "custom-value"));
+        encoder.compressHeaders(0, headers);
+
+        ByteBuffer headerBlock = encoder.compressHeaders(0, headers);
+
+        assertThat(encoder.pollEncoderStreamData()).isNotNull();
+        assertThat(encoder.pollEncoderStreamData()).isNull();
+        assertThat(toArray(headerBlock)).isEqualTo(new byte[] {
+                0x02,  // Required Insert Count = 1
+                0x00,  // Base = 1
+                (byte) 0x80  // Indexed Field Line, relative index 0
+        });
+    }
+
+    @Test
+    public void withExplicitFlushPolicyInstructionsOfMultipleBlocksAreCoalesced() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, EncoderImpl.DEFAULT_FLUSH_THRESHOLD);
+        encoder.compressHeaders(List.of(new AbstractMap.SimpleEntry<>("x-first", "1")));
+        encoder.compressHeaders(List.of(new AbstractMap.SimpleEntry<>("x-second", "2")));
+        assertThat(encoder.pollEncoderStreamData()).isNull();
+
+        encoder.flushEncoderStream();
+
+        ByteBuffer encoderStreamData = encoder.pollEncoderStreamData();
+        assertThat(encoderStreamData.remaining()).isEqualTo(3 + 10 + 11);  // set capacity, two inserts
+        assertThat(encoder.pollEncoderStreamData()).isNull();
+    }
+
+    @Test
+    public void withSizeThresholdFlushPolicyInstructionsAreFlushedWhenThresholdIsReached() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.SIZE_THRESHOLD, 20);
+        encoder.compressHeaders(List.of(new AbstractMap.SimpleEntry<>("x-first", "1")));
+        assertThat(encoder.pollEncoderStreamData()).isNull();
+
+        encoder.compressHeaders(List.of(new AbstractMap.SimpleEntry<>("x-second", "2")));
+
+        assertThat(encoder.pollEncoderStreamData().remaining()).isEqualTo(3 + 10 + 11);
+    }
+
+    @Test
+    public void flushingWithoutPendingInstructionsYieldsNoData() {
+        encoder.flushEncoderStream();
+
+        assertThat(encoder.pollEncoderStreamData()).isNull();
+    }
+
+    @Test
+    public void decodedHuffmanEncodedValueIsCopiedVerbatim() throws Exception {
+        // Literal Field Line With Name Reference to static "authorization", Huffman encoded value "www.example.com"
+        byte[] headerBlock = HpackDecoderTest.bytes("0000" + "5f45" + "8cf1e3c2e5f23a6ba0ab90f4ff");
+        List<Map.Entry<String, String>> headers = new DecoderImpl().decodeStream(new ByteArrayInputStream(headerBlock));
+
+        ByteBuffer compressed = encoder.compressHeaders(headers);
+
+        assertThat(toArray(compressed)).isEqualTo(headerBlock);
+    }
+
+    @Test
+    public void longDecodedHuffmanEncodedValueIsCopiedWithoutDecoding() throws Exception {
+        // Literal Field Line With Name Reference to static "cookie", Huffman encoded value of 480 times 'a' (300 bytes)
+        byte[] headerBlock = HpackDecoderTest.bytes("0000" + "55" + "ffad01" + "18c6318c63".repeat(60));
+        List<Map.Entry<String, String>> headers = new DecoderImpl().decodeStream(new ByteArrayInputStream(headerBlock));
+
+        ByteBuffer compressed = encoder.compressHeaders(headers);
+
+        assertThat(toArray(compressed)).isEqualTo(headerBlock);
+        assertThat(headers.get(0).getValue()).isEqualTo("a".repeat(480));
+    }
+
+    @Test
+    public void changedValueOfDecodedFieldIsEncodedAgain() throws Exception {
+        byte[] headerBlock = HpackDecoderTest.bytes("0000" + "5f45" + "8cf1e3c2e5f23a6ba0ab90f4ff");
+        List<Map.Entry<String, String>> headers = new DecoderImpl().decodeStream(new ByteArrayInputStream(headerBlock));
+        headers.get(0).setValue("x");
+
+        ByteBuffer compressed = encoder.compressHeaders(headers);
+
+        assertThat(toArray(compressed)).isEqualTo(HpackDecoderTest.bytes("0000" + "5f45" + "0178"));
+    }
+
+    @Test
+    public void headerListIsEncodedLikeEntryList() {
+        HeaderList headers = new HeaderList();
+        headers.add(":method", "GET");
+        headers.add(":path", "/index.html");
+        headers.add("x-custom", "value");
+
+        ByteBuffer fromHeaderList = encoder.compressHeaders(headers);
+        ByteBuffer fromEntries = encoder.compressHeaders(List.of(Map.entry(":method", "GET"),
+                Map.entry(":path", "/index.html"), Map.entry("x-custom", "value")));
+
+        assertThat(toArray(fromHeaderList)).isEqualTo(toArray(fromEntries));
+    }
+
+    @Test
+    public void neverIndexedFieldIsNotInsertedAndHasNeverIndexedBitSet() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.flushEncoderStream();
+        encoder.pollEncoderStreamData();
+        HeaderList headers = new HeaderList();
+        headers.add("authorization", "secret", HeaderList.NEVER_INDEXED);
+
+        ByteBuffer compressed = encoder.compressHeaders(headers);
+
+        // Literal Field Line With Name Reference, N bit set, static index 84
+        assertThat(toArray(compressed)).isEqualTo(HpackDecoderTest.bytes("0000" + "7f45" + "06736563726574"));
+        encoder.flushEncoderStream();
+        assertThat(encoder.pollEncoderStreamData()).isNull();
+    }
+
+    @Test
+    public void headerListDecodedFromBlockIsEncodedIdentically() throws Exception {
+        byte[] headerBlock = HpackDecoderTest.bytes("0000" + "d1" + "d7" + "5f45" + "06736563726574" + "33" + "6b6579" + "0576616c7565");
+        HeaderList headers = new HeaderList();
+        new DecoderImpl().decodeHeaderBlock(ByteBuffer.wrap(headerBlock), headers);
+
+        ByteBuffer compressed = encoder.compressHeaders(headers);
+
+        assertThat(toArray(compressed)).isEqualTo(headerBlock);
+    }
+
+    @Test
+    public void withoutBlockedStreamsUnacknowledgedEntryIsNotReferenced() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+
+        ByteBuffer compressed = encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+
+        assertThat(toArray(compressed)).isEqualTo(HpackDecoderTest.bytes("0000" + "2701" + "782d637573746f6d" + "0576616c7565"));
+        assertThat(flushedEncoderStream()).hasSize(3 + 1 + 8 + 1 + 5);
+    }
+
+    @Test
+    public void entryIsReferencedOnceInsertIsAcknowledged() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+
+        // Insert Count Increment 1
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+        ByteBuffer compressed = encoder.compressHeaders(4, List.of(Map.entry("x-custom", "value")));
+
+        // Required Insert Count 1 (encoded as 2), Base 1, Indexed Field Line relative index 0
+        assertThat(toArray(compressed)).isEqualTo(HpackDecoderTest.bytes("020080"));
+    }
+
+    @Test
+    public void onlyAllowedNumberOfStreamsIsBlocked() {
+        encoder = new EncoderImpl(4096, 1, Encoder.FlushPolicy.EXPLICIT, 0);
+
+        ByteBuffer first = encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+        ByteBuffer second = encoder.compressHeaders(4, List.of(Map.entry("x-custom", "value")));
+        ByteBuffer third = encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+
+        // Required Insert Count 1, Base 0, Indexed Field Line With Post-Base Index 0
+        assertThat(toArray(first)).isEqualTo(HpackDecoderTest.bytes("028010"));
+        assertThat(toArray(second)).startsWith(0x00, 0x00);
+        // Stream 0 is already blocked, so it may reference the unacknowledged entry
+        assertThat(toArray(third)).isEqualTo(HpackDecoderTest.bytes("020080"));
+    }
+
+    @Test
+    public void integerOfSixtyTwoBitsIsParsed() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+
+        // Insert Count Increment 2^62 - 1
+        assertThatThrownBy(() -> encoder.decodeDecoderStream(ByteBuffer.wrap(HpackDecoderTest.bytes("3fc0ffffffffffffff3f"))))
+                .isInstanceOf(HttpQPackDecoderStreamErrorException.class)
+                .hasMessageContaining("invalid insert count increment " + ((1L << 62) - 1));
+    }
+
+    @Test
+    public void integerExceedingSixtyTwoBitsIsRejected() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+
+        // Insert Count Increment 2^62, of which the last byte (at shift 56) exceeds 62 bits
+        assertThatThrownBy(() -> encoder.decodeDecoderStream(ByteBuffer.wrap(HpackDecoderTest.bytes("3fc1ffffffffffffff3f"))))
+                .isInstanceOf(HttpQPackDecoderStreamErrorException.class)
+                .hasMessageContaining("exceeds 62 bits");
+    }
+
+    @Test
+    public void blockedStreamIsReleasedWhenInsertsAreAcknowledged() {
+        encoder = new EncoderImpl(4096, 1, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.compressHeaders(0, List.of(Map.entry("x-a", "1")));
+
+        // Insert Count Increment 1
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+        ByteBuffer compressed = encoder.compressHeaders(4, List.of(Map.entry("x-b", "2")));
+
+        // Required Insert Count 2, Base 1, Indexed Field Line With Post-Base Index 0
+        assertThat(toArray(compressed)).isEqualTo(HpackDecoderTest.bytes("038010"));
+    }
+
+    @Test
+    public void headersWithoutStreamIdOnlyReferenceAcknowledgedEntries() {
+        encoder = new EncoderImpl(4096, 1, Encoder.FlushPolicy.EXPLICIT, 0);
+
+        ByteBuffer first = encoder.compressHeaders(List.of(Map.entry("x-custom", "value")));
+        // Insert Count Increment 1
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+        ByteBuffer second = encoder.compressHeaders(List.of(Map.entry("x-custom", "value")));
+
+        assertThat(toArray(first)).startsWith(0x00, 0x00);
+        // Required Insert Count 1 (encoded as 2), Base 1, Indexed Field Line relative index 0
+        assertThat(toArray(second)).isEqualTo(HpackDecoderTest.bytes("020080"));
+        // Section Acknowledgment for the (unknown) stream of the second block
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { (byte) 0x81 }));
+    }
+
+    @Test
+    public void acknowledgedUnreferencedEntryIsEvicted() throws Exception {
+        // Each entry has size 3 + 10 + 32 = 45, so the table can hold two entries
+        encoder = new EncoderImpl(100, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.compressHeaders(0, List.of(Map.entry("x-a", "1234567890"), Map.entry("x-b", "1234567890")));
+        // Insert Count Increment 2
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x02 }));
+
+        encoder.compressHeaders(4, List.of(Map.entry("x-c", "1234567890")));
+
+        DecoderImpl decoder = new DecoderImpl(100);
+        decoder.decodeEncoderStream(new ByteArrayInputStream(flushedEncoderStream()));
+        assertThat(decoder.lookupDynamicTable(0)).isNull();
+        assertThat(decoder.lookupDynamicTable(2)).isEqualTo(Map.entry("x-c", "1234567890"));
+    }
+
+    @Test
+    public void entryReferencedByUnacknowledgedSectionIsNotEvicted() {
+        encoder = new EncoderImpl(100, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.compressHeaders(0, List.of(Map.entry("x-a", "1234567890")));
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+        encoder.compressHeaders(4, List.of(Map.entry("x-a", "1234567890"), Map.entry("x-b", "1234567890")));
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+        flushedEncoderStream();
+
+        encoder.compressHeaders(8, List.of(Map.entry("x-c", "1234567890")));
+        assertThat(flushedEncoderStream()).isEmpty();
+
+        // Section Acknowledgment for stream 4
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { (byte) 0x84 }));
+        encoder.compressHeaders(12, List.of(Map.entry("x-c", "1234567890")));
+        assertThat(flushedEncoderStream()).isNotEmpty();
+    }
+
+    @Test
+    public void cancelledStreamReleasesReferences() {
+        encoder = new EncoderImpl(100, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.compressHeaders(0, List.of(Map.entry("x-a", "1234567890")));
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+        encoder.compressHeaders(4, List.of(Map.entry("x-a", "1234567890"), Map.entry("x-b", "1234567890")));
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+        flushedEncoderStream();
+
+        // Stream Cancellation for stream 4
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x44 }));
+        encoder.compressHeaders(8, List.of(Map.entry("x-c", "1234567890")));
+
+        assertThat(flushedEncoderStream()).isNotEmpty();
+    }
+
+    @Test
+    public void invalidDecoderStreamInstructionsAreRejected() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+
+        assertThatThrownBy(() -> encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x00 })))
+                .isInstanceOf(HttpQPackDecoderStreamErrorException.class);
+        assertThatThrownBy(() -> encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 })))
+                .isInstanceOf(HttpQPackDecoderStreamErrorException.class);
+        assertThatThrownBy(() -> encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { (byte) 0x80 })))
+                .isInstanceOf(HttpQPackDecoderStreamErrorException.class);
+    }
+
+    @Test
+    public void memoryFootprintReflectsTableAndBufferedEncoderStream() {
+        encoder = new EncoderImpl(4096, 0, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+
+        MemoryFootprint footprint = encoder.memoryFootprint();
+
+        assertThat(footprint.dynamicTableEntries()).isEqualTo(1);
+        assertThat(footprint.dynamicTableSize()).isEqualTo(8 + 5 + 32);
+        assertThat(footprint.dynamicTableCapacity()).isEqualTo(4096);
+        assertThat(footprint.dynamicTableAllocatedBytes()).isGreaterThanOrEqualTo(8 + 5);
+        assertThat(footprint.bufferedEncoderStreamBytes()).isEqualTo(3 + 1 + 8 + 1 + 5);
+        assertThat(footprint.totalAllocatedBytes()).isGreaterThan(footprint.dynamicTableAllocatedBytes());
+
+        flushedEncoderStream();
+        assertThat(encoder.memoryFootprint().bufferedEncoderStreamBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void resetEncoderBehavesLikeNewEncoder() {
+        encoder = new EncoderImpl(4096, 1, Encoder.FlushPolicy.EXPLICIT, 0);
+        encoder.compressHeaders(0, List.of(Map.entry("x-first", "1"), Map.entry("x-second", "2")));
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+
+        encoder.reset();
+        ByteBuffer compressed = encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+
+        EncoderImpl newEncoder = new EncoderImpl(4096, 1, Encoder.FlushPolicy.EXPLICIT, 0);
+        assertThat(toArray(compressed)).isEqualTo(toArray(newEncoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")))));
+        byte[] encoderStream = flushedEncoderStream();
+        newEncoder.flushEncoderStream();
+        assertThat(encoderStream).isEqualTo(toArray(newEncoder.pollEncoderStreamData()));
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(1);
+    }
+
+    @Test
+    public void charSequenceNamesAndValuesAreEncodedLikeStrings() {
+        List<Map.Entry<CharSequence, CharSequence>> charSequences = List.of(
+                Map.entry(new StringBuilder(":method"), new StringBuilder("GET")),
+                Map.entry(new StringBuilder("x-custom"), new StringBuilder("value")));
+
+        ByteBuffer compressed = encoder.compressHeaders(charSequences);
+
+        ByteBuffer expected = new EncoderImpl().compressHeaders(List.of(Map.entry(":method", "GET"), Map.entry("x-custom", "value")));
+        assertThat(toArray(compressed)).isEqualTo(toArray(expected));
+    }
+
+    @Test
+    public void cachedNameIsEncodedLikeUncachedName() {
+        String name = "content-type";
+        List<Map.Entry<String, String>> headers = List.of(Map.entry(name, "application/json"), Map.entry(name, "text/x-custom"));
+        byte[] first = toArray(encoder.compressHeaders(headers));
+
+        // Second time, the name instance is cached
+        byte[] second = toArray(encoder.compressHeaders(headers));
+        byte[] third = toArray(encoder.compressHeaders(headers));
+
+        assertThat(second).isEqualTo(first);
+        assertThat(third).isEqualTo(first);
+        // content-type application/json is static entry 46; the custom value refers to the name of entry 44
+        assertThat(first).startsWith(0x00, 0x00, 0xee, 0x5f, 0x1d);
+    }
+
+    @Test
+    public void nonAsciiCharactersAreReplaced() {
+        ByteBuffer compressed = encoder.compressHeaders(List.of(Map.entry("x-name", "caf\u00e9")));
+
+        assertThat(toArray(compressed)).endsWith('c', 'a', 'f', '?');
+    }
+
+    @Test
+    public void headerListWithByteArraysIsEncoded() {
+        HeaderList headers = new HeaderList();
+        headers.add(":status".getBytes(), "200".getBytes());
+        headers.add("x-custom".getBytes(), "value".getBytes());
+
+        ByteBuffer compressed = encoder.compressHeaders(headers);
+
+        assertThat(toArray(compressed)).startsWith(0x00, 0x00, 0xd9, 0x27, 0x01);
+    }
+
+    @Test
+    public void warmStartInsertsDictionaryEntriesBeforeFirstHeaderBlock() {
+        HeaderDictionary dictionary = HeaderDictionary.of(List.of(Map.entry("x-client", "kwik")));
+        encoder = new EncoderImpl(EncoderConfig.create(4096, 0, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK, 0), dictionary, null);
+
+        // Set Dynamic Table Capacity 4096, Insert With Literal Name x-client kwik
+        assertThat(flushedEncoderStream()).isEqualTo(HpackDecoderTest.bytes("3fe11f" + "48782d636c69656e74046b77696b"));
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(1);
+    }
+
+    @Test
+    public void primedEntryIsReferencedWhenAcknowledged() {
+        HeaderDictionary dictionary = HeaderDictionary.of(List.of(Map.entry("x-client", "kwik")));
+        encoder = new EncoderImpl(EncoderConfig.create(4096, 0, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK, 0), dictionary, null);
+        // Insert Count Increment 1
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+
+        ByteBuffer compressed = encoder.compressHeaders(0, List.of(Map.entry("x-client", "kwik")));
+
+        assertThat(toArray(compressed)).isEqualTo(new byte[] { 0x02, 0x00, (byte) 0x80 });
+    }
+
+    @Test
+    public void learnedDictionaryPrimesNextConnection() {
+        HeaderDictionary dictionary = HeaderDictionary.learning(100);
+        Encoder firstConnection = new EncoderImpl(EncoderConfig.create(4096, 0, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK, 0), dictionary, null);
+        firstConnection.compressHeaders(0, List.of(Map.entry(":path", "/index.html"), Map.entry("x-client", "kwik")));
+        firstConnection.compressHeaders(4, List.of(Map.entry(":path", "/style.css"), Map.entry("x-client", "kwik")));
+
+        encoder = new EncoderImpl(EncoderConfig.create(4096, 0, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK, 0), dictionary, null);
+
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(1);
+    }
+
+    @Test
+    public void fastestProfileUsesStaticTableOnly() {
+        encoder = (EncoderImpl) Encoder.newBuilder().maxTableCapacity(4096).profile(Encoder.Profile.FASTEST).build();
+
+        ByteBuffer compressed = encoder.compressHeaders(0, List.of(Map.entry("x-c", "1")));
+
+        assertThat(flushedEncoderStream()).isEmpty();
+        assertThat(toArray(compressed)).isEqualTo(new byte[] { 0x00, 0x00, 0x23, 'x', '-', 'c', 0x01, '1' });
+    }
+
+    @Test
+    public void smallestProfileHuffmanEncodesLiterals() {
+        encoder = (EncoderImpl) Encoder.newBuilder().profile(Encoder.Profile.SMALLEST).build();
+
+        ByteBuffer compressed = encoder.compressHeaders(List.of(Map.entry(":authority", "www.example.com")));
+
+        // Literal with static name reference 0, value Huffman encoded (https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.4.1)
+        assertThat(toArray(compressed)).isEqualTo(HpackDecoderTest.bytes("0000508cf1e3c2e5f23a6ba0ab90f4ff"));
+    }
+
+    @Test
+    public void huffmanPolicyOverridesProfile() {
+        encoder = (EncoderImpl) Encoder.newBuilder().profile(Encoder.Profile.SMALLEST).huffmanPolicy(Encoder.HuffmanPolicy.NEVER).build();
+
+        ByteBuffer compressed = encoder.compressHeaders(List.of(Map.entry(":authority", "a.b")));
+
+        assertThat(toArray(compressed)).isEqualTo(new byte[] { 0x00, 0x00, 0x50, 0x03, 'a', '.', 'b' });
+    }
+
+    @Test
+    public void balancedProfileOnlyInsertsRepeatedFields() {
+        encoder = (EncoderImpl) Encoder.newBuilder().maxTableCapacity(4096).profile(Encoder.Profile.BALANCED).build();
+        flushedEncoderStream();
+
+        encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(0);
+
+        encoder.compressHeaders(4, List.of(Map.entry("x-custom", "value")));
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(1);
+    }
+
+    @Test
+    public void tableCapacityOverrideIsLimitedByMaximum() {
+        encoder = (EncoderImpl) Encoder.newBuilder().maxTableCapacity(1000).tableCapacity(5000).build();
+
+        // Set Dynamic Table Capacity 1000
+        assertThat(flushedEncoderStream()).isEqualTo(new byte[] { 0x3f, (byte) 0xc9, 0x07 });
+    }
+
+    @Test
+    public void smallestProfileOutputCanBeDecoded() throws Exception {
+        encoder = (EncoderImpl) Encoder.newBuilder().maxTableCapacity(4096).maxBlockedStreams(10).profile(Encoder.Profile.SMALLEST).build();
+        DecoderImpl decoder = new DecoderImpl(4096);
+        List<Map.Entry<String, String>> headers = List.of(Map.entry(":method", "GET"), Map.entry(":path", "/index.html"),
+                Map.entry("user-agent", "Mozilla/5.0 (X11; Linux x86_64)"), Map.entry("x-custom", "some value"));
+
+        for (int stream = 0; stream < 12; stream += 4) {
+            ByteBuffer compressed = encoder.compressHeaders(stream, headers);
+            decoder.decodeEncoderStream(new ByteArrayInputStream(flushedEncoderStream()));
+            assertThat(decoder.decodeStream(new ByteArrayInputStream(toArray(compressed)))).isEqualTo(headers);
+        }
+    }
+
+    @Test
+    public void cookieIsSplitIntoCrumbsThatAreIndexedSeparately() {
+        encoder = (EncoderImpl) Encoder.newBuilder().maxTableCapacity(4096).splitCookies(true).build();
+
+        encoder.compressHeaders(0, List.of(Map.entry("cookie", "a=1; b=2")));
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(2);
+
+        encoder.compressHeaders(4, List.of(Map.entry("cookie", "a=1; b=3")));
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(3);
+    }
+
+    @Test
+    public void cookieIsNotSplitWithoutDynamicTable() {
+        encoder = (EncoderImpl) Encoder.newBuilder().splitCookies(true).build();
+
+        ByteBuffer compressed = encoder.compressHeaders(List.of(Map.entry("cookie", "a=1; b=2")));
+
+        assertThat(toArray(compressed)).isEqualTo(HpackDecoderTest.bytes("0000" + "5508613d313b20623d32"));
+    }
+
+    @Test
+    public void splitCookieIsJoinedByDecoder() throws Exception {
+        encoder = (EncoderImpl) Encoder.newBuilder().maxTableCapacity(4096).maxBlockedStreams(1).splitCookies(true).build();
+        DecoderImpl decoder = new DecoderImpl(DecoderConfig.create(4096, Decoder.FieldValidation.NONE, true, 0, null), null);
+        HeaderList headers = new HeaderList();
+        headers.add(":method", "GET");
+        headers.add("cookie", "session=1234;theme=dark;  lang=en");
+
+        ByteBuffer compressed = encoder.compressHeaders(0, headers);
+        decoder.decodeEncoderStream(new ByteArrayInputStream(flushedEncoderStream()));
+
+        assertThat(decoder.decodeStream(new ByteArrayInputStream(toArray(compressed))))
+                .containsExactly(Map.entry(":method", "GET"), Map.entry("cookie", "session=1234; theme=dark; lang=en"));
+    }
+
+    @Test
+    public void gatheringOutputReferencesLargeValues() {
+        byte[] policy = new byte[1000];
+        Arrays.fill(policy, (byte) 'p');
+        HeaderList headers = new HeaderList();
+        headers.add(":status", "200");
+        headers.addReference("content-security-policy", ByteBuffer.wrap(policy), 0);
+        headers.add("x-small", "value");
+
+        ByteBuffer[] output = encoder.compressHeadersGathering(0, headers);
+
+        assertThat(output).hasSize(3);
+        assertThat(output[1].array()).isSameAs(policy);
+        ByteArrayOutputStream gathered = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : output) {
+            gathered.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        HeaderList copied = new HeaderList();
+        copied.add(":status", "200");
+        copied.add("content-security-policy", new String(policy));
+        copied.add("x-small", "value");
+        assertThat(gathered.toByteArray()).isEqualTo(toArray(encoder.compressHeaders(4, copied)));
+    }
+
+    @Test
+    public void gatheringOutputCopiesSmallAndHuffmanEncodedValues() {
+        encoder = (EncoderImpl) Encoder.newBuilder().huffmanPolicy(Encoder.HuffmanPolicy.WHEN_SMALLER).build();
+        byte[] policy = new byte[1000];
+        Arrays.fill(policy, (byte) 'p');
+        HeaderList headers = new HeaderList();
+        headers.addReference("content-security-policy", ByteBuffer.wrap(policy), 0);
+        headers.addReference("x-small", ByteBuffer.wrap(new byte[] { 'x' }), 0);
+
+        ByteBuffer[] output = encoder.compressHeadersGathering(0, headers);
+
+        assertThat(output).hasSize(1);
+        assertThat(output[0].position()).isEqualTo(0);
+    }
+
+    @Test
+    public void encoderWithHuffmanCacheProducesSameOutput() {
+        HuffmanCache cache = HuffmanCache.create(64 * 1024);
+        List<Map.Entry<String, String>> headers = List.of(
+                new AbstractMap.SimpleEntry<>(":path", "/index.html?query=value"),
+                new AbstractMap.SimpleEntry<>("user-agent", "Mozilla/5.0 (X11; Linux x86_64)"),
+                new AbstractMap.SimpleEntry<>("x-custom-header", "custom value"));
+        Encoder plain = Encoder.newBuilder().huffmanPolicy(Encoder.HuffmanPolicy.WHEN_SMALLER).build();
+        Encoder first = Encoder.newBuilder().huffmanPolicy(Encoder.HuffmanPolicy.WHEN_SMALLER).huffmanCache(cache).build();
+        Encoder second = Encoder.newBuilder().huffmanPolicy(Encoder.HuffmanPolicy.WHEN_SMALLER).huffmanCache(cache).build();
+
+        byte[] expected = toArray(plain.compressHeaders(headers));
+
+        assertThat(toArray(first.compressHeaders(headers))).isEqualTo(expected);
+        assertThat(toArray(second.compressHeaders(headers))).isEqualTo(expected);
+        assertThat(cache.hits()).isGreaterThan(0);
+    }
+
+    @Test
+    public void encoderReducesCapacityUnderMemoryPressureWithoutEvictingUnacknowledgedEntries() {
+        MemoryGovernorImpl governor = new MemoryGovernorImpl(400);
+        for (int i = 0; i < 3; i++) {
+            governor.reserve(100);
+        }
+        encoder = new EncoderImpl(EncoderConfig.create(null, 4096, -1, 0, -1, null, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK,
+                EncoderImpl.DEFAULT_FLUSH_THRESHOLD, false, null, governor), null, null);
+        assertThat(encoder.memoryFootprint().dynamicTableCapacity()).isEqualTo(100);
+        encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+        flushedEncoderStream();
+        for (int i = 0; i < 5; i++) {
+            governor.reserve(100);
+        }
+
+        // Limit is 400 / 9 = 44, but the (unacknowledged) entry of 45 bytes cannot be evicted
+        encoder.compressHeaders(4, List.of(Map.entry(":method", "GET")));
+        assertThat(flushedEncoderStream()).isEqualTo(HpackDecoderTest.bytes("3f0e"));
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(1);
+
+        encoder.decodeDecoderStream(ByteBuffer.wrap(new byte[] { 0x01 }));
+        encoder.compressHeaders(8, List.of(Map.entry(":method", "GET")));
+        assertThat(flushedEncoderStream()).isEqualTo(HpackDecoderTest.bytes("3f0d"));
+        assertThat(encoder.memoryFootprint().dynamicTableEntries()).isEqualTo(0);
+        assertThat(governor.reclaimedBytes()).isEqualTo(100 - 44);
+        assertThat(governor.reservedBytes()).isEqualTo(300 + 44);
+    }
+
+    @Test
+    public void closedEncoderReleasesReservation() {
+        MemoryGovernor governor = MemoryGovernor.create(100_000);
+        Encoder first = Encoder.newBuilder().maxTableCapacity(4096).memoryGovernor(governor).build();
+        Encoder second = Encoder.newBuilder().maxTableCapacity(4096).memoryGovernor(governor).build();
+        assertThat(governor.reservedBytes()).isEqualTo(8192);
+
+        first.close();
+        first.close();
+
+        assertThat(governor.reservedBytes()).isEqualTo(4096);
+        assertThat(governor.registeredCodecs()).isEqualTo(1);
+    }
+
+    @Test
+    public void resetEncoderReleasesReservationUntilUsedAgain() {
+        MemoryGovernor governor = MemoryGovernor.create(100_000);
+        encoder = (EncoderImpl) Encoder.newBuilder().maxTableCapacity(4096).memoryGovernor(governor).build();
+        flushedEncoderStream();
+
+        encoder.reset();
+        assertThat(governor.reservedBytes()).isEqualTo(0);
+
+        encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+        assertThat(governor.reservedBytes()).isEqualTo(4096);
+        // Set Dynamic Table Capacity 4096
+        assertThat(flushedEncoderStream()).startsWith(0x3f, 0xe1, 0x1f);
+    }
+
+    private byte[] flushedEncoderStream() {
+        encoder.flushEncoderStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteBuffer data;
+        while ((data = encoder.pollEncoderStreamData()) != null) {
+            output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOfRange(buffer.array(), 0, buffer.limit());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+import tech.kwik.qpack.Decoder;
+import tech.kwik.qpack.HeaderBlockParser;
+import tech.kwik.qpack.HeaderList;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static tech.kwik.qpack.impl.HpackDecoderTest.bytes;
+
+
+public class FieldValidatorTest {
+
+    // :method GET, :scheme https, :path /, :authority www.example.com (static name reference)
+    private static final String VALID_REQUEST = "0000" + "d1d7c1" + "500f7777772e6578616d706c652e636f6d";
+
+    private final DecoderImpl requestDecoder = new DecoderImpl(DecoderImpl.DEFAULT_MAX_TABLE_CAPACITY, Decoder.FieldValidation.REQUEST);
+    private final DecoderImpl responseDecoder = new DecoderImpl(DecoderImpl.DEFAULT_MAX_TABLE_CAPACITY, Decoder.FieldValidation.RESPONSE);
+
+    @Test
+    public void validRequestIsAccepted() throws Exception {
+        List<Map.Entry<String, String>> headers = decode(requestDecoder, VALID_REQUEST);
+
+        assertThat(headers).extracting(Map.Entry::getKey).containsExactly(":method", ":scheme", ":path", ":authority");
+    }
+
+    @Test
+    public void validRequestIsAcceptedWhenDecodedIntoHeaderList() throws Exception {
+        HeaderList headers = new HeaderList();
+        requestDecoder.decodeHeaderBlock(ByteBuffer.wrap(bytes(VALID_REQUEST + "dd")), headers);
+
+        assertThat(headers.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void fieldNameWithUppercaseCharacterIsRejected() {
+        // Literal name "Foo", value "x"
+        assertThatThrownBy(() -> decode(requestDecoder, VALID_REQUEST + "23466f6f0178"))
+                .isInstanceOf(HttpMessageErrorException.class);
+    }
+
+    @Test
+    public void fieldValueWithLineFeedIsRejected() {
+        // Literal name "foo", value "x\n"
+        assertThatThrownBy(() -> decode(requestDecoder, VALID_REQUEST + "23666f6f02780a"))
+                .isInstanceOf(HttpMessageErrorException.class);
+    }
+
+    @Test
+    public void pseudoHeaderAfterRegularFieldIsRejected() {
+        // accept */*, followed by :method GET
+        assertThatThrownBy(() -> decode(requestDecoder, "0000" + "ddd1"))
+                .isInstanceOf(HttpMessageErrorException.class)
+                .hasMessageContaining("after regular field");
+    }
+
+    @Test
+    public void duplicatePseudoHeaderIsRejected() {
+        assertThatThrownBy(() -> decode(requestDecoder, "0000" + "d1d1"))
+                .isInstanceOf(HttpMessageErrorException.class)
+                .hasMessageContaining("duplicate");
+    }
+
+    @Test
+    public void connectionSpecificFieldIsRejectedBeforeValueIsRead() {
+        HeaderBlockParser parser = requestDecoder.createHeaderBlockParser();
+        // Literal name "connection", value not yet received
+        ByteBuffer data = ByteBuffer.wrap(bytes(VALID_REQUEST + "2703636f6e6e656374696f6e"));
+
+        assertThatThrownBy(() -> parser.parse(data))
+                .isInstanceOf(HttpMessageErrorException.class)
+                .hasMessageContaining("connection-specific");
+    }
+
+    @Test
+    public void teFieldWithTrailersIsAccepted() throws Exception {
+        List<Map.Entry<String, String>> headers = decode(requestDecoder, VALID_REQUEST + "2274650874726169" + "6c657273");
+
+        assertThat(headers).contains(Map.entry("te", "trailers"));
+    }
+
+    @Test
+    public void teFieldWithOtherValueIsRejected() {
+        assertThatThrownBy(() -> decode(requestDecoder, VALID_REQUEST + "227465" + "04677a6970"))
+                .isInstanceOf(HttpMessageErrorException.class);
+    }
+
+    @Test
+    public void requestWithoutPathIsRejected() {
+        assertThatThrownBy(() -> decode(requestDecoder, "0000" + "d1d7"))
+                .isInstanceOf(HttpMessageErrorException.class)
+                .hasMessageContaining("missing");
+    }
+
+    @Test
+    public void connectRequestWithAuthorityOnlyIsAccepted() throws Exception {
+        // :method CONNECT, :authority www.example.com
+        List<Map.Entry<String, String>> headers = decode(requestDecoder, "0000" + "cf" + "500f7777772e6578616d706c652e636f6d");
+
+        assertThat(headers).hasSize(2);
+    }
+
+    @Test
+    public void responseWithStatusIsAccepted() throws Exception {
+        // :status 200, accept */*
+        assertThat(decode(responseDecoder, "0000" + "d9dd")).hasSize(2);
+    }
+
+    @Test
+    public void requestPseudoHeaderInResponseIsRejected() {
+        assertThatThrownBy(() -> decode(responseDecoder, "0000" + "d9d1"))
+                .isInstanceOf(HttpMessageErrorException.class);
+    }
+
+    @Test
+    public void parserCanBeReusedAfterValidatedBlock() throws Exception {
+        HeaderList headers = new HeaderList();
+        requestDecoder.decodeHeaderBlock(ByteBuffer.wrap(bytes(VALID_REQUEST)), headers);
+        headers.clear();
+        requestDecoder.decodeHeaderBlock(ByteBuffer.wrap(bytes(VALID_REQUEST)), headers);
+
+        assertThat(headers.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void trailerSectionIsAcceptedByRequestDecoder() throws Exception {
+        // Literal name "x-checksum", value "abc"
+        HeaderBlockParser parser = requestDecoder.createHeaderBlockParser(Decoder.FieldValidation.TRAILERS);
+        parser.parse(ByteBuffer.wrap(bytes("0000" + "2703782d636865636b73756d03616263")));
+
+        assertThat(parser.finish()).containsExactly(Map.entry("x-checksum", "abc"));
+    }
+
+    @Test
+    public void pseudoHeaderInTrailerSectionIsRejected() {
+        // :status 200
+        HeaderBlockParser parser = responseDecoder.createHeaderBlockParser(Decoder.FieldValidation.TRAILERS);
+
+        assertThatThrownBy(() -> parser.parse(ByteBuffer.wrap(bytes("0000" + "d9"))))
+                .isInstanceOf(HttpMessageErrorException.class)
+                .hasMessageContaining("pseudo-header field not allowed");
+    }
+
+        private static List<Map.Entry<String, String>> decode(Decoder decoder, String hex) throws Exception {
+        return decoder.decodeStream(new ByteArrayInputStream(bytes(hex)));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static tech.kwik.qpack.impl.HpackDecoderTest.bytes;
+
+
+public class HeaderBlockTranscoderTest {
+
+    private final HeaderBlockTranscoderImpl transcoder = new HeaderBlockTranscoderImpl(4096, 4096);
+
+    @Test
+    public void hpackToQpackCopiesHuffmanEncodedValueVerbatim() throws Exception {
+        // HPACK block taken from https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.4.1
+        ByteBuffer qpack = transcoder.hpackToQpack(ByteBuffer.wrap(bytes("828684418cf1e3c2e5f23a6ba0ab90f4ff")));
+
+        assertThat(toArray(qpack)).isEqualTo(bytes("0000" + "d1d6c1" + "50" + "8cf1e3c2e5f23a6ba0ab90f4ff"));
+        assertThat(new DecoderImpl().decodeStream(new ByteArrayInputStream(toArray(qpack)))).containsExactly(
+                Map.entry(":method", "GET"), Map.entry(":scheme", "http"), Map.entry(":path", "/"), Map.entry(":authority", "www.example.com"));
+    }
+
+    @Test
+    public void hpackToQpackResolvesHpackDynamicTableReferences() throws Exception {
+        // HPACK blocks taken from https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.4
+        transcoder.hpackToQpack(ByteBuffer.wrap(bytes("828684418cf1e3c2e5f23a6ba0ab90f4ff")));
+        transcoder.hpackToQpack(ByteBuffer.wrap(bytes("828684be5886a8eb10649cbf")));
+        ByteBuffer qpack = transcoder.hpackToQpack(ByteBuffer.wrap(bytes("828785bf408825a849e95ba97d7f" + "8925a849e95bb8e8b4bf")));
+
+        assertThat(new DecoderImpl().decodeStream(new ByteArrayInputStream(toArray(qpack)))).containsExactly(
+                Map.entry(":method", "GET"), Map.entry(":scheme", "https"), Map.entry(":path", "/index.html"),
+                Map.entry(":authority", "www.example.com"), Map.entry("custom-key", "custom-value"));
+    }
+
+    @Test
+    public void qpackToHpackCopiesHuffmanEncodedValueVerbatim() throws Exception {
+        ByteBuffer hpack = transcoder.qpackToHpack(ByteBuffer.wrap(bytes("0000" + "d1d6c1" + "50" + "8cf1e3c2e5f23a6ba0ab90f4ff")));
+
+        assertThat(toArray(hpack)).isEqualTo(bytes("828684" + "01" + "8cf1e3c2e5f23a6ba0ab90f4ff"));
+    }
+
+    @Test
+    public void qpackToHpackResolvesQpackDynamicTableReferences() throws Exception {
+        // Taken from https://www.rfc-editor.org/rfc/rfc9204.html#name-dynamic-table
+        transcoder.decodeQpackEncoderStream(ByteBuffer.wrap(bytes("3fbd01"
+                + "c00f7777772e6578616d706c652e636f6d"
+                + "c10c2f73616d706c652f70617468")));
+
+        ByteBuffer hpack = transcoder.qpackToHpack(ByteBuffer.wrap(bytes("03811011")));
+
+        List<Map.Entry<String, String>> headers = new HpackDecoderImpl(4096).decodeHeaders(hpack);
+        assertThat(headers).containsExactly(Map.entry(":authority", "www.example.com"), Map.entry(":path", "/sample/path"));
+    }
+
+    @Test
+    public void neverIndexedLiteralKeepsItsFlag() throws Exception {
+        // QPACK literal with literal name, N bit set: "password: secret"
+        ByteBuffer hpack = transcoder.qpackToHpack(ByteBuffer.wrap(bytes("0000" + "3701" + "70617373776f7264" + "06736563726574")));
+
+        assertThat(toArray(hpack)).isEqualTo(bytes("10" + "0870617373776f7264" + "06736563726574"));
+    }
+
+    @Test
+    public void blockedQpackBlockCannotBeTranscoded() {
+        assertThatThrownBy(() -> transcoder.qpackToHpack(ByteBuffer.wrap(bytes("03811011"))))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOfRange(buffer.array(), 0, buffer.limit());
+    }
+}
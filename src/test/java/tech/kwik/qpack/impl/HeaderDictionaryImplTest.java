@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+import tech.kwik.qpack.HeaderDictionary;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class HeaderDictionaryImplTest {
+
+    @Test
+    public void fixedDictionarySelectsEntriesThatFit() {
+        HeaderDictionary dictionary = HeaderDictionary.of(List.of(
+                Map.entry("x-first", "1"),             // 40 bytes
+                Map.entry("x-second", "a long value"), // 52 bytes
+                Map.entry("x-third", "3")));           // 40 bytes
+
+        assertThat(dictionary.select(80)).containsExactly(Map.entry("x-first", "1"), Map.entry("x-third", "3"));
+    }
+
+    @Test
+    public void fixedDictionaryIgnoresLearning() {
+        HeaderDictionary dictionary = HeaderDictionary.of(List.of());
+        dictionary.learn("x-custom", "value");
+        dictionary.learn("x-custom", "value");
+
+        assertThat(dictionary.select(4096)).isEmpty();
+    }
+
+    @Test
+    public void learningDictionarySelectsMostValuableRepeatedEntries() {
+        HeaderDictionary dictionary = HeaderDictionary.learning(100);
+        for (int i = 0; i < 3; i++) {
+            dictionary.learn("user-agent", "kwik");
+        }
+        for (int i = 0; i < 2; i++) {
+            dictionary.learn("x-client-version", "2.0.1-beta");
+        }
+        dictionary.learn("x-once", "value");
+
+        assertThat(dictionary.select(4096)).containsExactly(
+                Map.entry("x-client-version", "2.0.1-beta"), Map.entry("user-agent", "kwik"));
+    }
+
+    @Test
+    public void sensitiveAndStaticFieldsAreNotLearned() {
+        HeaderDictionary dictionary = HeaderDictionary.learning(100);
+        for (int i = 0; i < 3; i++) {
+            dictionary.learn("authorization", "secret");
+            dictionary.learn("cookie", "session=123");
+            dictionary.learn("accept", "*/*");
+        }
+
+        assertThat(dictionary.select(4096)).isEmpty();
+    }
+
+    @Test
+    public void numberOfTrackedFieldsIsBounded() {
+        HeaderDictionary dictionary = HeaderDictionary.learning(4);
+        dictionary.learn("x-old", "value");
+        dictionary.learn("x-old", "value");
+        for (int i = 0; i < 20; i++) {
+            dictionary.learn("x-new-" + i, "value");
+            dictionary.learn("x-new-" + i, "value");
+        }
+
+        assertThat(dictionary.select(4096)).extracting(Map.Entry::getKey).doesNotContain("x-old").hasSizeLessThanOrEqualTo(4);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class HpackDecoderTest {
+
+    @Test
+    public void decodeRequestsWithoutHuffmanCoding() {
+        // Taken from https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.3
+        HpackDecoderImpl decoder = new HpackDecoderImpl(4096);
+
+        List<Map.Entry<String, String>> first = decoder.decodeHeaders(ByteBuffer.wrap(bytes("828684410f7777772e6578616d706c652e636f6d")));
+        List<Map.Entry<String, String>> second = decoder.decodeHeaders(ByteBuffer.wrap(bytes("828684be58086e6f2d6361636865")));
+        List<Map.Entry<String, String>> third = decoder.decodeHeaders(ByteBuffer.wrap(bytes("828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565")));
+
+        assertThat(first).containsExactly(Map.entry(":method", "GET"), Map.entry(":scheme", "http"),
+                Map.entry(":path", "/"), Map.entry(":authority", "www.example.com"));
+        assertThat(second).containsExactly(Map.entry(":method", "GET"), Map.entry(":scheme", "http"),
+                Map.entry(":path", "/"), Map.entry(":authority", "www.example.com"), Map.entry("cache-control", "no-cache"));
+        assertThat(third).containsExactly(Map.entry(":method", "GET"), Map.entry(":scheme", "https"),
+                Map.entry(":path", "/index.html"), Map.entry(":authority", "www.example.com"), Map.entry("custom-key", "custom-value"));
+    }
+
+    @Test
+    public void decodeRequestsWithHuffmanCoding() {
+        // Taken from https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.4
+        HpackDecoderImpl decoder = new HpackDecoderImpl(4096);
+
+        decoder.decodeHeaders(ByteBuffer.wrap(bytes("828684418cf1e3c2e5f23a6ba0ab90f4ff")));
+        decoder.decodeHeaders(ByteBuffer.wrap(bytes("828684be5886a8eb10649cbf")));
+        List<Map.Entry<String, String>> third = decoder.decodeHeaders(ByteBuffer.wrap(bytes("828785bf408825a849e95ba97d7f" + "8925a849e95bb8e8b4bf")));
+
+        assertThat(third).containsExactly(Map.entry(":method", "GET"), Map.entry(":scheme", "https"),
+                Map.entry(":path", "/index.html"), Map.entry(":authority", "www.example.com"), Map.entry("custom-key", "custom-value"));
+    }
+
+    @Test
+    public void insertsEvictOldestEntries() {
+        // Taken from https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.5
+        HpackDecoderImpl decoder = new HpackDecoderImpl(256);
+        decoder.decodeHeaders(ByteBuffer.wrap(bytes("4803333032580770726976617465611d4d6f6e2c203231204f63742032303133"
+                + "2032303a31333a323120474d546e1768747470733a2f2f7777772e6578616d706c652e636f6d")));
+
+        List<Map.Entry<String, String>> second = decoder.decodeHeaders(ByteBuffer.wrap(bytes("4803333037c1c0bf")));
+
+        assertThat(second).containsExactly(Map.entry(":status", "307"), Map.entry("cache-control", "private"),
+                Map.entry("date", "Mon, 21 Oct 2013 20:13:21 GMT"), Map.entry("location", "https://www.example.com"));
+    }
+
+    @Test
+    public void indexBeyondTablesIsDecodingError() {
+        HpackDecoderImpl decoder = new HpackDecoderImpl(4096);
+
+        assertThatThrownBy(() -> decoder.decodeHeaders(ByteBuffer.wrap(bytes("be"))))
+                .isInstanceOf(HpackCompressionErrorException.class);
+    }
+
+    @Test
+    public void tableSizeUpdateAboveMaximumIsDecodingError() {
+        HpackDecoderImpl decoder = new HpackDecoderImpl(4096);
+
+        // Size update to 8192
+        assertThatThrownBy(() -> decoder.decodeHeaders(ByteBuffer.wrap(bytes("3fe13f"))))
+                .isInstanceOf(HpackCompressionErrorException.class);
+    }
+
+    @Test
+    public void truncatedHuffmanCodeIsDecodingError() {
+        HpackDecoderImpl decoder = new HpackDecoderImpl(4096);
+
+        // Literal with indexed name ":path", Huffman encoded value of a single zero byte
+        assertThatThrownBy(() -> decoder.decodeHeaders(ByteBuffer.wrap(bytes("048100"))))
+                .isInstanceOf(HpackCompressionErrorException.class);
+    }
+
+    @Test
+    public void truncatedHeaderBlockIsDecodingError() {
+        HpackDecoderImpl decoder = new HpackDecoderImpl(4096);
+
+        assertThatThrownBy(() -> decoder.decodeHeaders(ByteBuffer.wrap(bytes("410f7777772e6578616d706c65"))))
+                .isInstanceOf(HpackCompressionErrorException.class);
+    }
+
+    static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static tech.kwik.qpack.impl.HpackDecoderTest.bytes;
+
+
+public class HpackEncoderTest {
+
+    @Test
+    public void encodeRequestsWithoutHuffmanCoding() {
+        // Taken from https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.3
+        HpackEncoderImpl encoder = new HpackEncoderImpl(4096);
+
+        ByteBuffer first = encoder.compressHeaders(List.of(Map.entry(":method", "GET"), Map.entry(":scheme", "http"),
+                Map.entry(":path", "/"), Map.entry(":authority", "www.example.com")));
+        ByteBuffer second = encoder.compressHeaders(List.of(Map.entry(":method", "GET"), Map.entry(":scheme", "http"),
+                Map.entry(":path", "/"), Map.entry(":authority", "www.example.com"), Map.entry("cache-control", "no-cache")));
+        ByteBuffer third = encoder.compressHeaders(List.of(Map.entry(":method", "GET"), Map.entry(":scheme", "https"),
+                Map.entry(":path", "/index.html"), Map.entry(":authority", "www.example.com"), Map.entry("custom-key", "custom-value")));
+
+        assertThat(toArray(first)).isEqualTo(bytes("828684410f7777772e6578616d706c652e636f6d"));
+        assertThat(toArray(second)).isEqualTo(bytes("828684be58086e6f2d6361636865"));
+        assertThat(toArray(third)).isEqualTo(bytes("828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"));
+    }
+
+    @Test
+    public void entryLargerThanTableIsNotIndexed() {
+        HpackEncoderImpl encoder = new HpackEncoderImpl(40);
+
+        ByteBuffer block = encoder.compressHeaders(List.of(Map.entry("custom-key", "custom-value")));
+
+        assertThat(toArray(block)).isEqualTo(bytes("000a637573746f6d2d6b65790c637573746f6d2d76616c7565"));
+    }
+
+    @Test
+    public void tableSizeChangeIsSignalledInNextBlock() {
+        HpackEncoderImpl encoder = new HpackEncoderImpl(4096);
+        encoder.setMaxTableSize(256);
+
+        ByteBuffer block = encoder.compressHeaders(List.of(Map.entry(":method", "GET")));
+
+        assertThat(toArray(block)).isEqualTo(bytes("3fe10182"));
+    }
+
+    @Test
+    public void smallestAndFinalTableSizeAreSignalledAfterMultipleChanges() {
+        HpackEncoderImpl encoder = new HpackEncoderImpl(4096);
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(256);
+
+        ByteBuffer block = encoder.compressHeaders(List.of(Map.entry(":method", "GET")));
+
+        // Size update 0, size update 256, indexed :method GET
+        assertThat(toArray(block)).isEqualTo(bytes("20" + "3fe101" + "82"));
+    }
+
+    @Test
+    public void encodedBlocksCanBeDecoded() {
+        HpackEncoderImpl encoder = new HpackEncoderImpl(100);
+        HpackDecoderImpl decoder = new HpackDecoderImpl(100);
+        List<Map.Entry<String, String>> headers = List.of(Map.entry(":status", "200"), Map.entry("content-type", "text/html"),
+                Map.entry("x-request-id", "0123456789abcdef"), Map.entry("x-trace", "abcdefghijklmnopqrstuvwxyz"));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(decoder.decodeHeaders(encoder.compressHeaders(headers))).isEqualTo(headers);
+        }
+    }
+
+    private byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOfRange(buffer.array(), 0, buffer.limit());
+    }
+}
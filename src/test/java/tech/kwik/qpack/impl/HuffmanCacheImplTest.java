@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class HuffmanCacheImplTest {
+
+    @Test
+    public void cachedEncodingEqualsHuffmanEncoding() {
+        HuffmanCacheImpl cache = new HuffmanCacheImpl(64 * 1024);
+        byte[] value = "Mozilla/5.0 (X11; Linux x86_64)".getBytes(StandardCharsets.US_ASCII);
+
+        byte[] first = cache.encode(value, 0, value.length);
+        byte[] second = cache.encode(value, 0, value.length);
+
+        assertThat(first).isEqualTo(huffmanEncode(value));
+        assertThat(second).isSameAs(first);
+        assertThat(cache.misses()).isEqualTo(1);
+        assertThat(cache.hits()).isEqualTo(1);
+    }
+
+    @Test
+    public void literalIsFoundWithinLargerArray() {
+        HuffmanCacheImpl cache = new HuffmanCacheImpl(64 * 1024);
+        byte[] value = "text/html".getBytes(StandardCharsets.US_ASCII);
+        byte[] surrounded = "content-type: text/html; charset=utf-8".getBytes(StandardCharsets.US_ASCII);
+
+        cache.encode(value, 0, value.length);
+        byte[] encoded = cache.encode(surrounded, 14, value.length);
+
+        assertThat(encoded).isEqualTo(huffmanEncode(value));
+        assertThat(cache.hits()).isEqualTo(1);
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        HuffmanCacheImpl cache = new HuffmanCacheImpl(16 * 1000);
+        for (int i = 0; i < 10_000; i++) {
+            byte[] value = ("value-" + i).getBytes(StandardCharsets.US_ASCII);
+            cache.encode(value, 0, value.length);
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(16 * 1000);
+        assertThat(cache.size()).isGreaterThan(0);
+    }
+
+    @Test
+    public void repeatedLiteralSurvivesManyLiteralsUsedOnce() {
+        HuffmanCacheImpl cache = new HuffmanCacheImpl(16 * 1000);
+        byte[] hot = "application/json".getBytes(StandardCharsets.US_ASCII);
+        cache.encode(hot, 0, hot.length);
+        cache.encode(hot, 0, hot.length);
+        for (int i = 0; i < 10_000; i++) {
+            byte[] value = ("once-" + i).getBytes(StandardCharsets.US_ASCII);
+            cache.encode(value, 0, value.length);
+        }
+        long hits = cache.hits();
+
+        cache.encode(hot, 0, hot.length);
+
+        assertThat(cache.hits()).isEqualTo(hits + 1);
+    }
+
+    @Test
+    public void literalThatDoesNotFitIsNotCached() {
+        HuffmanCacheImpl cache = new HuffmanCacheImpl(16 * 1000);
+        byte[] value = new byte[1000];
+        Arrays.fill(value, (byte) 'a');
+
+        byte[] encoded = cache.encode(value, 0, value.length);
+
+        assertThat(encoded).isEqualTo(huffmanEncode(value));
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void cacheCanBeUsedConcurrently() throws Exception {
+        HuffmanCacheImpl cache = new HuffmanCacheImpl(16 * 2000);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20_000; i++) {
+                        byte[] value = ("value-" + (i % 500)).getBytes(StandardCharsets.US_ASCII);
+                        assertThat(cache.encode(value, 0, value.length)).isEqualTo(huffmanEncode(value));
+                    }
+                }
+                catch (Throwable error) {
+                    synchronized (errors) {
+                        errors.add(error);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        assertThat(errors).isEmpty();
+        assertThat(cache.hits() + cache.misses()).isEqualTo(4 * 20_000);
+        assertThat(cache.size()).isLessThanOrEqualTo(16 * 2000);
+    }
+
+    private static byte[] huffmanEncode(byte[] value) {
+        ByteBuffer buffer = ByteBuffer.allocate(Huffman.encodedLength(value, 0, value.length));
+        Huffman.encode(value, 0, value.length, buffer);
+        return buffer.array();
+    }
+}
@@ -21,9 +21,12 @@ package tech.kwik.qpack.impl;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.offset;
 
 public class HuffmanTest {
@@ -145,6 +148,55 @@ public class HuffmanTest {
         assertThat(decoded.charAt(3)).isEqualTo((char) 254);
     }
 
+    @Test
+    public void decodeSliceIntoByteArray() {
+        // Taken from https://tools.ietf.org/html/rfc7541#appendix-C.6.1, surrounded by unrelated bytes
+        ByteBuffer source = ByteBuffer.wrap(new byte[] { 0x01, (byte) 0xae, (byte) 0xc3, 0x77, 0x1a, 0x4b, 0x02 });
+        source.position(1).limit(6);
+        byte[] destination = new byte[20];
+
+        int length = huffman.decode(source, destination, 3);
+
+        assertThat(length).isEqualTo(7);
+        assertThat(new String(destination, 3, length, StandardCharsets.US_ASCII)).isEqualTo("private");
+        assertThat(source.hasRemaining()).isFalse();
+        assertThat(source.position()).isEqualTo(6);
+    }
+
+    @Test
+    public void decodeIntoByteBuffer() {
+        // Taken from https://tools.ietf.org/html/rfc7541#appendix-C.6.1
+        ByteBuffer destination = ByteBuffer.allocate(10);
+        destination.put((byte) '>');
+
+        int length = huffman.decode(ByteBuffer.wrap(new byte[] { 0x64, 0x02 }), destination);
+
+        assertThat(length).isEqualTo(3);
+        assertThat(destination.position()).isEqualTo(4);
+        assertThat(destination.array()).startsWith('>', '3', '0', '2');
+    }
+
+    @Test
+    public void decodeNonAsciiOctetsIntoByteArrayLeavesThemUnchanged() {
+        // 246, 224 |11111111|11111111|11111101|001, |11111111|11111110|1100
+        byte[] destination = new byte[Huffman.maxDecodedLength(6)];
+        int length = huffman.decode(ByteBuffer.wrap(new byte[] { (byte) 0b11111111, (byte) 0b11111111, (byte) 0b11111101,
+                (byte) 0b00111111, (byte) 0b11111111, (byte) 0b11011001 }), destination, 0);
+
+        assertThat(length).isEqualTo(2);
+        assertThat(destination).startsWith((byte) 246, (byte) 224);
+    }
+
+    @Test
+    public void maxDecodedLengthIsUpperBound() {
+        // "0" is encoded with 5 bits (the shortest code length), so 8 zeros fit in 5 bytes
+        byte[] destination = new byte[Huffman.maxDecodedLength(5)];
+        int length = huffman.decode(ByteBuffer.wrap(new byte[5]), destination, 0);
+
+        assertThat(length).isEqualTo(8);
+        assertThat(destination.length).isEqualTo(8);
+    }
+
     /**
      * QPACK is character encoding agnostic: it operates on opaque octets.
      * For convenience, the decode method returns String (because Decoder provides Strings).
@@ -188,4 +240,59 @@ public class HuffmanTest {
             assertThat(Byte.toUnsignedInt(bytes[0])).isEqualTo(i);
         }
     }
+
+    @Test
+    public void encodeString() {
+        // Taken from https://www.rfc-editor.org/rfc/rfc7541.html#appendix-C.4.1
+        byte[] plain = "www.example.com".getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer encoded = ByteBuffer.allocate(Huffman.encodedLength(plain, 0, plain.length));
+
+        Huffman.encode(plain, 0, plain.length, encoded);
+
+        assertThat(encoded.array()).isEqualTo(HpackDecoderTest.bytes("f1e3c2e5f23a6ba0ab90f4ff"));
+    }
+
+    @Test
+    public void encodedAllOctetsCanBeDecoded() {
+        byte[] plain = new byte[256];
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = (byte) i;
+        }
+        ByteBuffer encoded = ByteBuffer.allocate(Huffman.encodedLength(plain, 0, plain.length));
+
+        Huffman.encode(plain, 0, plain.length, encoded);
+
+        encoded.flip();
+        byte[] decoded = new byte[Huffman.maxDecodedLength(encoded.remaining())];
+        int length = huffman.decode(encoded, decoded, 0);
+        assertThat(Arrays.copyOf(decoded, length)).isEqualTo(plain);
+    }
+
+    @Test
+    public void truncatedCodeIsInvalid() {
+        // Only zero bits, which is the prefix of code '0' (00000) but too short
+        assertThatThrownBy(() -> huffman.decode(new byte[] { 0 }))
+                .isInstanceOf(InvalidHuffmanEncodingException.class);
+    }
+
+    @Test
+    public void paddingLongerThanSevenBitsIsInvalid() {
+        // 'a' -> 00011, followed by 11 bits of padding
+        assertThatThrownBy(() -> huffman.decode(new byte[] { 0b00011111, (byte) 0b11111111 }))
+                .isInstanceOf(InvalidHuffmanEncodingException.class);
+    }
+
+    @Test
+    public void paddingNotConsistingOfOnesIsInvalid() {
+        // 'a' -> 00011, followed by padding 000
+        assertThatThrownBy(() -> huffman.decode(new byte[] { 0b00011000 }))
+                .isInstanceOf(InvalidHuffmanEncodingException.class);
+    }
+
+    @Test
+    public void paddingWithOnesIsValid() {
+        // 'a' -> 00011, followed by padding 111
+        String decoded = huffman.decode(new byte[] { 0b00011111 });
+        assertThat(decoded).isEqualTo("a");
+    }
 }
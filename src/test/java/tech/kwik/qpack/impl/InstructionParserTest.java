@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class InstructionParserTest {
+
+    private final IntegerParser parser = new IntegerParser();
+
+    @Test
+    public void parseIntegerWith5bitPrefix() {
+        // Taken from https://tools.ietf.org/html/rfc7541#appendix-C.1.1
+        assertThat(parser.readPrefixedInteger(ByteBuffer.wrap(new byte[] { 0x0a }), 5)).isTrue();
+
+        assertThat(parser.integerValue()).isEqualTo(10);
+    }
+
+    @Test
+    public void parsePrefixedInteger() {
+        // Taken from https://tools.ietf.org/html/rfc7541#appendix-C.1.2
+        assertThat(parser.readPrefixedInteger(ByteBuffer.wrap(new byte[] { (byte) 0xff, (byte) 0x9a, 0x0a }), 5)).isTrue();
+
+        assertThat(parser.integerValue()).isEqualTo(1337);
+    }
+
+    @Test
+    public void parseIntegerStartingAtOctetBoundary() {
+        // Taken from https://tools.ietf.org/html/rfc7541#appendix-C.1.3
+        assertThat(parser.readPrefixedInteger(ByteBuffer.wrap(new byte[] { 42 }), 8)).isTrue();
+
+        assertThat(parser.integerValue()).isEqualTo(42);
+    }
+
+    @Test
+    public void parsePrefixedIntegerInChunks() {
+        assertThat(parser.readPrefixedInteger(ByteBuffer.wrap(new byte[] { (byte) 0xff }), 5)).isFalse();
+        assertThat(parser.readPrefixedInteger(ByteBuffer.wrap(new byte[] { (byte) 0x9a }), 5)).isFalse();
+        assertThat(parser.readPrefixedInteger(ByteBuffer.wrap(new byte[] { 0x0a }), 5)).isTrue();
+
+        assertThat(parser.integerValue()).isEqualTo(1337);
+    }
+
+    @Test
+    public void parseLargest62bitInteger() {
+        // 2^62 - 1 with an 8-bit prefix: 255 + 7-bit groups of the remainder
+        ByteBuffer data = ByteBuffer.wrap(new byte[] { (byte) 0xff, (byte) 0x80, (byte) 0xfe, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x3f });
+
+        assertThat(parser.readPrefixedInteger(data, 8)).isTrue();
+        assertThat(parser.integerValue()).isEqualTo((1L << 62) - 1);
+    }
+
+    @Test
+    public void parseIntegerExceeding62bitsShouldFail() {
+        // 2^62 with an 8-bit prefix
+        ByteBuffer data = ByteBuffer.wrap(new byte[] { (byte) 0xff, (byte) 0x81, (byte) 0xfe, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x3f });
+
+        assertThatThrownBy(() -> parser.readPrefixedInteger(data, 8))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("exceeds 62 bits");
+    }
+
+    private static class IntegerParser extends InstructionParser {
+
+        IntegerParser() {
+            super(Huffman.getInstance());
+        }
+
+        @Override
+        protected RuntimeException parseError(String message) {
+            return new IllegalArgumentException(message);
+        }
+    }
+}
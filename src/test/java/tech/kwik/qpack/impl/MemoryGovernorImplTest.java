@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class MemoryGovernorImplTest {
+
+    @Test
+    public void requestedCapacityIsGrantedBelowPressureThreshold() {
+        MemoryGovernorImpl governor = new MemoryGovernorImpl(10000);
+
+        assertThat(governor.reserve(4000)).isEqualTo(4000);
+        assertThat(governor.reserve(3000)).isEqualTo(3000);
+        assertThat(governor.reservedBytes()).isEqualTo(7000);
+        assertThat(governor.encoderCapacityLimit()).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void underPressureAtMostFairShareIsGranted() {
+        MemoryGovernorImpl governor = new MemoryGovernorImpl(10000);
+
+        assertThat(governor.reserve(4000)).isEqualTo(4000);
+        assertThat(governor.reserve(4000)).isEqualTo(4000);
+        assertThat(governor.reserve(4000)).isEqualTo(2000);
+        assertThat(governor.reserve(4000)).isEqualTo(0);
+
+        assertThat(governor.reservedBytes()).isEqualTo(10000);
+        assertThat(governor.registeredCodecs()).isEqualTo(4);
+        assertThat(governor.deniedBytes()).isEqualTo(2000 + 4000);
+        assertThat(governor.encoderCapacityLimit()).isEqualTo(2500);
+    }
+
+    @Test
+    public void releasingCapacityEndsPressure() {
+        MemoryGovernorImpl governor = new MemoryGovernorImpl(10000);
+        int first = governor.reserve(4000);
+        int second = governor.reserve(4000);
+        assertThat(governor.encoderCapacityLimit()).isEqualTo(5000);
+
+        governor.reclaim(1000);
+        governor.unregister(second);
+
+        assertThat(governor.reservedBytes()).isEqualTo(first - 1000);
+        assertThat(governor.registeredCodecs()).isEqualTo(1);
+        assertThat(governor.reclaimedBytes()).isEqualTo(1000);
+        assertThat(governor.encoderCapacityLimit()).isEqualTo(Integer.MAX_VALUE);
+    }
+}
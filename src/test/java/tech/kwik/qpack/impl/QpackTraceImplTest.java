@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2019, 2020, 2021, 2022, 2023, 2024, 2025 Peter Doornbosch
+ *
+ * This file is part of Flupke, a HTTP3 client Java library
+ *
+ * Flupke is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Flupke is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package tech.kwik.qpack.impl;
+
+import org.junit.jupiter.api.Test;
+import tech.kwik.qpack.Decoder;
+import tech.kwik.qpack.Encoder;
+import tech.kwik.qpack.HeaderBlockParser;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class QpackTraceImplTest {
+
+    @Test
+    public void oldestEventsAreOverwrittenWhenFull() throws Exception {
+        QpackTraceImpl trace = new QpackTraceImpl(2);
+        trace.instructionParsed(QpackTraceImpl.INSERT_COUNT_INCREMENT, false, 1, 0);
+        trace.instructionParsed(QpackTraceImpl.SECTION_ACKNOWLEDGEMENT, false, 4, 0);
+        trace.instructionParsed(QpackTraceImpl.STREAM_CANCELLATION, false, 8, 0);
+
+        String json = json(trace);
+
+        assertThat(trace.droppedEvents()).isEqualTo(1);
+        assertThat(json).doesNotContain("insert_count_increment");
+        assertThat(json.indexOf("section_acknowledgement")).isLessThan(json.indexOf("stream_cancellation"));
+    }
+
+    @Test
+    public void clearedTraceHasNoEvents() throws Exception {
+        QpackTraceImpl trace = new QpackTraceImpl(4);
+        trace.streamStateUpdated(0, true);
+
+        trace.clear();
+
+        assertThat(json(trace)).isEqualTo("[]");
+    }
+
+    @Test
+    public void headersEncodedEventHasBlockPrefix() throws Exception {
+        QpackTraceImpl trace = new QpackTraceImpl(4);
+
+        trace.headersEncoded(4, 3, 5, 3, 17);
+
+        assertThat(json(trace))
+                .contains("\"name\": \"qpack:headers_encoded\"")
+                .contains("\"stream_id\": 4, \"header_count\": 3")
+                .contains("\"required_insert_count\": 5, \"sign_bit\": true, \"delta_base\": 1")
+                .contains("\"length\": 17");
+    }
+
+    @Test
+    public void encoderAndDecoderRecordEvents() throws Exception {
+        QpackTraceImpl trace = new QpackTraceImpl(64);
+        EncoderImpl encoder = new EncoderImpl(EncoderConfig.create(4096, 1, Encoder.FlushPolicy.BEFORE_REFERENCING_BLOCK, 0), null, trace);
+        DecoderImpl decoder = new DecoderImpl(DecoderConfig.create(4096, Decoder.FieldValidation.NONE, false, 0, null), trace);
+
+        ByteBuffer headerBlock = encoder.compressHeaders(0, List.of(Map.entry("x-custom", "value")));
+        headerBlock.rewind();
+        HeaderBlockParser parser = decoder.createHeaderBlockParser();
+        parser.parse(headerBlock);
+        ByteBuffer encoderStreamData;
+        while ((encoderStreamData = encoder.pollEncoderStreamData()) != null) {
+            decoder.decodeEncoderStream(encoderStreamData);
+        }
+        parser.parse(headerBlock);
+        parser.finish();
+
+        String json = json(trace);
+        assertThat(json)
+                .contains("\"instruction_type\": \"set_dynamic_table_capacity\", \"capacity\": 4096}, \"length\": 3")
+                .contains("instruction_created\", \"data\": {\"instruction\": {\"instruction_type\": \"insert_without_name_reference\", \"name_length\": 8, \"value_length\": 5}")
+                .contains("\"owner\": \"local\", \"update_type\": \"inserted\", \"entries\": [{\"index\": 0, \"name_length\": 8, \"value_length\": 5}]")
+                .contains("\"name\": \"qpack:headers_encoded\", \"data\": {\"stream_id\": 0, \"header_count\": 1")
+                .contains("\"state\": \"blocked\"")
+                .contains("\"state\": \"unblocked\"")
+                .contains("instruction_parsed\", \"data\": {\"instruction\": {\"instruction_type\": \"insert_without_name_reference\"")
+                .contains("\"owner\": \"remote\", \"update_type\": \"inserted\"")
+                .contains("\"name\": \"qpack:headers_decoded\", \"data\": {\"header_count\": 1");
+    }
+
+    @Test
+    public void eventTimeIsIndependentOfDefaultLocale() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            QpackTraceImpl trace = new QpackTraceImpl(4);
+            trace.streamStateUpdated(0, true);
+
+            assertThat(json(trace)).containsPattern("\\{\"time\": \\d+\\.\\d{3}, ");
+        }
+        finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private static String json(QpackTraceImpl trace) throws Exception {
+        StringBuilder out = new StringBuilder();
+        trace.writeJson(out);
+        return out.toString();
+    }
+}
@@ -125,4 +125,12 @@ public class StaticTableTest {
     public void testFindByNameAndValueMatchesNoValue() {
         assertThat(staticTable.findByNameAndValue(":status", "201")).isEqualTo(24);
     }
+
+    @Test
+    public void sharedInstanceReturnsSameEntryForEachLookup() {
+        StaticTable sharedTable = StaticTable.getInstance();
+
+        assertThat(sharedTable).isSameAs(StaticTable.getInstance());
+        assertThat(sharedTable.lookupNameValue(17)).isSameAs(sharedTable.lookupNameValue(17));
+    }
 }